@@ -40,11 +40,13 @@ import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import akka.util.Timeout;
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
 import com.arpnetworking.metrics.Units;
 import com.arpnetworking.metrics.common.sources.ClientHttpSourceV1;
 import com.arpnetworking.metrics.common.sources.ClientHttpSourceV2;
 import com.arpnetworking.metrics.common.sources.CollectdHttpSourceV1;
 import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.metrics.mad.CardinalityLimiterRegistry;
 import com.arpnetworking.metrics.mad.actors.Status;
 import com.arpnetworking.metrics.proxy.actors.Connection;
 import com.arpnetworking.metrics.proxy.models.messages.Connect;
@@ -54,6 +56,8 @@ import com.arpnetworking.metrics.proxy.models.protocol.v2.ProcessorsV2Factory;
 import com.arpnetworking.steno.LogBuilder;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
@@ -61,6 +65,7 @@ import com.google.common.io.Resources;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -80,6 +85,7 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
      *
      * @param actorSystem Instance of <code>ActorSystem</code>.
      * @param metrics Instance of <code>PeriodicMetrics</code>.
+     * @param cardinalityLimiterRegistry Instance of <code>CardinalityLimiterRegistry</code>.
      * @param healthCheckPath The path for the health check.
      * @param statusPath The path for the status.
      * @param supplementalRoutes List of supplemental routes in priority order.
@@ -87,11 +93,13 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
     public Routes(
             final ActorSystem actorSystem,
             final PeriodicMetrics metrics,
+            final CardinalityLimiterRegistry cardinalityLimiterRegistry,
             final String healthCheckPath,
             final String statusPath,
             final ImmutableList<SupplementalRoutes> supplementalRoutes) {
         _actorSystem = actorSystem;
         _metrics = metrics;
+        _cardinalityLimiterRegistry = cardinalityLimiterRegistry;
         _healthCheckPath = healthCheckPath;
         _statusPath = statusPath;
         _supplementalRoutes = supplementalRoutes;
@@ -177,7 +185,7 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
                 return CompletableFuture.completedFuture(
                         HttpResponse.create()
                                 .withStatus(StatusCodes.OK)
-                                .withEntity(JSON_CONTENT_TYPE, ByteString.fromString(STATUS_JSON)));
+                                .withEntity(JSON_CONTENT_TYPE, ByteString.fromString(getStatusJson())));
             }
         } else if (Objects.equals(HttpMethods.POST, request.method())) {
             if (Objects.equals(path, COLLECTD_V1_SOURCE_PREFIX)) {
@@ -293,10 +301,26 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
         return nameBuilder.toString();
     }
 
+    private String getStatusJson() {
+        try {
+            final ObjectNode status = (ObjectNode) OBJECT_MAPPER.readTree(STATUS_JSON);
+            status.set("cardinality", OBJECT_MAPPER.valueToTree(_cardinalityLimiterRegistry.getStatus()));
+            return OBJECT_MAPPER.writeValueAsString(status);
+        } catch (final IOException | ClassCastException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to build status")
+                    .setThrowable(e)
+                    .log();
+            return STATUS_JSON;
+        }
+    }
+
     @SuppressFBWarnings("SE_BAD_FIELD")
     private final ActorSystem _actorSystem;
     @SuppressFBWarnings("SE_BAD_FIELD")
     private final PeriodicMetrics _metrics;
+    @SuppressFBWarnings("SE_BAD_FIELD")
+    private final CardinalityLimiterRegistry _cardinalityLimiterRegistry;
     private final String _healthCheckPath;
     private final String _statusPath;
     @SuppressFBWarnings("SE_BAD_FIELD")
@@ -331,6 +355,7 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
     private static final String UNHEALTHY_STATE = "UNHEALTHY";
     private static final String HEALTHY_STATE = "HEALTHY";
     private static final String STATUS_JSON;
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
 
     private static final ContentType JSON_CONTENT_TYPE = ContentTypes.APPLICATION_JSON;
 
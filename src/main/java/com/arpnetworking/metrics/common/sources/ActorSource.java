@@ -69,6 +69,13 @@ public abstract class ActorSource extends BaseSource {
     private final String _actorName;
     private final ActorSystem _actorSystem;
 
+    /**
+     * The dispatcher for actors which notify observers that may block, such as
+     * those of sources which support backpressure, so that they do not starve
+     * the default dispatcher. It is configured in <code>reference.conf</code>.
+     */
+    protected static final String BLOCKING_DISPATCHER = "mad.blocking-source-dispatcher";
+
     /**
      * ActorSource {@link BaseSource.Builder} implementation.
      *
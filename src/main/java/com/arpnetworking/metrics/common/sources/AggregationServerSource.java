@@ -0,0 +1,274 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.common.sources;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.io.Tcp;
+import akka.io.TcpMessage;
+import akka.util.ByteString;
+import com.arpnetworking.metrics.common.parsers.Parser;
+import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.metrics.mad.parsers.AggregationMessageToRecordParser;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import net.sf.oval.constraint.NotNull;
+import org.joda.time.Period;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Source that accepts pre-aggregated statistics over tcp using the framing
+ * of the aggregation server protocol; for example, from the
+ * <code>AggregationServerSink</code> of another instance. This enables tiered
+ * aggregation where the histograms and counts of each host are merged by a
+ * regional tier instead of shipping the samples. Only statistic sets of the
+ * configured period are accepted and the periods of the receiving pipeline
+ * should be multiples of it. The default port is 7065.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class AggregationServerSource extends BaseTcpSource {
+
+    @Override
+    protected Props createProps() {
+        return TcpListenerActor.props(this);
+    }
+
+    /* package private */ Parser<List<Record>, AggregationMessage> getParser() {
+        return _parser;
+    }
+
+    private AggregationServerSource(final Builder builder) {
+        super(builder);
+        _parser = new AggregationMessageToRecordParser(builder._period);
+    }
+
+    private final Parser<List<Record>, AggregationMessage> _parser;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregationServerSource.class);
+
+    /**
+     * Internal actor to accept connections.
+     */
+    /* package private */ static final class TcpListenerActor extends BaseTcpListenerActor {
+        /**
+         * Creates a {@link Props} for this actor.
+         *
+         * @param source The {@link AggregationServerSource} to send notifications through.
+         * @return A new {@link Props}
+         */
+        /* package private */ static Props props(final AggregationServerSource source) {
+            return Props.create(TcpListenerActor.class, source);
+        }
+
+        @Override
+        protected ActorRef createHandler(final BaseTcpSource source, final Tcp.Connected connected) {
+            // NOTE: The handler blocks while its records are not accepted
+            return getContext().actorOf(
+                    Props.create(
+                            TcpRequestHandlerActor.class,
+                            getSink(),
+                            connected.remoteAddress())
+                            .withDispatcher(BLOCKING_DISPATCHER));
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param source The {@link AggregationServerSource} to send notifications through.
+         */
+        /* package private */ TcpListenerActor(final AggregationServerSource source) {
+            super(source);
+        }
+    }
+
+    /**
+     * Internal actor to process messages of a connection.
+     */
+    /* package private */ static final class TcpRequestHandlerActor extends AbstractActor {
+
+        /* package private */ TcpRequestHandlerActor(
+                final AggregationServerSource sink,
+                final InetSocketAddress remoteAddress) {
+            _sink = sink;
+            _remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Tcp.Received.class, message -> {
+                        final ByteString data = message.data();
+
+                        LOGGER.trace()
+                                .setMessage("Tcp data received")
+                                .addData("name", _sink.getName())
+                                .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                                .addData("remotePort", _remoteAddress.getPort())
+                                .addData("length", data.size())
+                                .log();
+
+                        try {
+                            processData(data);
+                            // CHECKSTYLE.OFF: IllegalCatch - Ensure all exceptions are logged (this is top level)
+                        } catch (final RuntimeException e) {
+                            // CHECKSTYLE.ON: IllegalCatch
+                            BAD_REQUEST_LOGGER.warn()
+                                    .setMessage("Error processing data")
+                                    .addData("name", _sink.getName())
+                                    .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                                    .addData("remotePort", _remoteAddress.getPort())
+                                    .setThrowable(e)
+                                    .log();
+                        } catch (final InvalidProtocolBufferException e) {
+                            // NOTE: The framing of subsequent messages is unknown
+                            BAD_REQUEST_LOGGER.warn()
+                                    .setMessage("Closing connection")
+                                    .addData("name", _sink.getName())
+                                    .addData("reason", "invalid message")
+                                    .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                                    .addData("remotePort", _remoteAddress.getPort())
+                                    .setThrowable(e)
+                                    .log();
+                            _buffer = ByteString.empty();
+                            getSender().tell(TcpMessage.close(), getSelf());
+                            return;
+                        }
+
+                        // Request the next read only after the records are accepted
+                        getSender().tell(TcpMessage.resumeReading(), getSelf());
+                    })
+                    .match(Tcp.ConnectionClosed.class, message -> {
+                        getContext().stop(getSelf());
+                        LOGGER.debug()
+                                .setMessage("Tcp connection close")
+                                .addData("name", _sink.getName())
+                                .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                                .addData("remotePort", _remoteAddress.getPort())
+                                .log();
+                    })
+                    .build();
+        }
+
+        private void processData(final ByteString data) throws InvalidProtocolBufferException {
+            // Process the buffer message by message retaining any partial message
+            _buffer = _buffer.concat(data);
+            final ByteBuffer buffer = _buffer.asByteBuffer();
+            try {
+                Optional<AggregationMessage> message = deserialize(buffer);
+                while (message.isPresent()) {
+                    processMessage(message.get());
+                    message = deserialize(buffer);
+                }
+            } finally {
+                // NOTE: Drop the messages processed even if one fails so they are not processed again
+                _buffer = _buffer.drop(_buffer.size() - buffer.remaining());
+            }
+        }
+
+        private Optional<AggregationMessage> deserialize(final ByteBuffer buffer) throws InvalidProtocolBufferException {
+            // NOTE: Bound the data retained for a partial message
+            if (buffer.remaining() >= Integer.BYTES && buffer.getInt(buffer.position()) > MAXIMUM_MESSAGE_SIZE) {
+                throw new InvalidProtocolBufferException(
+                        String.format("Message too large; length=%d", buffer.getInt(buffer.position())));
+            }
+            return AggregationMessage.deserialize(buffer);
+        }
+
+        private void processMessage(final AggregationMessage message) {
+            try {
+                final List<Record> records = _sink.getParser().parse(message);
+
+                LOGGER.trace()
+                        .setMessage("Parsed records")
+                        .addData("name", _sink.getName())
+                        .addData("records", records.size())
+                        .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                        .addData("remotePort", _remoteAddress.getPort())
+                        .log();
+
+                if (!records.isEmpty()) {
+                    _sink.notifyRecords(records);
+                }
+            } catch (final ParsingException e) {
+                BAD_REQUEST_LOGGER.warn()
+                        .setMessage("Error processing records")
+                        .addData("name", _sink.getName())
+                        .addData("remoteAddress", _remoteAddress.getAddress().getHostAddress())
+                        .addData("remotePort", _remoteAddress.getPort())
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+
+        private ByteString _buffer = ByteString.empty();
+        private final AggregationServerSource _sink;
+        private final InetSocketAddress _remoteAddress;
+
+        private static final int MAXIMUM_MESSAGE_SIZE = 16 * 1024 * 1024;
+        private static final Logger BAD_REQUEST_LOGGER =
+                LoggerFactory.getRateLimitLogger(AggregationServerSource.class, Duration.ofSeconds(30));
+    }
+
+    /**
+     * AggregationServerSource {@link BaseSource.Builder} implementation.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class Builder extends BaseTcpSource.Builder<Builder, AggregationServerSource> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(AggregationServerSource::new);
+            setPort(DEFAULT_PORT);
+        }
+
+        /**
+         * Sets the period of the statistic sets to accept. Optional. Cannot
+         * be null. Default is one minute. Sending instances aggregate each of
+         * their periods and only one should be merged to avoid counting the
+         * same samples more than once.
+         *
+         * @param value the period of the statistic sets to accept
+         * @return this {@link Builder} instance
+         */
+        public Builder setPeriod(final Period value) {
+            _period = value;
+            return self();
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @NotNull
+        private Period _period = Period.minutes(1);
+
+        private static final int DEFAULT_PORT = 7065;
+    }
+}
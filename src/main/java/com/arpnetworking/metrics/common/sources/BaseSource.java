@@ -19,10 +19,12 @@ import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.commons.observer.ObservableDelegate;
 import com.arpnetworking.commons.observer.Observer;
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 
+import java.util.List;
 import java.util.function.Function;
 
 /**
@@ -52,6 +54,22 @@ public abstract class BaseSource implements Source {
         _observable.notify(this, event);
     }
 
+    /**
+     * Dispatch a batch of records to all attached <code>Observer</code>
+     * instances as a single <code>List</code> event. A batch of one record
+     * is dispatched as the record itself and an empty batch is not
+     * dispatched.
+     *
+     * @param records The records to dispatch.
+     */
+    protected void notifyRecords(final List<Record> records) {
+        if (records.size() == 1) {
+            notify(records.get(0));
+        } else if (!records.isEmpty()) {
+            notify(records);
+        }
+    }
+
     public String getName() {
         return _name;
     }
@@ -18,6 +18,7 @@ package com.arpnetworking.metrics.common.sources;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.io.Inet;
 import akka.io.Tcp;
 import akka.io.TcpMessage;
 import com.arpnetworking.steno.Logger;
@@ -28,6 +29,7 @@ import net.sf.oval.constraint.NotNull;
 import net.sf.oval.constraint.Range;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.function.Function;
 
 /**
@@ -38,6 +40,18 @@ import java.util.function.Function;
  */
 public abstract class BaseTcpSource extends ActorSource {
 
+    /**
+     * {@inheritDoc}
+     *
+     * Connections are read in pull mode and each read is requested only once
+     * the previous one is processed so a blocked observer stops reading from
+     * the socket.
+     */
+    @Override
+    public boolean isBackpressureSupported() {
+        return true;
+    }
+
     /**
      * Protected constructor.
      *
@@ -76,7 +90,9 @@ public abstract class BaseTcpSource extends ActorSource {
                     TcpMessage.bind(
                             getSelf(),
                             new InetSocketAddress(_host, _port),
-                            _acceptQueue),
+                            _acceptQueue,
+                            Collections.<Inet.SocketOption>emptyList(),
+                            true),
                     getSelf());
         }
 
@@ -88,6 +104,8 @@ public abstract class BaseTcpSource extends ActorSource {
                     })
                     .match(Tcp.Bound.class, tcpBound -> {
                         _isReady = true;
+                        _listener = getSender();
+                        _listener.tell(TcpMessage.resumeAccepting(1), getSelf());
                         _tcpManager.tell(tcpBound, getSelf());
                         LOGGER.info()
                                 .setMessage("Tcp server binding complete")
@@ -114,6 +132,10 @@ public abstract class BaseTcpSource extends ActorSource {
 
                         final ActorRef handler = createHandler(_sink, tcpConnected);
                         getSender().tell(TcpMessage.register(handler), getSelf());
+
+                        // NOTE: In pull mode the handler requests each subsequent read
+                        getSender().tell(TcpMessage.resumeReading(), handler);
+                        _listener.tell(TcpMessage.resumeAccepting(1), getSelf());
                     })
                     .build();
         }
@@ -146,6 +168,7 @@ public abstract class BaseTcpSource extends ActorSource {
         }
 
         private boolean _isReady = false;
+        private ActorRef _listener;
         private final BaseTcpSource _sink;
         private final String _host;
         private final int _port;
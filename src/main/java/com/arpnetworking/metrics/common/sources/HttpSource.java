@@ -66,6 +66,17 @@ public class HttpSource extends ActorSource {
         return Actor.props(this);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The response to a request is not sent until its records are accepted
+     * so a blocked observer holds the client's connection.
+     */
+    @Override
+    public boolean isBackpressureSupported() {
+        return true;
+    }
+
     /**
      * Protected constructor.
      *
@@ -128,10 +139,12 @@ public class HttpSource extends ActorSource {
          */
         /* package private */ Actor(final HttpSource source) {
             _parser = source._parser;
-            _sink = Sink.foreach(source::notify);
+            _sink = Sink.foreach(source::notifyRecords);
             _materializer = ActorMaterializer.create(
                     ActorMaterializerSettings.create(context().system())
-                            .withSupervisionStrategy(Supervision.stoppingDecider()),
+                            .withSupervisionStrategy(Supervision.stoppingDecider())
+                            // NOTE: The sink blocks while the records are not accepted
+                            .withDispatcher(BLOCKING_DISPATCHER),
                     context());
 
             _processGraph = GraphDSL.create(builder -> {
@@ -148,10 +161,10 @@ public class HttpSource extends ActorSource {
                         .map(Actor::createHeaderMultimap) // Transform to array form
                         .named("getHeaders");
 
-                final Flow<Pair<ByteString, ImmutableMultimap<String, String>>, Record, NotUsed> createAndParseFlow =
+                final Flow<Pair<ByteString, ImmutableMultimap<String, String>>, List<Record>, NotUsed> createAndParseFlow =
                         Flow.<Pair<ByteString, ImmutableMultimap<String, String>>>create()
                                 .map(Actor::mapModel)
-                                .mapConcat(this::parseRecords) // Parse the json string into a record builder
+                                .map(this::parseRecords) // Parse the json string into a batch of records
                                 // NOTE: this should be _parser::parse, but aspectj NPEs with that currently
                                 .named("createAndParseRequest");
 
@@ -164,7 +177,7 @@ public class HttpSource extends ActorSource {
                         ByteString,
                         ImmutableMultimap<String, String>,
                         Pair<ByteString, ImmutableMultimap<String, String>>> join = builder.add(Zip.create());
-                final FlowShape<Pair<ByteString, ImmutableMultimap<String, String>>, Record> createRequest =
+                final FlowShape<Pair<ByteString, ImmutableMultimap<String, String>>, List<Record>> createRequest =
                         builder.add(createAndParseFlow);
 
                 // Wire the shapes
@@ -196,10 +209,10 @@ public class HttpSource extends ActorSource {
             return _parser.parse(request);
         }
 
-        private final Sink<Record, CompletionStage<Done>> _sink;
+        private final Sink<List<Record>, CompletionStage<Done>> _sink;
         private final Parser<List<Record>, com.arpnetworking.metrics.mad.model.HttpRequest> _parser;
         private final Materializer _materializer;
-        private final Graph<FlowShape<HttpRequest, Record>, NotUsed> _processGraph;
+        private final Graph<FlowShape<HttpRequest, List<Record>>, NotUsed> _processGraph;
 
         private static final Logger BAD_REQUEST_LOGGER =
                 LoggerFactory.getRateLimitLogger(HttpSource.class, Duration.ofSeconds(30));
@@ -19,8 +19,10 @@ import com.arpnetworking.commons.observer.Observable;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 /**
- * Interface for sources of <code>Record</code> data entries. All
- * implementations must be thread safe.
+ * Interface for sources of <code>Record</code> data entries. Observers are
+ * notified with either a single <code>Record</code> or a <code>List</code>
+ * of <code>Record</code> instances parsed together. All implementations must
+ * be thread safe.
  *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
  */
@@ -40,4 +42,15 @@ public interface Source extends Observable {
      * produced.
      */
     void stop();
+
+    /**
+     * Whether this source can stall its producers when its observers block.
+     * Observers should block rather than shed records from sources which
+     * support backpressure.
+     *
+     * @return True if and only if this source supports backpressure.
+     */
+    default boolean isBackpressureSupported() {
+        return false;
+    }
 }
@@ -110,7 +110,7 @@ public final class StatsdSource extends ActorSource {
                             // NOTE: The parsing occurs in the actor itself which can become a bottleneck
                             // if there are more records to be parsed then a single thread can handle.
                             final List<Record> records = PARSER.parse(updReceived.data().toByteBuffer());
-                            records.forEach(_sink::notify);
+                            _sink.notifyRecords(records);
                         } catch (final ParsingException e) {
                             BAD_REQUEST_LOGGER.warn()
                                     .setMessage("Error handling statsd datagram")
@@ -19,6 +19,7 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.io.Tcp;
+import akka.io.TcpMessage;
 import akka.util.ByteString;
 import akka.util.ByteStringBuilder;
 import com.arpnetworking.metrics.common.parsers.Parser;
@@ -79,10 +80,13 @@ public final class TcpLineSource extends BaseTcpSource {
 
         @Override
         protected ActorRef createHandler(final BaseTcpSource source, final Tcp.Connected connected) {
-            return getContext().actorOf(Props.create(
-                    TcpRequestHandlerActor.class,
-                    getSink(),
-                    connected.remoteAddress()));
+            // NOTE: The handler blocks while its records are not accepted
+            return getContext().actorOf(
+                    Props.create(
+                            TcpRequestHandlerActor.class,
+                            getSink(),
+                            connected.remoteAddress())
+                            .withDispatcher(BLOCKING_DISPATCHER));
         }
 
         /**
@@ -135,6 +139,9 @@ public final class TcpLineSource extends BaseTcpSource {
                                     .setThrowable(e)
                                     .log();
                         }
+
+                        // Request the next read only after the records are accepted
+                        getSender().tell(TcpMessage.resumeReading(), getSelf());
                     })
                     .match(Tcp.ConnectionClosed.class, message -> {
                         getContext().stop(getSelf());
@@ -192,7 +199,7 @@ public final class TcpLineSource extends BaseTcpSource {
                         .addData("remotePort", _remoteAddress.getPort())
                         .log();
 
-                records.forEach(_sink::notify);
+                _sink.notifyRecords(records);
             } catch (final ParsingException e) {
                 BAD_REQUEST_LOGGER.warn()
                         .setMessage("Error processing records")
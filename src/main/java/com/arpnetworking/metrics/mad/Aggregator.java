@@ -19,6 +19,8 @@ import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.commons.observer.Observable;
 import com.arpnetworking.commons.observer.Observer;
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
@@ -26,28 +28,52 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.DefaultKey;
 import com.arpnetworking.tsdcore.model.Key;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.utility.Launchable;
+import com.arpnetworking.utility.PatternMatcher;
+import com.arpnetworking.utility.SlabAllocator;
+import com.arpnetworking.utility.TimerWheel;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.sf.oval.constraint.Max;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import org.joda.time.Duration;
 import org.joda.time.Period;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Performs aggregation of <code>Record</code> instances per <code>Period</code>.
@@ -70,7 +96,55 @@ public final class Aggregator implements Observer, Launchable {
 
         _periodWorkers.clear();
         if (!_periods.isEmpty()) {
-            _periodWorkerExecutor = Executors.newCachedThreadPool(r -> new Thread(r, "PeriodWorker"));
+            _timerWheel = new TimerWheel("AggregatorTimer");
+            _timerWheel.launch();
+            if (_eventTime) {
+                // Buckets are rotated as the watermark advances instead of with the system clock
+                final Watermark watermark = new Watermark(_allowedLateness);
+                watermark.launch();
+                _rotationWheel = watermark.getTimerWheel();
+                _watermark = watermark;
+            } else {
+                _rotationWheel = _timerWheel;
+            }
+            if (_periodicMetrics.isPresent()) {
+                scheduleMetrics(_timerWheel);
+            }
+            if (_shardCount.isPresent()) {
+                final AtomicInteger threadIndex = new AtomicInteger();
+                _periodWorkerExecutor = Executors.newFixedThreadPool(
+                        _shardCount.get(),
+                        r -> new Thread(r, "AggregatorShard-" + threadIndex.getAndIncrement()));
+                final ImmutableList.Builder<AggregatorShard> shards = ImmutableList.builder();
+                for (int i = 0; i < _shardCount.get(); ++i) {
+                    final AggregatorShard shard = new AggregatorShard(
+                            i,
+                            key -> buildPeriodWorkers(key, null),
+                            _timerWheel,
+                            _rotationWheel,
+                            _watermark,
+                            _idleKeyTimeout,
+                            this::onKeyEvicted,
+                            new RecordQueue<>(_queueCapacity, _overflowPolicy, _queueStatistics));
+                    shards.add(shard);
+                    _periodWorkerExecutor.execute(shard);
+                }
+                _shards = shards.build();
+            } else {
+                _periodWorkerExecutor = Executors.newCachedThreadPool(r -> new Thread(r, "PeriodWorker"));
+                if (_idleKeyTimeout.isPresent()) {
+                    final long evictionInterval = AggregatorShard.getEvictionInterval(_idleKeyTimeout.get());
+                    _evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "AggregatorEviction"));
+                    _evictionExecutor.scheduleWithFixedDelay(
+                            this::evictIdleKeys,
+                            evictionInterval,
+                            evictionInterval,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+            if (_checkpointFile.isPresent()) {
+                launchCheckpoint(_checkpointFile.get());
+            }
         }
     }
 
@@ -81,43 +155,226 @@ public final class Aggregator implements Observer, Launchable {
                 .addData("aggregator", this)
                 .log();
 
-        for (final List<PeriodWorker> periodCloserList : _periodWorkers.values()) {
-            periodCloserList.forEach(com.arpnetworking.metrics.mad.PeriodWorker::shutdown);
+        if (_checkpointExecutor != null) {
+            _checkpointExecutor.shutdown();
+            try {
+                _checkpointExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                LOGGER.warn("Unable to shutdown checkpoint executor", e);
+            }
+            _checkpointExecutor = null;
+        }
+        if (_evictionExecutor != null) {
+            _evictionExecutor.shutdown();
+            try {
+                _evictionExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                LOGGER.warn("Unable to shutdown eviction executor", e);
+            }
+            _evictionExecutor = null;
+        }
+        // NOTE: Workers do not close open buckets on shutdown; by event time they are flushed once stopped
+        final List<KeyPeriodWorkers> periodWorkers = Lists.newArrayList(_periodWorkers.values());
+        final ImmutableList<AggregatorShard> shards = _shards;
+        for (final KeyPeriodWorkers periodCloserList : periodWorkers) {
+            periodCloserList.getPeriodWorkers().forEach(com.arpnetworking.metrics.mad.PeriodWorker::shutdown);
         }
         _periodWorkers.clear();
+        shards.forEach(AggregatorShard::shutdown);
+        _shards = ImmutableList.of();
+        boolean isStopped = true;
         if (_periodWorkerExecutor != null) {
             _periodWorkerExecutor.shutdown();
             try {
-                _periodWorkerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+                isStopped = _periodWorkerExecutor.awaitTermination(10, TimeUnit.SECONDS);
             } catch (final InterruptedException e) {
+                isStopped = false;
                 LOGGER.warn("Unable to shutdown period worker executor", e);
             }
             _periodWorkerExecutor = null;
         }
+        if (_watermark != null) {
+            if (isStopped) {
+                flush(_watermark, periodWorkers, shards);
+            } else {
+                LOGGER.warn()
+                        .setMessage("Unable to close open buckets at end of input")
+                        .addData("aggregator", this)
+                        .log();
+            }
+        }
+        if (_checkpointer != null) {
+            // Checkpoint the buckets left open once the workers have stopped
+            checkpoint(_checkpointer, periodWorkers, shards);
+            try {
+                _checkpointer.close();
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to close checkpoint", e);
+            }
+            _checkpointer = null;
+        }
+        if (_watermark != null) {
+            _watermark.shutdown();
+            _watermark = null;
+        }
+        _rotationWheel = null;
+        if (_timerWheel != null) {
+            _timerWheel.shutdown();
+            _timerWheel = null;
+        }
     }
 
     @Override
     public void notify(final Observable observable, final Object event) {
-        if (!(event instanceof Record)) {
-            LOGGER.error()
-                    .setMessage("Observed unsupported event")
-                    .addData("event", event)
-                    .log();
-            return;
+        notify(event, true);
+    }
+
+    /**
+     * Accessor for an <code>Observer</code> of sources which support
+     * backpressure. Records from these sources are never shed; instead the
+     * source is blocked until there is queue capacity regardless of the
+     * overflow policy.
+     *
+     * @return The <code>Observer</code> for backpressure supporting sources.
+     */
+    public Observer getBackpressureObserver() {
+        return (observable, event) -> notify(event, false);
+    }
+
+    private void notify(final Object event, final boolean mayShed) {
+        if (event instanceof Record) {
+            limitCardinality((Record) event, DefaultKey::new, (key, record) -> record(key, record, mayShed));
+        } else if (event instanceof List) {
+            record((List<?>) event, mayShed);
+        } else {
+            logUnsupportedEvent(event);
         }
+    }
 
-        final Record record = (Record) event;
-        final Key key = new DefaultKey(record.getDimensions());
+    private void record(final Key key, final Record record, final boolean mayShed) {
         LOGGER.trace()
                 .setMessage("Processing record")
                 .addData("record", record)
                 .addData("key", key)
                 .log();
-        for (final PeriodWorker periodWorker : _periodWorkers.computeIfAbsent(key, this::createPeriodWorkers)) {
-            periodWorker.record(record);
+        final ImmutableList<AggregatorShard> shards = _shards;
+        if (!shards.isEmpty()) {
+            AggregatorShard.select(shards, key).record(key, record, mayShed);
+        } else {
+            withPeriodWorkers(key, periodWorker -> periodWorker.record(record, mayShed));
+        }
+        final Watermark watermark = _watermark;
+        if (watermark != null) {
+            watermark.advance(record.getTime().getMillis());
         }
     }
 
+    private void record(final List<?> events, final boolean mayShed) {
+        // Group the records by key preserving their order within each key
+        final Map<Key, List<Record>> recordsByKey = Maps.newLinkedHashMap();
+        final Function<ImmutableMap<String, String>, DefaultKey> keyFactory = DefaultKey.newBatchFactory();
+        final BiConsumer<Key, Record> grouper =
+                (key, record) -> recordsByKey.computeIfAbsent(key, k -> Lists.newArrayList()).add(record);
+        for (final Object event : events) {
+            if (event instanceof Record) {
+                limitCardinality((Record) event, keyFactory, grouper);
+            } else {
+                logUnsupportedEvent(event);
+            }
+        }
+        LOGGER.trace()
+                .setMessage("Processing records")
+                .addData("records", events.size())
+                .addData("keys", recordsByKey.size())
+                .log();
+
+        final ImmutableList<AggregatorShard> shards = _shards;
+        if (!shards.isEmpty()) {
+            AggregatorShard.record(shards, recordsByKey, mayShed);
+        } else {
+            // Enqueue one batch per period worker of each key
+            for (final Map.Entry<Key, List<Record>> entry : recordsByKey.entrySet()) {
+                final List<Record> records = entry.getValue();
+                withPeriodWorkers(entry.getKey(), periodWorker -> periodWorker.record(records, mayShed));
+            }
+        }
+        final Watermark watermark = _watermark;
+        if (watermark != null && !recordsByKey.isEmpty()) {
+            long latestTime = Long.MIN_VALUE;
+            for (final List<Record> records : recordsByKey.values()) {
+                for (final Record record : records) {
+                    latestTime = Math.max(latestTime, record.getTime().getMillis());
+                }
+            }
+            watermark.advance(latestTime);
+        }
+    }
+
+    private void limitCardinality(
+            final Record record,
+            final Function<ImmutableMap<String, String>, DefaultKey> keyFactory,
+            final BiConsumer<Key, Record> consumer) {
+        if (_cardinalityLimiter.isPresent()) {
+            _cardinalityLimiter.get().limit(record, keyFactory, consumer);
+        } else {
+            consumer.accept(keyFactory.apply(record.getDimensions()), record);
+        }
+    }
+
+    private void withPeriodWorkers(final Key key, final Consumer<PeriodWorker> action) {
+        withAcquiredPeriodWorkers(key, periodWorkers -> forEachRecording(periodWorkers, action));
+    }
+
+    private void withAcquiredPeriodWorkers(final Key key, final Consumer<List<PeriodWorker>> action) {
+        if (!_idleKeyTimeout.isPresent()) {
+            action.accept(getPeriodWorkers(key).getPeriodWorkers());
+            return;
+        }
+        // NOTE: The period workers are acquired to exclude concurrent eviction without holding
+        // the key's mapping while enqueueing, which may block; if they were retired by eviction
+        // the key is resolved again until its replacement period workers are acquired.
+        while (true) {
+            final KeyPeriodWorkers periodWorkers = getPeriodWorkers(key);
+            if (periodWorkers.acquire()) {
+                try {
+                    action.accept(periodWorkers.getPeriodWorkers());
+                } finally {
+                    periodWorkers.release();
+                }
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    private KeyPeriodWorkers getPeriodWorkers(final Key key) {
+        KeyPeriodWorkers periodWorkers = _periodWorkers.get(key);
+        if (periodWorkers == null) {
+            // NOTE: The period workers are started outside the key's mapping
+            periodWorkers = _periodWorkers.computeIfAbsent(
+                    key,
+                    k -> new KeyPeriodWorkers(buildPeriodWorkers(k, _rotationWheel)));
+            periodWorkers.start(_periodWorkerExecutor);
+        }
+        return periodWorkers;
+    }
+
+    private static void forEachRecording(final List<PeriodWorker> periodWorkers, final Consumer<PeriodWorker> action) {
+        // NOTE: Rolled up period workers are populated from closed buckets of finer periods
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            if (!periodWorker.isRolledUp()) {
+                action.accept(periodWorker);
+            }
+        }
+    }
+
+    private void logUnsupportedEvent(final Object event) {
+        LOGGER.error()
+                .setMessage("Observed unsupported event")
+                .addData("event", event)
+                .log();
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
@@ -131,6 +388,16 @@ public final class Aggregator implements Observer, Launchable {
                 .put("counterStatistics", _specifiedCounterStatistics)
                 .put("gaugeStatistics", _specifiedGaugeStatistics)
                 .put("periodWorkers", _periodWorkers)
+                .put("shards", _shards)
+                .put("idleKeyTimeout", _idleKeyTimeout)
+                .put("evictedKeys", _evictedKeys)
+                .put("slabAllocator", _slabAllocator)
+                .put("queueCapacity", _queueCapacity)
+                .put("overflowPolicy", _overflowPolicy)
+                .put("rollupSources", _rollupSources)
+                .put("cardinalityLimiter", _cardinalityLimiter)
+                .put("eventTime", _eventTime)
+                .put("watermark", _watermark)
                 .build();
     }
 
@@ -139,27 +406,206 @@ public final class Aggregator implements Observer, Launchable {
         return toLogValue().toString();
     }
 
-    private List<PeriodWorker> createPeriodWorkers(final Key key) {
+    /* package private */ long getEvictedKeys() {
+        return _evictedKeys.get();
+    }
+
+    private void evictIdleKeys() {
+        try {
+            final long now = System.currentTimeMillis();
+            for (final Key key : _periodWorkers.keySet()) {
+                // Evict while holding the key's mapping to exclude concurrent creation
+                _periodWorkers.computeIfPresent(key, (k, periodWorkers) -> {
+                    if (!isIdle(periodWorkers, now)) {
+                        return periodWorkers;
+                    }
+                    // NOTE: Once retired no records are enqueued so idleness is checked again
+                    if (!periodWorkers.retire()) {
+                        return periodWorkers;
+                    }
+                    if (!isIdle(periodWorkers, now)) {
+                        periodWorkers.reinstate();
+                        return periodWorkers;
+                    }
+                    periodWorkers.getPeriodWorkers().forEach(PeriodWorker::shutdown);
+                    onKeyEvicted(k);
+                    return null;
+                });
+            }
+            // CHECKSTYLE.OFF: IllegalCatch - Prevent the scheduled eviction from being cancelled
+        } catch (final Exception e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            LOGGER.error()
+                    .setMessage("Failed to evict idle keys")
+                    .addData("aggregator", this)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private boolean isIdle(final KeyPeriodWorkers periodWorkers, final long now) {
+        for (final PeriodWorker periodWorker : periodWorkers.getPeriodWorkers()) {
+            if (!periodWorker.isIdle(now, _idleKeyTimeout.get())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void launchCheckpoint(final Path file) {
+        final BucketCheckpointer checkpointer = new BucketCheckpointer(file);
+        try {
+            // NOTE: Sources are attached after launch so restored state precedes new records
+            checkpointer.restore(this::restore);
+        } catch (final IOException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to restore checkpoint")
+                    .addData("file", file)
+                    .setThrowable(e)
+                    .log();
+        }
+        _checkpointer = checkpointer;
+        _checkpointExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "AggregatorCheckpoint"));
+        _checkpointExecutor.scheduleWithFixedDelay(
+                () -> checkpoint(checkpointer, _periodWorkers.values(), _shards),
+                _checkpointIntervalMillis,
+                _checkpointIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void restore(final Key key, final Period period, final Bucket.Rollup rollup) {
+        final ImmutableList<AggregatorShard> shards = _shards;
+        if (!shards.isEmpty()) {
+            AggregatorShard.select(shards, key).restore(key, period, rollup);
+            return;
+        }
+        withAcquiredPeriodWorkers(key, periodWorkers -> {
+            for (final PeriodWorker periodWorker : periodWorkers) {
+                if (periodWorker.getPeriod().equals(period)) {
+                    periodWorker.rollup(rollup);
+                }
+            }
+        });
+    }
+
+    private static void flush(
+            final Watermark watermark,
+            final Collection<KeyPeriodWorkers> periodWorkers,
+            final List<AggregatorShard> shards) {
+        // The end of input closes every bucket once the records still queued are processed
+        for (final KeyPeriodWorkers periodWorkerList : periodWorkers) {
+            periodWorkerList.getPeriodWorkers().forEach(PeriodWorker::drain);
+        }
+        shards.forEach(AggregatorShard::drain);
+        watermark.advanceToEnd();
+        for (final KeyPeriodWorkers periodWorkerList : periodWorkers) {
+            periodWorkerList.getPeriodWorkers().forEach(PeriodWorker::flush);
+        }
+        shards.forEach(AggregatorShard::flush);
+    }
+
+    private void checkpoint(
+            final BucketCheckpointer checkpointer,
+            final Collection<KeyPeriodWorkers> periodWorkers,
+            final List<AggregatorShard> shards) {
+        try {
+            final List<Bucket> buckets = Lists.newArrayList();
+            for (final KeyPeriodWorkers periodWorkerList : periodWorkers) {
+                periodWorkerList.getPeriodWorkers().forEach(periodWorker -> buckets.addAll(periodWorker.getBuckets()));
+            }
+            for (final AggregatorShard shard : shards) {
+                for (final List<PeriodWorker> periodWorkerList : shard.getPeriodWorkers()) {
+                    periodWorkerList.forEach(periodWorker -> buckets.addAll(periodWorker.getBuckets()));
+                }
+            }
+            final long startNanos = System.nanoTime();
+            checkpointer.checkpoint(buckets);
+            _periodicMetrics.ifPresent(metrics -> metrics.recordTimer(
+                    _metricsPrefix + "checkpoint/latency",
+                    System.nanoTime() - startNanos,
+                    Optional.of(Units.NANOSECOND)));
+            // CHECKSTYLE.OFF: IllegalCatch - Prevent the scheduled checkpoint from being cancelled
+        } catch (final Exception e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            LOGGER.error()
+                    .setMessage("Failed to checkpoint buckets")
+                    .addData("aggregator", this)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private void scheduleMetrics(final TimerWheel timerWheel) {
+        timerWheel.schedule(System.currentTimeMillis() + METRICS_INTERVAL_MILLIS, () -> {
+            // NOTE: Invoked on the timer wheel thread
+            final PeriodicMetrics metrics = _periodicMetrics.get();
+            metrics.recordGauge(_metricsPrefix + "queue_depth", _queueStatistics.getDepth(), Optional.empty());
+            metrics.recordCounter(_metricsPrefix + "dropped_records", _queueStatistics.getAndResetDropped());
+            metrics.recordTimer(
+                    _metricsPrefix + "queue_wait",
+                    _queueStatistics.getAndResetWaitNanos(),
+                    Optional.of(Units.NANOSECOND));
+            final CacheStats statisticsCacheStats = _cachedPlans.stats();
+            final CacheStats statisticsCacheDelta = statisticsCacheStats.minus(_lastStatisticsCacheStats);
+            _lastStatisticsCacheStats = statisticsCacheStats;
+            metrics.recordCounter(_metricsPrefix + "statistics_cache/hits", statisticsCacheDelta.hitCount());
+            metrics.recordCounter(_metricsPrefix + "statistics_cache/misses", statisticsCacheDelta.missCount());
+            metrics.recordGauge(_metricsPrefix + "statistics_cache/size", _cachedPlans.size(), Optional.empty());
+            final Watermark watermark = _watermark;
+            if (watermark != null) {
+                metrics.recordCounter(_metricsPrefix + "late_records", watermark.getAndResetLateRecords());
+            }
+            if (_timerWheel == timerWheel) {
+                scheduleMetrics(timerWheel);
+            }
+        });
+    }
+
+    private void onKeyEvicted(final Key key) {
+        _evictedKeys.incrementAndGet();
+        _periodicMetrics.ifPresent(metrics -> metrics.recordCounter(_metricsPrefix + "evicted_keys", 1));
+        LOGGER.debug()
+                .setMessage("Evicted idle key")
+                .addData("key", key)
+                .addData("idleKeyTimeout", _idleKeyTimeout)
+                .log();
+    }
+
+    private List<PeriodWorker> buildPeriodWorkers(final Key key, @Nullable final TimerWheel timerWheel) {
         final List<PeriodWorker> periodWorkerList = Lists.newArrayListWithExpectedSize(_periods.size());
+        final Map<Period, PeriodWorker> periodWorkersByPeriod = Maps.newHashMap();
         for (final Period period : _periods) {
+            // NOTE: When rolling up the periods are ordered such that each source precedes its targets
+            final Period rollupPeriod = _rollupSources.get(period);
+            final PeriodWorker rollupSource = rollupPeriod == null ? null : periodWorkersByPeriod.get(rollupPeriod);
             final PeriodWorker periodWorker = new PeriodWorker.Builder()
                     .setPeriod(period)
                     .setBucketBuilder(
                             new Bucket.Builder()
                                     .setKey(key)
-                                    .setSpecifiedCounterStatistics(_specifiedCounterStatistics)
-                                    .setSpecifiedGaugeStatistics(_specifiedGaugeStatistics)
-                                    .setSpecifiedTimerStatistics(_specifiedTimerStatistics)
-                                    .setDependentCounterStatistics(_dependentCounterStatistics)
-                                    .setDependentGaugeStatistics(_dependentGaugeStatistics)
-                                    .setDependentTimerStatistics(_dependentTimerStatistics)
-                                    .setSpecifiedStatistics(_cachedSpecifiedStatistics)
-                                    .setDependentStatistics(_cachedDependentStatistics)
+                                    .setCounterPlan(_counterPlan)
+                                    .setGaugePlan(_gaugePlan)
+                                    .setTimerPlan(_timerPlan)
+                                    .setPlans(_cachedPlans)
                                     .setPeriod(period)
-                                    .setSink(_sink))
+                                    .setSink(_sink)
+                                    .setHistogramType(_histogramType)
+                                    .setHistogramPrecision(_cachedHistogramPrecision::getUnchecked)
+                                    .setSketchRelativeAccuracy(_sketchRelativeAccuracy)
+                                    .setSketchMaximumBuckets(_sketchMaximumBuckets)
+                                    .setSlabAllocator(_slabAllocator.orElse(null)))
+                    .setTimerWheel(timerWheel)
+                    .setQueueCapacity(_queueCapacity)
+                    .setOverflowPolicy(_overflowPolicy)
+                    .setQueueStatistics(_queueStatistics)
+                    .setRollupSource(rollupSource)
+                    .setWatermark(_watermark)
                     .build();
+            if (rollupSource != null) {
+                rollupSource.addRollupTarget(periodWorker);
+            }
+            periodWorkersByPeriod.put(period, periodWorker);
             periodWorkerList.add(periodWorker);
-            _periodWorkerExecutor.execute(periodWorker);
         }
         LOGGER.info()
                 .setMessage("Created period workers")
@@ -169,6 +615,22 @@ public final class Aggregator implements Observer, Launchable {
         return periodWorkerList;
     }
 
+    private static ImmutableMap<Period, Period> computeRollupSources(final List<Period> periods) {
+        // Roll up each period from the longest shorter period which divides it evenly
+        final ImmutableMap.Builder<Period, Period> rollupSources = ImmutableMap.builder();
+        for (int i = 0; i < periods.size(); ++i) {
+            final long periodMillis = periods.get(i).toStandardDuration().getMillis();
+            for (int j = i - 1; j >= 0; --j) {
+                final long sourceMillis = periods.get(j).toStandardDuration().getMillis();
+                if (sourceMillis < periodMillis && periodMillis % sourceMillis == 0) {
+                    rollupSources.put(periods.get(i), periods.get(j));
+                    break;
+                }
+            }
+        }
+        return rollupSources.build();
+    }
+
     private ImmutableSet<Statistic> computeDependentStatistics(final ImmutableSet<Statistic> statistics) {
         final ImmutableSet.Builder<Statistic> builder = ImmutableSet.builder();
         for (final Statistic statistic : statistics) {
@@ -178,74 +640,198 @@ public final class Aggregator implements Observer, Launchable {
     }
 
     private Aggregator(final Builder builder) {
-        _periods = ImmutableSet.copyOf(builder._periods);
+        final List<Period> periods = Lists.newArrayList(builder._periods);
+        if (builder._rollup) {
+            periods.sort(Comparator.comparing(Period::toStandardDuration));
+            _rollupSources = computeRollupSources(periods);
+        } else {
+            _rollupSources = ImmutableMap.of();
+        }
+        _periods = ImmutableSet.copyOf(periods);
         _sink = builder._sink;
+        _shardCount = Optional.ofNullable(builder._shardCount);
+        _histogramType = builder._histogramType;
+        _sketchRelativeAccuracy = builder._sketchRelativeAccuracy;
+        _sketchMaximumBuckets = builder._sketchMaximumBuckets;
+        _slabAllocator = builder._offHeapStorage
+                ? Optional.of(new SlabAllocator(SLAB_SIZE_BYTES))
+                : Optional.empty();
+        _queueCapacity = Optional.ofNullable(builder._queueCapacity).orElse(Integer.MAX_VALUE);
+        _overflowPolicy = builder._overflowPolicy;
+        _idleKeyTimeout = Optional.ofNullable(builder._idleKeyTimeout).map(Period::toStandardDuration);
+        _periodicMetrics = Optional.ofNullable(builder._periodicMetrics);
+        _checkpointFile = Optional.ofNullable(builder._checkpointFile).map(File::toPath);
+        _checkpointIntervalMillis = builder._checkpointInterval.toStandardDuration().getMillis();
+        _cardinalityLimiter = Optional.ofNullable(builder._cardinalityLimiter);
+        _eventTime = builder._eventTime;
+        _allowedLateness = builder._allowedLateness.toStandardDuration();
+        _metricsPrefix = "aggregator/" + builder._name + "/";
         _specifiedCounterStatistics = ImmutableSet.copyOf(builder._counterStatistics);
         _specifiedGaugeStatistics = ImmutableSet.copyOf(builder._gaugeStatistics);
         _specifiedTimerStatistics = ImmutableSet.copyOf(builder._timerStatistics);
         _dependentCounterStatistics = computeDependentStatistics(_specifiedCounterStatistics);
         _dependentGaugeStatistics = computeDependentStatistics(_specifiedGaugeStatistics);
         _dependentTimerStatistics = computeDependentStatistics(_specifiedTimerStatistics);
+        _counterPlan = CalculatorPlan.of(_specifiedCounterStatistics, _dependentCounterStatistics);
+        _gaugePlan = CalculatorPlan.of(_specifiedGaugeStatistics, _dependentGaugeStatistics);
+        _timerPlan = CalculatorPlan.of(_specifiedTimerStatistics, _dependentTimerStatistics);
         final ImmutableMap.Builder<Pattern, ImmutableSet<Statistic>> statisticsBuilder = ImmutableMap.builder();
         for (final Map.Entry<String, Set<Statistic>> entry : builder._statistics.entrySet()) {
             final Pattern pattern = Pattern.compile(entry.getKey());
             final ImmutableSet<Statistic> statistics = ImmutableSet.copyOf(entry.getValue());
             statisticsBuilder.put(pattern, statistics);
         }
-        _statistics = statisticsBuilder.build();
+        _statistics = new PatternMatcher<>(statisticsBuilder.build());
+        _histogramPrecision = builder._histogramPrecision;
+        final ImmutableMap.Builder<Pattern, Integer> histogramPrecisionBuilder = ImmutableMap.builder();
+        for (final Map.Entry<String, Integer> entry : builder._metricHistogramPrecision.entrySet()) {
+            histogramPrecisionBuilder.put(Pattern.compile(entry.getKey()), entry.getValue());
+        }
+        _metricHistogramPrecision = new PatternMatcher<>(histogramPrecisionBuilder.build());
 
-        _cachedSpecifiedStatistics = CacheBuilder
+        // NOTE: Metric names have a long tail so the caches are bounded
+        // NOTE: The plan is computed with the specified and dependent statistics of each metric
+        _cachedPlans = CacheBuilder
                 .newBuilder()
-                .concurrencyLevel(1)
+                .concurrencyLevel(CACHE_CONCURRENCY_LEVEL)
+                .maximumSize(MAXIMUM_CACHE_SIZE)
+                .recordStats()
                 .build(
-                        new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
+                        new CacheLoader<String, Optional<CalculatorPlan>>() {
                             // TODO(vkoskela): Add @NonNull annotation to metric. [ISSUE-?]
                             @Override
-                            public Optional<ImmutableSet<Statistic>> load(final String metric) throws Exception {
-                                for (final Map.Entry<Pattern, ImmutableSet<Statistic>> entry : _statistics.entrySet()) {
-                                    final Pattern pattern = entry.getKey();
-                                    final ImmutableSet<Statistic> statistics = entry.getValue();
-                                    if (pattern.matcher(metric).matches()) {
-                                        return Optional.of(statistics);
-                                    }
+                            public Optional<CalculatorPlan> load(final String metric) throws Exception {
+                                final Optional<ImmutableSet<Statistic>> statistics = _statistics.match(metric);
+                                if (statistics.isPresent()) {
+                                    return Optional.of(
+                                            CalculatorPlan.of(statistics.get(), computeDependentStatistics(statistics.get())));
+                                } else {
+                                    return Optional.empty();
                                 }
-                                return Optional.empty();
                             }
                         });
-        _cachedDependentStatistics = CacheBuilder
+        _cachedHistogramPrecision = CacheBuilder
                 .newBuilder()
-                .concurrencyLevel(1)
-                .build(new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
-                            // TODO(vkoskela): Add @NonNull annotation to metric. [ISSUE-?]
+                .concurrencyLevel(CACHE_CONCURRENCY_LEVEL)
+                .maximumSize(MAXIMUM_CACHE_SIZE)
+                .build(new CacheLoader<String, Integer>() {
                             @Override
-                            public Optional<ImmutableSet<Statistic>> load(final String metric) throws Exception {
-                                final Optional<ImmutableSet<Statistic>> statistics = _cachedSpecifiedStatistics.get(metric);
-                                if (statistics.isPresent()) {
-                                   return Optional.of(computeDependentStatistics(statistics.get()));
-                                } else {
-                                   return Optional.empty();
-                                }
-                           }
+                            public Integer load(final String metric) throws Exception {
+                                return _metricHistogramPrecision.match(metric).orElse(_histogramPrecision);
+                            }
                         });
-}
+    }
 
     private final ImmutableSet<Period> _periods;
+    private final ImmutableMap<Period, Period> _rollupSources;
     private final Sink _sink;
+    private final Optional<Integer> _shardCount;
+    private final HistogramStatistic.HistogramType _histogramType;
+    private final double _sketchRelativeAccuracy;
+    private final int _sketchMaximumBuckets;
+    private final Optional<SlabAllocator> _slabAllocator;
+    private final int _queueCapacity;
+    private final RecordQueue.OverflowPolicy _overflowPolicy;
+    private final RecordQueue.Statistics _queueStatistics = new RecordQueue.Statistics();
+    private final Optional<Duration> _idleKeyTimeout;
+    private final Optional<PeriodicMetrics> _periodicMetrics;
+    private final Optional<Path> _checkpointFile;
+    private final long _checkpointIntervalMillis;
+    private final Optional<CardinalityLimiter> _cardinalityLimiter;
+    private final boolean _eventTime;
+    private final Duration _allowedLateness;
+    private final String _metricsPrefix;
     private final ImmutableSet<Statistic> _specifiedTimerStatistics;
     private final ImmutableSet<Statistic> _specifiedCounterStatistics;
     private final ImmutableSet<Statistic> _specifiedGaugeStatistics;
     private final ImmutableSet<Statistic> _dependentTimerStatistics;
     private final ImmutableSet<Statistic> _dependentCounterStatistics;
     private final ImmutableSet<Statistic> _dependentGaugeStatistics;
-    private final ImmutableMap<Pattern, ImmutableSet<Statistic>> _statistics;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedSpecifiedStatistics;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedDependentStatistics;
-    private final Map<Key, List<PeriodWorker>> _periodWorkers = Maps.newConcurrentMap();
+    private final PatternMatcher<ImmutableSet<Statistic>> _statistics;
+    private final CalculatorPlan _timerPlan;
+    private final CalculatorPlan _counterPlan;
+    private final CalculatorPlan _gaugePlan;
+    private final LoadingCache<String, Optional<CalculatorPlan>> _cachedPlans;
+    private final int _histogramPrecision;
+    private final PatternMatcher<Integer> _metricHistogramPrecision;
+    private final LoadingCache<String, Integer> _cachedHistogramPrecision;
+    private final Map<Key, KeyPeriodWorkers> _periodWorkers = Maps.newConcurrentMap();
+    private final AtomicLong _evictedKeys = new AtomicLong();
 
     private ExecutorService _periodWorkerExecutor = null;
+    private volatile ImmutableList<AggregatorShard> _shards = ImmutableList.of();
+    // NOTE: Only accessed from the timer wheel thread
+    private CacheStats _lastStatisticsCacheStats = new CacheStats(0, 0, 0, 0, 0, 0);
+    private ScheduledExecutorService _evictionExecutor = null;
+    private ScheduledExecutorService _checkpointExecutor = null;
+    private BucketCheckpointer _checkpointer = null;
+    private volatile TimerWheel _timerWheel = null;
+    private volatile TimerWheel _rotationWheel = null;
+    private volatile Watermark _watermark = null;
 
+    private static final int SLAB_SIZE_BYTES = 1 << 20;
+    private static final long METRICS_INTERVAL_MILLIS = 1000;
+    private static final int MAXIMUM_CACHE_SIZE = 100000;
+    private static final int CACHE_CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors();
     private static final Logger LOGGER = LoggerFactory.getLogger(Aggregator.class);
 
+    /**
+     * The period workers of a key. Records are only enqueued while the period
+     * workers are acquired, and eviction only retires them while they are not
+     * acquired; once retired they cannot be acquired again.
+     */
+    private static final class KeyPeriodWorkers {
+
+        KeyPeriodWorkers(final List<PeriodWorker> periodWorkers) {
+            _periodWorkers = periodWorkers;
+        }
+
+        public List<PeriodWorker> getPeriodWorkers() {
+            return _periodWorkers;
+        }
+
+        public void start(final ExecutorService executor) {
+            if (_isStarted.compareAndSet(false, true)) {
+                _periodWorkers.forEach(executor::execute);
+            }
+        }
+
+        public boolean acquire() {
+            while (true) {
+                final int references = _references.get();
+                if (references == RETIRED) {
+                    return false;
+                }
+                if (_references.compareAndSet(references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            _references.decrementAndGet();
+        }
+
+        public boolean retire() {
+            return _references.compareAndSet(0, RETIRED);
+        }
+
+        public void reinstate() {
+            _references.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return _periodWorkers.toString();
+        }
+
+        private final List<PeriodWorker> _periodWorkers;
+        private final AtomicBoolean _isStarted = new AtomicBoolean();
+        private final AtomicInteger _references = new AtomicInteger();
+
+        private static final int RETIRED = -1;
+    }
+
     /**
      * <code>Builder</code> implementation for <code>Aggregator</code>.
      */
@@ -325,8 +911,279 @@ public final class Aggregator implements Observer, Launchable {
             return this;
         }
 
+        /**
+         * The number of aggregation shards. Optional. Cannot be less than one.
+         * Default is to create dedicated period worker threads for each key.
+         *
+         * When set, each key is owned by one of a fixed number of shards by
+         * hash and the records and bucket rotations for all keys owned by a
+         * shard are handled on the shard's thread.
+         *
+         * @param value The number of aggregation shards.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setShardCount(@Nullable final Integer value) {
+            _shardCount = value;
+            return this;
+        }
+
+        /**
+         * The storage used for histograms backing percentile statistics.
+         * Optional. Cannot be null. Default is <code>TREE</code>.
+         *
+         * @param value The histogram type.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramType(final HistogramStatistic.HistogramType value) {
+            _histogramType = value;
+            return this;
+        }
+
+        /**
+         * The number of bits of mantissa retained by each histogram bucket.
+         * Optional. Cannot be null. Must be between 1 and 16. Default is 7.
+         *
+         * @param value The histogram precision.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramPrecision(final Integer value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The histogram precision for a metric pattern. Optional. Cannot be
+         * null. Default is empty.
+         *
+         * @param value The histogram precision by metric pattern.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMetricHistogramPrecision(final Map<String, Integer> value) {
+            _metricHistogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The relative accuracy of the quantile sketches backing the sketch
+         * percentile statistics. Optional. Cannot be null. Must be between
+         * 0.0001 and 0.5. Default is 0.01.
+         *
+         * @param value The sketch relative accuracy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSketchRelativeAccuracy(final Double value) {
+            _sketchRelativeAccuracy = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of buckets of each quantile sketch. Optional.
+         * Cannot be null. Must be at least 16. Default is 1024.
+         *
+         * @param value The sketch maximum buckets.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSketchMaximumBuckets(final Integer value) {
+            _sketchMaximumBuckets = value;
+            return this;
+        }
+
+        /**
+         * Whether histogram counts are stored in pooled off-heap slabs which
+         * are released in bulk as each period closes instead of on-heap.
+         * Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to use off-heap storage.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOffHeapStorage(final Boolean value) {
+            _offHeapStorage = value;
+            return this;
+        }
+
+        /**
+         * Whether each period is derived by merging the closed buckets of the
+         * longest shorter period which divides it evenly instead of by
+         * aggregating every record again. Periods without such a shorter
+         * period aggregate records. Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to roll up periods.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRollup(final Boolean value) {
+            _rollup = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of records queued for each period worker, or
+         * for each shard when sharded. Optional. Cannot be less than one.
+         * Default is unbounded.
+         *
+         * @param value The queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(@Nullable final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The policy applied when a record is offered to a full queue. Records
+         * from sources supporting backpressure always block. Optional. Cannot
+         * be null. Default is <code>BLOCK</code>.
+         *
+         * @param value The overflow policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverflowPolicy(final RecordQueue.OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * The time after which a key without records or open buckets is
+         * evicted along with its period workers. Optional. Default is to
+         * never evict keys.
+         *
+         * @param value The idle key timeout.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIdleKeyTimeout(@Nullable final Period value) {
+            _idleKeyTimeout = value;
+            return this;
+        }
+
+        /**
+         * The file to checkpoint the state of open buckets to. The state is
+         * restored from the file when launched. Optional. Default is to not
+         * checkpoint.
+         *
+         * @param value The checkpoint file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCheckpointFile(@Nullable final File value) {
+            _checkpointFile = value;
+            return this;
+        }
+
+        /**
+         * The interval between checkpoints of the state of open buckets.
+         * Optional. Cannot be null. Default is five seconds.
+         *
+         * @param value The checkpoint interval.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCheckpointInterval(final Period value) {
+            _checkpointInterval = value;
+            return this;
+        }
+
+        /**
+         * The <code>CardinalityLimiter</code> applied to records before they
+         * are aggregated. Optional. Default is to not limit cardinality.
+         *
+         * @param value The <code>CardinalityLimiter</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCardinalityLimiter(@Nullable final CardinalityLimiter value) {
+            _cardinalityLimiter = value;
+            return this;
+        }
+
+        /**
+         * Whether buckets close as the time of the records advances instead
+         * of with the system clock. A bucket closes once the latest record
+         * time less the allowed lateness reaches its end; records arriving
+         * for a closed bucket are dropped. Intended for replaying and
+         * backfilling recorded data. Optional. Cannot be null. Default is
+         * false.
+         *
+         * @param value Whether to close buckets by event time.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setEventTime(final Boolean value) {
+            _eventTime = value;
+            return this;
+        }
+
+        /**
+         * The time the latest record time must pass the end of a bucket by
+         * before the bucket closes when closing buckets by event time.
+         * Optional. Cannot be null. Default is one minute.
+         *
+         * @param value The allowed lateness.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setAllowedLateness(final Period value) {
+            _allowedLateness = value;
+            return this;
+        }
+
+        /**
+         * The name used to scope metrics about this aggregator. Optional.
+         * Cannot be null or empty. Default is "default".
+         *
+         * @param value The name.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setName(final String value) {
+            _name = value;
+            return this;
+        }
+
+        /**
+         * The <code>PeriodicMetrics</code> to record metrics about this
+         * aggregator to. Optional. Default is to not record metrics.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(@Nullable final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
         @NotNull
         private Sink _sink;
+        @Min(1)
+        private Integer _shardCount;
+        @NotNull
+        private HistogramStatistic.HistogramType _histogramType = HistogramStatistic.HistogramType.TREE;
+        @NotNull
+        @Min(HistogramStatistic.MINIMUM_PRECISION)
+        @Max(HistogramStatistic.MAXIMUM_PRECISION)
+        private Integer _histogramPrecision = HistogramStatistic.DEFAULT_PRECISION;
+        @NotNull
+        private Map<String, Integer> _metricHistogramPrecision = Collections.emptyMap();
+        @NotNull
+        @Min(SketchStatistic.MINIMUM_RELATIVE_ACCURACY)
+        @Max(SketchStatistic.MAXIMUM_RELATIVE_ACCURACY)
+        private Double _sketchRelativeAccuracy = SketchStatistic.DEFAULT_RELATIVE_ACCURACY;
+        @NotNull
+        @Min(SketchStatistic.MINIMUM_MAXIMUM_BUCKETS)
+        private Integer _sketchMaximumBuckets = SketchStatistic.DEFAULT_MAXIMUM_BUCKETS;
+        @NotNull
+        private Boolean _offHeapStorage = false;
+        @NotNull
+        private Boolean _rollup = false;
+        @Min(1)
+        private Integer _queueCapacity;
+        @NotNull
+        private RecordQueue.OverflowPolicy _overflowPolicy = RecordQueue.OverflowPolicy.BLOCK;
+        private Period _idleKeyTimeout;
+        private File _checkpointFile;
+        @NotNull
+        private Period _checkpointInterval = Period.seconds(5);
+        private CardinalityLimiter _cardinalityLimiter;
+        @NotNull
+        private Boolean _eventTime = false;
+        @NotNull
+        private Period _allowedLateness = Period.minutes(1);
+        @NotNull
+        @NotEmpty
+        private String _name = "default";
+        private PeriodicMetrics _periodicMetrics;
         @NotNull
         private Set<Period> _periods;
         @NotNull
@@ -0,0 +1,456 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.utility.TimerWheel;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.Duration;
+import org.joda.time.Period;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Owns the <code>PeriodWorker</code> instances for every <code>Key</code>
+ * which hashes to it. Records for owned keys are processed and their buckets
+ * are rotated on the single thread executing the shard. This bounds the
+ * number of aggregation threads by the number of shards instead of by the
+ * number of keys times the number of periods.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class AggregatorShard implements Runnable {
+
+    /**
+     * Shutdown this <code>AggregatorShard</code>. Cannot be restarted.
+     */
+    public void shutdown() {
+        _isRunning = false;
+        _recordQueue.signal();
+    }
+
+    /**
+     * Process a <code>Record</code> for a <code>Key</code> owned by this shard.
+     *
+     * @param key The <code>Key</code> of the record.
+     * @param record Instance of <code>Record</code> to process.
+     * @param mayShed Whether the record may be shed when the queue is full.
+     * @return True if and only if the record was queued.
+     */
+    public boolean record(final Key key, final Record record, final boolean mayShed) {
+        return _recordQueue.offer(new KeyedRecord(key, record), mayShed);
+    }
+
+    /**
+     * Process a batch of <code>Record</code> instances for keys owned by this
+     * shard.
+     *
+     * @param keyedRecords The <code>Record</code> instances with their keys.
+     * @param mayShed Whether the records may be shed when the queue is full.
+     * @return The number of records queued.
+     */
+    public int record(final List<KeyedRecord> keyedRecords, final boolean mayShed) {
+        return _recordQueue.offerAll(keyedRecords, mayShed);
+    }
+
+    /**
+     * Restore the checkpointed <code>Rollup</code> of an open bucket for a
+     * <code>Key</code> owned by this shard.
+     *
+     * @param key The <code>Key</code> of the bucket.
+     * @param period The <code>Period</code> of the bucket.
+     * @param rollup The <code>Rollup</code> to merge.
+     */
+    public void restore(final Key key, final Period period, final Bucket.Rollup rollup) {
+        _recordQueue.offer(new KeyedRecord(key, period, rollup), false);
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setUncaughtExceptionHandler(
+                (thread, throwable) -> LOGGER.error()
+                        .setMessage("Unhandled exception")
+                        .addData("aggregatorShard", AggregatorShard.this)
+                        .setThrowable(throwable)
+                        .log());
+
+        if (_idleKeyTimeout.isPresent()) {
+            _timerWheel.schedule(_nextEvictionAt, this::wakeUp);
+        }
+
+        while (_isRunning) {
+            try {
+                // Rotate any period workers with expired buckets
+                final long now = System.currentTimeMillis();
+                rotate(_watermark == null ? now : _watermark.get());
+
+                // Evict keys which have been idle for too long
+                if (_idleKeyTimeout.isPresent() && now >= _nextEvictionAt) {
+                    evictIdleKeys(now, _idleKeyTimeout.get());
+                    _nextEvictionAt = now + getEvictionInterval(_idleKeyTimeout.get());
+                    _timerWheel.schedule(_nextEvictionAt, this::wakeUp);
+                }
+
+                // Wait for records or for the timer wheel to signal a rotation or eviction
+                KeyedRecord keyedRecord = _recordQueue.take();
+
+                // Process a bounded batch of records before checking rotation again
+                int processed = 0;
+                while (keyedRecord != null) {
+                    if (keyedRecord._rollup != null) {
+                        restoreRollup(keyedRecord._key, keyedRecord._period, keyedRecord._rollup);
+                    } else {
+                        process(keyedRecord._key, keyedRecord._record);
+                    }
+                    if (++processed >= MAXIMUM_BATCH_SIZE) {
+                        break;
+                    }
+                    keyedRecord = _recordQueue.poll();
+                }
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                LOGGER.warn()
+                        .setMessage("Interrupted waiting for records")
+                        .setThrowable(e)
+                        .log();
+                // CHECKSTYLE.OFF: IllegalCatch - Top level catch to prevent thread death
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Aggregator shard failure")
+                        .addData("aggregatorShard", this)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("index", _index)
+                .put("keys", _periodWorkers.size())
+                .put("queueSize", _recordQueue.size())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ void process(final Key key, final Record record) {
+        final List<PeriodWorker> periodWorkers = _periodWorkers.computeIfAbsent(key, _periodWorkerFactory);
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            if (!periodWorker.isRolledUp()) {
+                periodWorker.process(record);
+                periodWorker.getNextExpiration().ifPresent(
+                        expiration -> schedule(periodWorker, expiration));
+            }
+        }
+    }
+
+    /* package private */ Collection<List<PeriodWorker>> getPeriodWorkers() {
+        return _periodWorkers.values();
+    }
+
+    /**
+     * Process the records and rollups still queued once this
+     * <code>AggregatorShard</code> has stopped.
+     */
+    /* package private */ void drain() {
+        KeyedRecord keyedRecord = _recordQueue.poll();
+        while (keyedRecord != null) {
+            if (keyedRecord._rollup != null) {
+                restoreRollup(keyedRecord._key, keyedRecord._period, keyedRecord._rollup);
+            } else {
+                process(keyedRecord._key, keyedRecord._record);
+            }
+            keyedRecord = _recordQueue.poll();
+        }
+    }
+
+    /**
+     * Close the buckets up to the watermark of every owned key once this
+     * <code>AggregatorShard</code> has stopped.
+     */
+    /* package private */ void flush() {
+        _rotations.clear();
+        _scheduledRotations.clear();
+        for (final List<PeriodWorker> periodWorkers : _periodWorkers.values()) {
+            // NOTE: Each rollup source precedes its targets
+            for (final PeriodWorker periodWorker : periodWorkers) {
+                periodWorker.rotate(periodWorker.getRotationTime(_watermark.get()));
+            }
+        }
+    }
+
+    /* package private */ void rotate(final long now) {
+        final NavigableMap<Long, List<PeriodWorker>> dueRotations = _rotations.headMap(now, true);
+        if (dueRotations.isEmpty()) {
+            return;
+        }
+
+        // Collect the due period workers before rotating since rotation reschedules
+        final List<PeriodWorker> duePeriodWorkers = Lists.newArrayList();
+        final Iterator<List<PeriodWorker>> iterator = dueRotations.values().iterator();
+        while (iterator.hasNext()) {
+            duePeriodWorkers.addAll(iterator.next());
+            iterator.remove();
+        }
+
+        for (final PeriodWorker periodWorker : duePeriodWorkers) {
+            _scheduledRotations.remove(periodWorker);
+            periodWorker.rotate(periodWorker.getRotationTime(now));
+            final Optional<Long> nextExpiration = periodWorker.getNextExpiration();
+            if (nextExpiration.isPresent()) {
+                schedule(periodWorker, nextExpiration.get());
+            }
+
+            // Closed buckets may have been rolled up into new buckets of coarser periods
+            for (final PeriodWorker rollupTarget : periodWorker.getRollupTargets()) {
+                rollupTarget.getNextExpiration().ifPresent(
+                        expiration -> schedule(rollupTarget, expiration));
+            }
+        }
+    }
+
+    /* package private */ void evictIdleKeys(final long now, final Duration idleKeyTimeout) {
+        // NOTE: Records are only processed on the shard thread so a key cannot
+        // receive data while it is being evicted; any record for the key which is
+        // still queued simply creates new period workers when it is processed.
+        final Iterator<Map.Entry<Key, List<PeriodWorker>>> iterator = _periodWorkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, List<PeriodWorker>> entry = iterator.next();
+            boolean isIdle = true;
+            for (final PeriodWorker periodWorker : entry.getValue()) {
+                if (!periodWorker.isIdle(now, idleKeyTimeout)) {
+                    isIdle = false;
+                    break;
+                }
+            }
+            if (isIdle) {
+                iterator.remove();
+                for (final PeriodWorker periodWorker : entry.getValue()) {
+                    unschedule(periodWorker);
+                }
+                _evictionListener.accept(entry.getKey());
+            }
+        }
+    }
+
+    /* package private */ static long getEvictionInterval(final Duration idleKeyTimeout) {
+        return Math.max(
+                MINIMUM_EVICTION_INTERVAL_MILLIS,
+                Math.min(MAXIMUM_EVICTION_INTERVAL_MILLIS, idleKeyTimeout.getMillis() / 2));
+    }
+
+    /**
+     * Select the shard which owns a <code>Key</code>.
+     *
+     * @param shards The shards of the aggregator.
+     * @param key The <code>Key</code>.
+     * @return The shard which owns the key.
+     */
+    /* package private */ static AggregatorShard select(final List<AggregatorShard> shards, final Key key) {
+        return shards.get(Math.floorMod(key.hashCode(), shards.size()));
+    }
+
+    /**
+     * Process <code>Record</code> instances grouped by <code>Key</code>
+     * enqueueing one batch on each shard which owns any of the keys.
+     *
+     * @param shards The shards of the aggregator.
+     * @param recordsByKey The <code>Record</code> instances by <code>Key</code>.
+     * @param mayShed Whether the records may be shed when a queue is full.
+     */
+    /* package private */ static void record(
+            final List<AggregatorShard> shards,
+            final Map<Key, List<Record>> recordsByKey,
+            final boolean mayShed) {
+        final List<List<KeyedRecord>> batches = Lists.newArrayListWithCapacity(shards.size());
+        for (int i = 0; i < shards.size(); ++i) {
+            batches.add(null);
+        }
+        for (final Map.Entry<Key, List<Record>> entry : recordsByKey.entrySet()) {
+            final int index = Math.floorMod(entry.getKey().hashCode(), shards.size());
+            List<KeyedRecord> batch = batches.get(index);
+            if (batch == null) {
+                batch = Lists.newArrayList();
+                batches.set(index, batch);
+            }
+            for (final Record record : entry.getValue()) {
+                batch.add(new KeyedRecord(entry.getKey(), record));
+            }
+        }
+        for (int i = 0; i < shards.size(); ++i) {
+            final List<KeyedRecord> batch = batches.get(i);
+            if (batch != null) {
+                shards.get(i).record(batch, mayShed);
+            }
+        }
+    }
+
+    private void restoreRollup(final Key key, final Period period, final Bucket.Rollup rollup) {
+        final List<PeriodWorker> periodWorkers = _periodWorkers.computeIfAbsent(key, _periodWorkerFactory);
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            if (periodWorker.getPeriod().equals(period)) {
+                periodWorker.merge(rollup);
+                periodWorker.getNextExpiration().ifPresent(
+                        expiration -> schedule(periodWorker, expiration));
+            }
+        }
+    }
+
+    private void unschedule(final PeriodWorker periodWorker) {
+        final Long scheduledAt = _scheduledRotations.remove(periodWorker);
+        if (scheduledAt != null) {
+            final List<PeriodWorker> scheduled = _rotations.get(scheduledAt);
+            scheduled.remove(periodWorker);
+            if (scheduled.isEmpty()) {
+                _rotations.remove(scheduledAt);
+            }
+        }
+    }
+
+    private void schedule(final PeriodWorker periodWorker, final long rotateAt) {
+        final Long scheduledAt = _scheduledRotations.get(periodWorker);
+        if (scheduledAt != null) {
+            if (scheduledAt <= rotateAt) {
+                return;
+            }
+            unschedule(periodWorker);
+        }
+        _scheduledRotations.put(periodWorker, rotateAt);
+        List<PeriodWorker> scheduled = _rotations.get(rotateAt);
+        if (scheduled == null) {
+            scheduled = Lists.newArrayList();
+            _rotations.put(rotateAt, scheduled);
+            _rotationWheel.schedule(rotateAt, this::wakeUp);
+        }
+        scheduled.add(periodWorker);
+    }
+
+    private void wakeUp() {
+        // NOTE: Invoked on the timer wheel thread
+        _recordQueue.signal();
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param index The index of this shard.
+     * @param periodWorkerFactory Creates the <code>PeriodWorker</code> instances for a new <code>Key</code>.
+     * @param timerWheel The <code>TimerWheel</code> used to schedule evictions.
+     * @param rotationWheel The <code>TimerWheel</code> used to schedule rotations.
+     * @param watermark The <code>Watermark</code> to rotate by instead of the system clock, if any.
+     * @param idleKeyTimeout The time after which a <code>Key</code> without data is evicted, if any.
+     * @param evictionListener Notified of each evicted <code>Key</code>.
+     * @param recordQueue The <code>RecordQueue</code> of records for owned keys.
+     */
+    /* package private */ AggregatorShard(
+            final int index,
+            final Function<Key, List<PeriodWorker>> periodWorkerFactory,
+            final TimerWheel timerWheel,
+            final TimerWheel rotationWheel,
+            @Nullable final Watermark watermark,
+            final Optional<Duration> idleKeyTimeout,
+            final Consumer<Key> evictionListener,
+            final RecordQueue<KeyedRecord> recordQueue) {
+        _index = index;
+        _periodWorkerFactory = periodWorkerFactory;
+        _timerWheel = timerWheel;
+        _rotationWheel = rotationWheel;
+        _watermark = watermark;
+        _idleKeyTimeout = idleKeyTimeout;
+        _evictionListener = evictionListener;
+        _recordQueue = recordQueue;
+        _nextEvictionAt = idleKeyTimeout.isPresent()
+                ? System.currentTimeMillis() + getEvictionInterval(idleKeyTimeout.get())
+                : Long.MAX_VALUE;
+    }
+
+    private volatile boolean _isRunning = true;
+
+    private final int _index;
+    private final Function<Key, List<PeriodWorker>> _periodWorkerFactory;
+    private final TimerWheel _timerWheel;
+    private final TimerWheel _rotationWheel;
+    @Nullable
+    private final Watermark _watermark;
+    private final Optional<Duration> _idleKeyTimeout;
+    private final Consumer<Key> _evictionListener;
+    private final RecordQueue<KeyedRecord> _recordQueue;
+    // NOTE: The period workers are modified on the shard thread and also read when checkpointing
+    private final Map<Key, List<PeriodWorker>> _periodWorkers = Maps.newConcurrentMap();
+    // NOTE: The following are only accessed from the shard thread
+    private final TreeMap<Long, List<PeriodWorker>> _rotations = new TreeMap<>();
+    private final Map<PeriodWorker, Long> _scheduledRotations = Maps.newHashMap();
+    private long _nextEvictionAt;
+
+    private static final int MAXIMUM_BATCH_SIZE = 1000;
+    private static final long MINIMUM_EVICTION_INTERVAL_MILLIS = 1000;
+    private static final long MAXIMUM_EVICTION_INTERVAL_MILLIS = 60000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregatorShard.class);
+
+    /**
+     * A <code>Record</code> queued with the <code>Key</code> it is aggregated by.
+     */
+    /* package private */ static final class KeyedRecord {
+
+        private KeyedRecord(final Key key, final Record record) {
+            _key = key;
+            _record = record;
+            _period = null;
+            _rollup = null;
+        }
+
+        private KeyedRecord(final Key key, final Period period, final Bucket.Rollup rollup) {
+            _key = key;
+            _record = null;
+            _period = period;
+            _rollup = rollup;
+        }
+
+        private final Key _key;
+        @Nullable
+        private final Record _record;
+        @Nullable
+        private final Period _period;
+        @Nullable
+        private final Bucket.Rollup _rollup;
+    }
+}
@@ -28,32 +28,42 @@ import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.Key;
 import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.tsdcore.statistics.Accumulator;
 import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.ScalarAccumulator;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.arpnetworking.utility.SlabAllocator;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongSortedMap;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
 
 /**
 * Contains samples for a particular aggregation period in time.
@@ -66,35 +76,42 @@ import java.util.function.BiFunction;
      * Close the bucket. The aggregates for each metric are emitted to the sink.
      */
     public void close() {
-        // Set the close flag before acquiring the write lock to allow "readers" to fail fast
-        if (_isOpen.getAndSet(false)) {
-            try {
-                // Acquire the write lock and flush the calculated statistics
-                _addCloseLock.writeLock().lock();
-                final ImmutableMultimap.Builder<String, AggregatedData> data = ImmutableMultimap.builder();
-                computeStatistics(_counterMetricCalculators, _specifiedCounterStatistics, data);
-                computeStatistics(_gaugeMetricCalculators, _specifiedGaugeStatistics, data);
-                computeStatistics(_timerMetricCalculators, _specifiedTimerStatistics, data);
-                computeStatistics(_explicitMetricCalculators, _specifiedStatisticsCache, data);
-                // TODO(vkoskela): Perform expression evaluation here. [NEXT]
-                // -> This still requires realizing and indexing the computed aggregated data
-                // in order to feed the expression evaluation. Once the filtering is consolidated
-                // we can probably just build a map here and then do one copy into immutable form
-                // in the PeriodicData. This becomes feasible with consolidated filtering because
-                // fewer copies (e.g. none) are made downstream.
-                // TODO(vkoskela): Perform alert evaluation here. [NEXT]
-                // -> This requires expressions. Otherwise, it's just a matter of changing the
-                // alerts abstraction from a Sink to something more appropriate and hooking it in
-                // here.
-                final PeriodicData periodicData = ThreadLocalBuilder.build(
-                        PeriodicData.Builder.class,
-                        b -> b.setData(data.build())
-                                .setDimensions(_key)
-                                .setPeriod(_period)
-                                .setStart(_start));
-                _sink.recordAggregateData(periodicData);
-            } finally {
-                _addCloseLock.writeLock().unlock();
+        // Set the closed flag; writers which have not yet registered fail fast
+        if ((_state.getAndUpdate(state -> state | CLOSED) & CLOSED) == 0) {
+            // Wait for registered writers to finish before flushing the calculated statistics
+            awaitWriters();
+            final ImmutableMultimap.Builder<String, AggregatedData> data = ImmutableMultimap.builder();
+            final Rollup rollup = _rollup == null ? null : new Rollup(_start);
+            computeStatistics(_counterMetricCalculators, data, rollup == null ? null : rollup._counterMetrics);
+            computeStatistics(_gaugeMetricCalculators, data, rollup == null ? null : rollup._gaugeMetrics);
+            computeStatistics(_timerMetricCalculators, data, rollup == null ? null : rollup._timerMetrics);
+            computeStatistics(_explicitMetricCalculators, data, rollup == null ? null : rollup._explicitMetrics);
+            // TODO(vkoskela): Perform expression evaluation here. [NEXT]
+            // -> This still requires realizing and indexing the computed aggregated data
+            // in order to feed the expression evaluation. Once the filtering is consolidated
+            // we can probably just build a map here and then do one copy into immutable form
+            // in the PeriodicData. This becomes feasible with consolidated filtering because
+            // fewer copies (e.g. none) are made downstream.
+            // TODO(vkoskela): Perform alert evaluation here. [NEXT]
+            // -> This requires expressions. Otherwise, it's just a matter of changing the
+            // alerts abstraction from a Sink to something more appropriate and hooking it in
+            // here.
+            final PeriodicData periodicData = ThreadLocalBuilder.build(
+                    PeriodicData.Builder.class,
+                    b -> b.setData(data.build())
+                            .setDimensions(_key)
+                            .setPeriod(_period)
+                            .setStart(_start));
+            _sink.recordAggregateData(periodicData);
+
+            // Merge into the bucket of any coarser period
+            if (rollup != null) {
+                _rollup.accept(rollup);
+            }
+
+            // Release any off-heap storage in bulk; snapshots are on-heap
+            if (_arena != null) {
+                _arena.close();
             }
         } else {
             LOGGER.warn()
@@ -114,7 +131,7 @@ import java.util.function.BiFunction;
             final String name = entry.getKey();
             final Metric metric = entry.getValue();
 
-            if (metric.getValues().isEmpty()) {
+            if (metric.getValues().isEmpty() && metric.getStatistics().isEmpty()) {
                 LOGGER.debug()
                         .setMessage("Discarding metric")
                         .addData("reason", "no samples")
@@ -124,49 +141,34 @@ import java.util.function.BiFunction;
                 continue;
             }
 
-            Collection<Calculator<?>> calculators = Collections.emptyList();
+            MetricCalculators calculators = null;
             // First check to see if the user has specified a set of statistics for this metric
-            final Optional<ImmutableSet<Statistic>> specifiedStatistics;
-            try {
-                specifiedStatistics = _specifiedStatisticsCache.get(name);
-            } catch (final ExecutionException e) {
-                throw new RuntimeException(e);
-            }
-            if (specifiedStatistics.isPresent()) {
-                final Optional<ImmutableSet<Statistic>> dependentStatistics;
-                try {
-                    dependentStatistics = _dependentStatisticsCache.get(name);
-                } catch (final ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
+            final Optional<CalculatorPlan> specifiedPlan = getPlan(name);
+            if (specifiedPlan.isPresent()) {
                 calculators = getOrCreateCalculators(
                         name,
-                        specifiedStatistics.get(),
-                        dependentStatistics.get(),
+                        specifiedPlan.get(),
                         _explicitMetricCalculators);
             } else {
                 switch (metric.getType()) {
                     case COUNTER: {
                         calculators = getOrCreateCalculators(
                                 name,
-                                _specifiedCounterStatistics,
-                                _dependentCounterStatistics,
+                                _counterPlan,
                                 _counterMetricCalculators);
                         break;
                     }
                     case GAUGE: {
                         calculators = getOrCreateCalculators(
                                 name,
-                                _specifiedGaugeStatistics,
-                                _dependentGaugeStatistics,
+                                _gaugePlan,
                                 _gaugeMetricCalculators);
                         break;
                     }
                     case TIMER: {
                         calculators = getOrCreateCalculators(
                                 name,
-                                _specifiedTimerStatistics,
-                                _dependentTimerStatistics,
+                                _timerPlan,
                                 _timerMetricCalculators);
                         break;
                     }
@@ -179,20 +181,97 @@ import java.util.function.BiFunction;
                                 .log();
                 }
             }
-            addMetric(
-                    name,
-                    metric,
-                    record.getTime(),
-                    calculators);
+            if (calculators != null) {
+                addMetric(
+                        name,
+                        metric,
+                        record.getTime(),
+                        calculators);
+            }
+        }
+    }
+
+    /**
+     * Merge a <code>Rollup</code> of a closed <code>Bucket</code> of a finer
+     * period into this <code>Bucket</code>.
+     *
+     * @param rollup The <code>Rollup</code> to merge.
+     */
+    public void merge(final Rollup rollup) {
+        // Register as a writer and validate the bucket is still open
+        if ((_state.incrementAndGet() & CLOSED) != 0) {
+            deregisterWriter();
+            BUCKET_CLOSED_LOGGER
+                    .warn()
+                    .setMessage("Discarding rollup")
+                    .addData("reason", "merged after close")
+                    .addData("bucket", this)
+                    .addData("rollupStart", rollup.getStart())
+                    .log();
+            return;
+        }
+
+        try {
+            mergeMetrics(rollup._counterMetrics, _counterMetricCalculators, name -> getTypedPlan(name, _counterPlan));
+            mergeMetrics(rollup._gaugeMetrics, _gaugeMetricCalculators, name -> getTypedPlan(name, _gaugePlan));
+            mergeMetrics(rollup._timerMetrics, _timerMetricCalculators, name -> getTypedPlan(name, _timerPlan));
+            mergeMetrics(rollup._explicitMetrics, _explicitMetricCalculators, this::getExplicitPlan);
+            _modified = true;
+        } finally {
+            deregisterWriter();
         }
     }
 
+    /**
+     * Capture the accumulated values of this open <code>Bucket</code> as a
+     * <code>Rollup</code> without closing it. The capture is consistent for
+     * each metric's accumulators but not across
+     * metrics; samples added concurrently may or may not be included.
+     *
+     * @param force Whether to capture the bucket even if it has not been
+     * modified since the last capture.
+     * @return The <code>Rollup</code> or <code>null</code> if the bucket is
+     * closed or unmodified.
+     */
+    @Nullable
+    public Rollup checkpoint(final boolean force) {
+        // Register as a writer so the bucket cannot be flushed during the capture
+        if ((_state.incrementAndGet() & CLOSED) != 0) {
+            deregisterWriter();
+            return null;
+        }
+
+        try {
+            if (!force && !_modified) {
+                return null;
+            }
+            // NOTE: Clear before capturing so concurrent modification is captured next time
+            _modified = false;
+            final Rollup rollup = new Rollup(_start);
+            checkpointMetrics(_counterMetricCalculators, rollup._counterMetrics);
+            checkpointMetrics(_gaugeMetricCalculators, rollup._gaugeMetrics);
+            checkpointMetrics(_timerMetricCalculators, rollup._timerMetrics);
+            checkpointMetrics(_explicitMetricCalculators, rollup._explicitMetrics);
+            return rollup;
+        } finally {
+            deregisterWriter();
+        }
+    }
+
+    public Key getKey() {
+        return _key;
+    }
+
+    public Period getPeriod() {
+        return _period;
+    }
+
     public DateTime getStart() {
         return _start;
     }
 
     public boolean isOpen() {
-        return _isOpen.get();
+        return (_state.get() & CLOSED) == 0;
     }
 
     /**
@@ -203,17 +282,14 @@ import java.util.function.BiFunction;
     @LogValue
     public Object toLogValue() {
         return LogValueMapFactory.builder(this)
-                .put("isOpen", _isOpen)
+                .put("isOpen", isOpen())
                 .put("sink", _sink)
                 .put("key", _key)
                 .put("start", _start)
                 .put("period", _period)
-                .put("timerStatistics", _specifiedTimerStatistics)
-                .put("counterStatistics", _specifiedCounterStatistics)
-                .put("gaugeStatistics", _specifiedGaugeStatistics)
-                .put("timerStatistics", _specifiedTimerStatistics)
-                .put("counterStatistics", _specifiedCounterStatistics)
-                .put("gaugeStatistics", _specifiedGaugeStatistics)
+                .put("timerPlan", _timerPlan)
+                .put("counterPlan", _counterPlan)
+                .put("gaugePlan", _gaugePlan)
                 .build();
     }
 
@@ -222,76 +298,140 @@ import java.util.function.BiFunction;
         return toLogValue().toString();
     }
 
-    private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final LoadingCache<String, Optional<ImmutableSet<Statistic>>> specifiedStatistics,
-            final ImmutableMultimap.Builder<String, AggregatedData> data) {
-        computeStatistics(calculatorsByMetric, (metric, statistic) -> {
-            final Optional<ImmutableSet<Statistic>> stats;
-            try {
-                stats = specifiedStatistics.get(metric);
-            } catch (final ExecutionException e) {
-                throw new RuntimeException(e);
+    private void awaitWriters() {
+        // NOTE: A writer such as a checkpoint may hold its registration for a
+        // while so the closer blocks until the last writer deregisters
+        boolean interrupted = false;
+        synchronized (_state) {
+            while ((_state.get() & ~CLOSED) != 0) {
+                try {
+                    _state.wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
             }
-            return stats.isPresent() && stats.get().contains(statistic);
-        }, data);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final ImmutableSet<Statistic> specifiedStatistics,
-            final ImmutableMultimap.Builder<String, AggregatedData> data) {
-        computeStatistics(calculatorsByMetric, (metric, statistic) -> specifiedStatistics.contains(statistic), data);
+    private void deregisterWriter() {
+        // The last writer to deregister from a closed bucket wakes the closer
+        if (_state.decrementAndGet() == CLOSED) {
+            synchronized (_state) {
+                _state.notifyAll();
+            }
+        }
     }
+
     private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final BiFunction<String, Statistic, Boolean> specified,
-            final ImmutableMultimap.Builder<String, AggregatedData> data) {
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric,
+            final ImmutableMultimap.Builder<String, AggregatedData> data,
+            @Nullable final Map<String, MetricRollup> rollups) {
 
-        for (final Map.Entry<String, Collection<Calculator<?>>> entry : calculatorsByMetric.entrySet()) {
+        for (final Map.Entry<String, MetricCalculators> entry : calculatorsByMetric.entrySet()) {
             final String metric = entry.getKey();
-            final Collection<Calculator<?>> calculators = entry.getValue();
-
-            // Build calculator dependencies for metric
-            // TODO(vkoskela): This is a waste of time. [NEXT]
-            // - Single set of calculators per metric and per statistic (no distinction between non-aux and aux)
-            // - Check the set of statistics to see if the calculator should be published
-            // - Still need both sets of statistics in order to create new set of calculators
-            final Map<Statistic, Calculator<?>> dependencies = Maps.newHashMap();
-            Optional<Calculator<?>> countStatisticCalculator = Optional.empty();
-            for (final Calculator<?> calculator : calculators) {
-                if (COUNT_STATISTIC.equals(calculator.getStatistic())) {
-                    countStatisticCalculator = Optional.of(calculator);
-                }
-                dependencies.put(calculator.getStatistic(), calculator);
-            }
-            final CalculatedValue<?> populationSize;
-            if (countStatisticCalculator.isPresent()) {
-                populationSize = countStatisticCalculator.get().calculate(dependencies);
-            } else {
-                populationSize = ThreadLocalBuilder.<
-                        CalculatedValue<Object>,
-                        CalculatedValue.Builder<Object>>buildGeneric(
-                                CalculatedValue.Builder.class,
-                                b -> b.setValue(
-                                        ThreadLocalBuilder.build(
-                                                Quantity.Builder.class,
-                                                builder -> builder.setValue(-1.0))));
+            final MetricCalculators metricCalculators = entry.getValue();
+
+            // The plan orders the calculators after their dependencies and flags those specified
+            final CalculatorPlan plan = metricCalculators.getPlan();
+            final Calculator<?>[] calculators = metricCalculators.getCalculators();
+            final Map<Statistic, Calculator<?>> dependencies = metricCalculators.getDependencies();
+            final long populationSize = (long) calculators[plan.getCountIndex()]
+                    .calculate(dependencies)
+                    .getValue()
+                    .getValue();
+            if (populationSize == 0) {
+                // NOTE: Only possible if all statistics of a pre-aggregated metric were discarded
+                continue;
             }
 
             // Compute each calculated value requested by the client
-            for (final Calculator<?> calculator : calculators) {
+            final CalculatedValue<?>[] calculatedValues = new CalculatedValue<?>[calculators.length];
+            for (int i = 0; i < calculators.length; ++i) {
+                final Calculator<?> calculator = calculators[i];
                 final CalculatedValue<?> calculatedValue = calculator.calculate(dependencies);
+                calculatedValues[i] = calculatedValue;
+                final boolean isSpecified = plan.isSpecified(i);
                 final AggregatedData datum = ThreadLocalBuilder.build(
                         AggregatedData.Builder.class,
                         b -> b.setSupportingData(null)
                                 .setValue(calculatedValue.getValue())
-                                .setIsSpecified(specified.apply(metric, calculator.getStatistic()))
-                                .setPopulationSize((long) populationSize.getValue().getValue())
+                                .setIsSpecified(isSpecified)
+                                .setPopulationSize(populationSize)
                                 .setSupportingData(calculatedValue.getData())
                                 .setStatistic(calculator.getStatistic()));
                 data.put(metric, datum);
             }
+
+            // Retain the accumulated values to merge into a coarser period
+            if (rollups != null) {
+                final int[] accumulatorIndices = plan.getAccumulatorIndices();
+                final CalculatedValue<?>[] accumulatedValues = new CalculatedValue<?>[accumulatorIndices.length];
+                for (int i = 0; i < accumulatorIndices.length; ++i) {
+                    accumulatedValues[i] = calculatedValues[accumulatorIndices[i]];
+                }
+                rollups.put(metric, new MetricRollup(plan, Collections.singletonList(accumulatedValues)));
+            }
+        }
+    }
+
+    private void checkpointMetrics(
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric,
+            final Map<String, MetricRollup> rollups) {
+        for (final Map.Entry<String, MetricCalculators> entry : calculatorsByMetric.entrySet()) {
+            final MetricCalculators metricCalculators = entry.getValue();
+            @Nullable final CalculatedValue<?>[] accumulatedValues = metricCalculators.snapshot();
+            if (accumulatedValues != null) {
+                rollups.put(
+                        entry.getKey(),
+                        new MetricRollup(metricCalculators.getPlan(), Collections.singletonList(accumulatedValues)));
+            }
+        }
+    }
+
+    private void mergeMetrics(
+            final Map<String, MetricRollup> rollups,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric,
+            final Function<String, CalculatorPlan> planResolver) {
+        for (final Map.Entry<String, MetricRollup> entry : rollups.entrySet()) {
+            final String name = entry.getKey();
+            final MetricRollup rollup = entry.getValue();
+            final CalculatorPlan plan = planResolver.apply(name);
+            @Nullable final List<CalculatedValue<?>[]> partials = plan == null ? null : rollup.align(plan);
+            if (partials == null) {
+                // NOTE: Only possible for a restored rollup when the configured statistics changed
+                LOGGER.warn()
+                        .setMessage("Discarding rollup metric")
+                        .addData("reason", "statistics changed")
+                        .addData("name", name)
+                        .addData("bucket", this)
+                        .log();
+                continue;
+            }
+            final MetricCalculators calculators = getOrCreateCalculators(name, plan, calculatorsByMetric);
+            for (final CalculatedValue<?>[] accumulatedValues : partials) {
+                calculators.merge(accumulatedValues);
+            }
+        }
+    }
+
+    @Nullable
+    private CalculatorPlan getTypedPlan(final String name, final CalculatorPlan plan) {
+        return getPlan(name).isPresent() ? null : plan;
+    }
+
+    @Nullable
+    private CalculatorPlan getExplicitPlan(final String name) {
+        return getPlan(name).orElse(null);
+    }
+
+    private Optional<CalculatorPlan> getPlan(final String name) {
+        try {
+            return _plans.get(name);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -299,108 +439,531 @@ import java.util.function.BiFunction;
             final String name,
             final Metric metric,
             final DateTime time,
-            final Collection<Calculator<?>> calculators) {
+            final MetricCalculators calculators) {
+
+        // Register as a writer and validate the bucket is still open; a writer
+        // arriving after close immediately deregisters.
+        if ((_state.incrementAndGet() & CLOSED) != 0) {
+            deregisterWriter();
+            // TODO(vkoskela): Re-aggregation starts here.
+            // 1) Send the record back to Aggregator.
+            // 2) This causes a new bucket to be created for this start+period.
+            // 3) Enhance aggregation at edges to support re-aggregation (or prevent overwrite).
+            BUCKET_CLOSED_LOGGER
+                    .warn()
+                    .setMessage("Discarding metric")
+                    .addData("reason", "added after close")
+                    .addData("name", name)
+                    .addData("metric", metric)
+                    .addData("time", time)
+                    .log();
+            return;
+        }
 
         try {
-            // Acquire a read lock and validate the bucket is still open
-            _addCloseLock.readLock().lock();
-            if (!_isOpen.get()) {
-                // TODO(vkoskela): Re-aggregation starts here.
-                // 1) Send the record back to Aggregator.
-                // 2) This causes a new bucket to be created for this start+period.
-                // 3) Enhance aggregation at edges to support re-aggregation (or prevent overwrite).
-                BUCKET_CLOSED_LOGGER
-                        .warn()
-                        .setMessage("Discarding metric")
-                        .addData("reason", "added after close")
+            // Add the value to any accumulators; pre-aggregated metrics may have none
+            if (!metric.getValues().isEmpty()) {
+                calculators.accumulate(metric.getValues());
+            }
+            // Merge any pre-aggregated values into the accumulators
+            if (!metric.getStatistics().isEmpty() && !calculators.merge(metric.getStatistics())) {
+                LOGGER.warn()
+                        .setMessage("Discarding metric statistics")
+                        .addData("reason", "missing accumulated statistics")
                         .addData("name", name)
-                        .addData("metric", metric)
-                        .addData("time", time)
+                        .addData("statistics", metric.getStatistics().keySet())
+                        .addData("required", calculators.getPlan().getStatistics())
                         .log();
-                return;
-            }
-
-            // Add the value to any accumulators
-            for (final Calculator<?> calculator : calculators) {
-                if (calculator instanceof Accumulator) {
-                    final Accumulator<?> accumulator = (Accumulator<?>) calculator;
-                    synchronized (accumulator) {
-                        for (final Quantity quantity : metric.getValues()) {
-                            accumulator.accumulate(quantity);
-                        }
-                    }
-                }
             }
+            _modified = true;
         } finally {
-            _addCloseLock.readLock().unlock();
+            deregisterWriter();
         }
     }
 
-    private Collection<Calculator<?>> getOrCreateCalculators(
+    private MetricCalculators getOrCreateCalculators(
             final String name,
-            final Collection<Statistic> specifiedStatistics,
-            final Collection<Statistic> dependentStatistics,
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric) {
-        Collection<Calculator<?>> calculators = calculatorsByMetric.get(name);
+            final CalculatorPlan plan,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric) {
+        MetricCalculators calculators = calculatorsByMetric.get(name);
         if (calculators == null) {
-            final Set<Calculator<?>> newCalculators = Sets.newHashSet();
-            for (final Statistic statistic : specifiedStatistics) {
-                newCalculators.add(statistic.createCalculator());
-            }
-            for (final Statistic statistic : dependentStatistics) {
-                newCalculators.add(statistic.createCalculator());
-            }
-            newCalculators.add(COUNT_STATISTIC.createCalculator());
-            calculators = calculatorsByMetric.putIfAbsent(name, newCalculators);
+            final MetricCalculators newMetricCalculators = new MetricCalculators(
+                    plan,
+                    statistic -> createCalculator(name, statistic, plan));
+            calculators = calculatorsByMetric.putIfAbsent(name, newMetricCalculators);
             if (calculators == null) {
-                calculators = newCalculators;
+                calculators = newMetricCalculators;
             }
         }
         return calculators;
     }
 
+    private Calculator<?> createCalculator(final String name, final Statistic statistic, final CalculatorPlan plan) {
+        if (statistic instanceof HistogramStatistic) {
+            final HistogramStatistic histogramStatistic = (HistogramStatistic) statistic;
+            final int precision = _histogramPrecision.apply(name);
+            // NOTE: The percentile statistics of the plan are evaluated from the histogram in one pass
+            if (_arena != null) {
+                final SlabAllocator.Arena arena = _arena;
+                return histogramStatistic.createCalculator(
+                        p -> new HistogramStatistic.OffHeapHistogram(p, arena),
+                        precision,
+                        plan.getPercentiles());
+            }
+            return histogramStatistic.createCalculator(_histogramType::createHistogram, precision, plan.getPercentiles());
+        }
+        if (statistic instanceof SketchStatistic) {
+            return ((SketchStatistic) statistic).createCalculator(_sketchRelativeAccuracy, _sketchMaximumBuckets);
+        }
+        return statistic.createCalculator();
+    }
+
     Bucket(final Builder builder) {
         _sink = builder._sink;
         _key = builder._key;
         _start = builder._start;
         _period = builder._period;
-        _specifiedCounterStatistics = builder._specifiedCounterStatistics;
-        _specifiedGaugeStatistics = builder._specifiedGaugeStatistics;
-        _specifiedTimerStatistics = builder._specifiedTimerStatistics;
-        _dependentCounterStatistics = builder._dependentCounterStatistics;
-        _dependentGaugeStatistics = builder._dependentGaugeStatistics;
-        _dependentTimerStatistics = builder._dependentTimerStatistics;
-        _specifiedStatisticsCache = builder._specifiedStatistics;
-        _dependentStatisticsCache = builder._dependentStatistics;
+        _counterPlan = builder._counterPlan;
+        _gaugePlan = builder._gaugePlan;
+        _timerPlan = builder._timerPlan;
+        _plans = builder._plans;
+        _histogramType = builder._histogramType;
+        _histogramPrecision = builder._histogramPrecision;
+        _sketchRelativeAccuracy = builder._sketchRelativeAccuracy;
+        _sketchMaximumBuckets = builder._sketchMaximumBuckets;
+        _arena = builder._slabAllocator == null ? null : builder._slabAllocator.createArena();
+        _rollup = builder._rollup;
     }
 
-    private final AtomicBoolean _isOpen = new AtomicBoolean(true);
-    private final ReadWriteLock _addCloseLock = new ReentrantReadWriteLock();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _counterMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _gaugeMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _timerMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _explicitMetricCalculators = Maps.newConcurrentMap();
+    // NOTE: The high bit is set once closed and the remaining bits count active writers
+    private final AtomicInteger _state = new AtomicInteger();
+    private volatile boolean _modified = false;
+    private final ConcurrentMap<String, MetricCalculators> _counterMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _gaugeMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _timerMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _explicitMetricCalculators = Maps.newConcurrentMap();
     private final Sink _sink;
     private final Key _key;
     private final DateTime _start;
     private final Period _period;
-    private final ImmutableSet<Statistic> _specifiedCounterStatistics;
-    private final ImmutableSet<Statistic> _specifiedGaugeStatistics;
-    private final ImmutableSet<Statistic> _specifiedTimerStatistics;
-    private final ImmutableSet<Statistic> _dependentCounterStatistics;
-    private final ImmutableSet<Statistic> _dependentGaugeStatistics;
-    private final ImmutableSet<Statistic> _dependentTimerStatistics;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _dependentStatisticsCache;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _specifiedStatisticsCache;
-
-    private static final StatisticFactory STATISTIC_FACTORY;
-    private static final Statistic COUNT_STATISTIC;
+    private final CalculatorPlan _counterPlan;
+    private final CalculatorPlan _gaugePlan;
+    private final CalculatorPlan _timerPlan;
+    private final LoadingCache<String, Optional<CalculatorPlan>> _plans;
+    private final HistogramStatistic.HistogramType _histogramType;
+    private final Function<String, Integer> _histogramPrecision;
+    private final double _sketchRelativeAccuracy;
+    private final int _sketchMaximumBuckets;
+    private final SlabAllocator.Arena _arena;
+    @Nullable
+    private final Consumer<Rollup> _rollup;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(Bucket.class);
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final int CLOSED = Integer.MIN_VALUE;
     private static final Logger BUCKET_CLOSED_LOGGER = LoggerFactory.getRateLimitLogger(Bucket.class, Duration.ofSeconds(30));
 
-    static {
-        STATISTIC_FACTORY = new StatisticFactory();
-        COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    /**
+     * The calculators for a metric in <code>CalculatorPlan</code> order. The
+     * count, sum, min and max are views over one fused <code>ScalarAccumulator</code>
+     * so each sample is accumulated once for all of them.
+     */
+    private static final class MetricCalculators {
+
+        MetricCalculators(
+                final CalculatorPlan plan,
+                final Function<Statistic, Calculator<?>> calculatorFactory) {
+            _plan = plan;
+            _calculatorFactory = calculatorFactory;
+            final ScalarAccumulator summary = new ScalarAccumulator();
+            _calculators = plan.createCalculators(statistic -> createCalculator(statistic, summary));
+            _dependencies = plan.asDependencies(_calculators);
+            final List<Accumulator<?>> accumulators = Lists.newArrayList();
+            for (final int index : plan.getAccumulatorIndices()) {
+                accumulators.add((Accumulator<?>) _calculators[index]);
+            }
+            _accumulators = new Accumulators(accumulators, summary);
+            _countAccumulatorIndex = Ints.indexOf(plan.getAccumulatorIndices(), plan.getCountIndex());
+        }
+
+        public CalculatorPlan getPlan() {
+            return _plan;
+        }
+
+        public Calculator<?>[] getCalculators() {
+            return _calculators;
+        }
+
+        public Map<Statistic, Calculator<?>> getDependencies() {
+            return _dependencies;
+        }
+
+        public void accumulate(final List<Quantity> quantities) {
+            synchronized (_accumulators) {
+                _accumulators.accumulate(quantities);
+            }
+        }
+
+        public void merge(final CalculatedValue<?>[] accumulatedValues) {
+            synchronized (_accumulators) {
+                for (int i = 0; i < _accumulators.size(); ++i) {
+                    accumulate(_accumulators.get(i), accumulatedValues[i]);
+                }
+            }
+        }
+
+        public boolean merge(final Map<Statistic, CalculatedValue<?>> accumulatedValues) {
+            // NOTE: Values are merged only if every accumulator has one to keep the statistics consistent
+            final CalculatedValue<?>[] values = new CalculatedValue<?>[_accumulators.size()];
+            for (int i = 0; i < _accumulators.size(); ++i) {
+                values[i] = accumulatedValues.get(_accumulators.get(i).getStatistic());
+                if (values[i] == null) {
+                    return false;
+                }
+            }
+            merge(values);
+            return true;
+        }
+
+        @Nullable
+        public CalculatedValue<?>[] snapshot() {
+            synchronized (_accumulators) {
+                // NOTE: Accumulators without samples have no value to capture
+                if (isEmpty(_accumulators)) {
+                    return null;
+                }
+                final CalculatedValue<?>[] values = new CalculatedValue<?>[_accumulators.size()];
+                for (int i = 0; i < _accumulators.size(); ++i) {
+                    values[i] = _accumulators.get(i).calculate(Collections.emptyMap());
+                }
+                return values;
+            }
+        }
+
+        private Calculator<?> createCalculator(final Statistic statistic, final ScalarAccumulator summary) {
+            if (ScalarAccumulator.isSupported(statistic)) {
+                return summary.createCalculator(statistic);
+            }
+            return _calculatorFactory.apply(statistic);
+        }
+
+        private boolean isEmpty(final Accumulators accumulators) {
+            final CalculatedValue<?> count = accumulators.get(_countAccumulatorIndex).calculate(Collections.emptyMap());
+            return count.getValue().getValue() == 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> void accumulate(final Accumulator<T> target, final CalculatedValue<?> value) {
+            target.accumulate((CalculatedValue<T>) value);
+        }
+
+        private final CalculatorPlan _plan;
+        private final Function<Statistic, Calculator<?>> _calculatorFactory;
+        private final Calculator<?>[] _calculators;
+        private final Map<Statistic, Calculator<?>> _dependencies;
+        private final Accumulators _accumulators;
+        private final int _countAccumulatorIndex;
+    }
+
+    /**
+     * The accumulators of a metric in
+     * <code>CalculatorPlan</code> order together with the fused
+     * <code>ScalarAccumulator</code> backing those of the scalar statistics.
+     * Samples are added to the fused accumulator once and individually to
+     * each of the remaining accumulators such as the histogram.
+     */
+    private static final class Accumulators {
+
+        Accumulators(final List<Accumulator<?>> accumulators, final ScalarAccumulator summary) {
+            _accumulators = accumulators;
+            _summary = summary;
+            final List<Accumulator<?>> sampleAccumulators = Lists.newArrayList();
+            for (final Accumulator<?> accumulator : accumulators) {
+                if (!ScalarAccumulator.isSupported(accumulator.getStatistic())) {
+                    sampleAccumulators.add(accumulator);
+                }
+            }
+            _sampleAccumulators = sampleAccumulators;
+        }
+
+        public void accumulate(final List<Quantity> quantities) {
+            for (final Quantity quantity : quantities) {
+                _summary.accumulate(quantity);
+            }
+            for (final Accumulator<?> accumulator : _sampleAccumulators) {
+                for (final Quantity quantity : quantities) {
+                    accumulator.accumulate(quantity);
+                }
+            }
+        }
+
+        public Accumulator<?> get(final int index) {
+            return _accumulators.get(index);
+        }
+
+        public int size() {
+            return _accumulators.size();
+        }
+
+        private final List<Accumulator<?>> _accumulators;
+        private final ScalarAccumulator _summary;
+        private final List<Accumulator<?>> _sampleAccumulators;
+    }
+
+    /**
+     * The accumulated values of each metric of a closed <code>Bucket</code>
+     * which are merged into the <code>Bucket</code> of a coarser period
+     * containing it instead of accumulating every sample again. The values
+     * of an open <code>Bucket</code> are also captured as a <code>Rollup</code>
+     * to checkpoint and restore it.
+     */
+    /* package private */ static final class Rollup {
+
+        public DateTime getStart() {
+            return _start;
+        }
+
+        /**
+         * Serialize the accumulated values. The start is not included.
+         *
+         * @param out The <code>DataOutput</code> to write to.
+         * @throws IOException if the values cannot be written.
+         */
+        public void writeTo(final DataOutput out) throws IOException {
+            writeMetrics(out, _counterMetrics);
+            writeMetrics(out, _gaugeMetrics);
+            writeMetrics(out, _timerMetrics);
+            writeMetrics(out, _explicitMetrics);
+        }
+
+        /**
+         * Deserialize accumulated values written by <code>writeTo</code>.
+         *
+         * @param in The <code>DataInput</code> to read from.
+         * @param start The start of the bucket.
+         * @return The <code>Rollup</code>.
+         * @throws IOException if the values cannot be read.
+         */
+        public static Rollup readFrom(final DataInput in, final DateTime start) throws IOException {
+            final Rollup rollup = new Rollup(start);
+            readMetrics(in, rollup._counterMetrics);
+            readMetrics(in, rollup._gaugeMetrics);
+            readMetrics(in, rollup._timerMetrics);
+            readMetrics(in, rollup._explicitMetrics);
+            return rollup;
+        }
+
+        private static void writeMetrics(final DataOutput out, final Map<String, MetricRollup> metrics) throws IOException {
+            out.writeInt(metrics.size());
+            for (final Map.Entry<String, MetricRollup> entry : metrics.entrySet()) {
+                out.writeUTF(entry.getKey());
+                final MetricRollup metric = entry.getValue();
+                out.writeInt(metric._statistics.size());
+                for (final Statistic statistic : metric._statistics) {
+                    out.writeUTF(statistic.getName());
+                }
+                out.writeInt(metric._partials.size());
+                for (final CalculatedValue<?>[] values : metric._partials) {
+                    for (final CalculatedValue<?> value : values) {
+                        writeValue(out, value);
+                    }
+                }
+            }
+        }
+
+        private static void readMetrics(final DataInput in, final Map<String, MetricRollup> metrics) throws IOException {
+            final int metricCount = in.readInt();
+            for (int i = 0; i < metricCount; ++i) {
+                final String name = in.readUTF();
+                final int statisticCount = in.readInt();
+                final ImmutableList.Builder<Statistic> statistics = ImmutableList.builder();
+                for (int j = 0; j < statisticCount; ++j) {
+                    final String statistic = in.readUTF();
+                    statistics.add(STATISTIC_FACTORY.tryGetStatistic(statistic).orElseThrow(
+                            () -> new IOException("Unknown statistic: " + statistic)));
+                }
+                final int partialCount = in.readInt();
+                final List<CalculatedValue<?>[]> partials = Lists.newArrayListWithExpectedSize(partialCount);
+                for (int j = 0; j < partialCount; ++j) {
+                    final CalculatedValue<?>[] values = new CalculatedValue<?>[statisticCount];
+                    for (int k = 0; k < statisticCount; ++k) {
+                        values[k] = readValue(in);
+                    }
+                    partials.add(values);
+                }
+                metrics.put(name, new MetricRollup(statistics.build(), partials));
+            }
+        }
+
+        private static void writeValue(final DataOutput out, final CalculatedValue<?> value) throws IOException {
+            writeQuantity(out, value.getValue());
+            final Object data = value.getData();
+            if (data instanceof HistogramStatistic.HistogramSupportingData) {
+                final HistogramStatistic.HistogramSupportingData histogramData =
+                        (HistogramStatistic.HistogramSupportingData) data;
+                final HistogramStatistic.HistogramSnapshot snapshot = histogramData.getHistogramSnapshot();
+                out.writeByte(HISTOGRAM_DATA);
+                writeUnit(out, histogramData.getUnit());
+                out.writeInt(snapshot.getPrecision());
+                out.writeInt(snapshot.getBucketCount());
+                for (int i = 0; i < snapshot.getBucketCount(); ++i) {
+                    out.writeDouble(snapshot.getBucket(i));
+                    out.writeInt(snapshot.getCount(i));
+                }
+            } else if (data instanceof SketchStatistic.SketchSupportingData) {
+                final SketchStatistic.SketchSupportingData sketchData = (SketchStatistic.SketchSupportingData) data;
+                final SketchStatistic.Sketch sketch = sketchData.getSketch();
+                out.writeByte(SKETCH_DATA);
+                writeUnit(out, sketchData.getUnit());
+                out.writeDouble(sketch.getRelativeAccuracy());
+                out.writeInt(sketch.getMaximumBuckets());
+                out.writeLong(sketch.getZeroCount());
+                writeSketchBuckets(out, sketch.getPositiveBuckets());
+                writeSketchBuckets(out, sketch.getNegativeBuckets());
+            } else {
+                out.writeByte(NO_DATA);
+            }
+        }
+
+        private static CalculatedValue<?> readValue(final DataInput in) throws IOException {
+            final Quantity quantity = readQuantity(in);
+            // NOTE: Rollups written before sketches flagged histogram data with a boolean
+            final byte dataType = in.readByte();
+            if (dataType == NO_DATA) {
+                return new CalculatedValue.Builder<Void>()
+                        .setValue(quantity)
+                        .build();
+            }
+            final Optional<Unit> unit = readUnit(in);
+            if (dataType == SKETCH_DATA) {
+                final SketchStatistic.Sketch sketch = new SketchStatistic.Sketch(in.readDouble(), in.readInt());
+                sketch.recordZeroCount(in.readLong());
+                final int positiveCount = in.readInt();
+                for (int i = 0; i < positiveCount; ++i) {
+                    final int index = in.readInt();
+                    sketch.recordPositiveBucket(index, in.readLong());
+                }
+                final int negativeCount = in.readInt();
+                for (int i = 0; i < negativeCount; ++i) {
+                    final int index = in.readInt();
+                    sketch.recordNegativeBucket(index, in.readLong());
+                }
+                return new CalculatedValue.Builder<SketchStatistic.SketchSupportingData>()
+                        .setValue(quantity)
+                        .setData(new SketchStatistic.SketchSupportingData.Builder()
+                                .setSketch(sketch)
+                                .setUnit(unit.orElse(null))
+                                .build())
+                        .build();
+            }
+            final HistogramStatistic.TreeHistogram histogram = new HistogramStatistic.TreeHistogram(in.readInt());
+            final int bucketCount = in.readInt();
+            for (int i = 0; i < bucketCount; ++i) {
+                final double bucket = in.readDouble();
+                histogram.recordValue(bucket, in.readInt());
+            }
+            return new CalculatedValue.Builder<HistogramStatistic.HistogramSupportingData>()
+                    .setValue(quantity)
+                    .setData(new HistogramStatistic.HistogramSupportingData.Builder()
+                            .setHistogramSnapshot(histogram.getSnapshot())
+                            .setUnit(unit.orElse(null))
+                            .build())
+                    .build();
+        }
+
+        private static void writeSketchBuckets(final DataOutput out, final Int2LongSortedMap buckets) throws IOException {
+            out.writeInt(buckets.size());
+            for (final Int2LongMap.Entry entry : buckets.int2LongEntrySet()) {
+                out.writeInt(entry.getIntKey());
+                out.writeLong(entry.getLongValue());
+            }
+        }
+
+        private static void writeQuantity(final DataOutput out, final Quantity quantity) throws IOException {
+            out.writeDouble(quantity.getValue());
+            writeUnit(out, quantity.getUnit());
+        }
+
+        private static Quantity readQuantity(final DataInput in) throws IOException {
+            final double value = in.readDouble();
+            return new Quantity.Builder()
+                    .setValue(value)
+                    .setUnit(readUnit(in).orElse(null))
+                    .build();
+        }
+
+        private static void writeUnit(final DataOutput out, final Optional<Unit> unit) throws IOException {
+            out.writeUTF(unit.map(Unit::name).orElse(""));
+        }
+
+        private static Optional<Unit> readUnit(final DataInput in) throws IOException {
+            final String unit = in.readUTF();
+            try {
+                return unit.isEmpty() ? Optional.empty() : Optional.of(Unit.valueOf(unit));
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Unknown unit: " + unit, e);
+            }
+        }
+
+        private Rollup(final DateTime start) {
+            _start = start;
+        }
+
+        private final DateTime _start;
+        private final Map<String, MetricRollup> _counterMetrics = Maps.newHashMap();
+        private final Map<String, MetricRollup> _gaugeMetrics = Maps.newHashMap();
+        private final Map<String, MetricRollup> _timerMetrics = Maps.newHashMap();
+        private final Map<String, MetricRollup> _explicitMetrics = Maps.newHashMap();
+
+        private static final byte NO_DATA = 0;
+        private static final byte HISTOGRAM_DATA = 1;
+        private static final byte SKETCH_DATA = 2;
+    }
+
+    private static final class MetricRollup {
+
+        MetricRollup(final CalculatorPlan plan, final List<CalculatedValue<?>[]> partials) {
+            _plan = plan;
+            _statistics = plan.getAccumulatorStatistics();
+            _partials = partials;
+        }
+
+        MetricRollup(final ImmutableList<Statistic> statistics, final List<CalculatedValue<?>[]> partials) {
+            _plan = null;
+            _statistics = statistics;
+            _partials = partials;
+        }
+
+        @Nullable
+        List<CalculatedValue<?>[]> align(final CalculatorPlan plan) {
+            // NOTE: Plans are shared per pipeline so a rollup between periods usually shares the plan
+            if (plan == _plan) {
+                return _partials;
+            }
+            final int[] accumulatorIndices = plan.getAccumulatorIndices();
+            final int[] positions = new int[accumulatorIndices.length];
+            for (int i = 0; i < accumulatorIndices.length; ++i) {
+                positions[i] = _statistics.indexOf(plan.getStatistics().get(accumulatorIndices[i]));
+                if (positions[i] < 0) {
+                    return null;
+                }
+            }
+            final List<CalculatedValue<?>[]> aligned = Lists.newArrayListWithExpectedSize(_partials.size());
+            for (final CalculatedValue<?>[] values : _partials) {
+                final CalculatedValue<?>[] alignedValues = new CalculatedValue<?>[positions.length];
+                for (int i = 0; i < positions.length; ++i) {
+                    alignedValues[i] = values[positions[i]];
+                }
+                aligned.add(alignedValues);
+            }
+            return aligned;
+        }
+
+        @Nullable
+        private final CalculatorPlan _plan;
+        private final ImmutableList<Statistic> _statistics;
+        // NOTE: Each partial is in the order of the statistics
+        private final List<CalculatedValue<?>[]> _partials;
     }
 
     /**
@@ -438,115 +1001,146 @@ import java.util.function.BiFunction;
         }
 
         /**
-         * Set the specified timer statistics. Cannot be null or empty.
+         * Set the plan for timer metrics without specified statistics. Cannot be null.
          *
-         * @param value The specified timer statistics.
+         * @param value The timer plan.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setSpecifiedTimerStatistics(final ImmutableSet<Statistic> value) {
-            _specifiedTimerStatistics = value;
+        public Builder setTimerPlan(final CalculatorPlan value) {
+            _timerPlan = value;
             return this;
         }
 
         /**
-         * Set the specified counter statistics. Cannot be null or empty.
+         * Set the plan for counter metrics without specified statistics. Cannot be null.
          *
-         * @param value The specified counter statistics.
+         * @param value The counter plan.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setSpecifiedCounterStatistics(final ImmutableSet<Statistic> value) {
-            _specifiedCounterStatistics = value;
+        public Builder setCounterPlan(final CalculatorPlan value) {
+            _counterPlan = value;
             return this;
         }
 
         /**
-         * Set the specified gauge statistics. Cannot be null or empty.
+         * Set the plan for gauge metrics without specified statistics. Cannot be null.
          *
-         * @param value The specified gauge statistics.
+         * @param value The gauge plan.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setSpecifiedGaugeStatistics(final ImmutableSet<Statistic> value) {
-            _specifiedGaugeStatistics = value;
+        public Builder setGaugePlan(final CalculatorPlan value) {
+            _gaugePlan = value;
             return this;
         }
 
         /**
-         * Set the dependent timer statistics. Cannot be null or empty.
+         * Set the start. Cannot be null or empty.
          *
-         * @param value The dependent timer statistics.
+         * @param value The start.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setDependentTimerStatistics(final ImmutableSet<Statistic> value) {
-            _dependentTimerStatistics = value;
+        public Builder setStart(final DateTime value) {
+            _start = value;
             return this;
         }
 
         /**
-         * Set the dependent counter statistics. Cannot be null or empty.
+         * Set the period. Cannot be null or empty.
          *
-         * @param value The dependent counter statistics.
+         * @param value The period.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setDependentCounterStatistics(final ImmutableSet<Statistic> value) {
-            _dependentCounterStatistics = value;
+        public Builder setPeriod(final Period value) {
+            _period = value;
             return this;
         }
 
         /**
-         * Set the dependent gauge statistics. Cannot be null or empty.
+         * Set the plan of the specified statistics for a given metric. The
+         * plan is absent for metrics without specified statistics. Cannot be
+         * null.
          *
-         * @param value The dependent gauge statistics.
+         * @param value The plan for a given metric.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setDependentGaugeStatistics(final ImmutableSet<Statistic> value) {
-            _dependentGaugeStatistics = value;
+        public Builder setPlans(final LoadingCache<String, Optional<CalculatorPlan>> value) {
+            _plans = value;
             return this;
         }
 
         /**
-         * Set the start. Cannot be null or empty.
+         * Set the storage used for histograms. Optional. Cannot be null.
+         * Default is <code>TREE</code>.
          *
-         * @param value The start.
+         * @param value The histogram type.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setStart(final DateTime value) {
-            _start = value;
+        public Builder setHistogramType(final HistogramStatistic.HistogramType value) {
+            _histogramType = value;
             return this;
         }
 
         /**
-         * Set the period. Cannot be null or empty.
+         * Set the histogram precision for a given metric. Optional. Cannot be
+         * null. Default is <code>HistogramStatistic.DEFAULT_PRECISION</code>
+         * for every metric.
          *
-         * @param value The period.
+         * @param value The histogram precision for a given metric.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setPeriod(final Period value) {
-            _period = value;
+        public Builder setHistogramPrecision(final Function<String, Integer> value) {
+            _histogramPrecision = value;
             return this;
         }
 
         /**
-         * Set the specified statistics for a given metric. Cannot be null or empty.
+         * Set the relative accuracy of quantile sketches. Optional. Cannot be
+         * null. Default is <code>SketchStatistic.DEFAULT_RELATIVE_ACCURACY</code>.
          *
-         * @param value The dependent timer statistics.
+         * @param value The relative accuracy of quantile sketches.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setSpecifiedStatistics(final LoadingCache<String, Optional<ImmutableSet<Statistic>>> value) {
-            _specifiedStatistics = value;
+        public Builder setSketchRelativeAccuracy(final Double value) {
+            _sketchRelativeAccuracy = value;
             return this;
         }
 
         /**
-         * Set the dependent statistics for a given metric. Cannot be null or empty.
+         * Set the maximum number of buckets of quantile sketches. Optional.
+         * Cannot be null. Default is <code>SketchStatistic.DEFAULT_MAXIMUM_BUCKETS</code>.
          *
-         * @param value The dependent timer statistics.
+         * @param value The maximum number of buckets of quantile sketches.
          * @return This <code>Builder</code> instance.
          */
-        public Builder setDependentStatistics(final LoadingCache<String, Optional<ImmutableSet<Statistic>>> value) {
-            _dependentStatistics = value;
+        public Builder setSketchMaximumBuckets(final Integer value) {
+            _sketchMaximumBuckets = value;
             return this;
         }
 
+        /**
+         * Set the allocator for off-heap histogram storage. Each bucket
+         * allocates from its own arena which is released when the bucket is
+         * closed. Optional. Default is to store histograms on-heap.
+         *
+         * @param value The off-heap allocator.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSlabAllocator(@Nullable final SlabAllocator value) {
+            _slabAllocator = value;
+            return this;
+        }
+
+        /**
+         * Set the consumer of the <code>Rollup</code> of the bucket when it is
+         * closed. Optional. Default is not to roll up the bucket.
+         *
+         * @param value The consumer of the rollup.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setRollup(@Nullable final Consumer<Rollup> value) {
+            _rollup = value;
+            return this;
+        }
 
         /**
          * Generate a Steno log compatible representation.
@@ -560,12 +1154,12 @@ import java.util.function.BiFunction;
                     .put("key", _key)
                     .put("start", _start)
                     .put("period", _period)
-                    .put("specifiedTimerStatistics", _specifiedTimerStatistics)
-                    .put("specifiedCounterStatistics", _specifiedCounterStatistics)
-                    .put("specifiedGaugeStatistics", _specifiedGaugeStatistics)
-                    .put("dependentTimerStatistics", _dependentTimerStatistics)
-                    .put("dependentCounterStatistics", _dependentCounterStatistics)
-                    .put("dependentGaugeStatistics", _dependentGaugeStatistics)
+                    .put("timerPlan", _timerPlan)
+                    .put("counterPlan", _counterPlan)
+                    .put("gaugePlan", _gaugePlan)
+                    .put("histogramType", _histogramType)
+                    .put("sketchRelativeAccuracy", _sketchRelativeAccuracy)
+                    .put("sketchMaximumBuckets", _sketchMaximumBuckets)
                     .build();
         }
 
@@ -583,20 +1177,22 @@ import java.util.function.BiFunction;
         @NotNull
         private Period _period;
         @NotNull
-        private ImmutableSet<Statistic> _specifiedTimerStatistics;
+        private CalculatorPlan _timerPlan;
         @NotNull
-        private ImmutableSet<Statistic> _specifiedCounterStatistics;
+        private CalculatorPlan _counterPlan;
         @NotNull
-        private ImmutableSet<Statistic> _specifiedGaugeStatistics;
+        private CalculatorPlan _gaugePlan;
         @NotNull
-        private ImmutableSet<Statistic> _dependentTimerStatistics;
+        private LoadingCache<String, Optional<CalculatorPlan>> _plans;
         @NotNull
-        private ImmutableSet<Statistic> _dependentCounterStatistics;
+        private HistogramStatistic.HistogramType _histogramType = HistogramStatistic.HistogramType.TREE;
         @NotNull
-        private ImmutableSet<Statistic> _dependentGaugeStatistics;
+        private Function<String, Integer> _histogramPrecision = metric -> HistogramStatistic.DEFAULT_PRECISION;
         @NotNull
-        private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _specifiedStatistics;
+        private Double _sketchRelativeAccuracy = SketchStatistic.DEFAULT_RELATIVE_ACCURACY;
         @NotNull
-        private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _dependentStatistics;
+        private Integer _sketchMaximumBuckets = SketchStatistic.DEFAULT_MAXIMUM_BUCKETS;
+        private SlabAllocator _slabAllocator;
+        private Consumer<Rollup> _rollup;
     }
 }
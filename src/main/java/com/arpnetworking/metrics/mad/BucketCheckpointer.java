@@ -0,0 +1,305 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Checkpoints the accumulated state of open buckets to a local file so that
+ * it can be restored after a restart. The file is an append-only log; each
+ * checkpoint appends the state of the buckets modified since the previous
+ * checkpoint and a tombstone for each checkpointed bucket which has since
+ * closed. The log is compacted by rewriting the state of every open bucket
+ * once it grows to twice the size of the live state. Buckets closed after
+ * the last checkpoint are restored and published again. This class is
+ * thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class BucketCheckpointer implements Closeable {
+
+    /**
+     * Read the checkpoint file and restore the last checkpointed state of
+     * each bucket which was open. Invalid entries are skipped and reading
+     * stops at a truncated entry.
+     *
+     * @param restorer Receives the state of each open bucket.
+     * @throws IOException if the checkpoint file cannot be read.
+     */
+    public synchronized void restore(final Restorer restorer) throws IOException {
+        if (!Files.exists(_file)) {
+            return;
+        }
+
+        // The last entry for each bucket wins
+        final Map<List<Object>, byte[]> entries = Maps.newLinkedHashMap();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(_file)))) {
+            while (true) {
+                final byte[] entry;
+                try {
+                    final int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException("Invalid entry length: " + length);
+                    }
+                    entry = new byte[length];
+                    in.readFully(entry);
+                } catch (final EOFException e) {
+                    break;
+                }
+                final DataInput entryIn = new DataInputStream(new ByteArrayInputStream(entry));
+                try {
+                    final byte type = entryIn.readByte();
+                    final List<Object> identifier = ImmutableList.of(
+                            readKey(entryIn),
+                            Period.parse(entryIn.readUTF()),
+                            entryIn.readLong());
+                    if (type == TOMBSTONE) {
+                        entries.remove(identifier);
+                    } else {
+                        entries.put(identifier, entry);
+                    }
+                } catch (final IOException | IllegalArgumentException e) {
+                    LOGGER.warn()
+                            .setMessage("Skipping invalid checkpoint entry")
+                            .addData("file", _file)
+                            .setThrowable(e)
+                            .log();
+                }
+            }
+        }
+
+        int restored = 0;
+        for (final byte[] entry : entries.values()) {
+            final DataInput entryIn = new DataInputStream(new ByteArrayInputStream(entry));
+            try {
+                entryIn.readByte();
+                final Key key = readKey(entryIn);
+                final Period period = Period.parse(entryIn.readUTF());
+                final DateTime start = new DateTime(entryIn.readLong());
+                restorer.restore(key, period, Bucket.Rollup.readFrom(entryIn, start));
+                ++restored;
+            } catch (final IOException | IllegalArgumentException e) {
+                LOGGER.warn()
+                        .setMessage("Skipping invalid checkpoint entry")
+                        .addData("file", _file)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+        LOGGER.info()
+                .setMessage("Restored checkpoint")
+                .addData("file", _file)
+                .addData("buckets", restored)
+                .log();
+    }
+
+    /**
+     * Checkpoint the state of the open buckets. Only buckets modified since
+     * the previous checkpoint are written unless the log is compacted.
+     *
+     * @param buckets The open buckets.
+     * @throws IOException if the checkpoint file cannot be written.
+     */
+    public synchronized void checkpoint(final Collection<Bucket> buckets) throws IOException {
+        final Set<Bucket> openBuckets = Collections.newSetFromMap(new IdentityHashMap<>());
+        openBuckets.addAll(buckets);
+
+        if (_out == null || (_logBytes > MINIMUM_COMPACTION_BYTES && _logBytes > 2 * _liveBytes)) {
+            compact(openBuckets);
+            return;
+        }
+
+        // Tombstones are written before any bucket reopened for the same start
+        final Iterator<Map.Entry<Bucket, Integer>> iterator = _entryBytes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Bucket, Integer> entry = iterator.next();
+            if (!openBuckets.contains(entry.getKey())) {
+                _logBytes += writeEntry(_out, entry.getKey(), null);
+                _liveBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+        for (final Bucket bucket : openBuckets) {
+            final Bucket.Rollup rollup = bucket.checkpoint(false);
+            if (rollup != null) {
+                final int bytes = writeEntry(_out, bucket, rollup);
+                final Integer previousBytes = _entryBytes.put(bucket, bytes);
+                _logBytes += bytes;
+                _liveBytes += bytes - (previousBytes == null ? 0 : previousBytes);
+            }
+        }
+        _out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (_out != null) {
+            _out.close();
+            _out = null;
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("file", _file)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void compact(final Set<Bucket> openBuckets) throws IOException {
+        close();
+        _entryBytes.clear();
+        _liveBytes = 0;
+
+        final Path temporaryFile = Paths.get(_file.toAbsolutePath().toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            for (final Bucket bucket : openBuckets) {
+                final Bucket.Rollup rollup = bucket.checkpoint(true);
+                if (rollup != null) {
+                    final int bytes = writeEntry(out, bucket, rollup);
+                    _entryBytes.put(bucket, bytes);
+                    _liveBytes += bytes;
+                }
+            }
+        }
+        Files.move(temporaryFile, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        _logBytes = _liveBytes;
+        _out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(_file, StandardOpenOption.APPEND)));
+
+        LOGGER.debug()
+                .setMessage("Compacted checkpoint")
+                .addData("file", _file)
+                .addData("buckets", _entryBytes.size())
+                .addData("bytes", _logBytes)
+                .log();
+    }
+
+    private int writeEntry(
+            final DataOutputStream out,
+            final Bucket bucket,
+            @Nullable final Bucket.Rollup rollup) throws IOException {
+        _buffer.reset();
+        final DataOutputStream entryOut = new DataOutputStream(_buffer);
+        entryOut.writeByte(rollup == null ? TOMBSTONE : STATE);
+        final ImmutableMap<String, String> dimensions = bucket.getKey().getParameters();
+        entryOut.writeInt(dimensions.size());
+        for (final Map.Entry<String, String> dimension : dimensions.entrySet()) {
+            entryOut.writeUTF(dimension.getKey());
+            entryOut.writeUTF(dimension.getValue());
+        }
+        entryOut.writeUTF(bucket.getPeriod().toString());
+        entryOut.writeLong(bucket.getStart().getMillis());
+        if (rollup != null) {
+            rollup.writeTo(entryOut);
+        }
+        entryOut.flush();
+
+        out.writeInt(_buffer.size());
+        _buffer.writeTo(out);
+        return Integer.BYTES + _buffer.size();
+    }
+
+    private static Key readKey(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final ImmutableMap.Builder<String, String> dimensions = ImmutableMap.builder();
+        for (int i = 0; i < size; ++i) {
+            dimensions.put(in.readUTF(), in.readUTF());
+        }
+        return new DefaultKey(dimensions.build());
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param file The checkpoint file.
+     */
+    /* package private */ BucketCheckpointer(final Path file) {
+        _file = file;
+    }
+
+    private final Path _file;
+    // NOTE: The following are guarded by this instance
+    private final Map<Bucket, Integer> _entryBytes = new IdentityHashMap<>();
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+    private DataOutputStream _out;
+    private long _logBytes;
+    private long _liveBytes;
+
+    private static final byte STATE = 1;
+    private static final byte TOMBSTONE = 2;
+    private static final long MINIMUM_COMPACTION_BYTES = 1 << 20;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BucketCheckpointer.class);
+
+    /**
+     * Receives the restored state of an open bucket.
+     */
+    /* package private */ interface Restorer {
+
+        /**
+         * Restore the state of an open bucket.
+         *
+         * @param key The <code>Key</code> of the bucket.
+         * @param period The <code>Period</code> of the bucket.
+         * @param rollup The accumulated state of the bucket.
+         */
+        void restore(Key key, Period period, Bucket.Rollup rollup);
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.tsdcore.statistics.Accumulator;
+import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.arpnetworking.tsdcore.statistics.TPStatistic;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The immutable plan for computing the statistics of a metric. The plan
+ * orders the statistics such that each statistic follows the statistics it
+ * depends on, indexes them by position and records which statistics were
+ * specified (and are therefore published) in a bitmask. The calculators for
+ * a metric are an array in plan order which is evaluated at close without
+ * building a dependency map.
+ *
+ * Plans are created once per pipeline for each metric type and cached with
+ * the specified statistics of each metric so that buckets do not plan.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class CalculatorPlan {
+
+    /**
+     * Create the plan for a set of specified and dependent statistics.
+     *
+     * @param specifiedStatistics The statistics to publish.
+     * @param dependentStatistics The statistics required to compute those published.
+     * @return The <code>CalculatorPlan</code> instance.
+     */
+    public static CalculatorPlan of(
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics) {
+        return new CalculatorPlan(specifiedStatistics, dependentStatistics);
+    }
+
+    /**
+     * Create a new calculator for each statistic in plan order.
+     *
+     * @return Array of new <code>Calculator</code> instances.
+     */
+    public Calculator<?>[] createCalculators() {
+        return createCalculators(Statistic::createCalculator);
+    }
+
+    /**
+     * Create a new calculator for each statistic in plan order.
+     *
+     * @param calculatorFactory Creates the <code>Calculator</code> for a <code>Statistic</code>.
+     * @return Array of new <code>Calculator</code> instances.
+     */
+    public Calculator<?>[] createCalculators(final Function<Statistic, Calculator<?>> calculatorFactory) {
+        final Calculator<?>[] calculators = new Calculator<?>[_statistics.size()];
+        for (int i = 0; i < calculators.length; ++i) {
+            calculators[i] = calculatorFactory.apply(_statistics.get(i));
+        }
+        return calculators;
+    }
+
+    /**
+     * Create a read-only view of calculators created by this plan keyed by
+     * their statistic for use as calculator dependencies.
+     *
+     * @param calculators The calculators in plan order.
+     * @return The calculators keyed by statistic.
+     */
+    public Map<Statistic, Calculator<?>> asDependencies(final Calculator<?>[] calculators) {
+        return new Dependencies(_indices, calculators);
+    }
+
+    public int size() {
+        return _statistics.size();
+    }
+
+    public ImmutableList<Statistic> getStatistics() {
+        return _statistics;
+    }
+
+    public int getCountIndex() {
+        return _countIndex;
+    }
+
+    /**
+     * Accessor for the plan indices of the accumulators. The array is shared
+     * and must not be modified.
+     *
+     * @return The plan indices of the accumulators in plan order.
+     */
+    public int[] getAccumulatorIndices() {
+        return _accumulatorIndices;
+    }
+
+    public ImmutableList<Statistic> getAccumulatorStatistics() {
+        return _accumulatorStatistics;
+    }
+
+    /**
+     * Accessor for the distinct percentiles of the percentile statistics in
+     * the plan which are evaluated together from the histogram. The array is
+     * shared and must not be modified.
+     *
+     * @return The percentiles in ascending order.
+     */
+    public double[] getPercentiles() {
+        return _percentiles;
+    }
+
+    /**
+     * Whether the statistic at the specified plan index was specified.
+     *
+     * @param index The plan index.
+     * @return True if and only if the statistic is published as specified.
+     */
+    public boolean isSpecified(final int index) {
+        return (_specified[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("statistics", _statistics)
+                .put("countIndex", _countIndex)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private static void visit(
+            final Statistic statistic,
+            final Set<Statistic> included,
+            final Set<Statistic> ordered) {
+        if (ordered.contains(statistic)) {
+            return;
+        }
+        // NOTE: Only dependencies which are part of the plan are ordered;
+        // the dependent statistics supplied by the caller are authoritative.
+        for (final Statistic dependency : statistic.getDependencies()) {
+            if (included.contains(dependency) && !dependency.equals(statistic)) {
+                visit(dependency, included, ordered);
+            }
+        }
+        ordered.add(statistic);
+    }
+
+    private CalculatorPlan(
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics) {
+        final Set<Statistic> included = new LinkedHashSet<>();
+        included.addAll(specifiedStatistics);
+        included.addAll(dependentStatistics);
+        included.add(COUNT_STATISTIC);
+
+        final Set<Statistic> ordered = new LinkedHashSet<>();
+        for (final Statistic statistic : included) {
+            visit(statistic, included, ordered);
+        }
+        _statistics = ImmutableList.copyOf(ordered);
+
+        final ImmutableMap.Builder<Statistic, Integer> indices = ImmutableMap.builder();
+        final List<Integer> accumulatorIndices = Lists.newArrayList();
+        final ImmutableList.Builder<Statistic> accumulatorStatistics = ImmutableList.builder();
+        final Set<Double> percentiles = new LinkedHashSet<>();
+        _specified = new long[(_statistics.size() + 63) >>> 6];
+        for (int i = 0; i < _statistics.size(); ++i) {
+            final Statistic statistic = _statistics.get(i);
+            indices.put(statistic, i);
+            if (specifiedStatistics.contains(statistic)) {
+                _specified[i >>> 6] |= 1L << i;
+            }
+            if (statistic.createCalculator() instanceof Accumulator) {
+                accumulatorIndices.add(i);
+                accumulatorStatistics.add(statistic);
+            }
+            if (statistic instanceof TPStatistic) {
+                percentiles.add(((TPStatistic) statistic).getPercentile());
+            }
+        }
+        _indices = indices.build();
+        _accumulatorIndices = Ints.toArray(accumulatorIndices);
+        _accumulatorStatistics = accumulatorStatistics.build();
+        _percentiles = percentiles.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(_percentiles);
+        _countIndex = _indices.get(COUNT_STATISTIC);
+    }
+
+    private final ImmutableList<Statistic> _statistics;
+    private final ImmutableMap<Statistic, Integer> _indices;
+    private final long[] _specified;
+    private final int[] _accumulatorIndices;
+    private final ImmutableList<Statistic> _accumulatorStatistics;
+    private final double[] _percentiles;
+    private final int _countIndex;
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+
+    private static final class Dependencies extends AbstractMap<Statistic, Calculator<?>> {
+
+        @Override
+        public Calculator<?> get(final Object key) {
+            final Integer index = _indices.get(key);
+            return index == null ? null : _calculators[index];
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return _indices.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return _calculators.length;
+        }
+
+        @Override
+        public Set<Entry<Statistic, Calculator<?>>> entrySet() {
+            final ImmutableMap.Builder<Statistic, Calculator<?>> entries = ImmutableMap.builder();
+            for (final Map.Entry<Statistic, Integer> entry : _indices.entrySet()) {
+                entries.put(entry.getKey(), _calculators[entry.getValue()]);
+            }
+            return entries.build().entrySet();
+        }
+
+        private Dependencies(final ImmutableMap<Statistic, Integer> indices, final Calculator<?>[] calculators) {
+            _indices = indices;
+            _calculators = calculators;
+        }
+
+        private final ImmutableMap<Statistic, Integer> _indices;
+        private final Calculator<?>[] _calculators;
+    }
+}
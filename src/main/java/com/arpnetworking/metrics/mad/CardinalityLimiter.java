@@ -0,0 +1,467 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Metric;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.utility.HyperLogLog;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+import org.joda.time.Period;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Limits the number of distinct series and metric names each service may
+ * create. The distinct series, identified by their dimensions, and metric
+ * names of each service are counted over a window. When limited they are
+ * counted exactly in a set of their 64-bit murmur3 hashes which holds at most
+ * the limit; otherwise they are estimated with a <code>HyperLogLog</code>
+ * sketch. Once a count reaches its limit only elements already admitted are
+ * admitted; records of new series are rejected or collapsed into an overflow
+ * series of the service, and new metric names are rejected or collapsed into
+ * an overflow counter of the number of samples. At the end of each window the
+ * admitted elements not seen during it are released; those seen keep their
+ * admission so that new elements cannot displace them when the window resets.
+ * Estimated counts are reset at the end of each window. This class is thread
+ * safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class CardinalityLimiter {
+
+    /**
+     * Apply the limits to a record and resolve the key it is aggregated by.
+     * The key of the record's dimensions is reused unless the dimensions are
+     * collapsed to comply with the limits.
+     *
+     * @param record The record.
+     * @param keyFactory Creates the key of dimensions.
+     * @param consumer Receives the key and the record to aggregate, if any.
+     */
+    public void limit(
+            final Record record,
+            final Function<ImmutableMap<String, String>, DefaultKey> keyFactory,
+            final BiConsumer<Key, Record> consumer) {
+        final DefaultKey key = keyFactory.apply(record.getDimensions());
+        final Optional<Record> limited = limit(key, record);
+        if (limited.isPresent()) {
+            final ImmutableMap<String, String> dimensions = limited.get().getDimensions();
+            consumer.accept(dimensions == record.getDimensions() ? key : keyFactory.apply(dimensions), limited.get());
+        }
+    }
+
+    /**
+     * Apply the limits to a record. The record returned is the specified
+     * record unless it is changed to comply with the limits.
+     *
+     * @param key The key of the record's dimensions.
+     * @param record The record.
+     * @return The record to aggregate, if any.
+     */
+    public Optional<Record> limit(final DefaultKey key, final Record record) {
+        final long now = System.currentTimeMillis();
+        if (now >= _windowEnd) {
+            resetWindow(now);
+        }
+
+        final ImmutableMap<String, String> dimensions = record.getDimensions();
+        final ServiceCardinality service = _services.computeIfAbsent(
+                dimensions.getOrDefault(Key.SERVICE_DIMENSION_KEY, ""),
+                k -> new ServiceCardinality(_maxSeries, _maxMetrics));
+
+        final ImmutableMap<String, ? extends Metric> recordMetrics = record.getMetrics();
+        final boolean isSeriesAdmitted;
+        // NOTE: The admitted metrics are only copied once a metric is not admitted
+        Map<String, Metric> admittedMetrics = null;
+        double overflowSamples = 0;
+        synchronized (service) {
+            // NOTE: The key hash is the murmur3 hash of the dimensions computed when the key was created
+            isSeriesAdmitted = service._series.admit(key.getHash());
+            if (!isSeriesAdmitted && _overflowPolicy == OverflowPolicy.REJECT) {
+                // NOTE: The metric names of rejected series do not count against the limit
+                service._rejectedSeries.incrementAndGet();
+                return Optional.empty();
+            }
+            int index = 0;
+            for (final Map.Entry<String, ? extends Metric> entry : recordMetrics.entrySet()) {
+                if (!service._metrics.admit(HASH_FUNCTION.hashUnencodedChars(entry.getKey()).asLong())) {
+                    if (admittedMetrics == null) {
+                        admittedMetrics = Maps.newLinkedHashMap();
+                        for (final Map.Entry<String, ? extends Metric> admitted
+                                : Iterables.limit(recordMetrics.entrySet(), index)) {
+                            admittedMetrics.put(admitted.getKey(), admitted.getValue());
+                        }
+                    }
+                    service._rejectedMetrics.incrementAndGet();
+                    for (final Quantity quantity : entry.getValue().getValues()) {
+                        overflowSamples += quantity.getWeight();
+                    }
+                } else if (admittedMetrics != null) {
+                    admittedMetrics.put(entry.getKey(), entry.getValue());
+                }
+                ++index;
+            }
+        }
+        if (!isSeriesAdmitted) {
+            service._rejectedSeries.incrementAndGet();
+        }
+        if (isSeriesAdmitted && admittedMetrics == null) {
+            return Optional.of(record);
+        }
+
+        if (_overflowPolicy == OverflowPolicy.REJECT) {
+            if (admittedMetrics.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(rebuild(record, dimensions, admittedMetrics));
+        }
+
+        // Collapse into the overflow series and the overflow metric
+        if (admittedMetrics != null) {
+            admittedMetrics.put(
+                    OVERFLOW_METRIC,
+                    new DefaultMetric.Builder()
+                            .setType(MetricType.COUNTER)
+                            .setValues(ImmutableList.of(new Quantity.Builder().setValue(overflowSamples).build()))
+                            .build());
+        }
+        return Optional.of(rebuild(
+                record,
+                isSeriesAdmitted ? dimensions : overflowDimensions(dimensions),
+                admittedMetrics == null ? recordMetrics : admittedMetrics));
+    }
+
+    /**
+     * Accessor for the estimated cardinality and the number of rejections
+     * of each service in the current window. Rejection counts are
+     * cumulative.
+     *
+     * @return The status of each service by name.
+     */
+    public ImmutableMap<String, ImmutableMap<String, Long>> getStatus() {
+        final ImmutableMap.Builder<String, ImmutableMap<String, Long>> status = ImmutableMap.builder();
+        for (final Map.Entry<String, ServiceCardinality> entry : _services.entrySet()) {
+            final ServiceCardinality service = entry.getValue();
+            status.put(
+                    entry.getKey(),
+                    ImmutableMap.of(
+                            "series", service._series.getCount(),
+                            "metrics", service._metrics.getCount(),
+                            "rejectedSeries", service._rejectedSeries.get(),
+                            "rejectedMetrics", service._rejectedMetrics.get()));
+        }
+        return status.build();
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("name", _name)
+                .put("maxSeries", _maxSeries)
+                .put("maxMetrics", _maxMetrics)
+                .put("overflowPolicy", _overflowPolicy)
+                .put("window", _windowMillis)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ synchronized void resetWindow(final long now) {
+        if (now < _windowEnd) {
+            return;
+        }
+        for (final Map.Entry<String, ServiceCardinality> entry : _services.entrySet()) {
+            final ServiceCardinality service = entry.getValue();
+            if (service._rejectedSeries.get() > 0 || service._rejectedMetrics.get() > 0) {
+                LOGGER.warn()
+                        .setMessage("Service exceeded cardinality limit")
+                        .addData("pipeline", _name)
+                        .addData("service", entry.getKey())
+                        .addData("series", service._series.getCount())
+                        .addData("metrics", service._metrics.getCount())
+                        .addData("rejectedSeries", service._rejectedSeries.get())
+                        .addData("rejectedMetrics", service._rejectedMetrics.get())
+                        .log();
+            }
+            synchronized (service) {
+                service._series.reset();
+                service._metrics.reset();
+            }
+        }
+        _windowEnd = now + _windowMillis;
+    }
+
+    private static Record rebuild(
+            final Record record,
+            final ImmutableMap<String, String> dimensions,
+            final Map<String, ? extends Metric> metrics) {
+        return new DefaultRecord.Builder()
+                .setId(record.getId())
+                .setTime(record.getTime())
+                .setAnnotations(record.getAnnotations())
+                .setDimensions(dimensions)
+                .setMetrics(ImmutableMap.copyOf(metrics))
+                .build();
+    }
+
+    private static ImmutableMap<String, String> overflowDimensions(final ImmutableMap<String, String> dimensions) {
+        final ImmutableMap.Builder<String, String> overflowDimensions = ImmutableMap.builder();
+        for (final String dimension : RETAINED_DIMENSIONS) {
+            final String value = dimensions.get(dimension);
+            if (value != null) {
+                overflowDimensions.put(dimension, value);
+            }
+        }
+        overflowDimensions.put(OVERFLOW_DIMENSION, "true");
+        return overflowDimensions.build();
+    }
+
+    private CardinalityLimiter(final Builder builder) {
+        _name = builder._name;
+        _maxSeries = Optional.ofNullable(builder._maxSeries);
+        _maxMetrics = Optional.ofNullable(builder._maxMetrics);
+        _overflowPolicy = builder._overflowPolicy;
+        _windowMillis = builder._window.toStandardDuration().getMillis();
+        _windowEnd = System.currentTimeMillis() + _windowMillis;
+    }
+
+    private final String _name;
+    private final Optional<Integer> _maxSeries;
+    private final Optional<Integer> _maxMetrics;
+    private final OverflowPolicy _overflowPolicy;
+    private final long _windowMillis;
+    private final ConcurrentMap<String, ServiceCardinality> _services = Maps.newConcurrentMap();
+    private volatile long _windowEnd;
+
+    private static final int PRECISION = 12;
+    private static final String OVERFLOW_DIMENSION = "cardinality_overflow";
+    private static final String OVERFLOW_METRIC = "cardinality_overflow";
+    private static final ImmutableList<String> RETAINED_DIMENSIONS = ImmutableList.of(
+            Key.HOST_DIMENSION_KEY,
+            Key.SERVICE_DIMENSION_KEY,
+            Key.CLUSTER_DIMENSION_KEY);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final Logger LOGGER = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+    /**
+     * The action taken for records of a service exceeding a limit.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop records of new series and samples of new metric names.
+         */
+        REJECT,
+        /**
+         * Aggregate records of new series into an overflow series keeping
+         * only the host, service and cluster dimensions, and count samples
+         * of new metric names in an overflow counter.
+         */
+        COLLAPSE
+    }
+
+    private static final class ServiceCardinality {
+
+        private ServiceCardinality(final Optional<Integer> maxSeries, final Optional<Integer> maxMetrics) {
+            _series = new Cardinality(maxSeries);
+            _metrics = new Cardinality(maxMetrics);
+        }
+
+        // NOTE: The cardinalities are guarded by this instance
+        private final Cardinality _series;
+        private final Cardinality _metrics;
+        private final AtomicLong _rejectedSeries = new AtomicLong();
+        private final AtomicLong _rejectedMetrics = new AtomicLong();
+    }
+
+    private static final class Cardinality {
+
+        private boolean admit(final long hash) {
+            if (_admitted != null) {
+                // NOTE: A sketch cannot decide membership so limited elements are admitted exactly
+                if (!_admitted.contains(hash)) {
+                    if (_admitted.size() >= _limit) {
+                        return false;
+                    }
+                    _admitted.add(hash);
+                    _count = _admitted.size();
+                }
+                _seen.add(hash);
+            } else if (_sketch.add(hash)) {
+                _count = _sketch.estimate();
+            }
+            return true;
+        }
+
+        private void reset() {
+            if (_admitted != null) {
+                // NOTE: Only the admitted elements seen in the window remain admitted
+                final LongOpenHashSet released = _admitted;
+                _admitted = _seen;
+                _seen = released;
+                _seen.clear();
+                _seen.trim();
+                _count = _admitted.size();
+            } else {
+                _sketch.clear();
+                _count = 0;
+            }
+        }
+
+        private long getCount() {
+            return _count;
+        }
+
+        private Cardinality(final Optional<Integer> limit) {
+            _limit = limit.orElse(Integer.MAX_VALUE);
+            _admitted = limit.isPresent() ? new LongOpenHashSet() : null;
+            _seen = limit.isPresent() ? new LongOpenHashSet() : null;
+            _sketch = limit.isPresent() ? null : new HyperLogLog(PRECISION);
+        }
+
+        private final int _limit;
+        @Nullable
+        private LongOpenHashSet _admitted;
+        @Nullable
+        private LongOpenHashSet _seen;
+        @Nullable
+        private final HyperLogLog _sketch;
+        private volatile long _count;
+    }
+
+    /**
+     * Implementation of builder pattern for <code>CardinalityLimiter</code>.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class Builder extends OvalBuilder<CardinalityLimiter> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(CardinalityLimiter::new);
+        }
+
+        /**
+         * The name of the pipeline. Cannot be null or empty.
+         *
+         * @param value The name of the pipeline.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setName(final String value) {
+            _name = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct series per service in each window.
+         * Optional. Must be at least one. Default is unlimited.
+         *
+         * @param value The maximum number of series per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxSeries(@Nullable final Integer value) {
+            _maxSeries = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct metric names per service in each
+         * window. Optional. Must be at least one. Default is unlimited.
+         *
+         * @param value The maximum number of metric names per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxMetrics(@Nullable final Integer value) {
+            _maxMetrics = value;
+            return this;
+        }
+
+        /**
+         * The action taken for records exceeding a limit. Optional. Cannot
+         * be null. Default is <code>REJECT</code>.
+         *
+         * @param value The overflow policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverflowPolicy(final OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * The window over which cardinality is estimated. Optional. Cannot
+         * be null. Default is one hour.
+         *
+         * @param value The window.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setWindow(final Period value) {
+            _window = value;
+            return this;
+        }
+
+        @NotNull
+        @NotEmpty
+        private String _name;
+        @Min(1)
+        private Integer _maxSeries;
+        @Min(1)
+        private Integer _maxMetrics;
+        @NotNull
+        private OverflowPolicy _overflowPolicy = OverflowPolicy.REJECT;
+        @NotNull
+        private Period _window = Period.hours(1);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the <code>CardinalityLimiter</code> of each running pipeline so that
+ * their estimates can be reported on the status endpoint. This class is
+ * thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class CardinalityLimiterRegistry {
+
+    /**
+     * Register the limiter of a pipeline replacing any limiter registered
+     * under the same pipeline name.
+     *
+     * @param limiter The <code>CardinalityLimiter</code> to register.
+     */
+    public void register(final CardinalityLimiter limiter) {
+        _limiters.put(limiter.getName(), limiter);
+    }
+
+    /**
+     * Unregister the limiter of a pipeline if it is still registered.
+     *
+     * @param limiter The <code>CardinalityLimiter</code> to unregister.
+     */
+    public void unregister(final CardinalityLimiter limiter) {
+        _limiters.remove(limiter.getName(), limiter);
+    }
+
+    /**
+     * Accessor for the status of each registered limiter.
+     *
+     * @return The status of each limiter by pipeline name.
+     */
+    public ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Long>>> getStatus() {
+        final ImmutableMap.Builder<String, ImmutableMap<String, ImmutableMap<String, Long>>> status = ImmutableMap.builder();
+        for (final Map.Entry<String, CardinalityLimiter> entry : _limiters.entrySet()) {
+            status.put(entry.getKey(), entry.getValue().getStatus());
+        }
+        return status.build();
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("limiters", _limiters.keySet())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final ConcurrentMap<String, CardinalityLimiter> _limiters = Maps.newConcurrentMap();
+}
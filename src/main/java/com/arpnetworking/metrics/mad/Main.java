@@ -59,6 +59,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -196,6 +197,8 @@ public final class Main implements Launchable {
         LOGGER.info().setMessage("Launching pipelines").log();
         _pipelinesLaunchable = new PipelinesLaunchable(
                 PipelineConfiguration.createObjectMapper(injector),
+                injector.getInstance(PeriodicMetrics.class),
+                injector.getInstance(CardinalityLimiterRegistry.class),
                 _configuration.getPipelinesDirectory());
         _pipelinesLaunchable.launch();
     }
@@ -223,6 +226,7 @@ public final class Main implements Launchable {
         final Routes routes = new Routes(
                 actorSystem,
                 injector.getInstance(PeriodicMetrics.class),
+                injector.getInstance(CardinalityLimiterRegistry.class),
                 _configuration.getHttpHealthCheckPath(),
                 _configuration.getHttpStatusPath(),
                 supplementalHttpRoutes.build());
@@ -351,8 +355,14 @@ public final class Main implements Launchable {
 
     private static final class PipelinesLaunchable implements Launchable, Runnable {
 
-        private PipelinesLaunchable(final ObjectMapper objectMapper, final File directory) {
+        private PipelinesLaunchable(
+                final ObjectMapper objectMapper,
+                final PeriodicMetrics periodicMetrics,
+                final CardinalityLimiterRegistry cardinalityLimiterRegistry,
+                final File directory) {
             _objectMapper = objectMapper;
+            _periodicMetrics = periodicMetrics;
+            _cardinalityLimiterRegistry = cardinalityLimiterRegistry;
             _directory = directory;
             _fileToPipelineLaunchables = Maps.newConcurrentMap();
         }
@@ -406,8 +416,9 @@ public final class Main implements Launchable {
                     .addData("configuration", file)
                     .log();
 
-            final Configurator<Pipeline, PipelineConfiguration> pipelineConfigurator =
-                    new Configurator<>(Pipeline::new, PipelineConfiguration.class);
+            final PipelineReconfigurator pipelineConfigurator = new PipelineReconfigurator(
+                    _periodicMetrics,
+                    _cardinalityLimiterRegistry);
             final DynamicConfiguration pipelineConfiguration = new DynamicConfiguration.Builder()
                     .setObjectMapper(_objectMapper)
                     .addSourceBuilder(getFileSourceBuilder(file))
@@ -438,6 +449,8 @@ public final class Main implements Launchable {
         }
 
         private final ObjectMapper _objectMapper;
+        private final PeriodicMetrics _periodicMetrics;
+        private final CardinalityLimiterRegistry _cardinalityLimiterRegistry;
         private final File _directory;
         private final Map<File, List<Launchable>> _fileToPipelineLaunchables;
 
@@ -492,9 +505,11 @@ public final class Main implements Launchable {
             bind(ActorSystem.class).toInstance(_actorSystem);
             bind(MetricsFactory.class).toInstance(_metricsFactory);
             bind(LifecycleRegistration.class).toInstance(_shutdown);
+            bind(CardinalityLimiterRegistry.class).asEagerSingleton();
         }
 
         @Provides
+        @Singleton
         @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD")
         private PeriodicMetrics providePeriodicMetrics(
                 final MetricsFactory metricsFactory,
@@ -21,20 +21,29 @@ import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.TimerWheel;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.concurrent.BlockingQueue;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 /**
  * Responsible for managing aggregation buckets for a period.
@@ -48,6 +57,7 @@ import java.util.concurrent.LinkedBlockingDeque;
      */
     public void shutdown() {
         _isRunning = false;
+        _recordQueue.signal();
     }
 
     /**
@@ -56,7 +66,70 @@ import java.util.concurrent.LinkedBlockingDeque;
      * @param record Instance of <code>Record</code> to process.
      */
     public void record(final Record record) {
-        _recordQueue.add(record);
+        record(record, true);
+    }
+
+    /**
+     * Process a <code>Record</code>.
+     *
+     * @param record Instance of <code>Record</code> to process.
+     * @param mayShed Whether the record may be shed when the queue is full.
+     * @return True if and only if the record was queued.
+     */
+    public boolean record(final Record record, final boolean mayShed) {
+        _pendingRecords.incrementAndGet();
+        if (!_recordQueue.offer(record, mayShed)) {
+            _pendingRecords.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Process a batch of <code>Record</code> instances.
+     *
+     * @param records The <code>Record</code> instances to process.
+     * @param mayShed Whether the records may be shed when the queue is full.
+     * @return The number of records queued.
+     */
+    public int record(final List<Record> records, final boolean mayShed) {
+        _pendingRecords.addAndGet(records.size());
+        final int queued = _recordQueue.offerAll(records, mayShed);
+        if (queued < records.size()) {
+            _pendingRecords.addAndGet(queued - records.size());
+        }
+        return queued;
+    }
+
+    /**
+     * Merge the <code>Rollup</code> of a closed <code>Bucket</code> of a finer
+     * period into the bucket containing it.
+     *
+     * @param rollup The <code>Rollup</code> to merge.
+     */
+    public void rollup(final Bucket.Rollup rollup) {
+        if (_timerWheel == null) {
+            // NOTE: The owner processes and rotates all period workers of a key on one thread
+            merge(rollup);
+        } else {
+            _pendingRecords.incrementAndGet();
+            _pendingRollups.add(rollup);
+            _recordQueue.signal();
+        }
+    }
+
+    /**
+     * Whether the buckets of this <code>PeriodWorker</code> are populated by
+     * rolling up closed buckets of a finer period instead of by records.
+     *
+     * @return True if and only if this <code>PeriodWorker</code> is rolled up.
+     */
+    public boolean isRolledUp() {
+        return _isRolledUp;
+    }
+
+    public Period getPeriod() {
+        return _period;
     }
 
     @Override
@@ -70,32 +143,20 @@ import java.util.concurrent.LinkedBlockingDeque;
 
         while (_isRunning) {
             try {
-                DateTime now = DateTime.now();
-                final DateTime rotateAt = getRotateAt(now);
-                Duration timeToRotate = new Duration(now, rotateAt);
-                while (_isRunning && timeToRotate.isLongerThan(Duration.ZERO)) {
-                    // Process records or sleep
-                    Record recordToProcess = _recordQueue.poll();
-                    if (recordToProcess != null) {
-                        while (recordToProcess != null) {
-                            process(recordToProcess);
-                            recordToProcess = _recordQueue.poll();
-                        }
-                    } else {
-                        Thread.sleep(Math.min(timeToRotate.getMillis(), 100));
-                    }
-                    // Recompute time to close
-                    now = DateTime.now();
-                    timeToRotate = new Duration(now, rotateAt);
-                }
-                // Drain the record queue before rotating
-                final List<Record> recordsToProcess = Lists.newArrayList();
-                _recordQueue.drainTo(recordsToProcess);
-                for (final Record recordToProcess : recordsToProcess) {
-                    process(recordToProcess);
+                // Block until a record arrives or the timer wheel signals that
+                // a bucket expired; records queued before the signal are
+                // processed before rotating.
+                final Record record = _recordQueue.take();
+                if (record == null) {
+                    // NOTE: The rotation time is determined before merging
+                    // since it may depend on rollups pending at this time
+                    final long now = getRotationTime(
+                            _watermark == null ? System.currentTimeMillis() : _watermark.get());
+                    mergePending();
+                    rotate(now);
+                } else {
+                    processPending(record);
                 }
-                // Rotate
-                rotate(now);
             } catch (final InterruptedException e) {
                 Thread.interrupted();
                 LOGGER.warn()
@@ -124,6 +185,7 @@ import java.util.concurrent.LinkedBlockingDeque;
         return LogValueMapFactory.builder(this)
                 .put("period", _period)
                 .put("bucketBuilder", _bucketBuilder)
+                .put("recordQueue", _recordQueue)
                 .build();
     }
 
@@ -132,64 +194,197 @@ import java.util.concurrent.LinkedBlockingDeque;
         return toLogValue().toString();
     }
 
+    /**
+     * Whether this <code>PeriodWorker</code> has no pending records, no open
+     * buckets and has not processed a record for at least the specified
+     * duration. Callers must prevent concurrent calls to <code>record</code>
+     * for the result to remain valid.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @param idleTimeout The minimum time since the last processed record.
+     * @return True if and only if this <code>PeriodWorker</code> is idle.
+     */
+    /* package private */ boolean isIdle(final long now, final Duration idleTimeout) {
+        return _pendingRecords.get() == 0
+                && _bucketsByStart.isEmpty()
+                && now - _lastProcessedAt >= idleTimeout.getMillis();
+    }
+
     /* package private */ void process(final Record record) {
-        // Find an existing bucket for the record
-        final Duration timeout = getPeriodTimeout(_period);
+        _lastProcessedAt = System.currentTimeMillis();
         final DateTime start = getStartTime(record.getTime(), _period);
+        if (isLate(start)) {
+            _watermark.recordLate();
+            LOGGER.trace()
+                    .setMessage("Dropped late record")
+                    .addData("record", record)
+                    .addData("watermark", _watermark)
+                    .log();
+            return;
+        }
+        addToBucket(start, bucket -> bucket.add(record), record.getId());
+    }
+
+    /**
+     * Process the records still queued once this <code>PeriodWorker</code>
+     * has stopped.
+     */
+    /* package private */ void drain() {
+        Record record = _recordQueue.poll();
+        while (record != null) {
+            processPending(record);
+            record = _recordQueue.poll();
+        }
+    }
+
+    /**
+     * Close the buckets up to the watermark once this <code>PeriodWorker</code>
+     * has stopped, including those of the rollups still pending. The period
+     * workers of a key are flushed in order such that each rollup source
+     * precedes its targets.
+     */
+    /* package private */ void flush() {
+        mergePending();
+        rotate(getRotationTime(_watermark.get()));
+    }
+
+    /* package private */ void merge(final Bucket.Rollup rollup) {
+        _lastProcessedAt = System.currentTimeMillis();
+        addToBucket(getStartTime(rollup.getStart(), _period), bucket -> bucket.merge(rollup), rollup.getStart());
+    }
+
+    /**
+     * Determine the time to rotate buckets at. When closing buckets by event
+     * time a rolled up worker may not close a bucket until its source has
+     * closed every bucket the bucket contains; the time is therefore limited
+     * to the start of the first bucket the source has open.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @return The time to rotate at in milliseconds since the epoch.
+     */
+    /* package private */ long getRotationTime(final long now) {
+        if (_watermark == null || _rollupSource == null) {
+            return now;
+        }
+        final Map.Entry<DateTime, Bucket> firstEntry = _rollupSource._bucketsByStart.firstEntry();
+        return firstEntry == null ? now : Math.min(now, firstEntry.getKey().getMillis());
+    }
+
+    /* package private */ Collection<Bucket> getBuckets() {
+        return _bucketsByStart.values();
+    }
+
+    /* package private */ List<PeriodWorker> getRollupTargets() {
+        return _rollupTargets;
+    }
+
+    /* package private */ void addRollupTarget(final PeriodWorker periodWorker) {
+        // NOTE: Targets are added before the worker processes any records
+        _rollupTargets.add(periodWorker);
+    }
+
+    private void addToBucket(final DateTime start, final Consumer<Bucket> addition, final Object trigger) {
+        // Find an existing bucket for the data
+        final Duration timeout = getPeriodTimeout(_period).plus(_rollupDelay);
         Bucket bucket = _bucketsByStart.get(start);
 
         // Create a new bucket if one does not exist
         if (bucket == null) {
-            // Pre-emptively add the record to the _new_ bucket. This avoids
+            // Pre-emptively add the data to the _new_ bucket. This avoids
             // the race condition after indexing by expiration between adding
-            // the record and closing the bucket.
+            // the data and closing the bucket.
             final Bucket newBucket = _bucketBuilder
                     .setStart(start)
+                    .setRollup(_rollupTargets.isEmpty() ? null : this::rollUp)
                     .build();
-            newBucket.add(record);
+            addition.accept(newBucket);
 
             // Resolve bucket creation race condition; either:
             // 1) We won and can proceed to index the new bucket
             // 2) We lost and can proceed to add data to the existing bucket
             bucket = _bucketsByStart.putIfAbsent(start, newBucket);
             if (bucket == null) {
-                final DateTime expiration = max(DateTime.now().plus(timeout), start.plus(_period).plus(timeout));
+                // NOTE: By event time the allowed lateness takes the place of the timeout
+                final long expiration = _watermark != null
+                        ? start.plus(_period).getMillis()
+                        : Math.max(
+                                System.currentTimeMillis() + timeout.getMillis(),
+                                start.plus(_period).getMillis() + timeout.getMillis());
 
                 LOGGER.debug()
                         .setMessage("Created new bucket")
                         .addData("bucket", newBucket)
                         .addData("expiration", expiration)
-                        .addData("trigger", record.getId())
+                        .addData("trigger", trigger)
                         .log();
 
-                // Index the bucket by its expiration date; the expiration date is always in the future
-                _bucketsByExpiration.compute(expiration, (dateTime, buckets) -> {
-                    if (buckets == null) {
-                        buckets = Lists.newArrayList();
+                // Index the bucket by its expiration date
+                List<Bucket> expiringBuckets = _bucketsByExpiration.get(expiration);
+                if (expiringBuckets == null) {
+                    expiringBuckets = Lists.newArrayList();
+                    _bucketsByExpiration.put(expiration, expiringBuckets);
+                    if (_timerWheel != null) {
+                        _timerWheel.schedule(expiration, this::requestRotation);
                     }
-                    buckets.add(newBucket);
-                    return buckets;
-                });
+                }
+                expiringBuckets.add(newBucket);
 
-                // New bucket created and indexed with record
+                // New bucket created and indexed with data
                 return;
             }
         }
 
-        // Add the record to the _existing_ bucket
-        bucket.add(record);
+        // Add the data to the _existing_ bucket
+        addition.accept(bucket);
+    }
+
+    private boolean isLate(final DateTime start) {
+        return _watermark != null
+                && start.plus(_period).getMillis() <= _watermark.get()
+                && !_bucketsByStart.containsKey(start);
     }
 
-    /* package private */ void rotate(final DateTime now) {
-        final Map<DateTime, List<Bucket>> expiredBucketMap = _bucketsByExpiration.headMap(now);
+    private void rollUp(final Bucket.Rollup rollup) {
+        for (final PeriodWorker rollupTarget : _rollupTargets) {
+            rollupTarget.rollup(rollup);
+        }
+    }
+
+    private void mergePending() {
+        Bucket.Rollup rollup = _pendingRollups.poll();
+        while (rollup != null) {
+            try {
+                merge(rollup);
+            } finally {
+                _pendingRecords.decrementAndGet();
+            }
+            rollup = _pendingRollups.poll();
+        }
+    }
+
+    private void processPending(final Record record) {
+        try {
+            process(record);
+        } finally {
+            _pendingRecords.decrementAndGet();
+        }
+    }
+
+    private void requestRotation() {
+        // NOTE: Invoked on the timer wheel thread
+        _recordQueue.signal();
+    }
+
+    /* package private */ void rotate(final long now) {
+        final Map<Long, List<Bucket>> expiredBucketMap = _bucketsByExpiration.headMap(now, true);
         final List<Bucket> expiredBuckets = Lists.newArrayList();
         int closedBucketCount = 0;
 
         // Phase 1: Collect expired buckets
-        for (final DateTime key : expiredBucketMap.keySet()) {
-            for (final Bucket bucket : _bucketsByExpiration.remove(key)) {
-                expiredBuckets.add(bucket);
-            }
+        final Iterator<List<Bucket>> iterator = expiredBucketMap.values().iterator();
+        while (iterator.hasNext()) {
+            expiredBuckets.addAll(iterator.next());
+            iterator.remove();
         }
 
         // Phase 2: Close the expired buckets
@@ -208,16 +403,17 @@ import java.util.concurrent.LinkedBlockingDeque;
                     .log();
         }
 
+        // Closing by event time the targets may now close the buckets these were rolled up into
+        if (closedBucketCount > 0 && _watermark != null && _timerWheel != null) {
+            _rollupTargets.forEach(PeriodWorker::requestRotation);
+        }
+
         LOGGER.debug().setMessage("Rotated").addData("count", closedBucketCount).log();
     }
 
-    /* package private */ DateTime getRotateAt(final DateTime now) {
-        final Map.Entry<DateTime, List<Bucket>> firstEntry = _bucketsByExpiration.firstEntry();
-        final DateTime periodFirstExpiration = firstEntry == null ? null : firstEntry.getKey();
-        if (periodFirstExpiration != null && periodFirstExpiration.isAfter(now)) {
-            return periodFirstExpiration;
-        }
-        return now.plus(_rotationCheck);
+    /* package private */ Optional<Long> getNextExpiration() {
+        final Map.Entry<Long, List<Bucket>> firstEntry = _bucketsByExpiration.firstEntry();
+        return firstEntry == null ? Optional.empty() : Optional.of(firstEntry.getKey());
     }
 
     /* package private */ static Duration getPeriodTimeout(final Period period) {
@@ -241,27 +437,43 @@ import java.util.concurrent.LinkedBlockingDeque;
         return new DateTime(dateTimeMillis - (dateTimeMillis % periodMillis), DateTimeZone.UTC);
     }
 
-    /* package private */ static DateTime max(final DateTime dateTime1, final DateTime dateTime2) {
-        if (dateTime1.isAfter(dateTime2)) {
-            return dateTime1;
-        }
-        return dateTime2;
-    }
-
     private PeriodWorker(final Builder builder) {
         _period = builder._period;
         _bucketBuilder = builder._bucketBuilder;
+        _timerWheel = builder._timerWheel;
+        _watermark = builder._watermark;
+        _rollupSource = builder._rollupSource;
+        _isRolledUp = _rollupSource != null;
+        _rollupDelay = _isRolledUp
+                ? getPeriodTimeout(builder._rollupSource._period).plus(builder._rollupSource._rollupDelay)
+                : Duration.ZERO;
+        _recordQueue = new RecordQueue<>(
+                builder._queueCapacity,
+                builder._overflowPolicy,
+                builder._queueStatistics,
+                record -> _pendingRecords.decrementAndGet());
     }
 
     private volatile boolean _isRunning = true;
+    private volatile long _lastProcessedAt = System.currentTimeMillis();
 
     private final Period _period;
     private final Bucket.Builder _bucketBuilder;
-    private final Duration _rotationCheck = Duration.millis(100);
-    private final BlockingQueue<Record> _recordQueue = new LinkedBlockingDeque<>();
+    @Nullable
+    private final TimerWheel _timerWheel;
+    @Nullable
+    private final Watermark _watermark;
+    @Nullable
+    private final PeriodWorker _rollupSource;
+    private final boolean _isRolledUp;
+    private final Duration _rollupDelay;
+    private final List<PeriodWorker> _rollupTargets = new CopyOnWriteArrayList<>();
+    private final Queue<Bucket.Rollup> _pendingRollups = new ConcurrentLinkedQueue<>();
+    private final RecordQueue<Record> _recordQueue;
+    private final AtomicInteger _pendingRecords = new AtomicInteger();
     private final ConcurrentSkipListMap<DateTime, Bucket> _bucketsByStart = new ConcurrentSkipListMap<>();
-    private final NavigableMap<DateTime, List<Bucket>> _bucketsByExpiration =
-            Maps.synchronizedNavigableMap(new ConcurrentSkipListMap<>());
+    // NOTE: Only accessed from the thread processing records and rotating
+    private final NavigableMap<Long, List<Bucket>> _bucketsByExpiration = new TreeMap<>();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PeriodWorker.class);
     private static final Duration MINIMUM_PERIOD_TIMEOUT = Duration.standardSeconds(1);
@@ -301,9 +513,96 @@ import java.util.concurrent.LinkedBlockingDeque;
             return this;
         }
 
+        /**
+         * Set the <code>TimerWheel</code> used to schedule rotation when the
+         * worker runs on its own thread. Optional. Default is for the owner
+         * to invoke rotation.
+         *
+         * @param value The timer wheel.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setTimerWheel(@Nullable final TimerWheel value) {
+            _timerWheel = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued records. Optional. Cannot be null.
+         * Must be at least one. Default is unbounded.
+         *
+         * @param value The queue capacity.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * Set the policy applied when a record is offered to a full queue.
+         * Optional. Cannot be null. Default is <code>BLOCK</code>.
+         *
+         * @param value The overflow policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setOverflowPolicy(final RecordQueue.OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the statistics the record queue records to. Optional. Cannot be
+         * null. Default is statistics private to the worker.
+         *
+         * @param value The queue statistics.
+         * @return This <code>Builder</code> instance.
+         */
+        /* package private */ Builder setQueueStatistics(final RecordQueue.Statistics value) {
+            _queueStatistics = value;
+            return this;
+        }
+
+        /**
+         * Set the <code>PeriodWorker</code> of a finer period whose closed
+         * buckets are rolled up into the buckets of this worker instead of
+         * processing records. The source must also add this worker as a
+         * rollup target. Optional. Default is to process records.
+         *
+         * @param value The rollup source.
+         * @return This <code>Builder</code> instance.
+         */
+        /* package private */ Builder setRollupSource(@Nullable final PeriodWorker value) {
+            _rollupSource = value;
+            return this;
+        }
+
+        /**
+         * Set the <code>Watermark</code> by which buckets are closed instead
+         * of by the system clock. The <code>TimerWheel</code>, if any, must
+         * be driven by the watermark. Optional. Default is to close buckets
+         * by the system clock.
+         *
+         * @param value The watermark.
+         * @return This <code>Builder</code> instance.
+         */
+        /* package private */ Builder setWatermark(@Nullable final Watermark value) {
+            _watermark = value;
+            return this;
+        }
+
         @NotNull
         private Period _period;
         @NotNull
         private Bucket.Builder _bucketBuilder;
+        private TimerWheel _timerWheel;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = Integer.MAX_VALUE;
+        @NotNull
+        private RecordQueue.OverflowPolicy _overflowPolicy = RecordQueue.OverflowPolicy.BLOCK;
+        @NotNull
+        private RecordQueue.Statistics _queueStatistics = new RecordQueue.Statistics();
+        private PeriodWorker _rollupSource;
+        private Watermark _watermark;
     }
 }
@@ -17,18 +17,24 @@ package com.arpnetworking.metrics.mad;
 
 import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.metrics.common.sources.Source;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.configuration.PipelineConfiguration;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.sinks.MultiSink;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.utility.Launchable;
 import com.google.common.collect.Lists;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /**
  * Single data pathway through the time series data aggregator. The pathway
@@ -46,7 +52,33 @@ public final class Pipeline implements Launchable {
      * @param pipelineConfiguration Instance of <code>PipelineConfiguration</code>.
      */
     public Pipeline(final PipelineConfiguration pipelineConfiguration) {
+        this(pipelineConfiguration, null);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param pipelineConfiguration Instance of <code>PipelineConfiguration</code>.
+     * @param periodicMetrics Instance of <code>PeriodicMetrics</code> to record pipeline metrics to.
+     */
+    public Pipeline(final PipelineConfiguration pipelineConfiguration, @Nullable final PeriodicMetrics periodicMetrics) {
+        this(pipelineConfiguration, periodicMetrics, null);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param pipelineConfiguration Instance of <code>PipelineConfiguration</code>.
+     * @param periodicMetrics Instance of <code>PeriodicMetrics</code> to record pipeline metrics to.
+     * @param cardinalityLimiterRegistry Instance of <code>CardinalityLimiterRegistry</code> to report cardinality to.
+     */
+    public Pipeline(
+            final PipelineConfiguration pipelineConfiguration,
+            @Nullable final PeriodicMetrics periodicMetrics,
+            @Nullable final CardinalityLimiterRegistry cardinalityLimiterRegistry) {
         _pipelineConfiguration = pipelineConfiguration;
+        _periodicMetrics = periodicMetrics;
+        _cardinalityLimiterRegistry = Optional.ofNullable(cardinalityLimiterRegistry);
     }
 
     /**
@@ -59,11 +91,22 @@ public final class Pipeline implements Launchable {
                 .addData("configuration", _pipelineConfiguration)
                 .log();
 
-        final Sink rootSink = new MultiSink.Builder()
-                .setName(_pipelineConfiguration.getName())
-                .setSinks(_pipelineConfiguration.getSinks())
-                .build();
-        _sinks.add(rootSink);
+        _sinks.addAll(_pipelineConfiguration.getSinks());
+        _dispatchSink = createDispatchSink(_pipelineConfiguration, _sinks);
+        _rootSink._delegate = _dispatchSink;
+
+        if (_pipelineConfiguration.getMaxServiceSeries().isPresent()
+                || _pipelineConfiguration.getMaxServiceMetrics().isPresent()) {
+            final CardinalityLimiter cardinalityLimiter = new CardinalityLimiter.Builder()
+                    .setName(_pipelineConfiguration.getName())
+                    .setMaxSeries(_pipelineConfiguration.getMaxServiceSeries().orElse(null))
+                    .setMaxMetrics(_pipelineConfiguration.getMaxServiceMetrics().orElse(null))
+                    .setOverflowPolicy(_pipelineConfiguration.getCardinalityOverflowPolicy())
+                    .setWindow(_pipelineConfiguration.getCardinalityWindow())
+                    .build();
+            _cardinalityLimiterRegistry.ifPresent(registry -> registry.register(cardinalityLimiter));
+            _cardinalityLimiter = cardinalityLimiter;
+        }
 
         final Aggregator aggregator = new Aggregator.Builder()
                 .setPeriods(_pipelineConfiguration.getPeriods())
@@ -71,18 +114,100 @@ public final class Pipeline implements Launchable {
                 .setCounterStatistics(_pipelineConfiguration.getCounterStatistics())
                 .setGaugeStatistics(_pipelineConfiguration.getGaugeStatistics())
                 .setStatistics(_pipelineConfiguration.getStatistics())
-                .setSink(rootSink)
+                .setShardCount(_pipelineConfiguration.getAggregationShards().orElse(null))
+                .setIdleKeyTimeout(_pipelineConfiguration.getIdleKeyTimeout().orElse(null))
+                .setHistogramType(_pipelineConfiguration.getHistogramType())
+                .setHistogramPrecision(_pipelineConfiguration.getHistogramPrecision())
+                .setMetricHistogramPrecision(_pipelineConfiguration.getMetricHistogramPrecision())
+                .setSketchRelativeAccuracy(_pipelineConfiguration.getSketchRelativeAccuracy())
+                .setSketchMaximumBuckets(_pipelineConfiguration.getSketchMaximumBuckets())
+                .setOffHeapStorage(_pipelineConfiguration.isOffHeapStorage())
+                .setRollup(_pipelineConfiguration.isRollup())
+                .setQueueCapacity(_pipelineConfiguration.getQueueCapacity().orElse(null))
+                .setOverflowPolicy(_pipelineConfiguration.getOverflowPolicy())
+                .setCheckpointFile(_pipelineConfiguration.getCheckpointFile().orElse(null))
+                .setCheckpointInterval(_pipelineConfiguration.getCheckpointInterval())
+                .setCardinalityLimiter(_cardinalityLimiter)
+                .setEventTime(_pipelineConfiguration.isEventTime())
+                .setAllowedLateness(_pipelineConfiguration.getAllowedLateness())
+                .setName(_pipelineConfiguration.getName())
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_rootSink)
                 .build();
         aggregator.launch();
         _aggregator.set(aggregator);
 
         for (final Source source : _pipelineConfiguration.getSources()) {
-            source.attach(aggregator);
-            source.start();
-            _sources.add(source);
+            startSource(source, aggregator);
         }
     }
 
+    /**
+     * Reconfigure the running pipeline without interrupting aggregation. The
+     * sources and sinks not present in the new configuration are stopped and
+     * those not present in the current configuration are started, while the
+     * remaining sources and sinks, as well as the aggregator and its open
+     * buckets, are retained. The new configuration must differ from the
+     * current one only in its sources and sinks.
+     *
+     * @param pipelineConfiguration The new <code>PipelineConfiguration</code>.
+     * @param sources The sources to run; retained sources are the instances currently running.
+     * @param sinks The sinks to publish to; retained sinks are the instances currently publishing.
+     */
+    /* package private */ synchronized void reconfigure(
+            final PipelineConfiguration pipelineConfiguration,
+            final List<Source> sources,
+            final List<Sink> sinks) {
+        final Aggregator aggregator = _aggregator.get();
+        if (aggregator == null) {
+            throw new IllegalStateException("Pipeline is not running");
+        }
+        LOGGER.info()
+                .setMessage("Reconfiguring pipeline")
+                .addData("configuration", pipelineConfiguration)
+                .log();
+
+        final Set<Source> retainedSources = Collections.newSetFromMap(new IdentityHashMap<>());
+        retainedSources.addAll(sources);
+        for (final Source source : _sources) {
+            if (!retainedSources.contains(source)) {
+                source.stop();
+            }
+        }
+
+        if (!sinks.equals(_sinks)) {
+            // Swap in a dispatch sink over the new sinks before retiring the current one
+            final Sink previousDispatchSink = _dispatchSink;
+            _dispatchSink = createDispatchSink(pipelineConfiguration, sinks);
+            _rootSink._delegate = _dispatchSink;
+            if (previousDispatchSink instanceof SinkDispatcher) {
+                ((SinkDispatcher) previousDispatchSink).drain(_dispatchSink);
+            }
+
+            final Set<Sink> retainedSinks = Collections.newSetFromMap(new IdentityHashMap<>());
+            retainedSinks.addAll(sinks);
+            for (final Sink sink : _sinks) {
+                if (!retainedSinks.contains(sink)) {
+                    sink.close();
+                }
+            }
+            _sinks.clear();
+            _sinks.addAll(sinks);
+        }
+
+        final Set<Source> previousSources = Collections.newSetFromMap(new IdentityHashMap<>());
+        previousSources.addAll(_sources);
+        _sources.clear();
+        for (final Source source : sources) {
+            if (previousSources.contains(source)) {
+                _sources.add(source);
+            } else {
+                startSource(source, aggregator);
+            }
+        }
+        _pipelineConfiguration = pipelineConfiguration;
+    }
+
     /**
      * Shutdown the pipeline.
      */
@@ -100,8 +225,14 @@ public final class Pipeline implements Launchable {
         if (aggregator.isPresent()) {
             aggregator.get().shutdown();
         }
-        for (final Sink sink : _sinks) {
-            sink.close();
+        if (_dispatchSink != null) {
+            _dispatchSink.close();
+            _dispatchSink = null;
+        }
+        if (_cardinalityLimiter != null) {
+            final CardinalityLimiter cardinalityLimiter = _cardinalityLimiter;
+            _cardinalityLimiterRegistry.ifPresent(registry -> registry.unregister(cardinalityLimiter));
+            _cardinalityLimiter = null;
         }
 
         _sources.clear();
@@ -128,10 +259,58 @@ public final class Pipeline implements Launchable {
         return toLogValue().toString();
     }
 
-    private final PipelineConfiguration _pipelineConfiguration;
+    private void startSource(final Source source, final Aggregator aggregator) {
+        source.attach(source.isBackpressureSupported() ? aggregator.getBackpressureObserver() : aggregator);
+        source.start();
+        _sources.add(source);
+    }
+
+    private Sink createDispatchSink(final PipelineConfiguration pipelineConfiguration, final List<Sink> sinks) {
+        if (pipelineConfiguration.isAsyncSinkDispatch()) {
+            return new SinkDispatcher.Builder()
+                    .setName(pipelineConfiguration.getName())
+                    .setSinks(sinks)
+                    .setQueueCapacity(pipelineConfiguration.getSinkQueueCapacity())
+                    .setPeriodicMetrics(_periodicMetrics)
+                    .build();
+        }
+        return new MultiSink.Builder()
+                .setName(pipelineConfiguration.getName())
+                .setSinks(sinks)
+                .build();
+    }
+
+    private PipelineConfiguration _pipelineConfiguration;
+    @Nullable
+    private final PeriodicMetrics _periodicMetrics;
+    private final Optional<CardinalityLimiterRegistry> _cardinalityLimiterRegistry;
     private final AtomicReference<Aggregator> _aggregator = new AtomicReference<>();
+    private final RootSink _rootSink = new RootSink();
     private final List<Sink> _sinks = Lists.newArrayList();
     private final List<Source> _sources = Lists.newArrayList();
+    @Nullable
+    private Sink _dispatchSink;
+    @Nullable
+    private CardinalityLimiter _cardinalityLimiter;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Pipeline.class);
+
+    /**
+     * Forwards the periods closed by the aggregator to the current dispatch
+     * sink so that the sinks can be replaced while the aggregator runs.
+     */
+    private static final class RootSink implements Sink {
+
+        @Override
+        public void recordAggregateData(final PeriodicData data) {
+            _delegate.recordAggregateData(data);
+        }
+
+        @Override
+        public void close() {
+            _delegate.close();
+        }
+
+        private volatile Sink _delegate;
+    }
 }
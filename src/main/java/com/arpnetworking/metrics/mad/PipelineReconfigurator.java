@@ -0,0 +1,191 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.configuration.Configuration;
+import com.arpnetworking.configuration.Listener;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.common.sources.Source;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.metrics.mad.configuration.PipelineConfiguration;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.utility.Launchable;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Manages configuration and reconfiguration of a <code>Pipeline</code>. When
+ * a new configuration differs from the running one only in its sources and
+ * sinks, the running <code>Pipeline</code> is reconfigured in place: sources
+ * and sinks whose configuration is unchanged keep running, only the changed
+ * ones are restarted, and the aggregator retains its open buckets. Any other
+ * change relaunches the <code>Pipeline</code>.
+ *
+ * Sources and sinks are matched by comparing their configuration as
+ * specified, since the instances themselves do not define equality.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class PipelineReconfigurator implements Listener, Launchable {
+
+    /**
+     * Public constructor.
+     *
+     * @param periodicMetrics Instance of <code>PeriodicMetrics</code> to record pipeline metrics to.
+     * @param cardinalityLimiterRegistry Instance of <code>CardinalityLimiterRegistry</code> to report cardinality to.
+     */
+    public PipelineReconfigurator(
+            @Nullable final PeriodicMetrics periodicMetrics,
+            @Nullable final CardinalityLimiterRegistry cardinalityLimiterRegistry) {
+        _periodicMetrics = periodicMetrics;
+        _cardinalityLimiterRegistry = cardinalityLimiterRegistry;
+    }
+
+    @Override
+    public synchronized void offerConfiguration(final Configuration configuration) throws Exception {
+        _offeredConfiguration = configuration.getAs(PipelineConfiguration.class);
+        _offeredJson = configuration.getAs(JsonNode.class);
+    }
+
+    @Override
+    public synchronized void applyConfiguration() {
+        final PipelineConfiguration configuration = _offeredConfiguration.get();
+        final JsonNode json = _offeredJson.get();
+
+        if (_pipeline.isPresent() && withoutSourcesAndSinks(_json).equals(withoutSourcesAndSinks(json))) {
+            final List<Source> sources = retain(
+                    _json.path(SOURCES),
+                    json.path(SOURCES),
+                    _sources,
+                    configuration.getSources());
+            final List<Sink> sinks = retain(
+                    _json.path(SINKS),
+                    json.path(SINKS),
+                    _sinks,
+                    configuration.getSinks());
+
+            // Close the new sink instances superseded by running ones
+            for (final Sink sink : configuration.getSinks()) {
+                if (!sinks.contains(sink)) {
+                    sink.close();
+                }
+            }
+
+            _pipeline.get().reconfigure(configuration, sources, sinks);
+            _sources = sources;
+            _sinks = sinks;
+        } else {
+            shutdown();
+
+            LOGGER.debug()
+                    .setMessage("Relaunching pipeline")
+                    .addData("pipeline", configuration.getName())
+                    .log();
+
+            _pipeline = Optional.of(new Pipeline(configuration, _periodicMetrics, _cardinalityLimiterRegistry));
+            _sources = configuration.getSources();
+            _sinks = configuration.getSinks();
+            launch();
+        }
+        _json = json;
+    }
+
+    @Override
+    public synchronized void launch() {
+        if (_pipeline.isPresent()) {
+            _pipeline.get().launch();
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (_pipeline.isPresent()) {
+            _pipeline.get().shutdown();
+            _pipeline = Optional.empty();
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("pipeline", _pipeline)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ static <T> List<T> retain(
+            final JsonNode currentJson,
+            final JsonNode newJson,
+            final List<T> currentInstances,
+            final List<T> newInstances) {
+        // NOTE: Each current instance is retained at most once
+        final boolean[] retained = new boolean[currentInstances.size()];
+        final List<T> instances = Lists.newArrayListWithCapacity(newInstances.size());
+        for (int i = 0; i < newInstances.size(); ++i) {
+            T instance = newInstances.get(i);
+            for (int j = 0; j < currentInstances.size(); ++j) {
+                if (!retained[j] && currentJson.path(j).equals(newJson.path(i))) {
+                    retained[j] = true;
+                    instance = currentInstances.get(j);
+                    break;
+                }
+            }
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    private static JsonNode withoutSourcesAndSinks(final JsonNode json) {
+        if (!json.isObject()) {
+            return json;
+        }
+        return ((ObjectNode) json.deepCopy()).without(ImmutableList.of(SOURCES, SINKS));
+    }
+
+    @Nullable
+    private final PeriodicMetrics _periodicMetrics;
+    @Nullable
+    private final CardinalityLimiterRegistry _cardinalityLimiterRegistry;
+
+    private Optional<Pipeline> _pipeline = Optional.empty();
+    private JsonNode _json;
+    private List<Source> _sources;
+    private List<Sink> _sinks;
+    private Optional<PipelineConfiguration> _offeredConfiguration = Optional.empty();
+    private Optional<JsonNode> _offeredJson = Optional.empty();
+
+    private static final String SOURCES = "sources";
+    private static final String SINKS = "sinks";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineReconfigurator.class);
+}
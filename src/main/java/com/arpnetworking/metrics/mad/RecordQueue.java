@@ -0,0 +1,413 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * A queue of elements awaiting aggregation with an optional capacity and a
+ * policy applied when an element is offered to a full queue. The consumer
+ * may also be signalled; a signal is delivered once every element queued
+ * before it has been taken or dropped and is never blocked or dropped
+ * itself. Queued elements evicted to admit newer elements are handed to an
+ * eviction listener so the owner may account for them. This class is
+ * thread safe.
+ *
+ * @param <T> The type of element.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class RecordQueue<T> {
+
+    /**
+     * Offer an element to the queue applying the overflow policy if the
+     * queue is full.
+     *
+     * @param element The element to queue.
+     * @param mayShed Whether the element may be shed; if false the caller
+     * blocks until there is capacity regardless of the overflow policy.
+     * @return True if and only if the element was queued.
+     */
+    public boolean offer(final T element, final boolean mayShed) {
+        _lock.lock();
+        try {
+            return enqueue(element, mayShed);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Offer a batch of elements to the queue in order applying the overflow
+     * policy to each element. The lock is acquired once for the batch.
+     *
+     * @param elements The elements to queue.
+     * @param mayShed Whether the elements may be shed; if false the caller
+     * blocks until there is capacity regardless of the overflow policy.
+     * @return The number of elements queued.
+     */
+    public int offerAll(final List<? extends T> elements, final boolean mayShed) {
+        int queued = 0;
+        _lock.lock();
+        try {
+            for (final T element : elements) {
+                if (enqueue(element, mayShed)) {
+                    ++queued;
+                }
+            }
+        } finally {
+            _lock.unlock();
+        }
+        return queued;
+    }
+
+    /**
+     * Signal the consumer once all elements currently queued are consumed.
+     */
+    public void signal() {
+        _lock.lock();
+        try {
+            final long mark = _head + _elements.size();
+            final Long last = _signals.peekLast();
+            if (last == null || last != mark) {
+                _signals.addLast(mark);
+            }
+            _notEmpty.signal();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next element, blocking until an element or a signal is
+     * available.
+     *
+     * @return The next element or <code>null</code> for a signal.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Nullable
+    public T take() throws InterruptedException {
+        _lock.lock();
+        try {
+            while (_elements.isEmpty() && _signals.isEmpty()) {
+                _notEmpty.await();
+            }
+            return next();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Take up to the specified number of elements, blocking until an element
+     * or a signal is available. The lock is acquired once for the batch and
+     * elements queued after a signal are not taken before it.
+     *
+     * @param elements The list to add the taken elements to.
+     * @param maximumElements The maximum number of elements to take.
+     * @return The number of elements taken; zero for a signal.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public int takeAll(final List<? super T> elements, final int maximumElements) throws InterruptedException {
+        _lock.lock();
+        try {
+            while (_elements.isEmpty() && _signals.isEmpty()) {
+                _notEmpty.await();
+            }
+            int taken = 0;
+            while (taken < maximumElements) {
+                final Long mark = _signals.peekFirst();
+                if (mark != null && mark <= _head) {
+                    if (taken == 0) {
+                        _signals.removeFirst();
+                    }
+                    break;
+                }
+                final T element = removeFirst();
+                if (element == null) {
+                    break;
+                }
+                elements.add(element);
+                ++taken;
+            }
+            if (taken > 0) {
+                _notFull.signalAll();
+            }
+            return taken;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next element without blocking.
+     *
+     * @return The next element or <code>null</code> for a signal or if the
+     * queue is empty.
+     */
+    @Nullable
+    public T poll() {
+        _lock.lock();
+        try {
+            return next();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Accessor for the number of queued elements.
+     *
+     * @return The number of queued elements.
+     */
+    public int size() {
+        _lock.lock();
+        try {
+            return _elements.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("size", size())
+                .put("capacity", _capacity)
+                .put("overflowPolicy", _overflowPolicy)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private boolean enqueue(final T element, final boolean mayShed) {
+        // NOTE: The caller must hold the lock
+        final OverflowPolicy policy = mayShed ? _overflowPolicy : OverflowPolicy.BLOCK;
+        if (_elements.size() >= _capacity) {
+            switch (policy) {
+                case BLOCK:
+                    if (!awaitCapacity()) {
+                        onDropped();
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    // NOTE: Elements which may not be shed are never evicted;
+                    // the offered element is dropped instead
+                    if (!_sheddable.peekFirst()) {
+                        onDropped();
+                        return false;
+                    }
+                    final T evicted = removeFirst();
+                    onDropped();
+                    _evictionListener.accept(evicted);
+                    break;
+                default:
+                    onDropped();
+                    return false;
+            }
+        } else if (policy == OverflowPolicy.SAMPLE && _elements.size() >= _sampleThreshold) {
+            // Admit with a probability decreasing linearly to zero at capacity
+            final int remaining = _capacity - _elements.size();
+            if (ThreadLocalRandom.current().nextInt(_capacity - _sampleThreshold) >= remaining) {
+                onDropped();
+                return false;
+            }
+        }
+        _elements.addLast(element);
+        _sheddable.addLast(mayShed);
+        _statistics._depth.incrementAndGet();
+        _notEmpty.signal();
+        return true;
+    }
+
+    @Nullable
+    private T next() {
+        final Long mark = _signals.peekFirst();
+        if (mark != null && mark <= _head) {
+            _signals.removeFirst();
+            return null;
+        }
+        final T element = removeFirst();
+        if (element != null) {
+            _notFull.signal();
+        }
+        return element;
+    }
+
+    @Nullable
+    private T removeFirst() {
+        final T element = _elements.pollFirst();
+        if (element != null) {
+            _sheddable.removeFirst();
+            ++_head;
+            _statistics._depth.decrementAndGet();
+        }
+        return element;
+    }
+
+    private boolean awaitCapacity() {
+        final long startNanos = System.nanoTime();
+        try {
+            while (_elements.size() >= _capacity) {
+                _notFull.await();
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            _statistics._waitNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void onDropped() {
+        _statistics._dropped.increment();
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param capacity The maximum number of queued elements.
+     * @param overflowPolicy The policy applied when an element is offered to a full queue.
+     * @param statistics The <code>Statistics</code> to record to.
+     */
+    /* package private */ RecordQueue(
+            final int capacity,
+            final OverflowPolicy overflowPolicy,
+            final Statistics statistics) {
+        this(capacity, overflowPolicy, statistics, element -> { });
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param capacity The maximum number of queued elements.
+     * @param overflowPolicy The policy applied when an element is offered to a full queue.
+     * @param statistics The <code>Statistics</code> to record to.
+     * @param evictionListener Invoked with each queued element evicted to
+     * admit a newer element; invoked while holding the lock of the queue.
+     */
+    /* package private */ RecordQueue(
+            final int capacity,
+            final OverflowPolicy overflowPolicy,
+            final Statistics statistics,
+            final Consumer<? super T> evictionListener) {
+        _capacity = capacity;
+        _sampleThreshold = capacity / 2;
+        _overflowPolicy = overflowPolicy;
+        _statistics = statistics;
+        _evictionListener = evictionListener;
+    }
+
+    private final int _capacity;
+    private final int _sampleThreshold;
+    private final OverflowPolicy _overflowPolicy;
+    private final Statistics _statistics;
+    private final Consumer<? super T> _evictionListener;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+    private final Condition _notFull = _lock.newCondition();
+    private final Deque<T> _elements = new ArrayDeque<>();
+    // NOTE: Whether each queued element may be shed in the order of the elements
+    private final Deque<Boolean> _sheddable = new ArrayDeque<>();
+    // NOTE: Signals are marked by the number of elements removed at which they are due
+    private final Deque<Long> _signals = new ArrayDeque<>();
+    private long _head = 0;
+
+    /**
+     * The action taken when an element is offered to a full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the producer until there is capacity.
+         */
+        BLOCK,
+        /**
+         * Drop the offered element.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest queued element to admit the offered element. If the
+         * oldest element may not be shed the offered element is dropped.
+         */
+        DROP_OLDEST,
+        /**
+         * Admit elements with decreasing probability once the queue is half
+         * full and drop them once it is full.
+         */
+        SAMPLE
+    }
+
+    /**
+     * Statistics shared by all queues of an aggregator. This class is thread
+     * safe.
+     */
+    /* package private */ static final class Statistics {
+
+        /**
+         * Accessor for the number of elements queued across all queues.
+         *
+         * @return The number of queued elements.
+         */
+        public long getDepth() {
+            return _depth.get();
+        }
+
+        /**
+         * Accessor for the number of elements dropped since the last call.
+         *
+         * @return The number of dropped elements.
+         */
+        public long getAndResetDropped() {
+            return _dropped.sumThenReset();
+        }
+
+        /**
+         * Accessor for the time producers waited for capacity since the last
+         * call.
+         *
+         * @return The wait time in nanoseconds.
+         */
+        public long getAndResetWaitNanos() {
+            return _waitNanos.sumThenReset();
+        }
+
+        private final AtomicLong _depth = new AtomicLong();
+        private final LongAdder _dropped = new LongAdder();
+        private final LongAdder _waitNanos = new LongAdder();
+    }
+}
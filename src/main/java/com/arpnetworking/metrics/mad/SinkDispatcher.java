@@ -0,0 +1,350 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.tsdcore.sinks.BaseSink;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * Publishes <code>PeriodicData</code> to multiple sinks from a dedicated
+ * thread per sink. Closed periods are queued for each sink in a bounded
+ * queue and taken in batches; recording only blocks once a sink's queue is
+ * full. This decouples closing buckets from the latency of the sinks and
+ * isolates the sinks from one another. This class is thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class SinkDispatcher extends BaseSink {
+
+    @Override
+    public void recordAggregateData(final PeriodicData periodicData) {
+        // NOTE: The read lock lets drain wait for periods being queued so none are queued after the dispatch exits
+        _lock.readLock().lock();
+        try {
+            if (_isOpen) {
+                for (final Dispatch dispatch : _dispatches) {
+                    dispatch._queue.offer(periodicData, false);
+                }
+                return;
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        // Periods closed by callers still holding this instance after a drain
+        final Sink successor = _successor;
+        if (successor != null) {
+            successor.recordAggregateData(periodicData);
+        } else {
+            LOGGER.warn()
+                    .setMessage("Discarding aggregate data recorded after close")
+                    .addData("sink", getName())
+                    .addData("periodicData", periodicData)
+                    .log();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info()
+                .setMessage("Closing sink")
+                .addData("sink", getName())
+                .log();
+
+        if (!drain(null)) {
+            // NOTE: Sinks are only closed once no dispatch is publishing to them
+            LOGGER.warn()
+                    .setMessage("Interrupting sink dispatch")
+                    .addData("sink", getName())
+                    .log();
+            _executor.shutdownNow();
+            awaitDispatches();
+        }
+        for (final Dispatch dispatch : _dispatches) {
+            dispatch._sink.close();
+        }
+    }
+
+    /**
+     * Stop dispatching once the periods already queued are published
+     * without closing the sinks. Used when the sinks are handed over to
+     * another instance. Periods recorded after the drain starts are
+     * forwarded to the successor, if any, instead of being queued.
+     *
+     * @param successor The <code>Sink</code> to forward periods recorded after the drain to.
+     * @return True if and only if every dispatch completed within the timeout.
+     */
+    /* package private */ boolean drain(@Nullable final Sink successor) {
+        // Each dispatch exits once everything queued before the signal is published
+        _lock.writeLock().lock();
+        try {
+            _successor = successor;
+            _isOpen = false;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+        for (final Dispatch dispatch : _dispatches) {
+            dispatch._queue.signal();
+        }
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn()
+                        .setMessage("Sink dispatch did not complete")
+                        .addData("sink", getName())
+                        .log();
+                return false;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Unable to shutdown sink dispatch", e);
+            return false;
+        }
+        return true;
+    }
+
+    private void awaitDispatches() {
+        boolean interrupted = false;
+        while (!_executor.isTerminated()) {
+            try {
+                if (!_executor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn()
+                            .setMessage("Waiting for interrupted sink dispatch")
+                            .addData("sink", getName())
+                            .log();
+                }
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    @Override
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("super", super.toLogValue())
+                .put("dispatches", _dispatches)
+                .build();
+    }
+
+    private SinkDispatcher(final Builder builder) {
+        super(builder);
+        _periodicMetrics = Optional.ofNullable(builder._periodicMetrics);
+        final ImmutableList.Builder<Dispatch> dispatches = ImmutableList.builder();
+        for (final Sink sink : builder._sinks) {
+            dispatches.add(new Dispatch(sink, builder._queueCapacity));
+        }
+        _dispatches = dispatches.build();
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        _executor = Executors.newFixedThreadPool(
+                Math.max(1, _dispatches.size()),
+                r -> new Thread(r, "SinkDispatcher-" + threadIndex.getAndIncrement()));
+        _dispatches.forEach(_executor::execute);
+    }
+
+    private volatile boolean _isOpen = true;
+    private volatile Sink _successor;
+
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    private final Optional<PeriodicMetrics> _periodicMetrics;
+    private final ImmutableList<Dispatch> _dispatches;
+    private final ExecutorService _executor;
+
+    private static final int MAXIMUM_BATCH_SIZE = 100;
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SinkDispatcher.class);
+
+    private final class Dispatch implements Runnable {
+
+        @Override
+        public void run() {
+            final List<PeriodicData> batch = Lists.newArrayListWithCapacity(MAXIMUM_BATCH_SIZE);
+            while (true) {
+                try {
+                    if (_queue.takeAll(batch, MAXIMUM_BATCH_SIZE) == 0) {
+                        if (!_isOpen) {
+                            return;
+                        }
+                        continue;
+                    }
+                    _periodicMetrics.ifPresent(metrics -> metrics.recordGauge(
+                            _metricsPrefix + "queue_depth",
+                            _queue.size(),
+                            Optional.empty()));
+                    for (final PeriodicData periodicData : batch) {
+                        publish(periodicData);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOGGER.warn()
+                            .setMessage("Interrupted dispatching to sink")
+                            .addData("sink", _sink)
+                            .setThrowable(e)
+                            .log();
+                    return;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         * Generate a Steno log compatible representation.
+         *
+         * @return Steno log compatible representation.
+         */
+        @LogValue
+        public Object toLogValue() {
+            return LogValueMapFactory.builder(this)
+                    .put("sink", _sink)
+                    .put("queue", _queue)
+                    .build();
+        }
+
+        @Override
+        public String toString() {
+            return toLogValue().toString();
+        }
+
+        private void publish(final PeriodicData periodicData) {
+            final long startNanos = System.nanoTime();
+            try {
+                _sink.recordAggregateData(periodicData);
+                // CHECKSTYLE.OFF: IllegalCatch - Prevent one period from stopping the dispatch
+            } catch (final RuntimeException e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Sink failed to record aggregate data")
+                        .addData("sink", _sink)
+                        .addData("periodicData", periodicData)
+                        .setThrowable(e)
+                        .log();
+            }
+            _periodicMetrics.ifPresent(metrics -> metrics.recordTimer(
+                    _metricsPrefix + "latency",
+                    System.nanoTime() - startNanos,
+                    Optional.of(Units.NANOSECOND)));
+        }
+
+        private Dispatch(final Sink sink, final int queueCapacity) {
+            _sink = sink;
+            _queue = new RecordQueue<>(queueCapacity, RecordQueue.OverflowPolicy.BLOCK, new RecordQueue.Statistics());
+            final String sinkName = sink instanceof BaseSink
+                    ? ((BaseSink) sink).getMetricSafeName()
+                    : sink.getClass().getSimpleName();
+            _metricsPrefix = "sink_dispatcher/" + getMetricSafeName() + "/" + sinkName + "/";
+        }
+
+        private final Sink _sink;
+        private final RecordQueue<PeriodicData> _queue;
+        private final String _metricsPrefix;
+    }
+
+    /**
+     * Implementation of builder pattern for <code>SinkDispatcher</code>.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class Builder extends BaseSink.Builder<Builder, SinkDispatcher> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(SinkDispatcher::new);
+        }
+
+        /**
+         * The sinks to dispatch to. Cannot be null.
+         *
+         * @param value The sinks to dispatch to.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSinks(final Collection<Sink> value) {
+            _sinks = Lists.newArrayList(value);
+            return this;
+        }
+
+        /**
+         * The maximum number of periods queued for each sink. Optional.
+         * Cannot be null. Must be at least one. Default is 10000.
+         *
+         * @param value The queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The <code>PeriodicMetrics</code> to record the latency and queue
+         * depth of each sink to. Optional. Default is to not record metrics.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(@Nullable final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @NotNull
+        private Collection<Sink> _sinks;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = 10000;
+        private PeriodicMetrics _periodicMetrics;
+    }
+}
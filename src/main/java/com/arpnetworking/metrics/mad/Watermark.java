@@ -0,0 +1,157 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.utility.TimerWheel;
+import org.joda.time.Duration;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event time progress of an aggregator. The watermark trails the latest
+ * observed record time by the allowed lateness; buckets ending at or before
+ * the watermark are closed and records arriving for them are late. The
+ * watermark never decreases and starts at the epoch. Bucket rotations are
+ * scheduled on the timer wheel of the watermark, which fires them as the
+ * watermark advances. This class is thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class Watermark {
+
+    /**
+     * Launch the timer wheel rotating buckets by the watermark.
+     */
+    public void launch() {
+        _timerWheel.launch();
+    }
+
+    /**
+     * Shutdown the timer wheel rotating buckets by the watermark.
+     */
+    public void shutdown() {
+        _timerWheel.shutdown();
+    }
+
+    /**
+     * Advance the watermark to the time of queued records and fire the
+     * bucket rotations it passes. The records must be queued before the
+     * watermark advances past them.
+     *
+     * @param eventTime The latest record time in milliseconds since the epoch.
+     */
+    public void advance(final long eventTime) {
+        if (observe(eventTime)) {
+            _timerWheel.tick();
+        }
+    }
+
+    /**
+     * Observe the time of a record.
+     *
+     * @param eventTime The record time in milliseconds since the epoch.
+     * @return True if and only if the watermark advanced.
+     */
+    public boolean observe(final long eventTime) {
+        final long watermark = eventTime - _allowedLatenessMillis;
+        long current = _watermark.get();
+        while (watermark > current) {
+            if (_watermark.compareAndSet(current, watermark)) {
+                return true;
+            }
+            current = _watermark.get();
+        }
+        return false;
+    }
+
+    /**
+     * Advance the watermark past every record time at the end of input so
+     * that every open bucket closes. Records observed afterwards are late.
+     */
+    public void advanceToEnd() {
+        _watermark.set(Long.MAX_VALUE);
+    }
+
+    /**
+     * Accessor for the watermark.
+     *
+     * @return The watermark in milliseconds since the epoch.
+     */
+    public long get() {
+        return _watermark.get();
+    }
+
+    /**
+     * Accessor for the timer wheel which fires when the watermark passes
+     * the deadline of a task.
+     *
+     * @return The timer wheel by the watermark.
+     */
+    public TimerWheel getTimerWheel() {
+        return _timerWheel;
+    }
+
+    /**
+     * Count a record dropped for arriving after its bucket closed.
+     */
+    public void recordLate() {
+        _lateRecords.incrementAndGet();
+    }
+
+    /**
+     * Retrieve and reset the number of late records.
+     *
+     * @return The number of late records since the last call.
+     */
+    public long getAndResetLateRecords() {
+        return _lateRecords.getAndSet(0);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("watermark", _watermark.get())
+                .put("allowedLateness", _allowedLatenessMillis)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param allowedLateness The time the watermark trails the latest record time.
+     */
+    /* package private */ Watermark(final Duration allowedLateness) {
+        _allowedLatenessMillis = allowedLateness.getMillis();
+        _timerWheel = new TimerWheel("AggregatorEventTimer", this::get);
+    }
+
+    private final long _allowedLatenessMillis;
+    private final AtomicLong _watermark = new AtomicLong();
+    private final AtomicLong _lateRecords = new AtomicLong();
+    private final TimerWheel _timerWheel;
+}
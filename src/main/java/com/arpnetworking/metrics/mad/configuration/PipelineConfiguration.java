@@ -19,7 +19,11 @@ import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
 import com.arpnetworking.logback.annotations.Loggable;
 import com.arpnetworking.metrics.common.sources.Source;
+import com.arpnetworking.metrics.mad.CardinalityLimiter;
+import com.arpnetworking.metrics.mad.RecordQueue;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.StatisticDeserializer;
 import com.arpnetworking.tsdcore.statistics.StatisticFactory;
@@ -34,13 +38,17 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.inject.Injector;
+import net.sf.oval.constraint.Max;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.Period;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -109,6 +117,90 @@ public final class PipelineConfiguration {
         return _statistics;
     }
 
+    public Optional<Integer> getAggregationShards() {
+        return _aggregationShards;
+    }
+
+    public Optional<Period> getIdleKeyTimeout() {
+        return _idleKeyTimeout;
+    }
+
+    public HistogramStatistic.HistogramType getHistogramType() {
+        return _histogramType;
+    }
+
+    public int getHistogramPrecision() {
+        return _histogramPrecision;
+    }
+
+    public ImmutableMap<String, Integer> getMetricHistogramPrecision() {
+        return _metricHistogramPrecision;
+    }
+
+    public double getSketchRelativeAccuracy() {
+        return _sketchRelativeAccuracy;
+    }
+
+    public int getSketchMaximumBuckets() {
+        return _sketchMaximumBuckets;
+    }
+
+    public boolean isOffHeapStorage() {
+        return _offHeapStorage;
+    }
+
+    public boolean isRollup() {
+        return _rollup;
+    }
+
+    public boolean isAsyncSinkDispatch() {
+        return _asyncSinkDispatch;
+    }
+
+    public int getSinkQueueCapacity() {
+        return _sinkQueueCapacity;
+    }
+
+    public Optional<Integer> getQueueCapacity() {
+        return _queueCapacity;
+    }
+
+    public RecordQueue.OverflowPolicy getOverflowPolicy() {
+        return _overflowPolicy;
+    }
+
+    public Optional<File> getCheckpointFile() {
+        return _checkpointFile;
+    }
+
+    public Period getCheckpointInterval() {
+        return _checkpointInterval;
+    }
+
+    public Optional<Integer> getMaxServiceSeries() {
+        return _maxServiceSeries;
+    }
+
+    public Optional<Integer> getMaxServiceMetrics() {
+        return _maxServiceMetrics;
+    }
+
+    public CardinalityLimiter.OverflowPolicy getCardinalityOverflowPolicy() {
+        return _cardinalityOverflowPolicy;
+    }
+
+    public Period getCardinalityWindow() {
+        return _cardinalityWindow;
+    }
+
+    public boolean isEventTime() {
+        return _eventTime;
+    }
+
+    public Period getAllowedLateness() {
+        return _allowedLateness;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -120,6 +212,27 @@ public final class PipelineConfiguration {
                 .add("TimerStatistic", _timerStatistic)
                 .add("CounterStatistic", _counterStatistic)
                 .add("GaugeStatistic", _gaugeStatistic)
+                .add("AggregationShards", _aggregationShards)
+                .add("IdleKeyTimeout", _idleKeyTimeout)
+                .add("HistogramType", _histogramType)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("MetricHistogramPrecision", _metricHistogramPrecision)
+                .add("SketchRelativeAccuracy", _sketchRelativeAccuracy)
+                .add("SketchMaximumBuckets", _sketchMaximumBuckets)
+                .add("OffHeapStorage", _offHeapStorage)
+                .add("Rollup", _rollup)
+                .add("AsyncSinkDispatch", _asyncSinkDispatch)
+                .add("SinkQueueCapacity", _sinkQueueCapacity)
+                .add("QueueCapacity", _queueCapacity)
+                .add("OverflowPolicy", _overflowPolicy)
+                .add("CheckpointFile", _checkpointFile)
+                .add("CheckpointInterval", _checkpointInterval)
+                .add("MaxServiceSeries", _maxServiceSeries)
+                .add("MaxServiceMetrics", _maxServiceMetrics)
+                .add("CardinalityOverflowPolicy", _cardinalityOverflowPolicy)
+                .add("CardinalityWindow", _cardinalityWindow)
+                .add("EventTime", _eventTime)
+                .add("AllowedLateness", _allowedLateness)
                 .toString();
     }
 
@@ -132,6 +245,29 @@ public final class PipelineConfiguration {
         _counterStatistic = ImmutableSet.copyOf(builder._counterStatistics);
         _gaugeStatistic = ImmutableSet.copyOf(builder._gaugeStatistics);
         _statistics = ImmutableMap.copyOf(builder._statistics);
+        _aggregationShards = builder._shardedAggregation
+                ? Optional.of(builder._aggregationShards)
+                : Optional.empty();
+        _idleKeyTimeout = Optional.ofNullable(builder._idleKeyTimeout);
+        _histogramType = builder._histogramType;
+        _histogramPrecision = builder._histogramPrecision;
+        _metricHistogramPrecision = ImmutableMap.copyOf(builder._metricHistogramPrecision);
+        _sketchRelativeAccuracy = builder._sketchRelativeAccuracy;
+        _sketchMaximumBuckets = builder._sketchMaximumBuckets;
+        _offHeapStorage = builder._offHeapStorage;
+        _rollup = builder._rollup;
+        _asyncSinkDispatch = builder._asyncSinkDispatch;
+        _sinkQueueCapacity = builder._sinkQueueCapacity;
+        _queueCapacity = Optional.ofNullable(builder._queueCapacity);
+        _overflowPolicy = builder._overflowPolicy;
+        _checkpointFile = Optional.ofNullable(builder._checkpointFile);
+        _checkpointInterval = builder._checkpointInterval;
+        _maxServiceSeries = Optional.ofNullable(builder._maxServiceSeries);
+        _maxServiceMetrics = Optional.ofNullable(builder._maxServiceMetrics);
+        _cardinalityOverflowPolicy = builder._cardinalityOverflowPolicy;
+        _cardinalityWindow = builder._cardinalityWindow;
+        _eventTime = builder._eventTime;
+        _allowedLateness = builder._allowedLateness;
     }
 
     private final String _name;
@@ -142,6 +278,27 @@ public final class PipelineConfiguration {
     private final ImmutableSet<Statistic> _counterStatistic;
     private final ImmutableSet<Statistic> _gaugeStatistic;
     private final ImmutableMap<String, Set<Statistic>> _statistics;
+    private final Optional<Integer> _aggregationShards;
+    private final Optional<Period> _idleKeyTimeout;
+    private final HistogramStatistic.HistogramType _histogramType;
+    private final int _histogramPrecision;
+    private final ImmutableMap<String, Integer> _metricHistogramPrecision;
+    private final double _sketchRelativeAccuracy;
+    private final int _sketchMaximumBuckets;
+    private final boolean _offHeapStorage;
+    private final boolean _rollup;
+    private final boolean _asyncSinkDispatch;
+    private final int _sinkQueueCapacity;
+    private final Optional<Integer> _queueCapacity;
+    private final RecordQueue.OverflowPolicy _overflowPolicy;
+    private final Optional<File> _checkpointFile;
+    private final Period _checkpointInterval;
+    private final Optional<Integer> _maxServiceSeries;
+    private final Optional<Integer> _maxServiceMetrics;
+    private final CardinalityLimiter.OverflowPolicy _cardinalityOverflowPolicy;
+    private final Period _cardinalityWindow;
+    private final boolean _eventTime;
+    private final Period _allowedLateness;
 
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
 
@@ -252,6 +409,291 @@ public final class PipelineConfiguration {
             return this;
         }
 
+        /**
+         * Whether to aggregate on a fixed number of shards. Optional. Cannot
+         * be null. Default is false which creates dedicated threads for each
+         * combination of dimensions and period.
+         *
+         * @param value Whether to aggregate on a fixed number of shards.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setShardedAggregation(final Boolean value) {
+            _shardedAggregation = value;
+            return this;
+        }
+
+        /**
+         * The number of aggregation shards when sharded aggregation is
+         * enabled. Optional. Cannot be null. Must be at least one. Default
+         * is the number of available processors.
+         *
+         * @param value The number of aggregation shards.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setAggregationShards(final Integer value) {
+            _aggregationShards = value;
+            return this;
+        }
+
+        /**
+         * The time after which dimensions without any data or open periods
+         * are evicted to reclaim their aggregation state. Optional. Default
+         * is to never evict dimensions.
+         *
+         * @param value The idle key timeout.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIdleKeyTimeout(final Period value) {
+            _idleKeyTimeout = value;
+            return this;
+        }
+
+        /**
+         * The storage used for histograms backing percentile statistics.
+         * Optional. Cannot be null. Default is <code>TREE</code>.
+         *
+         * @param value The histogram type.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramType(final HistogramStatistic.HistogramType value) {
+            _histogramType = value;
+            return this;
+        }
+
+        /**
+         * The number of bits of mantissa retained by each histogram bucket.
+         * Optional. Cannot be null. Must be between 1 and 16. Default is 7.
+         *
+         * @param value The histogram precision.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramPrecision(final Integer value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The histogram precision for a metric pattern. Optional. Cannot be
+         * null. Default is empty.
+         *
+         * @param value The histogram precision by metric pattern.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMetricHistogramPrecision(final Map<String, Integer> value) {
+            _metricHistogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The relative accuracy of the quantile sketches backing the sketch
+         * percentile statistics. Optional. Cannot be null. Must be between
+         * 0.0001 and 0.5. Default is 0.01.
+         *
+         * @param value The sketch relative accuracy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSketchRelativeAccuracy(final Double value) {
+            _sketchRelativeAccuracy = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of buckets of each quantile sketch. Bounds the
+         * memory of the sketch percentile statistics of each metric; the
+         * buckets of the lowest values are merged beyond it. Optional. Cannot
+         * be null. Must be at least 16. Default is 1024.
+         *
+         * @param value The sketch maximum buckets.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSketchMaximumBuckets(final Integer value) {
+            _sketchMaximumBuckets = value;
+            return this;
+        }
+
+        /**
+         * Whether histogram counts are stored in pooled off-heap slabs which
+         * are released in bulk as each period closes instead of on-heap.
+         * Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to use off-heap storage.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOffHeapStorage(final Boolean value) {
+            _offHeapStorage = value;
+            return this;
+        }
+
+        /**
+         * Whether each period is derived by merging the closed buckets of the
+         * longest shorter period which divides it evenly instead of by
+         * aggregating every record again. Optional. Cannot be null. Default
+         * is false.
+         *
+         * @param value Whether to roll up periods.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRollup(final Boolean value) {
+            _rollup = value;
+            return this;
+        }
+
+        /**
+         * Whether closed periods are published to each sink from a dedicated
+         * thread instead of from the thread closing the period. Optional.
+         * Cannot be null. Default is true.
+         *
+         * @param value Whether to dispatch to sinks asynchronously.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setAsyncSinkDispatch(final Boolean value) {
+            _asyncSinkDispatch = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of closed periods queued for each sink when
+         * dispatching asynchronously. Optional. Cannot be null. Must be at
+         * least one. Default is 10000.
+         *
+         * @param value The sink queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSinkQueueCapacity(final Integer value) {
+            _sinkQueueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of records queued for each period worker, or
+         * for each shard when sharded. Optional. Cannot be less than one.
+         * Default is unbounded.
+         *
+         * @param value The queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The policy applied when a record is offered to a full queue; one of
+         * <code>BLOCK</code>, <code>DROP_NEWEST</code>, <code>DROP_OLDEST</code>
+         * or <code>SAMPLE</code>. Records from sources supporting backpressure,
+         * such as tcp and http sources, always block. Optional. Cannot be null.
+         * Default is <code>BLOCK</code>.
+         *
+         * @param value The overflow policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverflowPolicy(final RecordQueue.OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * The file to checkpoint the state of open periods to so that they
+         * are restored after a restart. Optional. Default is to not
+         * checkpoint.
+         *
+         * @param value The checkpoint file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCheckpointFile(final File value) {
+            _checkpointFile = value;
+            return this;
+        }
+
+        /**
+         * The interval between checkpoints of the state of open periods.
+         * Optional. Cannot be null. Default is five seconds.
+         *
+         * @param value The checkpoint interval.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCheckpointInterval(final Period value) {
+            _checkpointInterval = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct series, identified by their
+         * dimensions, each service may create in each cardinality window.
+         * Optional. Must be at least one. Default is unlimited.
+         *
+         * @param value The maximum number of series per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxServiceSeries(final Integer value) {
+            _maxServiceSeries = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct metric names each service may
+         * create in each cardinality window. Optional. Must be at least one.
+         * Default is unlimited.
+         *
+         * @param value The maximum number of metric names per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxServiceMetrics(final Integer value) {
+            _maxServiceMetrics = value;
+            return this;
+        }
+
+        /**
+         * The action taken for records exceeding a cardinality limit; one of
+         * <code>REJECT</code> or <code>COLLAPSE</code>. Optional. Cannot be
+         * null. Default is <code>REJECT</code>.
+         *
+         * @param value The cardinality overflow policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCardinalityOverflowPolicy(final CardinalityLimiter.OverflowPolicy value) {
+            _cardinalityOverflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * The window over which the cardinality of each service is
+         * estimated. Optional. Cannot be null. Default is one hour.
+         *
+         * @param value The cardinality window.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCardinalityWindow(final Period value) {
+            _cardinalityWindow = value;
+            return this;
+        }
+
+        /**
+         * Whether buckets close as the time of the records advances instead
+         * of with the system clock, for replaying or backfilling recorded
+         * data. Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to close buckets by event time.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setEventTime(final Boolean value) {
+            _eventTime = value;
+            return this;
+        }
+
+        /**
+         * The time the latest record time must pass the end of a bucket by
+         * before the bucket closes when closing buckets by event time.
+         * Optional. Cannot be null. Default is one minute.
+         *
+         * @param value The allowed lateness.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setAllowedLateness(final Period value) {
+            _allowedLateness = value;
+            return this;
+        }
+
         @NotNull
         @NotEmpty
         private String _name;
@@ -284,5 +726,54 @@ public final class PipelineConfiguration {
                 STATISTIC_FACTORY.getStatistic("mean"));
         @NotNull
         private Map<String, Set<Statistic>> _statistics = Collections.emptyMap();
+        @NotNull
+        private Boolean _shardedAggregation = false;
+        @NotNull
+        @Min(1)
+        private Integer _aggregationShards = Runtime.getRuntime().availableProcessors();
+        private Period _idleKeyTimeout;
+        @NotNull
+        private HistogramStatistic.HistogramType _histogramType = HistogramStatistic.HistogramType.TREE;
+        @NotNull
+        @Min(HistogramStatistic.MINIMUM_PRECISION)
+        @Max(HistogramStatistic.MAXIMUM_PRECISION)
+        private Integer _histogramPrecision = HistogramStatistic.DEFAULT_PRECISION;
+        @NotNull
+        private Map<String, Integer> _metricHistogramPrecision = Collections.emptyMap();
+        @NotNull
+        @Min(SketchStatistic.MINIMUM_RELATIVE_ACCURACY)
+        @Max(SketchStatistic.MAXIMUM_RELATIVE_ACCURACY)
+        private Double _sketchRelativeAccuracy = SketchStatistic.DEFAULT_RELATIVE_ACCURACY;
+        @NotNull
+        @Min(SketchStatistic.MINIMUM_MAXIMUM_BUCKETS)
+        private Integer _sketchMaximumBuckets = SketchStatistic.DEFAULT_MAXIMUM_BUCKETS;
+        @NotNull
+        private Boolean _offHeapStorage = false;
+        @NotNull
+        private Boolean _rollup = false;
+        @NotNull
+        private Boolean _asyncSinkDispatch = true;
+        @NotNull
+        @Min(1)
+        private Integer _sinkQueueCapacity = 10000;
+        @Min(1)
+        private Integer _queueCapacity;
+        @NotNull
+        private RecordQueue.OverflowPolicy _overflowPolicy = RecordQueue.OverflowPolicy.BLOCK;
+        private File _checkpointFile;
+        @NotNull
+        private Period _checkpointInterval = Period.seconds(5);
+        @Min(1)
+        private Integer _maxServiceSeries;
+        @Min(1)
+        private Integer _maxServiceMetrics;
+        @NotNull
+        private CardinalityLimiter.OverflowPolicy _cardinalityOverflowPolicy = CardinalityLimiter.OverflowPolicy.REJECT;
+        @NotNull
+        private Period _cardinalityWindow = Period.hours(1);
+        @NotNull
+        private Boolean _eventTime = false;
+        @NotNull
+        private Period _allowedLateness = Period.minutes(1);
     }
 }
@@ -18,11 +18,14 @@ package com.arpnetworking.metrics.mad.model;
 import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.MetricType;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import net.sf.oval.constraint.NotNull;
 
 import java.util.List;
@@ -44,6 +47,11 @@ public final class DefaultMetric implements Metric {
         return _values;
     }
 
+    @Override
+    public ImmutableMap<Statistic, CalculatedValue<?>> getStatistics() {
+        return _statistics;
+    }
+
     @Override
     public boolean equals(final Object other) {
         if (this == other) {
@@ -56,12 +64,13 @@ public final class DefaultMetric implements Metric {
 
         final Metric otherMetric = (Metric) other;
         return Objects.equal(getType(), otherMetric.getType())
-                && Objects.equal(getValues(), otherMetric.getValues());
+                && Objects.equal(getValues(), otherMetric.getValues())
+                && Objects.equal(getStatistics(), otherMetric.getStatistics());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(getType(), getValues());
+        return Objects.hashCode(getType(), getValues(), getStatistics());
     }
 
     @Override
@@ -70,6 +79,7 @@ public final class DefaultMetric implements Metric {
                 .add("id", Integer.toHexString(System.identityHashCode(this)))
                 .add("Type", _type)
                 .add("Values", _values)
+                .add("Statistics", _statistics.keySet())
                 .toString();
     }
 
@@ -88,16 +98,19 @@ public final class DefaultMetric implements Metric {
         return LogValueMapFactory.builder(this)
                 .put("type", _type)
                 .put("valueSize", _values.size())
+                .put("statistics", _statistics.keySet())
                 .build();
     }
 
     private DefaultMetric(final Builder builder) {
         _type = builder._type;
         _values = builder._values;
+        _statistics = builder._statistics;
     }
 
     private final MetricType _type;
     private final ImmutableList<Quantity> _values;
+    private final ImmutableMap<Statistic, CalculatedValue<?>> _statistics;
 
     /**
      * Implementation of builder pattern for <code>DefaultMetric</code>.
@@ -124,6 +137,18 @@ public final class DefaultMetric implements Metric {
             return this;
         }
 
+        /**
+         * The pre-aggregated values by statistic. Optional. Cannot be null.
+         * Defaults to an empty <code>Map</code>.
+         *
+         * @param value The pre-aggregated values by statistic.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setStatistics(final ImmutableMap<Statistic, CalculatedValue<?>> value) {
+            _statistics = value;
+            return this;
+        }
+
         /**
          * The metric type. Cannot be null.
          *
@@ -138,12 +163,15 @@ public final class DefaultMetric implements Metric {
         @Override
         protected void reset() {
             _values = null;
+            _statistics = ImmutableMap.of();
             _type = null;
         }
 
         @NotNull
         private ImmutableList<Quantity> _values;
         @NotNull
+        private ImmutableMap<Statistic, CalculatedValue<?>> _statistics = ImmutableMap.of();
+        @NotNull
         private MetricType _type;
     }
 }
@@ -15,10 +15,14 @@
  */
 package com.arpnetworking.metrics.mad.model;
 
+import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.MetricType;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.google.common.collect.ImmutableMap;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for a type of collected data .
@@ -40,4 +44,15 @@ public interface Metric {
      * @return The collected data.
      */
     List<Quantity> getValues();
+
+    /**
+     * Accessor for pre-aggregated data. Each accumulated statistic value is
+     * merged into the accumulator of the same statistic in addition to any
+     * collected data. Defaults to none.
+     *
+     * @return The accumulated values by statistic.
+     */
+    default Map<Statistic, CalculatedValue<?>> getStatistics() {
+        return ImmutableMap.of();
+    }
 }
@@ -19,6 +19,7 @@ import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import net.sf.oval.constraint.MatchPattern;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.DateTime;
 
@@ -252,13 +253,19 @@ public final class Version2g {
             return _value;
         }
 
+        public int getSampleCount() {
+            return _sampleCount;
+        }
+
         private Sample(final Builder builder) {
             _unit = builder._unit;
             _value = builder._value;
+            _sampleCount = builder._sampleCount == null ? 1 : builder._sampleCount;
         }
 
         private final Unit _unit;
         private final double _value;
+        private final int _sampleCount;
 
         /**
          * Builder for the Sample class.
@@ -293,15 +300,30 @@ public final class Version2g {
                 return this;
             }
 
+            /**
+             * Sets the number of times the value was observed. Optional.
+             * Default is one.
+             *
+             * @param value Value
+             * @return This builder
+             */
+            public Builder setSampleCount(final Integer value) {
+                _sampleCount = value;
+                return this;
+            }
+
             @Override
             protected void reset() {
                 _value = null;
                 _unit = null;
+                _sampleCount = null;
             }
 
             @NotNull
             private Double _value;
             private Unit _unit;
+            @Min(1)
+            private Integer _sampleCount;
         }
 
         /**
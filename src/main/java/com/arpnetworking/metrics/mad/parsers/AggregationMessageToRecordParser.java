@@ -0,0 +1,311 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad.parsers;
+
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.metrics.aggregation.protocol.Messages;
+import com.arpnetworking.metrics.common.parsers.Parser;
+import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Metric;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import net.sf.oval.exception.ConstraintsViolatedException;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Parses messages of the aggregation server protocol into records of
+ * pre-aggregated statistics. Each <code>StatisticSetRecord</code> of the
+ * accepted period becomes a <code>Record</code> at the start of its period
+ * with one <code>Metric</code> carrying the accumulated statistics: count,
+ * sum, min, max, histogram and sketch. Statistics which depend on these, such
+ * as the mean and percentiles, are recomputed once merged and are not
+ * ingested. Accumulated statistics which are not sent are derived from the
+ * histogram, or in the case of sum from the mean and count, where possible.
+ * All other messages of the protocol are ignored.
+ *
+ * The protocol does not carry the metric type; statistic sets with a
+ * histogram or sketch are treated as timers, those with min or max as gauges
+ * and all others as counters.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class AggregationMessageToRecordParser implements Parser<List<Record>, AggregationMessage> {
+
+    /**
+     * Parses an aggregation server protocol message.
+     *
+     * @param data the message to parse
+     * @return a list of records; empty if the message does not carry statistics of the accepted period
+     * @throws ParsingException if the statistic set is not parsable
+     */
+    @Override
+    public List<Record> parse(final AggregationMessage data) throws ParsingException {
+        if (!(data.getMessage() instanceof Messages.StatisticSetRecord)) {
+            // NOTE: Host identification and heartbeat messages do not carry data
+            return Collections.emptyList();
+        }
+        final Messages.StatisticSetRecord statisticSet = (Messages.StatisticSetRecord) data.getMessage();
+        try {
+            if (!_period.equals(Period.parse(statisticSet.getPeriod()).normalizedStandard())) {
+                return Collections.emptyList();
+            }
+
+            final ImmutableMap<Statistic, CalculatedValue<?>> statistics = parseStatistics(statisticSet);
+            if (statistics.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            final Metric metric = ThreadLocalBuilder.build(
+                    DefaultMetric.Builder.class,
+                    b -> b.setType(getType(statistics))
+                            .setValues(ImmutableList.of())
+                            .setStatistics(statistics));
+            return Collections.singletonList(
+                    ThreadLocalBuilder.build(
+                            DefaultRecord.Builder.class,
+                            b -> b.setId(UUID.randomUUID().toString())
+                                    .setTime(DateTime.parse(statisticSet.getPeriodStart()))
+                                    .setDimensions(parseDimensions(statisticSet))
+                                    .setMetrics(ImmutableMap.of(statisticSet.getMetric(), metric))));
+        } catch (final InvalidProtocolBufferException e) {
+            throw new ParsingException("Could not parse supporting data", statisticSet.toByteArray(), e);
+        } catch (final ConstraintsViolatedException | IllegalArgumentException | ArithmeticException e) {
+            throw new ParsingException("Could not build record", statisticSet.toByteArray(), e);
+        }
+    }
+
+    private ImmutableMap<Statistic, CalculatedValue<?>> parseStatistics(final Messages.StatisticSetRecord statisticSet)
+            throws InvalidProtocolBufferException {
+        final Map<Statistic, Messages.StatisticRecord> records = Maps.newHashMap();
+        for (final Messages.StatisticRecord statisticRecord : statisticSet.getStatisticsList()) {
+            final Optional<Statistic> statistic = STATISTIC_FACTORY.tryGetStatistic(statisticRecord.getStatistic());
+            if (statistic.isPresent()) {
+                records.put(statistic.get(), statisticRecord);
+            }
+        }
+
+        final Map<Statistic, CalculatedValue<?>> statistics = Maps.newHashMap();
+        for (final Statistic statistic : SCALAR_STATISTICS) {
+            final Messages.StatisticRecord statisticRecord = records.get(statistic);
+            if (statisticRecord != null) {
+                statistics.put(statistic, createValue(statisticRecord.getValue(), parseUnit(statisticRecord.getUnit())));
+            }
+        }
+
+        final Messages.StatisticRecord meanRecord = records.get(MEAN_STATISTIC);
+        final Messages.StatisticRecord countRecord = records.get(COUNT_STATISTIC);
+        if (!statistics.containsKey(SUM_STATISTIC) && meanRecord != null && countRecord != null) {
+            statistics.put(
+                    SUM_STATISTIC,
+                    createValue(meanRecord.getValue() * countRecord.getValue(), parseUnit(meanRecord.getUnit())));
+        }
+
+        final Messages.StatisticRecord histogramRecord = records.get(HISTOGRAM_STATISTIC);
+        if (histogramRecord != null && !histogramRecord.getSupportingData().isEmpty()) {
+            final HistogramStatistic.HistogramSupportingData supportingData =
+                    parseHistogram(histogramRecord.getSupportingData());
+            final HistogramStatistic.HistogramSnapshot snapshot = supportingData.getHistogramSnapshot();
+            @Nullable final Unit unit = supportingData.getUnit().orElse(null);
+            statistics.put(
+                    HISTOGRAM_STATISTIC,
+                    ThreadLocalBuilder.<
+                            CalculatedValue<HistogramStatistic.HistogramSupportingData>,
+                            CalculatedValue.Builder<HistogramStatistic.HistogramSupportingData>>buildGeneric(
+                            CalculatedValue.Builder.class,
+                            b -> b.setValue(createQuantity(histogramRecord.getValue(), parseUnit(histogramRecord.getUnit())))
+                                    .setData(supportingData)));
+
+            // NOTE: Values derived from the histogram are only as precise as its buckets
+            if (snapshot.getBucketCount() > 0) {
+                double sum = 0;
+                for (int i = 0; i < snapshot.getBucketCount(); ++i) {
+                    sum += snapshot.getBucket(i) * snapshot.getCount(i);
+                }
+                statistics.putIfAbsent(COUNT_STATISTIC, createValue(snapshot.getEntriesCount(), null));
+                statistics.putIfAbsent(SUM_STATISTIC, createValue(sum, unit));
+                statistics.putIfAbsent(MIN_STATISTIC, createValue(snapshot.getBucket(0), unit));
+                statistics.putIfAbsent(MAX_STATISTIC, createValue(snapshot.getBucket(snapshot.getBucketCount() - 1), unit));
+            }
+        }
+
+        final Messages.StatisticRecord sketchRecord = records.get(SKETCH_STATISTIC);
+        if (sketchRecord != null && !sketchRecord.getSupportingData().isEmpty()) {
+            final SketchStatistic.SketchSupportingData supportingData = parseSketch(sketchRecord.getSupportingData());
+            statistics.put(
+                    SKETCH_STATISTIC,
+                    ThreadLocalBuilder.<
+                            CalculatedValue<SketchStatistic.SketchSupportingData>,
+                            CalculatedValue.Builder<SketchStatistic.SketchSupportingData>>buildGeneric(
+                            CalculatedValue.Builder.class,
+                            b -> b.setValue(createQuantity(sketchRecord.getValue(), parseUnit(sketchRecord.getUnit())))
+                                    .setData(supportingData)));
+        }
+        return ImmutableMap.copyOf(statistics);
+    }
+
+    private HistogramStatistic.HistogramSupportingData parseHistogram(final ByteString supportingData)
+            throws InvalidProtocolBufferException {
+        final Messages.SparseHistogramSupportingData histogramData = parseSparseHistogram(supportingData);
+
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.TreeHistogram(parsePrecision(histogramData));
+        for (int i = 0; i < histogramData.getEntriesCount(); ++i) {
+            histogram.recordValue(
+                    histogramData.getEntries(i).getBucket(),
+                    Math.toIntExact(histogramData.getEntries(i).getCount()));
+        }
+        return ThreadLocalBuilder.build(
+                HistogramStatistic.HistogramSupportingData.Builder.class,
+                b -> b.setHistogramSnapshot(histogram.getSnapshot())
+                        .setUnit(parseUnit(histogramData.getUnit())));
+    }
+
+    private SketchStatistic.SketchSupportingData parseSketch(final ByteString supportingData)
+            throws InvalidProtocolBufferException {
+        final Messages.SparseHistogramSupportingData histogramData = parseSparseHistogram(supportingData);
+
+        // NOTE: The first entry carries the relative accuracy as its bucket and the negated maximum
+        // number of buckets as its count; each other entry is the estimated value of a bucket which
+        // indexes the same bucket at the same accuracy
+        if (histogramData.getEntriesCount() == 0 || histogramData.getEntries(0).getCount() >= 0) {
+            throw new InvalidProtocolBufferException("Sketch supporting data has no parameters");
+        }
+        final SketchStatistic.Sketch sketch = new SketchStatistic.Sketch(
+                histogramData.getEntries(0).getBucket(),
+                Math.toIntExact(-histogramData.getEntries(0).getCount()));
+        for (int i = 1; i < histogramData.getEntriesCount(); ++i) {
+            sketch.recordValue(histogramData.getEntries(i).getBucket(), histogramData.getEntries(i).getCount());
+        }
+        return ThreadLocalBuilder.build(
+                SketchStatistic.SketchSupportingData.Builder.class,
+                b -> b.setSketch(sketch)
+                        .setUnit(parseUnit(histogramData.getUnit())));
+    }
+
+    private static int parsePrecision(final Messages.SparseHistogramSupportingData histogramData) {
+        // NOTE: The sender truncates the buckets to its precision so the precision is the number of
+        // leading mantissa bits the buckets use; it is only lower if none of the buckets uses the
+        // last of these bits, in which case the buckets are exactly represented at the lower one
+        long mantissas = 0;
+        for (int i = 0; i < histogramData.getEntriesCount(); ++i) {
+            mantissas |= Double.doubleToRawLongBits(histogramData.getEntries(i).getBucket()) & MANTISSA_MASK;
+        }
+        final int precision = MANTISSA_BITS - Long.numberOfTrailingZeros(mantissas | (1L << MANTISSA_BITS));
+        return Math.min(
+                Math.max(precision, HistogramStatistic.MINIMUM_PRECISION),
+                HistogramStatistic.MAXIMUM_PRECISION);
+    }
+
+    private Messages.SparseHistogramSupportingData parseSparseHistogram(final ByteString supportingData)
+            throws InvalidProtocolBufferException {
+        final Optional<AggregationMessage> message = AggregationMessage.deserialize(supportingData.asReadOnlyByteBuffer());
+        if (!message.isPresent() || !(message.get().getMessage() instanceof Messages.SparseHistogramSupportingData)) {
+            throw new InvalidProtocolBufferException("Supporting data is not a sparse histogram");
+        }
+        return (Messages.SparseHistogramSupportingData) message.get().getMessage();
+    }
+
+    private ImmutableMap<String, String> parseDimensions(final Messages.StatisticSetRecord statisticSet) {
+        final Map<String, String> dimensions = Maps.newHashMap();
+        for (final Messages.DimensionEntry dimensionEntry : statisticSet.getDimensionsList()) {
+            dimensions.put(dimensionEntry.getKey(), dimensionEntry.getValue());
+        }
+        if (!statisticSet.getCluster().isEmpty()) {
+            dimensions.putIfAbsent(Key.CLUSTER_DIMENSION_KEY, statisticSet.getCluster());
+        }
+        if (!statisticSet.getService().isEmpty()) {
+            dimensions.putIfAbsent(Key.SERVICE_DIMENSION_KEY, statisticSet.getService());
+        }
+        return ImmutableMap.copyOf(dimensions);
+    }
+
+    private static MetricType getType(final Map<Statistic, CalculatedValue<?>> statistics) {
+        if (statistics.containsKey(HISTOGRAM_STATISTIC) || statistics.containsKey(SKETCH_STATISTIC)) {
+            return MetricType.TIMER;
+        } else if (statistics.containsKey(MIN_STATISTIC) || statistics.containsKey(MAX_STATISTIC)) {
+            return MetricType.GAUGE;
+        }
+        return MetricType.COUNTER;
+    }
+
+    @Nullable
+    private static Unit parseUnit(final String unit) {
+        // NOTE: The sink sends an empty string for values without a unit
+        return unit.isEmpty() ? null : Unit.valueOf(unit);
+    }
+
+    private static CalculatedValue<Void> createValue(final double value, @Nullable final Unit unit) {
+        return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
+                CalculatedValue.Builder.class,
+                b -> b.setValue(createQuantity(value, unit)));
+    }
+
+    private static Quantity createQuantity(final double value, @Nullable final Unit unit) {
+        return ThreadLocalBuilder.build(
+                Quantity.Builder.class,
+                b -> b.setValue(value).setUnit(unit));
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param period The period of the statistic sets to accept.
+     */
+    public AggregationMessageToRecordParser(final Period period) {
+        _period = period.normalizedStandard();
+    }
+
+    private final Period _period;
+
+    private static final int MANTISSA_BITS = 52;
+    private static final long MANTISSA_MASK = (1L << MANTISSA_BITS) - 1;
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic MIN_STATISTIC = STATISTIC_FACTORY.getStatistic("min");
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic MEAN_STATISTIC = STATISTIC_FACTORY.getStatistic("mean");
+    private static final Statistic HISTOGRAM_STATISTIC = STATISTIC_FACTORY.getStatistic("histogram");
+    private static final Statistic SKETCH_STATISTIC = STATISTIC_FACTORY.getStatistic("sketch");
+    private static final ImmutableList<Statistic> SCALAR_STATISTICS = ImmutableList.of(
+            COUNT_STATISTIC,
+            SUM_STATISTIC,
+            MIN_STATISTIC,
+            MAX_STATISTIC);
+}
@@ -656,7 +656,8 @@ public final class JsonToRecordParser implements Parser<Record, byte[]> {
                 return ThreadLocalBuilder.build(
                         Quantity.Builder.class,
                         b -> b.setValue(sample.getValue())
-                                .setUnit(getLegacyUnit(sampleUnit)));
+                                .setUnit(getLegacyUnit(sampleUnit))
+                                .setWeight((double) sample.getSampleCount()));
                 // TODO(vkoskela): Support compound units in Tsd Aggregator
                 //.setNumerator(sampleNumerator)  // same as sampleUnit above
                 //.setDenominator(sampleDenominator)
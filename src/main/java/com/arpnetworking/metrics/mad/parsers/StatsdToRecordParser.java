@@ -38,15 +38,11 @@ import java.nio.ByteBuffer;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.time.Clock;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -60,6 +56,10 @@ import javax.annotation.Nullable;
  * this time because they would need to be pushed down to our bucketing and
  * aggregation layer as a first-class metric type.
  *
+ * A value sent with a sample rate stands for the samples the client did not
+ * send and is parsed as a single <code>Quantity</code> whose weight is the
+ * reciprocal of the sample rate.
+ *
  * Except for the differences described above this parser supports both the
  * traditional and Data Dog variants of the statsd protocol as defined here:
  *
@@ -103,17 +103,16 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
             // Parse the tags
             final ImmutableMap<String, String> annotations = parseTags(matcher.group("TAGS"));
 
-            // Enforce sampling
+            // Weigh by the inverse of the sample rate
+            double weight = 1.0;
             if (sampleRate.isPresent() && sampleRate.get().compareTo(1.0) != 0) {
                 if (sampleRate.get().compareTo(0.0) == 0) {
-                    return Collections.emptyList();
-                }
-                if (Double.compare(_randomSupplier.get().nextDouble(), sampleRate.get()) > 0) {
-                    return Collections.emptyList();
+                    continue;
                 }
+                weight = 1.0 / sampleRate.get();
             }
 
-            recordListBuilder.add(createRecord(name, value, type, annotations));
+            recordListBuilder.add(createRecord(name, value, weight, type, annotations));
         }
 
         return recordListBuilder.build();
@@ -190,6 +189,7 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
     private Record createRecord(
             final String name,
             final Number value,
+            final double weight,
             final StatsdType type,
             final ImmutableMap<String, String> annotations) {
         return ThreadLocalBuilder.build(
@@ -205,7 +205,8 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
                                                         ThreadLocalBuilder.build(
                                                                 Quantity.Builder.class,
                                                                 b3 -> b3.setValue(value.doubleValue())
-                                                                        .setUnit(type.getUnit()))))
+                                                                        .setUnit(type.getUnit())
+                                                                        .setWeight(weight))))
                                         .setType(type.getMetricType()))))
                         .setTime(new DateTime(_clock.millis(), DateTimeZone.UTC)));
     }
@@ -214,19 +215,14 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
      * Public constructor.
      */
     public StatsdToRecordParser() {
-        _clock = Clock.systemUTC();
-        _randomSupplier = ThreadLocalRandom::current;
+        this(Clock.systemUTC());
     }
 
-    /* package private */ StatsdToRecordParser(
-            final Clock clock,
-            final Supplier<Random> randomSupplier) {
+    /* package private */ StatsdToRecordParser(final Clock clock) {
         _clock = clock;
-        _randomSupplier = randomSupplier;
     }
 
     private final Clock _clock;
-    private final Supplier<Random> _randomSupplier;
 
     private static final ImmutableSet<StatsdType> SAMPLED_STATSD_TYPES = ImmutableSet.of(
             StatsdType.COUNTER,
@@ -28,11 +28,14 @@ import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.MetricType;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import net.sf.oval.constraint.NotNull;
 
@@ -61,6 +64,11 @@ public final class MappingSource extends BaseSource {
         _source.stop();
     }
 
+    @Override
+    public boolean isBackpressureSupported() {
+        return _source.isBackpressureSupported();
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
@@ -106,16 +114,36 @@ public final class MappingSource extends BaseSource {
 
         @Override
         public void notify(final Observable observable, final Object event) {
-            if (!(event instanceof Record)) {
-                LOGGER.error()
-                        .setMessage("Observed unsupported event")
-                        .addData("event", event)
-                        .log();
+            if (event instanceof Record) {
+                _source.notify(map((Record) event));
+                return;
+            }
+            if (event instanceof List) {
+                // Map the batch and raise it as a batch
+                final List<?> records = (List<?>) event;
+                final List<Record> mappedRecords = Lists.newArrayListWithExpectedSize(records.size());
+                for (final Object record : records) {
+                    if (record instanceof Record) {
+                        mappedRecords.add(map((Record) record));
+                    } else {
+                        logUnsupportedEvent(record);
+                    }
+                }
+                _source.notifyRecords(mappedRecords);
                 return;
             }
+            logUnsupportedEvent(event);
+        }
+
+        private void logUnsupportedEvent(final Object event) {
+            LOGGER.error()
+                    .setMessage("Observed unsupported event")
+                    .addData("event", event)
+                    .log();
+        }
 
+        private Record map(final Record record) {
             // Merge the metrics in the record together
-            final Record record = (Record) event;
             final Map<String, MergingMetric> mergedMetrics = Maps.newHashMap();
             for (final Map.Entry<String, ? extends Metric> metric : record.getMetrics().entrySet()) {
                 boolean found = false;
@@ -134,22 +162,21 @@ public final class MappingSource extends BaseSource {
                 }
             }
 
-            // Raise the merged record event with this source's observers
+            // Create the merged record to raise with this source's observers
             // NOTE: Do not leak instances of MergingMetric since it is mutable
-            _source.notify(
-                    ThreadLocalBuilder.build(
-                            DefaultRecord.Builder.class,
-                            b1 -> b1.setMetrics(
-                                    mergedMetrics.entrySet().stream().collect(
-                                            ImmutableMap.toImmutableMap(
-                                                    Map.Entry::getKey,
-                                                    e -> ThreadLocalBuilder.clone(
-                                                            e.getValue(),
-                                                            DefaultMetric.Builder.class))))
-                                    .setId(record.getId())
-                                    .setTime(record.getTime())
-                                    .setAnnotations(record.getAnnotations())
-                                    .setDimensions(record.getDimensions())));
+            return ThreadLocalBuilder.build(
+                    DefaultRecord.Builder.class,
+                    b1 -> b1.setMetrics(
+                            mergedMetrics.entrySet().stream().collect(
+                                    ImmutableMap.toImmutableMap(
+                                            Map.Entry::getKey,
+                                            e -> ThreadLocalBuilder.clone(
+                                                    e.getValue(),
+                                                    DefaultMetric.Builder.class))))
+                            .setId(record.getId())
+                            .setTime(record.getTime())
+                            .setAnnotations(record.getAnnotations())
+                            .setDimensions(record.getDimensions()));
         }
 
         private void merge(final Metric metric, final String key, final Map<String, MergingMetric> mergedMetrics) {
@@ -181,10 +208,13 @@ public final class MappingSource extends BaseSource {
         /* package private */ MergingMetric(final Metric metric) {
             _type = metric.getType();
             _values.addAll(metric.getValues());
+            _statistics = ImmutableMap.copyOf(metric.getStatistics());
         }
 
         public boolean isMergable(final Metric metric) {
-            return _type.equals(metric.getType());
+            // NOTE: Pre-aggregated values can only be combined by their accumulators
+            return _type.equals(metric.getType())
+                    && (_statistics.isEmpty() || metric.getStatistics().isEmpty());
         }
 
         public void merge(final Metric metric) {
@@ -192,6 +222,9 @@ public final class MappingSource extends BaseSource {
                 throw new IllegalArgumentException(String.format("Metric cannot be merged; metric=%s", metric));
             }
             _values.addAll(metric.getValues());
+            if (_statistics.isEmpty()) {
+                _statistics = ImmutableMap.copyOf(metric.getStatistics());
+            }
         }
 
         @Override
@@ -204,17 +237,24 @@ public final class MappingSource extends BaseSource {
             return _values.build();
         }
 
+        @Override
+        public ImmutableMap<Statistic, CalculatedValue<?>> getStatistics() {
+            return _statistics;
+        }
+
         @Override
         public String toString() {
             return MoreObjects.toStringHelper(this)
                     .add("id", Integer.toHexString(System.identityHashCode(this)))
                     .add("Type", _type)
                     .add("Values", _values)
+                    .add("Statistics", _statistics.keySet())
                     .toString();
         }
 
         private final MetricType _type;
         private final ImmutableList.Builder<Quantity> _values = ImmutableList.builder();
+        private ImmutableMap<Statistic, CalculatedValue<?>> _statistics;
     }
 
     /**
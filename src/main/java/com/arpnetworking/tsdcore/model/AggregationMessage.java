@@ -16,9 +16,14 @@
 package com.arpnetworking.tsdcore.model;
 
 import com.arpnetworking.metrics.aggregation.protocol.Messages;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.vertx.java.core.buffer.Buffer;
 
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
 /**
  * Class for building messages from the raw, on-the-wire bytes in the TCP stream.
  *
@@ -36,6 +41,50 @@ public final class AggregationMessage {
         return new AggregationMessage(message);
     }
 
+    /**
+     * Deserialize the message at the position of a <code>ByteBuffer</code>.
+     * The buffer is advanced past the message only if it contains the entire
+     * message; otherwise, the buffer is unchanged.
+     *
+     * @param data The <code>ByteBuffer</code> containing the serialized message.
+     * @return New <code>AggregationMessage</code> instance or empty if the message is incomplete.
+     * @throws InvalidProtocolBufferException if the message is malformed or not supported.
+     */
+    public static Optional<AggregationMessage> deserialize(final ByteBuffer data) throws InvalidProtocolBufferException {
+        if (data.remaining() < INTEGER_SIZE_IN_BYTES) {
+            return Optional.empty();
+        }
+        final int length = data.getInt(data.position());
+        if (length < HEADER_SIZE_IN_BYTES) {
+            throw new InvalidProtocolBufferException(String.format("Invalid message length; length=%d", length));
+        }
+        if (data.remaining() < length) {
+            return Optional.empty();
+        }
+
+        final ByteBuffer message = data.slice();
+        message.limit(length);
+        message.position(INTEGER_SIZE_IN_BYTES);
+        data.position(data.position() + length);
+
+        final byte type = message.get();
+        if (type == 0x01) {
+            return Optional.of(new AggregationMessage(Messages.HostIdentification.parseFrom(payload(message))));
+        } else if (type == 0x03) {
+            return Optional.of(new AggregationMessage(Messages.HeartbeatRecord.parseFrom(payload(message))));
+        } else if (type == 0x04) {
+            return Optional.of(new AggregationMessage(Messages.StatisticSetRecord.parseFrom(payload(message))));
+        } else if (type == 0x05 && message.hasRemaining()) {
+            final byte subtype = message.get();
+            if (subtype == 0x01) {
+                return Optional.of(new AggregationMessage(Messages.SamplesSupportingData.parseFrom(payload(message))));
+            } else if (subtype == 0x02) {
+                return Optional.of(new AggregationMessage(Messages.SparseHistogramSupportingData.parseFrom(payload(message))));
+            }
+        }
+        throw new InvalidProtocolBufferException(String.format("Unsupported message; type=%d", type));
+    }
+
     /**
      * Serialize the message into a <code>Buffer</code>.
      *
@@ -72,6 +121,10 @@ public final class AggregationMessage {
         return _message.getSerializedSize() + HEADER_SIZE_IN_BYTES;
     }
 
+    private static CodedInputStream payload(final ByteBuffer message) {
+        return CodedInputStream.newInstance(message);
+    }
+
     private AggregationMessage(final GeneratedMessage message) {
         _message = message;
     }
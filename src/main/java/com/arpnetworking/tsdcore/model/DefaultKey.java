@@ -18,17 +18,36 @@ package com.arpnetworking.tsdcore.model;
 import com.arpnetworking.logback.annotations.Loggable;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
 
 /**
- * Default implementation of the <code>Key</code> interface.
+ * Default implementation of the <code>Key</code> interface. A 64-bit murmur3
+ * hash of the dimensions is computed once on construction so that lookups of
+ * a key do not rehash its dimensions and only compare them on a hash match.
+ * Keys should therefore be created once per distinct dimensions where records
+ * enter aggregation rather than once per record.
  *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
  */
 @Loggable
 public final class DefaultKey implements Key {
 
+    /**
+     * Accessor for the 64-bit hash of the dimensions. The hash does not
+     * depend on the order of the dimensions.
+     *
+     * @return The 64-bit hash of the dimensions.
+     */
+    public long getHash() {
+        return _hash;
+    }
+
     @Override
     public ImmutableMap<String, String> getParameters() {
         return _dimensions;
@@ -60,12 +79,13 @@ public final class DefaultKey implements Key {
         }
 
         final DefaultKey otherKey = (DefaultKey) other;
-        return Objects.equals(getParameters(), otherKey.getParameters());
+        return _hash == otherKey._hash
+                && Objects.equals(getParameters(), otherKey.getParameters());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_dimensions);
+        return (int) (_hash ^ (_hash >>> 32));
     }
 
     @Override
@@ -82,7 +102,38 @@ public final class DefaultKey implements Key {
      */
     public DefaultKey(final ImmutableMap<String, String> dimensions) {
         _dimensions = dimensions;
+        _hash = hash(dimensions);
+    }
+
+    /**
+     * Create a factory which creates one key for each distinct dimensions it
+     * is applied to. It is intended for the records of a single batch, which
+     * mostly share their dimensions, and is not thread safe.
+     *
+     * @return New key factory.
+     */
+    public static Function<ImmutableMap<String, String>, DefaultKey> newBatchFactory() {
+        final Map<ImmutableMap<String, String>, DefaultKey> keys = new HashMap<>();
+        return dimensions -> keys.computeIfAbsent(dimensions, DefaultKey::new);
+    }
+
+    private static long hash(final ImmutableMap<String, String> dimensions) {
+        // NOTE: The entry hashes are summed so that the order of the dimensions does not matter
+        long hash = 0;
+        for (final Map.Entry<String, String> entry : dimensions.entrySet()) {
+            // The key length separates the key from the value
+            hash += HASH_FUNCTION.newHasher()
+                    .putInt(entry.getKey().length())
+                    .putUnencodedChars(entry.getKey())
+                    .putUnencodedChars(entry.getValue())
+                    .hash()
+                    .asLong();
+        }
+        return hash;
     }
 
     private final ImmutableMap<String, String> _dimensions;
+    private final long _hash;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
 }
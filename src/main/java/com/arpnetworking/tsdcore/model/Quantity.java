@@ -19,6 +19,7 @@ import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.arpnetworking.logback.annotations.Loggable;
 import com.google.common.base.MoreObjects;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 import java.io.Serializable;
@@ -26,7 +27,10 @@ import java.util.Objects;
 import java.util.Optional;
 
 /**
- * Represents a sample.
+ * Represents a sample. A sample may carry a weight when it stands for
+ * several identical samples, for example a pre-aggregated value observed a
+ * number of times or a sampled statsd value weighed by the inverse of its
+ * sample rate; the weight is not carried over by arithmetic.
  *
  * @author Brandon Arp (brandon dot arp at inscopemetrics dot com)
  */
@@ -41,6 +45,10 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
         return _unit;
     }
 
+    public double getWeight() {
+        return _weight;
+    }
+
     /**
      * Add this <code>Quantity</code> to the specified one returning the
      * result. Both <code>Quantity</code> instances must either not have a
@@ -57,10 +65,10 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
                     otherQuantity));
         }
         if (Objects.equals(_unit, otherQuantity._unit)) {
-            return new Quantity(_value + otherQuantity._value, _unit);
+            return create(_value + otherQuantity._value, _unit);
         }
         final Unit smallerUnit = _unit.get().getSmallerUnit(otherQuantity.getUnit().get());
-        return new Quantity(
+        return create(
                 smallerUnit.convert(_value, _unit.get())
                         + smallerUnit.convert(otherQuantity._value, otherQuantity._unit.get()),
                 Optional.of(smallerUnit));
@@ -82,10 +90,10 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
                     otherQuantity));
         }
         if (Objects.equals(_unit, otherQuantity._unit)) {
-            return new Quantity(_value - otherQuantity._value, _unit);
+            return create(_value - otherQuantity._value, _unit);
         }
         final Unit smallerUnit = _unit.get().getSmallerUnit(otherQuantity.getUnit().get());
-        return new Quantity(
+        return create(
                 smallerUnit.convert(_value, _unit.get())
                         - smallerUnit.convert(otherQuantity._value, otherQuantity._unit.get()),
                 Optional.of(smallerUnit));
@@ -102,7 +110,7 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
         if (_unit.isPresent() && otherQuantity._unit.isPresent()) {
             throw new UnsupportedOperationException("Compound units not supported yet");
         }
-        return new Quantity(
+        return create(
                 _value * otherQuantity._value,
                 Optional.ofNullable(_unit.orElse(otherQuantity._unit.orElse(null))));
     }
@@ -120,9 +128,9 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
             throw new UnsupportedOperationException("Compound units not supported yet");
         }
         if (Objects.equals(_unit, otherQuantity._unit)) {
-            return new Quantity(_value / otherQuantity._value, Optional.empty());
+            return create(_value / otherQuantity._value, Optional.empty());
         }
-        return new Quantity(
+        return create(
                 _value / otherQuantity._value,
                 _unit);
     }
@@ -140,7 +148,7 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(_value, _unit);
+        return Objects.hash(_value, _unit, _weight);
     }
 
     @Override
@@ -155,6 +163,7 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
         final Quantity sample = (Quantity) o;
 
         return Double.compare(sample._value, _value) == 0
+                && Double.compare(sample._weight, _weight) == 0
                 && Objects.equals(_unit, sample._unit);
     }
 
@@ -164,23 +173,27 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
                 .add("id", Integer.toHexString(System.identityHashCode(this)))
                 .add("Unit", _unit)
                 .add("Value", _value)
+                .add("Weight", _weight)
                 .toString();
     }
 
-    private Quantity(final Builder builder) {
-        this(builder._value, Optional.ofNullable(builder._unit));
+    private static Quantity create(final double value, final Optional<Unit> unit) {
+        // NOTE: The result is not normalized so it keeps the unit of the operands
+        return new Quantity(new Builder().setValue(value).setUnit(unit.orElse(null)));
     }
 
-    private Quantity(final double value, final Optional<Unit> unit) {
-        _value = value;
-        _unit = unit;
+    private Quantity(final Builder builder) {
+        _value = builder._value;
+        _unit = Optional.ofNullable(builder._unit);
+        _weight = builder._weight;
     }
 
     @SuppressFBWarnings("SE_BAD_FIELD")
     private final Optional<Unit> _unit;
     private final double _value;
+    private final double _weight;
 
-    private static final long serialVersionUID = -6339526234042605516L;
+    private static final long serialVersionUID = -6323171530154396507L;
 
     /**
      * <code>Builder</code> implementation for <code>Quantity</code>.
@@ -191,7 +204,7 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
          * Public constructor.
          */
         public Builder() {
-            super((java.util.function.Function<Builder, Quantity>) Quantity::new);
+            super(Quantity::new);
         }
 
         /**
@@ -200,9 +213,10 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
          * @param quantity the <code>Quantity</code> to initialize from
          */
         public Builder(final Quantity quantity) {
-            super((java.util.function.Function<Builder, Quantity>) Quantity::new);
+            super(Quantity::new);
             _value = quantity._value;
             _unit = quantity._unit.orElse(null);
+            _weight = quantity._weight;
         }
 
         /**
@@ -227,6 +241,19 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
             return this;
         }
 
+        /**
+         * Set the number of samples this value represents, which need not be
+         * whole. Optional. Cannot be null. Must be at least one. Default is
+         * one.
+         *
+         * @param value The weight.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setWeight(final Double value) {
+            _weight = value;
+            return this;
+        }
+
         @Override
         public Quantity build() {
             normalize();
@@ -237,6 +264,7 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
         protected void reset() {
             _value = null;
             _unit = null;
+            _weight = 1.0;
         }
 
         private Builder normalize() {
@@ -253,5 +281,8 @@ public final class Quantity implements Comparable<Quantity>, Serializable {
         @NotNull
         private Double _value;
         private Unit _unit;
+        @NotNull
+        @Min(1)
+        private Double _weight = 1.0;
     }
 }
@@ -191,7 +191,34 @@ public enum Unit {
             return sourceValue;
         }
         assertSameType(this, sourceUnit);
-        return sourceUnit._scale / _scale * sourceValue;
+        return CONVERSION_FACTORS[sourceUnit.ordinal()][ordinal()] * sourceValue;
+    }
+
+    /**
+     * Converts values in one unit to this unit in place. Values of the same
+     * unit are not modified and conversions which are a scale factor
+     * multiply each value by the precomputed factor. The order of the values
+     * is preserved.
+     *
+     * @param sourceValues the values to be converted
+     * @param sourceUnit the unit of the source values
+     */
+    public void convert(final double[] sourceValues, final Unit sourceUnit) {
+        if (this.equals(sourceUnit)) {
+            return;
+        }
+        assertSameType(this, sourceUnit);
+        final double factor = CONVERSION_FACTORS[sourceUnit.ordinal()][ordinal()];
+        if (Double.isNaN(factor)) {
+            // NOTE: Temperature conversions are not a scale factor
+            for (int i = 0; i < sourceValues.length; ++i) {
+                sourceValues[i] = convert(sourceValues[i], sourceUnit);
+            }
+            return;
+        }
+        for (int i = 0; i < sourceValues.length; ++i) {
+            sourceValues[i] *= factor;
+        }
     }
 
     /**
@@ -263,13 +290,30 @@ public enum Unit {
     private final Type _type;
 
     private static final Map<Type, Unit> SMALLEST_UNIT_BY_TYPE = Maps.newHashMap();
+    // NOTE: Indexed by the ordinal of the source unit and then the target unit; NaN where not a scale factor
+    private static final double[][] CONVERSION_FACTORS;
 
     static {
-        for (final Unit unit : Unit.values()) {
+        final Unit[] units = Unit.values();
+        for (final Unit unit : units) {
             final Unit currentSmallest = SMALLEST_UNIT_BY_TYPE.get(unit._type);
             if (currentSmallest == null || unit._scale < currentSmallest._scale) {
                 SMALLEST_UNIT_BY_TYPE.put(unit._type, unit);
             }
         }
+        CONVERSION_FACTORS = new double[units.length][units.length];
+        for (final Unit source : units) {
+            for (final Unit target : units) {
+                final double factor;
+                if (source == target) {
+                    factor = 1.0;
+                } else if (!source._type.equals(target._type) || Type.TEMPERATURE.equals(source._type)) {
+                    factor = Double.NaN;
+                } else {
+                    factor = source._scale / target._scale;
+                }
+                CONVERSION_FACTORS[source.ordinal()][target.ordinal()] = factor;
+            }
+        }
     }
 }
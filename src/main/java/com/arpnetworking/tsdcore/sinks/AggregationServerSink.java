@@ -21,11 +21,14 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.AggregationMessage;
 import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.tsdcore.model.Unit;
 import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.StatisticFactory;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
 import org.joda.time.DateTime;
 import org.vertx.java.core.Handler;
 
@@ -127,19 +130,55 @@ public final class AggregationServerSink extends VertxSink {
             }
             builder.setUnit(unit);
 
-            for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
+            for (int i = 0; i < histogram.getBucketCount(); ++i) {
                 builder.addEntriesBuilder()
-                        .setBucket(entry.getKey())
-                        .setCount(entry.getValue())
+                        .setBucket(histogram.getBucket(i))
+                        .setCount(histogram.getCount(i))
                         .build();
             }
             byteString = ByteString.copyFrom(AggregationMessage.create(builder.build()).serialize().getBytes());
+        } else if (data instanceof SketchStatistic.SketchSupportingData) {
+            // NOTE: The sketch is sent as a sparse histogram of the estimated value of each bucket
+            // preceded by an entry of its relative accuracy and its negated maximum number of buckets
+            final SketchStatistic.SketchSupportingData sketchSupportingData = (SketchStatistic.SketchSupportingData) data;
+            final Messages.SparseHistogramSupportingData.Builder builder = Messages.SparseHistogramSupportingData.newBuilder();
+            final SketchStatistic.Sketch sketch = sketchSupportingData.getSketch();
+            builder.setUnit(sketchSupportingData.getUnit().map(Unit::toString).orElse(""));
+            builder.addEntriesBuilder()
+                    .setBucket(sketch.getRelativeAccuracy())
+                    .setCount(-sketch.getMaximumBuckets())
+                    .build();
+
+            for (final Int2LongMap.Entry entry : sketch.getNegativeBuckets().int2LongEntrySet()) {
+                addEntries(builder, -sketch.getBucketValue(entry.getIntKey()), entry.getLongValue());
+            }
+            addEntries(builder, 0, sketch.getZeroCount());
+            for (final Int2LongMap.Entry entry : sketch.getPositiveBuckets().int2LongEntrySet()) {
+                addEntries(builder, sketch.getBucketValue(entry.getIntKey()), entry.getLongValue());
+            }
+            byteString = ByteString.copyFrom(AggregationMessage.create(builder.build()).serialize().getBytes());
         } else {
             return null;
         }
         return byteString;
     }
 
+    /* package private */ static void addEntries(
+            final Messages.SparseHistogramSupportingData.Builder builder,
+            final double bucket,
+            final long count) {
+        // NOTE: Counts beyond the range of an entry are split across repeated entries for the bucket
+        long remaining = count;
+        while (remaining > 0) {
+            final int entryCount = (int) Math.min(remaining, Integer.MAX_VALUE);
+            builder.addEntriesBuilder()
+                    .setBucket(bucket)
+                    .setCount(entryCount)
+                    .build();
+            remaining -= entryCount;
+        }
+    }
+
     private void heartbeat() {
 
         final Messages.HeartbeatRecord message = Messages.HeartbeatRecord.newBuilder()
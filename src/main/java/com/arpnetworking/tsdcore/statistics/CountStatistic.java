@@ -69,7 +69,7 @@ public final class CountStatistic extends BaseStatistic {
 
         @Override
         public Accumulator<Void> accumulate(final Quantity quantity) {
-            ++_count;
+            _count += quantity.getWeight();
             return this;
         }
 
@@ -86,9 +86,9 @@ public final class CountStatistic extends BaseStatistic {
                     b1 -> b1.setValue(
                             ThreadLocalBuilder.build(
                                     Quantity.Builder.class,
-                                    b2 -> b2.setValue((double) _count))));
+                                    b2 -> b2.setValue(_count))));
         }
 
-        private long _count = 0;
+        private double _count = 0;
     }
 }
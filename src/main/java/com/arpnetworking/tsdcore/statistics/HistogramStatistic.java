@@ -19,14 +19,17 @@ import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.utility.SlabAllocator;
 import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
 import it.unimi.dsi.fastutil.doubles.Double2IntMap;
 import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
 import it.unimi.dsi.fastutil.objects.ObjectSortedSet;
 import net.sf.oval.constraint.NotNull;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.IntFunction;
 import javax.annotation.Nullable;
 
 /**
@@ -45,12 +48,97 @@ public final class HistogramStatistic extends BaseStatistic {
 
     @Override
     public Accumulator<HistogramSupportingData> createCalculator() {
-        return new HistogramAccumulator(this);
+        return createCalculator(HistogramType.TREE);
+    }
+
+    /**
+     * Create a calculator which stores its histogram as the specified type.
+     *
+     * @param histogramType The type of histogram storage.
+     * @return New <code>Accumulator</code> instance.
+     */
+    public Accumulator<HistogramSupportingData> createCalculator(final HistogramType histogramType) {
+        return createCalculator(histogramType, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create a calculator which stores its histogram as the specified type
+     * with the specified precision.
+     *
+     * @param histogramType The type of histogram storage.
+     * @param precision The number of bits of mantissa retained by each bucket.
+     * @return New <code>Accumulator</code> instance.
+     */
+    public Accumulator<HistogramSupportingData> createCalculator(final HistogramType histogramType, final int precision) {
+        return createCalculator(histogramType::createHistogram, precision);
+    }
+
+    /**
+     * Create a calculator which stores its histogram in histograms created
+     * by the specified factory with the specified precision.
+     *
+     * @param histogramFactory Creates an empty <code>Histogram</code> with a precision.
+     * @param precision The number of bits of mantissa retained by each bucket.
+     * @return New <code>Accumulator</code> instance.
+     */
+    public Accumulator<HistogramSupportingData> createCalculator(
+            final IntFunction<Histogram> histogramFactory,
+            final int precision) {
+        return createCalculator(histogramFactory, precision, NO_PERCENTILES);
+    }
+
+    /**
+     * Create a calculator which stores its histogram in histograms created
+     * by the specified factory with the specified precision. The specified
+     * percentiles are evaluated together in a single pass over the
+     * histogram the first time any of them is calculated.
+     *
+     * @param histogramFactory Creates an empty <code>Histogram</code> with a precision.
+     * @param precision The number of bits of mantissa retained by each bucket.
+     * @param percentiles The percentiles calculated by dependents in ascending order.
+     * @return New <code>Accumulator</code> instance.
+     */
+    public Accumulator<HistogramSupportingData> createCalculator(
+            final IntFunction<Histogram> histogramFactory,
+            final int precision,
+            final double[] percentiles) {
+        return new HistogramAccumulator(this, histogramFactory, precision, percentiles);
+    }
+
+    private static int checkPrecision(final int precision) {
+        if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION) {
+            throw new IllegalArgumentException(String.format(
+                    "Histogram precision must be between %d and %d bits; precision=%d",
+                    MINIMUM_PRECISION,
+                    MAXIMUM_PRECISION,
+                    precision));
+        }
+        return precision;
     }
 
     private HistogramStatistic() { }
 
+    /**
+     * The default number of bits of mantissa retained by each bucket.
+     */
+    public static final int DEFAULT_PRECISION = 7;
+    /**
+     * The minimum number of bits of mantissa retained by each bucket.
+     */
+    public static final int MINIMUM_PRECISION = 1;
+    /**
+     * The maximum number of bits of mantissa retained by each bucket.
+     */
+    public static final int MAXIMUM_PRECISION = 16;
+
     private static final long serialVersionUID = 7060886488604176233L;
+    private static final double[] NO_PERCENTILES = new double[0];
+    private static final int MANTISSA_BITS = 52;
+    // NOTE: A page is addressed by the sign and exponent bits and a slot by the retained mantissa bits
+    private static final int PAGES = 1 << 12;
+    private static final int DIRECTORY_BITS = 6;
+    private static final int PAGES_PER_DIRECTORY = 1 << DIRECTORY_BITS;
+    private static final int DIRECTORY_MASK = PAGES_PER_DIRECTORY - 1;
 
     /**
      * Accumulator computing the histogram of values. There is a dependency on the
@@ -66,17 +154,31 @@ public final class HistogramStatistic extends BaseStatistic {
          * Public constructor.
          *
          * @param statistic The <code>Statistic</code>.
+         * @param histogramFactory Creates an empty <code>Histogram</code> with a precision.
+         * @param precision The number of bits of mantissa retained by each bucket.
+         * @param percentiles The percentiles evaluated together in ascending order.
          */
-        /* package private */ HistogramAccumulator(final Statistic statistic) {
+        /* package private */ HistogramAccumulator(
+                final Statistic statistic,
+                final IntFunction<Histogram> histogramFactory,
+                final int precision,
+                final double[] percentiles) {
             super(statistic);
+            _histogramFactory = histogramFactory;
+            _histogram = histogramFactory.apply(precision);
+            _percentiles = percentiles;
         }
 
         @Override
         public Accumulator<HistogramSupportingData> accumulate(final Quantity quantity) {
             // Assert: that under the new Quantity normalization the units should always be the same.
-            assertUnit(_unit, quantity.getUnit(), _histogram._entriesCount > 0);
+            assertUnit(_unit, quantity.getUnit(), _histogram.getEntriesCount() > 0);
 
-            _histogram.recordValue(quantity.getValue());
+            // NOTE: Bins hold whole counts so fractional weights are rounded
+            final long count = Math.max(1, Math.round(quantity.getWeight()));
+            _histogram.recordValue(quantity.getValue(), (int) Math.min(count, Integer.MAX_VALUE));
+            _snapshot = null;
+            _percentileValues = null;
             _unit = Optional.ofNullable(_unit.orElse(quantity.getUnit().orElse(null)));
 
             return this;
@@ -85,9 +187,18 @@ public final class HistogramStatistic extends BaseStatistic {
         @Override
         public Accumulator<HistogramSupportingData> accumulate(final CalculatedValue<HistogramSupportingData> calculatedValue) {
             // Assert: that under the new Quantity normalization the units should always be the same.
-            assertUnit(_unit, calculatedValue.getData().getUnit(), _histogram._entriesCount > 0);
-
-            _histogram.add(calculatedValue.getData().getHistogramSnapshot());
+            assertUnit(_unit, calculatedValue.getData().getUnit(), _histogram.getEntriesCount() > 0);
+
+            final HistogramSnapshot histogramSnapshot = calculatedValue.getData().getHistogramSnapshot();
+            if (histogramSnapshot.getPrecision() < _histogram.getPrecision()) {
+                // Downsample to the coarser precision since the merged buckets cannot be refined
+                final Histogram histogram = _histogramFactory.apply(histogramSnapshot.getPrecision());
+                histogram.add(_histogram.getSnapshot());
+                _histogram = histogram;
+            }
+            _histogram.add(histogramSnapshot);
+            _snapshot = null;
+            _percentileValues = null;
             _unit = Optional.ofNullable(_unit.orElse(calculatedValue.getData().getUnit().orElse(null)));
 
             return this;
@@ -106,7 +217,7 @@ public final class HistogramStatistic extends BaseStatistic {
                                     .setData(
                                             ThreadLocalBuilder.build(
                                                     HistogramSupportingData.Builder.class,
-                                                    builder -> builder.setHistogramSnapshot(_histogram.getSnapshot())
+                                                    builder -> builder.setHistogramSnapshot(getSnapshot())
                                                             .setUnit(_unit.orElse(null)))));
         }
 
@@ -117,15 +228,43 @@ public final class HistogramStatistic extends BaseStatistic {
          * @return The value at the desired percentile.
          */
         public Quantity calculate(final double percentile) {
-            final HistogramSnapshot snapshot = _histogram.getSnapshot();
+            final HistogramSnapshot snapshot = getSnapshot();
+            final int index = Arrays.binarySearch(_percentiles, percentile);
+            final double value;
+            if (index >= 0) {
+                // NOTE: The percentiles of every dependent are evaluated in one pass on the first request
+                double[] percentileValues = _percentileValues;
+                if (percentileValues == null) {
+                    percentileValues = snapshot.getValuesAtPercentiles(_percentiles);
+                    _percentileValues = percentileValues;
+                }
+                value = percentileValues[index];
+            } else {
+                value = snapshot.getValueAtPercentile(percentile);
+            }
             return ThreadLocalBuilder.build(
                     Quantity.Builder.class,
-                    b -> b.setValue(snapshot.getValueAtPercentile(percentile))
+                    b -> b.setValue(value)
                             .setUnit(_unit.orElse(null)));
         }
 
+        private HistogramSnapshot getSnapshot() {
+            // NOTE: The snapshot is shared by the histogram supporting data and
+            // every percentile calculated until the next sample is accumulated.
+            HistogramSnapshot snapshot = _snapshot;
+            if (snapshot == null) {
+                snapshot = _histogram.getSnapshot();
+                _snapshot = snapshot;
+            }
+            return snapshot;
+        }
+
         private Optional<Unit> _unit = Optional.empty();
-        private final Histogram _histogram = new Histogram();
+        private HistogramSnapshot _snapshot;
+        private double[] _percentileValues;
+        private final double[] _percentiles;
+        private final IntFunction<Histogram> _histogramFactory;
+        private Histogram _histogram;
     }
 
     /**
@@ -149,22 +288,18 @@ public final class HistogramStatistic extends BaseStatistic {
         }
 
         /**
-         * Transforms the histogram to a new unit. If there is no unit set,
-         * the result is a no-op.
+         * Transforms the histogram to a new unit. If there is no unit set or
+         * the unit is already the new unit, the result is a no-op.
          *
          * @param newUnit the new unit
          * @return a new HistogramSupportingData with the units converted
          */
         public HistogramSupportingData toUnit(final Unit newUnit) {
-            if (_unit.isPresent()) {
-                final Histogram newHistogram = new Histogram();
-                for (final Map.Entry<Double, Integer> entry : _histogramSnapshot.getValues()) {
-                    final Double newBucket = newUnit.convert(entry.getKey(), _unit.get());
-                    newHistogram.recordValue(newBucket, entry.getValue());
-                }
+            if (_unit.isPresent() && !_unit.get().equals(newUnit)) {
+                final HistogramSnapshot newSnapshot = _histogramSnapshot.toUnit(_unit.get(), newUnit);
                 return ThreadLocalBuilder.build(
                         HistogramSupportingData.Builder.class,
-                        builder -> builder.setHistogramSnapshot(newHistogram.getSnapshot())
+                        builder -> builder.setHistogramSnapshot(newSnapshot)
                                 .setUnit(newUnit));
             }
             return this;
@@ -225,9 +360,54 @@ public final class HistogramStatistic extends BaseStatistic {
     }
 
     /**
-     * A simple histogram implementation.
+     * The storage used for the histogram of a <code>HistogramAccumulator</code>.
+     * Both types use the same buckets and produce identical snapshots.
+     */
+    public enum HistogramType {
+        /**
+         * Buckets are stored in a balanced tree; compact for few buckets.
+         */
+        TREE {
+            @Override
+            public Histogram createHistogram(final int precision) {
+                return new TreeHistogram(precision);
+            }
+        },
+        /**
+         * Buckets are stored in lazily allocated pages of a primitive array
+         * indexed directly by bucket; constant time to record.
+         */
+        PAGED {
+            @Override
+            public Histogram createHistogram(final int precision) {
+                return new PagedHistogram(precision);
+            }
+        };
+
+        /**
+         * Create a new empty <code>Histogram</code> of this type with the
+         * default precision.
+         *
+         * @return New <code>Histogram</code> instance.
+         */
+        public Histogram createHistogram() {
+            return createHistogram(DEFAULT_PRECISION);
+        }
+
+        /**
+         * Create a new empty <code>Histogram</code> of this type.
+         *
+         * @param precision The number of bits of mantissa retained by each bucket.
+         * @return New <code>Histogram</code> instance.
+         */
+        public abstract Histogram createHistogram(int precision);
+    }
+
+    /**
+     * A histogram of values truncated to buckets with a fixed number of bits
+     * of mantissa. Adding a snapshot with more precision downsamples it.
      */
-    public static final class Histogram {
+    public interface Histogram {
 
         /**
          * Records a value into the histogram.
@@ -235,17 +415,14 @@ public final class HistogramStatistic extends BaseStatistic {
          * @param value The value of the entry.
          * @param count The number of entries at this value.
          */
-        public void recordValue(final double value, final int count) {
-            _data.merge(truncate(value), count, (i, j) -> i + j);
-            _entriesCount += count;
-        }
+        void recordValue(double value, int count);
 
         /**
          * Records a value into the histogram.
          *
          * @param value The value of the entry.
          */
-        public void recordValue(final double value) {
+        default void recordValue(final double value) {
             recordValue(value, 1);
         }
 
@@ -254,35 +431,346 @@ public final class HistogramStatistic extends BaseStatistic {
          *
          * @param histogramSnapshot The histogram snapshot to add to this one.
          */
-        public void add(final HistogramSnapshot histogramSnapshot) {
-            for (final Double2IntMap.Entry entry : histogramSnapshot._data.double2IntEntrySet()) {
-                _data.merge(entry.getDoubleKey(), entry.getIntValue(), (i, j) -> i + j);
+        default void add(final HistogramSnapshot histogramSnapshot) {
+            for (int i = 0; i < histogramSnapshot.getBucketCount(); ++i) {
+                recordValue(histogramSnapshot.getBucket(i), histogramSnapshot.getCount(i));
             }
-            _entriesCount += histogramSnapshot._entriesCount;
         }
 
+        /**
+         * Accessor for the total number of entries.
+         *
+         * @return The number of entries.
+         */
+        int getEntriesCount();
+
+        /**
+         * Accessor for the number of bits of mantissa retained by each bucket.
+         *
+         * @return The precision.
+         */
+        int getPrecision();
+
+        /**
+         * Create an immutable snapshot of the histogram.
+         *
+         * @return New <code>HistogramSnapshot</code> instance.
+         */
+        HistogramSnapshot getSnapshot();
+    }
+
+    /**
+     * A simple histogram implementation backed by a balanced tree.
+     */
+    public static final class TreeHistogram implements Histogram {
+
+        /**
+         * Public constructor.
+         *
+         * @param precision The number of bits of mantissa retained by each bucket.
+         */
+        public TreeHistogram(final int precision) {
+            _precision = checkPrecision(precision);
+            _truncateMask = -1L << (MANTISSA_BITS - precision);
+        }
+
+        @Override
+        public void recordValue(final double value, final int count) {
+            _data.merge(truncate(value), count, (i, j) -> i + j);
+            _entriesCount += count;
+        }
+
+        @Override
+        public int getEntriesCount() {
+            return _entriesCount;
+        }
+
+        @Override
+        public int getPrecision() {
+            return _precision;
+        }
+
+        @Override
         public HistogramSnapshot getSnapshot() {
-            return new HistogramSnapshot(_data, _entriesCount);
+            final double[] buckets = new double[_data.size()];
+            final int[] counts = new int[_data.size()];
+            int index = 0;
+            for (final Double2IntMap.Entry entry : _data.double2IntEntrySet()) {
+                buckets[index] = entry.getDoubleKey();
+                counts[index] = entry.getIntValue();
+                ++index;
+            }
+            return new HistogramSnapshot(buckets, counts, _entriesCount, _precision);
         }
 
-        private static double truncate(final double val) {
-            final long mask = 0xffffe00000000000L;
-            return Double.longBitsToDouble(Double.doubleToRawLongBits(val) & mask);
+        private double truncate(final double val) {
+            return Double.longBitsToDouble(Double.doubleToRawLongBits(val) & _truncateMask);
         }
 
         private int _entriesCount = 0;
+        private final int _precision;
+        private final long _truncateMask;
         private final Double2IntSortedMap _data = new Double2IntAVLTreeMap();
     }
 
+    /**
+     * A histogram implementation which indexes buckets directly from the
+     * sign, exponent and truncated mantissa bits of each value. Each page
+     * holds the counts of all buckets sharing a sign and exponent and pages
+     * are allocated only for exponents which are recorded. Recording is
+     * constant time and snapshots are a sequential scan of the pages.
+     */
+    public static final class PagedHistogram implements Histogram {
+
+        /**
+         * Public constructor.
+         *
+         * @param precision The number of bits of mantissa retained by each bucket.
+         */
+        public PagedHistogram(final int precision) {
+            _precision = checkPrecision(precision);
+            _truncateShift = MANTISSA_BITS - precision;
+            _bucketsPerPage = 1 << precision;
+        }
+
+        @Override
+        public void recordValue(final double value, final int count) {
+            final int index = (int) (Double.doubleToRawLongBits(value) >>> _truncateShift);
+            final int page = index >>> _precision;
+            int[][] directory = _directories[page >>> DIRECTORY_BITS];
+            if (directory == null) {
+                directory = new int[PAGES_PER_DIRECTORY][];
+                _directories[page >>> DIRECTORY_BITS] = directory;
+            }
+            int[] counts = directory[page & DIRECTORY_MASK];
+            if (counts == null) {
+                counts = new int[_bucketsPerPage];
+                directory[page & DIRECTORY_MASK] = counts;
+            }
+            final int slot = index & (_bucketsPerPage - 1);
+            if (counts[slot] == 0 && count != 0) {
+                ++_bucketCount;
+            }
+            counts[slot] += count;
+            _entriesCount += count;
+        }
+
+        @Override
+        public int getEntriesCount() {
+            return _entriesCount;
+        }
+
+        @Override
+        public int getPrecision() {
+            return _precision;
+        }
+
+        @Override
+        public HistogramSnapshot getSnapshot() {
+            final double[] buckets = new double[_bucketCount];
+            final int[] counts = new int[_bucketCount];
+            int index = 0;
+            // Negative values ascend with descending bits and follow the positive pages
+            for (int page = PAGES - 1; page >= PAGES / 2; --page) {
+                final int[] pageCounts = getPage(page);
+                if (pageCounts != null) {
+                    for (int slot = _bucketsPerPage - 1; slot >= 0; --slot) {
+                        if (pageCounts[slot] != 0) {
+                            buckets[index] = toBucket(page, slot);
+                            counts[index] = pageCounts[slot];
+                            ++index;
+                        }
+                    }
+                }
+            }
+            for (int page = 0; page < PAGES / 2; ++page) {
+                final int[] pageCounts = getPage(page);
+                if (pageCounts != null) {
+                    for (int slot = 0; slot < _bucketsPerPage; ++slot) {
+                        if (pageCounts[slot] != 0) {
+                            buckets[index] = toBucket(page, slot);
+                            counts[index] = pageCounts[slot];
+                            ++index;
+                        }
+                    }
+                }
+            }
+            return new HistogramSnapshot(buckets, counts, _entriesCount, _precision);
+        }
+
+        private int[] getPage(final int page) {
+            final int[][] directory = _directories[page >>> DIRECTORY_BITS];
+            return directory == null ? null : directory[page & DIRECTORY_MASK];
+        }
+
+        private double toBucket(final int page, final int slot) {
+            return Double.longBitsToDouble((((long) page << _precision) | slot) << _truncateShift);
+        }
+
+        private int _entriesCount = 0;
+        private int _bucketCount = 0;
+        private final int _precision;
+        private final int _truncateShift;
+        private final int _bucketsPerPage;
+        private final int[][][] _directories = new int[PAGES / PAGES_PER_DIRECTORY][][];
+    }
+
+    /**
+     * A histogram implementation with the same layout as
+     * <code>PagedHistogram</code> whose pages are regions of off-heap slabs
+     * allocated from an <code>Arena</code>. The pages are released when the
+     * arena is closed after which the histogram must not be used; snapshots
+     * are on-heap and remain valid.
+     */
+    public static final class OffHeapHistogram implements Histogram {
+
+        /**
+         * Public constructor.
+         *
+         * @param precision The number of bits of mantissa retained by each bucket.
+         * @param arena The <code>Arena</code> to allocate pages from.
+         */
+        public OffHeapHistogram(final int precision, final SlabAllocator.Arena arena) {
+            _precision = checkPrecision(precision);
+            _truncateShift = MANTISSA_BITS - precision;
+            _bucketsPerPage = 1 << precision;
+            _arena = arena;
+            _allocator = arena.getAllocator();
+        }
+
+        @Override
+        public void recordValue(final double value, final int count) {
+            final int index = (int) (Double.doubleToRawLongBits(value) >>> _truncateShift);
+            final int page = index >>> _precision;
+            long[] directory = _directories[page >>> DIRECTORY_BITS];
+            if (directory == null) {
+                directory = new long[PAGES_PER_DIRECTORY];
+                _directories[page >>> DIRECTORY_BITS] = directory;
+            }
+            long handle = directory[page & DIRECTORY_MASK];
+            if (handle == 0) {
+                handle = _arena.allocate(_bucketsPerPage);
+                directory[page & DIRECTORY_MASK] = handle;
+            }
+            if (_allocator.add(handle, index & (_bucketsPerPage - 1), count) == count && count != 0) {
+                ++_bucketCount;
+            }
+            _entriesCount += count;
+        }
+
+        @Override
+        public int getEntriesCount() {
+            return _entriesCount;
+        }
+
+        @Override
+        public int getPrecision() {
+            return _precision;
+        }
+
+        @Override
+        public HistogramSnapshot getSnapshot() {
+            final double[] buckets = new double[_bucketCount];
+            final int[] counts = new int[_bucketCount];
+            int index = 0;
+            // Negative values ascend with descending bits and follow the positive pages
+            for (int page = PAGES - 1; page >= PAGES / 2; --page) {
+                final long handle = getPage(page);
+                if (handle != 0) {
+                    for (int slot = _bucketsPerPage - 1; slot >= 0; --slot) {
+                        final int count = _allocator.get(handle, slot);
+                        if (count != 0) {
+                            buckets[index] = toBucket(page, slot);
+                            counts[index] = count;
+                            ++index;
+                        }
+                    }
+                }
+            }
+            for (int page = 0; page < PAGES / 2; ++page) {
+                final long handle = getPage(page);
+                if (handle != 0) {
+                    for (int slot = 0; slot < _bucketsPerPage; ++slot) {
+                        final int count = _allocator.get(handle, slot);
+                        if (count != 0) {
+                            buckets[index] = toBucket(page, slot);
+                            counts[index] = count;
+                            ++index;
+                        }
+                    }
+                }
+            }
+            return new HistogramSnapshot(buckets, counts, _entriesCount, _precision);
+        }
+
+        private long getPage(final int page) {
+            final long[] directory = _directories[page >>> DIRECTORY_BITS];
+            return directory == null ? 0 : directory[page & DIRECTORY_MASK];
+        }
+
+        private double toBucket(final int page, final int slot) {
+            return Double.longBitsToDouble((((long) page << _precision) | slot) << _truncateShift);
+        }
+
+        private int _entriesCount = 0;
+        private int _bucketCount = 0;
+        private final int _precision;
+        private final int _truncateShift;
+        private final int _bucketsPerPage;
+        private final SlabAllocator.Arena _arena;
+        private final SlabAllocator _allocator;
+        private final long[][] _directories = new long[PAGES / PAGES_PER_DIRECTORY][];
+    }
+
     /**
      * Represents a snapshot of immutable histogram data.
      *
      * @author Brandon Arp (brandon dot arp at inscopemetrics dot com)
      */
     public static final class HistogramSnapshot {
-        private HistogramSnapshot(final Double2IntSortedMap data, final int entriesCount) {
+        private HistogramSnapshot(
+                final double[] buckets,
+                final int[] counts,
+                final int entriesCount,
+                final int precision) {
             _entriesCount = entriesCount;
-            _data.putAll(data);
+            _precision = precision;
+            _buckets = buckets;
+            _counts = counts;
+
+            // Freeze the cumulative counts of the ordered buckets for percentile lookups
+            _cumulativeCounts = new int[counts.length];
+            int accumulated = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                accumulated += counts[i];
+                _cumulativeCounts[i] = accumulated;
+            }
+        }
+
+        private HistogramSnapshot(final HistogramSnapshot snapshot, final double[] buckets) {
+            _entriesCount = snapshot._entriesCount;
+            _precision = snapshot._precision;
+            _buckets = buckets;
+            _counts = snapshot._counts;
+            _cumulativeCounts = snapshot._cumulativeCounts;
+        }
+
+        /**
+         * Converts the buckets to a new unit in a single pass. The counts are
+         * shared with this snapshot and the converted buckets are not
+         * truncated again, so buckets are never merged by the conversion.
+         *
+         * @param unit the unit of the buckets
+         * @param newUnit the new unit
+         * @return A new <code>HistogramSnapshot</code> with the buckets converted.
+         */
+        public HistogramSnapshot toUnit(final Unit unit, final Unit newUnit) {
+            if (unit.equals(newUnit)) {
+                return this;
+            }
+            final double[] buckets = Arrays.copyOf(_buckets, _buckets.length);
+            newUnit.convert(buckets, unit);
+            return new HistogramSnapshot(this, buckets);
         }
 
         /**
@@ -292,29 +780,117 @@ public final class HistogramStatistic extends BaseStatistic {
          * @return The value of the bucket at the percentile.
          */
         public Double getValueAtPercentile(final double percentile) {
-            // Always "round up" on fractional samples to bias toward 100%
-            // The Math.min is for the case where the computation may be just
-            // slightly larger than the _entriesCount and prevents an index out of range.
-            final int target = (int) Math.min(Math.ceil(_entriesCount * percentile / 100.0D), _entriesCount);
-            int accumulated = 0;
-            for (final Double2IntMap.Entry next : _data.double2IntEntrySet()) {
-                accumulated += next.getIntValue();
-                if (accumulated >= target) {
-                    return next.getDoubleKey();
+            if (_buckets.length == 0) {
+                return 0D;
+            }
+            // The first bucket whose cumulative count reaches the target
+            int index = Arrays.binarySearch(_cumulativeCounts, getTarget(percentile));
+            if (index < 0) {
+                index = -index - 1;
+            } else {
+                // Buckets with zero counts share cumulative counts with their predecessor
+                while (index > 0 && _cumulativeCounts[index - 1] == _cumulativeCounts[index]) {
+                    --index;
+                }
+            }
+            return _buckets[Math.min(index, _buckets.length - 1)];
+        }
+
+        /**
+         * Gets the values of the buckets that correspond to each of the
+         * percentiles in a single cumulative pass over the buckets.
+         *
+         * @param percentiles the percentiles in ascending order
+         * @return The values of the buckets at the percentiles in the same order.
+         */
+        public double[] getValuesAtPercentiles(final double... percentiles) {
+            final double[] values = new double[percentiles.length];
+            if (_buckets.length == 0) {
+                return values;
+            }
+            int index = 0;
+            for (int i = 0; i < percentiles.length; ++i) {
+                if (i > 0 && percentiles[i] < percentiles[i - 1]) {
+                    throw new IllegalArgumentException(String.format(
+                            "Percentiles must be in ascending order; percentiles=%s",
+                            Arrays.toString(percentiles)));
+                }
+                final int target = getTarget(percentiles[i]);
+                while (index < _buckets.length - 1 && _cumulativeCounts[index] < target) {
+                    ++index;
                 }
+                values[i] = _buckets[index];
             }
-            return 0D;
+            return values;
         }
 
         public int getEntriesCount() {
             return _entriesCount;
         }
 
+        public int getPrecision() {
+            return _precision;
+        }
+
+        /**
+         * Accessor for the number of non-empty buckets.
+         *
+         * @return The number of buckets.
+         */
+        public int getBucketCount() {
+            return _buckets.length;
+        }
+
+        /**
+         * Accessor for the value of a bucket by index in ascending order.
+         *
+         * @param index The index of the bucket.
+         * @return The value of the bucket.
+         */
+        public double getBucket(final int index) {
+            return _buckets[index];
+        }
+
+        /**
+         * Accessor for the number of entries in a bucket by index in ascending order.
+         *
+         * @param index The index of the bucket.
+         * @return The number of entries in the bucket.
+         */
+        public int getCount(final int index) {
+            return _counts[index];
+        }
+
+        /**
+         * Accessor for the buckets and their counts as a sorted map. Prefer
+         * the indexed accessors which do not create the map.
+         *
+         * @return The buckets and their counts.
+         */
         public ObjectSortedSet<Double2IntMap.Entry> getValues() {
-            return _data.double2IntEntrySet();
+            Double2IntSortedMap data = _data;
+            if (data == null) {
+                data = new Double2IntAVLTreeMap();
+                for (int i = 0; i < _buckets.length; ++i) {
+                    data.put(_buckets[i], _counts[i]);
+                }
+                _data = data;
+            }
+            return data.double2IntEntrySet();
         }
 
-        private int _entriesCount = 0;
-        private final Double2IntSortedMap _data = new Double2IntAVLTreeMap();
+        private int getTarget(final double percentile) {
+            // Always "round up" on fractional samples to bias toward 100%
+            // The Math.min is for the case where the computation may be just
+            // slightly larger than the _entriesCount and prevents an index out of range.
+            return (int) Math.min(Math.ceil(_entriesCount * percentile / 100.0D), _entriesCount);
+        }
+
+        private final int _entriesCount;
+        private final int _precision;
+        private final double[] _buckets;
+        private final int[] _counts;
+        private final int[] _cumulativeCounts;
+        private volatile Double2IntSortedMap _data;
     }
 }
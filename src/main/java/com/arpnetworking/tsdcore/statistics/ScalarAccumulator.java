@@ -0,0 +1,252 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Fused accumulator of the count, sum, minimum and maximum of values in
+ * primitive fields. Each sample is accumulated once for all four statistics
+ * instead of once per statistic. The calculators of the count, sum, min and
+ * max statistics are views over the shared accumulated values, and statistics
+ * depending on them such as the mean read them through these views when
+ * calculated. This class is not thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class ScalarAccumulator {
+
+    /**
+     * Whether a statistic is computed by this accumulator.
+     *
+     * @param statistic The <code>Statistic</code>.
+     * @return True if and only if the statistic is count, sum, min or max.
+     */
+    public static boolean isSupported(final Statistic statistic) {
+        return statistic instanceof CountStatistic
+                || statistic instanceof SumStatistic
+                || statistic instanceof MinStatistic
+                || statistic instanceof MaxStatistic;
+    }
+
+    /**
+     * Add the specified <code>Quantity</code> to each of the accumulated values.
+     *
+     * @param quantity The <code>Quantity</code> to include in the accumulated values.
+     */
+    public void accumulate(final Quantity quantity) {
+        final double value = quantity.getValue();
+        final double weight = quantity.getWeight();
+        accumulateUnit(quantity.getUnit());
+        _count += weight;
+        // NOTE: A quantity standing for several samples contributes each of them
+        _sum += weight == 1.0 ? value : value * weight;
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    /**
+     * Create the <code>Accumulator</code> of a statistic which reads from and
+     * merges into the accumulated values. Samples added to the returned
+     * accumulator only update the value of its statistic.
+     *
+     * @param statistic The count, sum, min or max <code>Statistic</code>.
+     * @return New <code>Accumulator</code> view of the accumulated value.
+     */
+    public Accumulator<Void> createCalculator(final Statistic statistic) {
+        if (statistic instanceof CountStatistic) {
+            return new CountCalculator(statistic);
+        } else if (statistic instanceof SumStatistic) {
+            return new SumCalculator(statistic);
+        } else if (statistic instanceof MinStatistic) {
+            return new MinCalculator(statistic);
+        } else if (statistic instanceof MaxStatistic) {
+            return new MaxCalculator(statistic);
+        }
+        throw new IllegalArgumentException(String.format("Unsupported statistic; statistic=%s", statistic));
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("count", _count)
+                .put("sum", _sum)
+                .put("min", _min)
+                .put("max", _max)
+                .put("unit", _unit)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void accumulateUnit(final Optional<Unit> unit) {
+        // Assert: that under the new Quantity normalization the units should always be the same.
+        BaseStatistic.assertUnit(_unit, unit, _hasValue);
+        if (!_hasValue) {
+            _unit = unit;
+            _hasValue = true;
+        }
+    }
+
+    private CalculatedValue<Void> createValue(final double value, @Nullable final Unit unit) {
+        return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
+                CalculatedValue.Builder.class,
+                b1 -> b1.setValue(
+                        ThreadLocalBuilder.build(
+                                Quantity.Builder.class,
+                                b2 -> b2.setValue(value).setUnit(unit))));
+    }
+
+    private CalculatedValue<Void> createAccumulatedValue(final double value) {
+        // NOTE: Without any values there is no sum, min or max to calculate
+        if (!_hasValue) {
+            return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
+                    CalculatedValue.Builder.class,
+                    b -> b.setValue(null));
+        }
+        return createValue(value, _unit.orElse(null));
+    }
+
+    private double _count = 0;
+    private double _sum = 0;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+    private Optional<Unit> _unit = Optional.empty();
+    private boolean _hasValue = false;
+
+    private final class CountCalculator extends BaseCalculator<Void> implements Accumulator<Void> {
+
+        CountCalculator(final Statistic statistic) {
+            super(statistic);
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final Quantity quantity) {
+            _count += quantity.getWeight();
+            return this;
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
+            _count += calculatedValue.getValue().getValue();
+            return this;
+        }
+
+        @Override
+        public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            return createValue(_count, null);
+        }
+    }
+
+    private final class SumCalculator extends BaseCalculator<Void> implements Accumulator<Void> {
+
+        SumCalculator(final Statistic statistic) {
+            super(statistic);
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final Quantity quantity) {
+            accumulateUnit(quantity.getUnit());
+            _sum += quantity.getValue() * quantity.getWeight();
+            return this;
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
+            accumulateUnit(calculatedValue.getValue().getUnit());
+            _sum += calculatedValue.getValue().getValue();
+            return this;
+        }
+
+        @Override
+        public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            return createAccumulatedValue(_sum);
+        }
+    }
+
+    private final class MinCalculator extends BaseCalculator<Void> implements Accumulator<Void> {
+
+        MinCalculator(final Statistic statistic) {
+            super(statistic);
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final Quantity quantity) {
+            accumulateUnit(quantity.getUnit());
+            if (quantity.getValue() < _min) {
+                _min = quantity.getValue();
+            }
+            return this;
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
+            return accumulate(calculatedValue.getValue());
+        }
+
+        @Override
+        public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            return createAccumulatedValue(_min);
+        }
+    }
+
+    private final class MaxCalculator extends BaseCalculator<Void> implements Accumulator<Void> {
+
+        MaxCalculator(final Statistic statistic) {
+            super(statistic);
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final Quantity quantity) {
+            accumulateUnit(quantity.getUnit());
+            if (quantity.getValue() > _max) {
+                _max = quantity.getValue();
+            }
+            return this;
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
+            return accumulate(calculatedValue.getValue());
+        }
+
+        @Override
+        public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            return createAccumulatedValue(_max);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import it.unimi.dsi.fastutil.ints.Int2LongAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongSortedMap;
+import it.unimi.dsi.fastutil.ints.Int2LongSortedMaps;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Sketch statistic. This is a supporting statistic and does not produce a
+ * value itself. It is used by the sketch percentile statistics as a common
+ * dependency. Unlike the histogram the sketch is bounded in size and its
+ * quantiles are within a fixed relative error of the true value regardless
+ * of the range of values. Use <code>StatisticFactory</code> for construction.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class SketchStatistic extends BaseStatistic {
+
+    @Override
+    public String getName() {
+        return "sketch";
+    }
+
+    @Override
+    public Accumulator<SketchSupportingData> createCalculator() {
+        return createCalculator(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAXIMUM_BUCKETS);
+    }
+
+    /**
+     * Create a calculator whose sketch has the specified relative accuracy
+     * and maximum number of buckets.
+     *
+     * @param relativeAccuracy The relative accuracy of quantiles; between 0.0001 and 0.5.
+     * @param maximumBuckets The maximum number of buckets retained.
+     * @return New <code>Accumulator</code> instance.
+     */
+    public Accumulator<SketchSupportingData> createCalculator(final double relativeAccuracy, final int maximumBuckets) {
+        return new SketchAccumulator(this, relativeAccuracy, maximumBuckets);
+    }
+
+    private SketchStatistic() { }
+
+    /**
+     * The default relative accuracy of quantiles.
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    /**
+     * The minimum relative accuracy of quantiles.
+     */
+    public static final double MINIMUM_RELATIVE_ACCURACY = 0.0001;
+    /**
+     * The maximum relative accuracy of quantiles.
+     */
+    public static final double MAXIMUM_RELATIVE_ACCURACY = 0.5;
+    /**
+     * The default maximum number of buckets retained.
+     */
+    public static final int DEFAULT_MAXIMUM_BUCKETS = 1024;
+    /**
+     * The minimum maximum number of buckets retained.
+     */
+    public static final int MINIMUM_MAXIMUM_BUCKETS = 16;
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Accumulator computing the sketch of values. There is a dependency on the
+     * sketch accumulator from each sketch percentile statistic's calculator.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    /* package private */ static final class SketchAccumulator
+            extends BaseCalculator<SketchSupportingData>
+            implements Accumulator<SketchSupportingData> {
+
+        /**
+         * Public constructor.
+         *
+         * @param statistic The <code>Statistic</code>.
+         * @param relativeAccuracy The relative accuracy of quantiles.
+         * @param maximumBuckets The maximum number of buckets retained.
+         */
+        /* package private */ SketchAccumulator(
+                final Statistic statistic,
+                final double relativeAccuracy,
+                final int maximumBuckets) {
+            super(statistic);
+            _sketch = new Sketch(relativeAccuracy, maximumBuckets);
+        }
+
+        @Override
+        public Accumulator<SketchSupportingData> accumulate(final Quantity quantity) {
+            // Assert: that under the new Quantity normalization the units should always be the same.
+            assertUnit(_unit, quantity.getUnit(), _sketch.getCount() > 0);
+
+            // NOTE: Buckets hold whole counts so fractional weights are rounded
+            _sketch.recordValue(quantity.getValue(), Math.max(1, Math.round(quantity.getWeight())));
+            _unit = Optional.ofNullable(_unit.orElse(quantity.getUnit().orElse(null)));
+
+            return this;
+        }
+
+        @Override
+        public Accumulator<SketchSupportingData> accumulate(final CalculatedValue<SketchSupportingData> calculatedValue) {
+            // Assert: that under the new Quantity normalization the units should always be the same.
+            assertUnit(_unit, calculatedValue.getData().getUnit(), _sketch.getCount() > 0);
+
+            _sketch.add(calculatedValue.getData().getSketch());
+            _unit = Optional.ofNullable(_unit.orElse(calculatedValue.getData().getUnit().orElse(null)));
+
+            return this;
+        }
+
+        @Override
+        public CalculatedValue<SketchSupportingData> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            // NOTE: The supporting data is a copy since the sketch may continue to accumulate
+            final Sketch sketch = _sketch.copy();
+            return ThreadLocalBuilder.<
+                    CalculatedValue<SketchSupportingData>,
+                    CalculatedValue.Builder<SketchSupportingData>>buildGeneric(
+                            CalculatedValue.Builder.class,
+                            b1 -> b1.setValue(
+                                    ThreadLocalBuilder.build(
+                                            Quantity.Builder.class,
+                                            b2 -> b2.setValue(1.0)))
+                                    .setData(
+                                            ThreadLocalBuilder.build(
+                                                    SketchSupportingData.Builder.class,
+                                                    builder -> builder.setSketch(sketch)
+                                                            .setUnit(_unit.orElse(null)))));
+        }
+
+        /**
+         * Calculate the value at the specified percentile.
+         *
+         * @param percentile The desired percentile to calculate.
+         * @return The value at the desired percentile.
+         */
+        public Quantity calculate(final double percentile) {
+            return ThreadLocalBuilder.build(
+                    Quantity.Builder.class,
+                    b -> b.setValue(_sketch.getValueAtPercentile(percentile))
+                            .setUnit(_unit.orElse(null)));
+        }
+
+        private Optional<Unit> _unit = Optional.empty();
+        private final Sketch _sketch;
+    }
+
+    /**
+     * Supporting data based on a sketch.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class SketchSupportingData {
+        /**
+         * Public constructor.
+         *
+         * @param builder The builder.
+         */
+        public SketchSupportingData(final Builder builder) {
+            _unit = Optional.ofNullable(builder._unit);
+            _sketch = builder._sketch;
+        }
+
+        public Sketch getSketch() {
+            return _sketch;
+        }
+
+        public Optional<Unit> getUnit() {
+            return _unit;
+        }
+
+        private final Optional<Unit> _unit;
+        private final Sketch _sketch;
+
+        /**
+         * Implementation of the builder pattern for a {@link SketchSupportingData}.
+         *
+         * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+         */
+        public static class Builder extends ThreadLocalBuilder<SketchSupportingData> {
+            /**
+             * Public constructor.
+             */
+            public Builder() {
+                super(SketchSupportingData::new);
+            }
+
+            /**
+             * Sets the sketch. Required. Cannot be null.
+             *
+             * @param value the sketch
+             * @return This {@link Builder} instance.
+             */
+            public Builder setSketch(final Sketch value) {
+                _sketch = value;
+                return this;
+            }
+
+            /**
+             * Sets the unit. Optional. Cannot be null.
+             *
+             * @param value the unit
+             * @return This {@link Builder} instance.
+             */
+            public Builder setUnit(@Nullable final Unit value) {
+                _unit = value;
+                return this;
+            }
+
+            @Override
+            protected void reset() {
+                _unit = null;
+                _sketch = null;
+            }
+
+            private Unit _unit;
+            @NotNull
+            private Sketch _sketch;
+        }
+    }
+
+    /**
+     * A mergeable quantile sketch with logarithmically sized buckets. A
+     * positive value <code>v</code> is counted in the bucket with index
+     * <code>ceil(log(v) / log(gamma))</code> where
+     * <code>gamma = (1 + a) / (1 - a)</code> for relative accuracy
+     * <code>a</code>, and is estimated by a value within <code>a * v</code> of
+     * it. Negative values are counted in buckets of their magnitude and
+     * values too small to index are counted as zero. When the number of
+     * buckets exceeds the maximum the buckets of the lowest values are
+     * collapsed into their neighbor, which preserves the accuracy of the upper
+     * quantiles. Sketches with the same relative accuracy merge without loss.
+     * This class is not thread safe.
+     */
+    public static final class Sketch {
+
+        /**
+         * Public constructor.
+         *
+         * @param relativeAccuracy The relative accuracy of quantiles; between 0.0001 and 0.5.
+         * @param maximumBuckets The maximum number of buckets retained; at least 16.
+         */
+        public Sketch(final double relativeAccuracy, final int maximumBuckets) {
+            if (!(relativeAccuracy >= MINIMUM_RELATIVE_ACCURACY && relativeAccuracy <= MAXIMUM_RELATIVE_ACCURACY)) {
+                throw new IllegalArgumentException(String.format(
+                        "Sketch relative accuracy must be between %s and %s; relativeAccuracy=%s",
+                        MINIMUM_RELATIVE_ACCURACY,
+                        MAXIMUM_RELATIVE_ACCURACY,
+                        relativeAccuracy));
+            }
+            if (maximumBuckets < MINIMUM_MAXIMUM_BUCKETS) {
+                throw new IllegalArgumentException(String.format(
+                        "Sketch maximum buckets must be at least %d; maximumBuckets=%d",
+                        MINIMUM_MAXIMUM_BUCKETS,
+                        maximumBuckets));
+            }
+            _relativeAccuracy = relativeAccuracy;
+            _maximumBuckets = maximumBuckets;
+            _gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+            _logGamma = Math.log(_gamma);
+            _minimumIndexableValue = Double.MIN_NORMAL * _gamma;
+        }
+
+        /**
+         * Records a value into the sketch.
+         *
+         * @param value The value of the entry.
+         * @param count The number of entries at this value.
+         */
+        public void recordValue(final double value, final long count) {
+            addValue(value, count);
+            _count += count;
+            collapse();
+        }
+
+        /**
+         * Records a value into the sketch.
+         *
+         * @param value The value of the entry.
+         */
+        public void recordValue(final double value) {
+            recordValue(value, 1);
+        }
+
+        /**
+         * Records the count of a bucket of positive values.
+         *
+         * @param index The index of the bucket.
+         * @param count The number of entries in the bucket.
+         */
+        public void recordPositiveBucket(final int index, final long count) {
+            _positive.addTo(index, count);
+            _count += count;
+            collapse();
+        }
+
+        /**
+         * Records the count of a bucket of negative values.
+         *
+         * @param index The index of the bucket of the magnitude of the values.
+         * @param count The number of entries in the bucket.
+         */
+        public void recordNegativeBucket(final int index, final long count) {
+            _negative.addTo(-index, count);
+            _count += count;
+            collapse();
+        }
+
+        /**
+         * Records a number of values counted as zero.
+         *
+         * @param count The number of entries counted as zero.
+         */
+        public void recordZeroCount(final long count) {
+            _zeroCount += count;
+            _count += count;
+        }
+
+        /**
+         * Adds a sketch to this one. The buckets of a sketch with a different
+         * relative accuracy are recorded by their estimated values.
+         *
+         * @param sketch The sketch to add to this one.
+         */
+        public void add(final Sketch sketch) {
+            final boolean aligned = Double.compare(sketch._relativeAccuracy, _relativeAccuracy) == 0;
+            for (final Int2LongMap.Entry entry : sketch._positive.int2LongEntrySet()) {
+                if (aligned) {
+                    _positive.addTo(entry.getIntKey(), entry.getLongValue());
+                } else {
+                    addValue(sketch.getBucketValue(entry.getIntKey()), entry.getLongValue());
+                }
+            }
+            for (final Int2LongMap.Entry entry : sketch._negative.int2LongEntrySet()) {
+                if (aligned) {
+                    _negative.addTo(entry.getIntKey(), entry.getLongValue());
+                } else {
+                    addValue(-sketch.getBucketValue(-entry.getIntKey()), entry.getLongValue());
+                }
+            }
+            _zeroCount += sketch._zeroCount;
+            _count += sketch._count;
+            collapse();
+        }
+
+        /**
+         * Create a copy of this sketch.
+         *
+         * @return New <code>Sketch</code> instance with the same buckets.
+         */
+        public Sketch copy() {
+            final Sketch sketch = new Sketch(_relativeAccuracy, _maximumBuckets);
+            sketch.add(this);
+            return sketch;
+        }
+
+        /**
+         * Gets the estimated value at a percentile.
+         *
+         * @param percentile the percentile
+         * @return The estimated value at the percentile.
+         */
+        public double getValueAtPercentile(final double percentile) {
+            if (_count == 0) {
+                return 0D;
+            }
+            // Always "round up" on fractional samples to bias toward 100%
+            final long target = Math.max(1, (long) Math.min(Math.ceil(_count * percentile / 100.0D), _count));
+            long cumulative = 0;
+            for (final Int2LongMap.Entry entry : _negative.int2LongEntrySet()) {
+                cumulative += entry.getLongValue();
+                if (cumulative >= target) {
+                    return -getBucketValue(-entry.getIntKey());
+                }
+            }
+            cumulative += _zeroCount;
+            if (cumulative >= target) {
+                return 0D;
+            }
+            for (final Int2LongMap.Entry entry : _positive.int2LongEntrySet()) {
+                cumulative += entry.getLongValue();
+                if (cumulative >= target) {
+                    return getBucketValue(entry.getIntKey());
+                }
+            }
+            return _positive.isEmpty() ? 0D : getBucketValue(_positive.lastIntKey());
+        }
+
+        /**
+         * Gets the estimated value of the values counted in a bucket.
+         *
+         * @param index the index of the bucket
+         * @return The estimated value of the values in the bucket.
+         */
+        public double getBucketValue(final int index) {
+            // NOTE: The bucket covers (gamma^(index-1), gamma^index]
+            return 2 * Math.exp(index * _logGamma) / (1 + _gamma);
+        }
+
+        public double getRelativeAccuracy() {
+            return _relativeAccuracy;
+        }
+
+        public int getMaximumBuckets() {
+            return _maximumBuckets;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        public long getZeroCount() {
+            return _zeroCount;
+        }
+
+        public int getBucketCount() {
+            return _positive.size() + _negative.size();
+        }
+
+        /**
+         * Gets the counts of the buckets of positive values by index.
+         *
+         * @return The counts of the buckets of positive values.
+         */
+        public Int2LongSortedMap getPositiveBuckets() {
+            return Int2LongSortedMaps.unmodifiable(_positive);
+        }
+
+        /**
+         * Gets the counts of the buckets of negative values by the index of
+         * their magnitude.
+         *
+         * @return The counts of the buckets of negative values.
+         */
+        public Int2LongSortedMap getNegativeBuckets() {
+            final Int2LongSortedMap buckets = new Int2LongAVLTreeMap();
+            for (final Int2LongMap.Entry entry : _negative.int2LongEntrySet()) {
+                buckets.put(-entry.getIntKey(), entry.getLongValue());
+            }
+            return Int2LongSortedMaps.unmodifiable(buckets);
+        }
+
+        private void addValue(final double value, final long count) {
+            if (value >= _minimumIndexableValue) {
+                _positive.addTo(index(value), count);
+            } else if (value <= -_minimumIndexableValue) {
+                // NOTE: Negative buckets are keyed by the negated index to order them by value
+                _negative.addTo(-index(-value), count);
+            } else {
+                _zeroCount += count;
+            }
+        }
+
+        private int index(final double value) {
+            return (int) Math.ceil(Math.log(value) / _logGamma);
+        }
+
+        private void collapse() {
+            while (getBucketCount() > _maximumBuckets) {
+                // NOTE: The lowest values are the negative values of largest magnitude
+                final Int2LongAVLTreeMap buckets = _negative.size() > 1 ? _negative : _positive;
+                final long count = buckets.remove(buckets.firstIntKey());
+                buckets.addTo(buckets.firstIntKey(), count);
+            }
+        }
+
+        private long _count;
+        private long _zeroCount;
+        private final double _relativeAccuracy;
+        private final int _maximumBuckets;
+        private final double _gamma;
+        private final double _logGamma;
+        private final double _minimumIndexableValue;
+        private final Int2LongAVLTreeMap _positive = new Int2LongAVLTreeMap();
+        private final Int2LongAVLTreeMap _negative = new Int2LongAVLTreeMap();
+    }
+}
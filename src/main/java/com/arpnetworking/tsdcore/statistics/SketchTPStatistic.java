@@ -0,0 +1,143 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Base class for percentile based statistics estimated from a bounded size
+ * sketch instead of the histogram. The names of these statistics are those of
+ * the corresponding histogram percentile statistics prefixed with
+ * <code>sketch_</code>; for example, <code>sketch_tp99</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public abstract class SketchTPStatistic extends BaseStatistic implements OrderedStatistic {
+
+    /**
+     * Accessor for the percentile from 0 to 100 (inclusive).
+     *
+     * @return The percentile.
+     */
+    public double getPercentile() {
+        return _percentile;
+    }
+
+    @Override
+    public String getName() {
+        return _defaultName;
+    }
+
+    @Override
+    public Set<String> getAliases() {
+        return Collections.unmodifiableSet(_aliases);
+    }
+
+    @Override
+    public Calculator<Void> createCalculator() {
+        return new SketchPercentileCalculator(this);
+    }
+
+    @Override
+    public Set<Statistic> getDependencies() {
+        return DEPENDENCIES.get();
+    }
+
+    /**
+     * Protected constructor.
+     *
+     * @param percentile The percentile value to compute.
+     */
+    protected SketchTPStatistic(final double percentile) {
+        _percentile = percentile;
+        final String name = "tp" + FORMAT.format(_percentile);
+        _defaultName = PREFIX + name;
+        _aliases = Sets.newHashSet();
+        _aliases.add(_defaultName);
+        _aliases.add(PREFIX + name.substring(1));
+        _aliases.add(PREFIX + name.replace(".", "p"));
+        _aliases.add(PREFIX + name.substring(1).replace(".", "p"));
+    }
+
+    private final double _percentile;
+    private final String _defaultName;
+    private final Set<String> _aliases;
+
+    private static final String PREFIX = "sketch_";
+    private static final DecimalFormat FORMAT = new DecimalFormat("##0.#");
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Supplier<Statistic> SKETCH_STATISTIC =
+            Suppliers.memoize(() -> STATISTIC_FACTORY.getStatistic("sketch"));
+    private static final Supplier<Set<Statistic>> DEPENDENCIES =
+            Suppliers.memoize(() -> ImmutableSet.of(SKETCH_STATISTIC.get()));
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Calculator computing the percentile of values from the sketch.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class SketchPercentileCalculator extends BaseCalculator<Void> {
+
+        /**
+         * Public constructor.
+         *
+         * @param statistic The <code>SketchTPStatistic</code>.
+         */
+        public SketchPercentileCalculator(final SketchTPStatistic statistic) {
+            super(statistic);
+        }
+
+        @Override
+        public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
+            final SketchStatistic.SketchAccumulator calculator =
+                    (SketchStatistic.SketchAccumulator) dependencies.get(SKETCH_STATISTIC.get());
+            return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
+                    CalculatedValue.Builder.class,
+                    b -> b.setValue(calculator.calculate(((SketchTPStatistic) getStatistic()).getPercentile())));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(getClass(), getStatistic());
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof SketchPercentileCalculator)) {
+                return false;
+            }
+
+            final SketchPercentileCalculator otherPercentileCalculator = (SketchPercentileCalculator) other;
+            return getStatistic().equals(otherPercentileCalculator.getStatistic());
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.utility.InterfaceDatabase;
 import com.arpnetworking.utility.ReflectionsDatabase;
+import com.arpnetworking.utility.ServiceManifestDatabase;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
@@ -32,7 +33,12 @@ import java.util.Optional;
 import java.util.Set;
 
 /**
- * Creates statistics.
+ * Creates statistics. The available statistics are the concrete classes
+ * listed in the <code>META-INF/services</code> manifests of
+ * <code>Statistic</code> on the classpath; see
+ * <code>ServiceManifestDatabase</code>. Setting the system property
+ * <code>com.arpnetworking.tsdcore.statistics.classpathScanning</code> to true
+ * instead discovers them by scanning the classpath.
  *
  * @author Brandon Arp (brandon dot arp at inscopemetrics dot com)
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
@@ -100,9 +106,19 @@ public class StatisticFactory {
         map.put(key, statistic);
     }
 
+    /**
+     * System property which when true discovers statistics by scanning the
+     * classpath instead of from the <code>META-INF/services</code> manifests
+     * of <code>Statistic</code>.
+     */
+    public static final String CLASSPATH_SCANNING_PROPERTY = "com.arpnetworking.tsdcore.statistics.classpathScanning";
+
     private static final ImmutableMap<String, Statistic> STATISTICS_BY_NAME_AND_ALIAS;
     private static final ImmutableSet<Statistic> ALL_STATISTICS;
-    private static final InterfaceDatabase INTERFACE_DATABASE = ReflectionsDatabase.newInstance();
+    // NOTE: Scanning the classpath is slow and allocation heavy; it is only a fallback for statistics without a manifest
+    private static final InterfaceDatabase INTERFACE_DATABASE = Boolean.getBoolean(CLASSPATH_SCANNING_PROPERTY)
+            ? ReflectionsDatabase.newInstance()
+            : ServiceManifestDatabase.newInstance();
     private static final Logger LOGGER = LoggerFactory.getLogger(StatisticFactory.class);
 
     static {
@@ -124,7 +140,7 @@ public class StatisticFactory {
                         checkedPut(statisticByNameAndAlias, statistic, alias);
                     }
                 } catch (final InvocationTargetException | NoSuchMethodException
-                        | InstantiationException | IllegalAccessException e) {
+                        | InstantiationException | IllegalAccessException | LinkageError e) {
                     LOGGER.warn()
                         .setMessage("Unable to load statistic")
                         .addData("class", statisticClass)
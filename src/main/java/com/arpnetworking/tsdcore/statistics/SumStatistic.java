@@ -67,10 +67,17 @@ public final class SumStatistic extends BaseStatistic {
             // Assert: that under the new Quantity normalization the units should always be the same.
             assertUnit(_sum.map(Quantity::getUnit).orElse(Optional.empty()), quantity.getUnit(), _sum.isPresent());
 
+            // NOTE: A quantity standing for several samples contributes each of them
+            final Quantity total = quantity.getWeight() == 1.0
+                    ? quantity
+                    : ThreadLocalBuilder.build(
+                            Quantity.Builder.class,
+                            b -> b.setValue(quantity.getValue() * quantity.getWeight())
+                                    .setUnit(quantity.getUnit().orElse(null)));
             if (_sum.isPresent()) {
-                _sum = Optional.of(_sum.get().add(quantity));
+                _sum = Optional.of(_sum.get().add(total));
             } else {
-                _sum = Optional.of(quantity);
+                _sum = Optional.of(total);
             }
             return this;
         }
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct elements added in constant space. Each
+ * element is represented by a well distributed 64-bit hash whose leading bits
+ * select a register and whose remaining bits determine the rank stored in it.
+ * The relative standard error of the estimate is about
+ * <code>1.04 / sqrt(2^precision)</code>. This class is not thread safe.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class HyperLogLog {
+
+    /**
+     * Add an element.
+     *
+     * @param hash The 64-bit hash of the element.
+     * @return True if and only if the sketch changed.
+     */
+    public boolean add(final long hash) {
+        final int index = index(hash);
+        final byte rank = rank(hash);
+        if (rank > _registers[index]) {
+            _registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the number of distinct elements added.
+     *
+     * @return The estimated number of distinct elements.
+     */
+    public long estimate() {
+        final int registers = _registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (final byte rank : _registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                ++zeros;
+            }
+        }
+        final double estimate = ALPHA / (1.0 + 1.079 / registers) * registers * registers / sum;
+        // Linear counting is more accurate while many registers are empty
+        if (estimate <= 2.5 * registers && zeros > 0) {
+            return Math.round(registers * Math.log((double) registers / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Remove all elements.
+     */
+    public void clear() {
+        Arrays.fill(_registers, (byte) 0);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("precision", _precision)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private int index(final long hash) {
+        return (int) (hash >>> (Long.SIZE - _precision));
+    }
+
+    private byte rank(final long hash) {
+        // NOTE: The sentinel bit bounds the rank when the remaining bits are zero
+        return (byte) (Long.numberOfLeadingZeros((hash << _precision) | (1L << (_precision - 1))) + 1);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param precision The number of bits selecting a register; between 7 and 16.
+     */
+    public HyperLogLog(final int precision) {
+        if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION) {
+            throw new IllegalArgumentException(String.format("Invalid precision; precision=%d", precision));
+        }
+        _precision = precision;
+        _registers = new byte[1 << precision];
+    }
+
+    private final int _precision;
+    private final byte[] _registers;
+
+    private static final int MINIMUM_PRECISION = 7;
+    private static final int MAXIMUM_PRECISION = 16;
+    private static final double ALPHA = 0.7213;
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a string against an ordered list of patterns and returns the value
+ * of the first pattern which matches the entire string. The literal prefix of
+ * each pattern is indexed in a trie so that only the patterns whose prefix
+ * begins the string, and those without a literal prefix, are evaluated. This
+ * class is thread safe.
+ *
+ * @param <T> The type of value associated with each pattern.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class PatternMatcher<T> {
+
+    /**
+     * Find the value of the first pattern matching the entire string.
+     *
+     * @param value The string to match.
+     * @return The value of the first matching pattern, if any.
+     */
+    public Optional<T> match(final String value) {
+        // Collect the patterns whose literal prefix begins the value
+        final BitSet candidates = (BitSet) _root._patterns.clone();
+        Node node = _root;
+        for (int i = 0; i < value.length() && node._children != null; ++i) {
+            node = node._children.get(value.charAt(i));
+            if (node == null) {
+                break;
+            }
+            candidates.or(node._patterns);
+        }
+
+        // Evaluate the candidates in order
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (_patterns.get(i).matcher(value).matches()) {
+                return Optional.of(_values.get(i));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("patterns", _patterns)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ static String getLiteralPrefix(final String regex) {
+        // NOTE: Alternation may begin anywhere so the prefix is not literal
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = regex.startsWith("^") ? 1 : 0; i < regex.length(); ++i) {
+            final char c = regex.charAt(i);
+            if (QUANTIFIERS.indexOf(c) >= 0) {
+                // The preceding character may be optional or repeated
+                if (prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            if (METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param patterns The patterns in match order and their values.
+     */
+    public PatternMatcher(final Map<Pattern, T> patterns) {
+        final ImmutableList.Builder<Pattern> patternsBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<T> valuesBuilder = ImmutableList.builder();
+        int index = 0;
+        for (final Map.Entry<Pattern, T> entry : patterns.entrySet()) {
+            patternsBuilder.add(entry.getKey());
+            valuesBuilder.add(entry.getValue());
+            // NOTE: Flags such as case insensitivity change the meaning of literals
+            final String prefix = entry.getKey().flags() == 0 ? getLiteralPrefix(entry.getKey().pattern()) : "";
+            Node node = _root;
+            for (final char c : prefix.toCharArray()) {
+                if (node._children == null) {
+                    node._children = Maps.newHashMap();
+                }
+                node = node._children.computeIfAbsent(c, k -> new Node());
+            }
+            node._patterns.set(index++);
+        }
+        _patterns = patternsBuilder.build();
+        _values = valuesBuilder.build();
+    }
+
+    private final Node _root = new Node();
+    private final List<Pattern> _patterns;
+    private final List<T> _values;
+
+    private static final String METACHARACTERS = "\\[](){}.^$|";
+    private static final String QUANTIFIERS = "*+?{";
+
+    private static final class Node {
+
+        // NOTE: Nodes are only modified during construction
+        private Map<Character, Node> _children;
+        private final BitSet _patterns = new BitSet();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Implementation of <code>InterfaceDatabase</code> which reads the classes
+ * implementing an interface from manifests packaged with the classes instead
+ * of scanning the classpath. The manifests use the format of
+ * <code>java.util.ServiceLoader</code>: a resource named
+ * <code>META-INF/services/</code> followed by the binary name of the
+ * interface listing one implementing class per line with <code>#</code>
+ * starting a comment. Every manifest of the interface on the classpath is
+ * read, so classes outside this project may be registered by packaging their
+ * own manifest. Unlike <code>ServiceLoader</code> the classes are neither
+ * required to be public nor to have a public constructor, and entries which
+ * cannot be loaded or do not implement the interface are logged and skipped.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class ServiceManifestDatabase implements InterfaceDatabase {
+
+    /**
+     * Create a new instance of <code>ServiceManifestDatabase</code>.
+     *
+     * @return New instance of <code>ServiceManifestDatabase</code>.
+     */
+    public static ServiceManifestDatabase newInstance() {
+        return new ServiceManifestDatabase(ServiceManifestDatabase.class.getClassLoader());
+    }
+
+    @Override
+    public <T> Set<Class<? extends T>> findClassesWithInterface(final Class<T> interfaceClass) {
+        if (!interfaceClass.isInterface()) {
+            throw new IllegalArgumentException(String.format("Class must be an interface; class=%s", interfaceClass));
+        }
+        final Set<Class<? extends T>> classes = Sets.newHashSet();
+        try {
+            final Enumeration<URL> manifests = _classLoader.getResources(MANIFEST_PREFIX + interfaceClass.getName());
+            while (manifests.hasMoreElements()) {
+                final URL manifest = manifests.nextElement();
+                for (final String className : readManifest(manifest)) {
+                    loadClass(className, interfaceClass, manifest).ifPresent(classes::add);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableSet(classes);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("classLoader", _classLoader)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private Set<String> readManifest(final URL manifest) throws IOException {
+        final Set<String> classNames = Sets.newLinkedHashSet();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(manifest.openStream(), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                final int comment = line.indexOf('#');
+                final String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!className.isEmpty()) {
+                    classNames.add(className);
+                }
+                line = reader.readLine();
+            }
+        }
+        return classNames;
+    }
+
+    private <T> Optional<Class<? extends T>> loadClass(final String className, final Class<T> interfaceClass, final URL manifest) {
+        // NOTE: One bad entry, possibly in another project's manifest, must not prevent loading the others
+        try {
+            final Class<?> clazz = Class.forName(className, false, _classLoader);
+            if (!interfaceClass.isAssignableFrom(clazz)) {
+                LOGGER.warn()
+                        .setMessage("Class in manifest does not implement interface")
+                        .addData("class", className)
+                        .addData("interface", interfaceClass)
+                        .addData("manifest", manifest)
+                        .log();
+                return Optional.empty();
+            }
+            return Optional.of(clazz.asSubclass(interfaceClass));
+        } catch (final ClassNotFoundException | LinkageError e) {
+            LOGGER.warn()
+                    .setMessage("Unable to load class in manifest")
+                    .addData("class", className)
+                    .addData("manifest", manifest)
+                    .setThrowable(e)
+                    .log();
+            return Optional.empty();
+        }
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ ServiceManifestDatabase(final ClassLoader classLoader) {
+        _classLoader = classLoader;
+    }
+
+    private final ClassLoader _classLoader;
+
+    private static final String MANIFEST_PREFIX = "META-INF/services/";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceManifestDatabase.class);
+}
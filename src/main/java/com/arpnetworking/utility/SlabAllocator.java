@@ -0,0 +1,258 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocates regions of <code>int</code> values from off-heap slabs. Each
+ * slab is a direct buffer which is carved into power of two sized regions.
+ * Regions are allocated through an <code>Arena</code> and all regions of an
+ * arena are returned to per-size free lists when the arena is closed; slabs
+ * are retained and reused but never released.
+ *
+ * Region handles are non-zero <code>long</code> values encoding the slab,
+ * size class and offset of the region. This class is thread safe. Accesses
+ * to a region are not synchronized and callers must synchronize access to
+ * each region themselves.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class SlabAllocator {
+
+    /**
+     * Create a new <code>Arena</code> allocating from this allocator.
+     *
+     * @return New <code>Arena</code> instance.
+     */
+    public Arena createArena() {
+        return new Arena();
+    }
+
+    /**
+     * Read an <code>int</code> from a region.
+     *
+     * @param handle The handle of the region.
+     * @param index The index of the value within the region.
+     * @return The value.
+     */
+    public int get(final long handle, final int index) {
+        return _slabs[getSlab(handle)].get(getOffset(handle) + index);
+    }
+
+    /**
+     * Add to an <code>int</code> in a region.
+     *
+     * @param handle The handle of the region.
+     * @param index The index of the value within the region.
+     * @param delta The amount to add.
+     * @return The new value.
+     */
+    public int add(final long handle, final int index, final int delta) {
+        final IntBuffer slab = _slabs[getSlab(handle)];
+        final int offset = getOffset(handle) + index;
+        final int value = slab.get(offset) + delta;
+        slab.put(offset, value);
+        return value;
+    }
+
+    /**
+     * Accessor for the number of bytes in off-heap slabs.
+     *
+     * @return The number of bytes allocated.
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) _slabCount * _slabSize * Integer.BYTES;
+    }
+
+    /**
+     * Accessor for the number of bytes in regions held by open arenas.
+     *
+     * @return The number of bytes in use.
+     */
+    public synchronized long getUsedBytes() {
+        return _usedInts * Integer.BYTES;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("allocatedBytes", getAllocatedBytes())
+                .put("usedBytes", getUsedBytes())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private synchronized long allocate(final int sizeClass) {
+        final int size = 1 << sizeClass;
+        _usedInts += size;
+
+        // Reuse a free region of the same size
+        final int free = _freeCounts[sizeClass];
+        if (free > 0) {
+            final long handle = _freeLists[sizeClass][free - 1];
+            _freeCounts[sizeClass] = free - 1;
+            final IntBuffer slab = _slabs[getSlab(handle)];
+            final int offset = getOffset(handle);
+            for (int i = 0; i < size; ++i) {
+                slab.put(offset + i, 0);
+            }
+            return handle;
+        }
+
+        // Carve a new region from the current slab
+        if (_slabCount == 0 || _slabOffset + size > _slabSize) {
+            if (_slabCount == _slabs.length) {
+                _slabs = Arrays.copyOf(_slabs, _slabs.length * 2);
+            }
+            _slabs[_slabCount++] = ByteBuffer.allocateDirect(_slabSize * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+            _slabOffset = 0;
+        }
+        final long handle = ((long) _slabCount << 32) | ((long) sizeClass << OFFSET_BITS) | _slabOffset;
+        _slabOffset += size;
+        return handle;
+    }
+
+    private synchronized void free(final long[] handles, final int count) {
+        for (int i = 0; i < count; ++i) {
+            final long handle = handles[i];
+            final int sizeClass = getSizeClass(handle);
+            final int free = _freeCounts[sizeClass];
+            if (free == _freeLists[sizeClass].length) {
+                _freeLists[sizeClass] = Arrays.copyOf(_freeLists[sizeClass], Math.max(16, free * 2));
+            }
+            _freeLists[sizeClass][free] = handle;
+            _freeCounts[sizeClass] = free + 1;
+            _usedInts -= 1 << sizeClass;
+        }
+    }
+
+    private static int getSlab(final long handle) {
+        // NOTE: Slab numbers are offset by one so that no handle is zero
+        return (int) (handle >>> 32) - 1;
+    }
+
+    private static int getSizeClass(final long handle) {
+        return (int) (handle >>> OFFSET_BITS) & 0xff;
+    }
+
+    private static int getOffset(final long handle) {
+        return (int) handle & OFFSET_MASK;
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param slabSizeBytes The size of each off-heap slab in bytes; must be
+     * a power of two between 1 KiB and 64 MiB.
+     */
+    public SlabAllocator(final int slabSizeBytes) {
+        if (Integer.bitCount(slabSizeBytes) != 1
+                || slabSizeBytes < MINIMUM_SLAB_SIZE_BYTES
+                || slabSizeBytes > MAXIMUM_SLAB_SIZE_BYTES) {
+            throw new IllegalArgumentException(String.format(
+                    "Slab size must be a power of two between %d and %d bytes; slabSizeBytes=%d",
+                    MINIMUM_SLAB_SIZE_BYTES,
+                    MAXIMUM_SLAB_SIZE_BYTES,
+                    slabSizeBytes));
+        }
+        _slabSize = slabSizeBytes / Integer.BYTES;
+        _maximumSizeClass = Integer.numberOfTrailingZeros(_slabSize);
+        _freeLists = new long[_maximumSizeClass + 1][];
+        Arrays.fill(_freeLists, new long[0]);
+        _freeCounts = new int[_maximumSizeClass + 1];
+    }
+
+    private final int _slabSize;
+    private final int _maximumSizeClass;
+    // NOTE: The slab array is replaced when it grows; published slabs are never modified
+    private volatile IntBuffer[] _slabs = new IntBuffer[16];
+    private int _slabCount = 0;
+    private int _slabOffset = 0;
+    private long _usedInts = 0;
+    private final long[][] _freeLists;
+    private final int[] _freeCounts;
+
+    private static final int OFFSET_BITS = 24;
+    private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+    private static final int MINIMUM_SLAB_SIZE_BYTES = 1 << 10;
+    private static final int MAXIMUM_SLAB_SIZE_BYTES = 1 << (OFFSET_BITS + 2);
+
+    /**
+     * A set of regions which are released together. Typically an arena is
+     * created for each unit of work and closed when the unit completes. An
+     * arena must not be used after it is closed.
+     */
+    public final class Arena implements AutoCloseable {
+
+        /**
+         * Allocate a zeroed region of at least the specified number of values.
+         *
+         * @param size The number of <code>int</code> values.
+         * @return The handle of the region.
+         */
+        public synchronized long allocate(final int size) {
+            final int sizeClass = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+            if (sizeClass > _maximumSizeClass) {
+                throw new IllegalArgumentException(String.format(
+                        "Region exceeds slab size; size=%d, slabSize=%d",
+                        size,
+                        _slabSize));
+            }
+            final long handle = SlabAllocator.this.allocate(sizeClass);
+            if (_count == _handles.length) {
+                _handles = Arrays.copyOf(_handles, _handles.length * 2);
+            }
+            _handles[_count++] = handle;
+            return handle;
+        }
+
+        public SlabAllocator getAllocator() {
+            return SlabAllocator.this;
+        }
+
+        /**
+         * Release all regions allocated by this arena.
+         */
+        @Override
+        public synchronized void close() {
+            free(_handles, _count);
+            _count = 0;
+        }
+
+        private Arena() { }
+
+        private long[] _handles = new long[16];
+        private int _count = 0;
+    }
+}
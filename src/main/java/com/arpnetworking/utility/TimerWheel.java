@@ -0,0 +1,370 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timer wheel with millisecond resolution keyed on epoch
+ * milliseconds. Each level has 64 slots and each slot of a level spans all
+ * 64 slots of the level below it. A timer is placed in the lowest level whose
+ * span contains both the current time and its deadline and is cascaded toward
+ * the lowest level as time advances. The occupied slots of each level are
+ * tracked in a bitmap so the next deadline is found without scanning and
+ * the timer thread parks until then instead of ticking.
+ *
+ * The wheel may instead be driven by an external clock, such as the event
+ * time of the data being processed, in which case the timer thread only
+ * advances when notified through <code>tick</code>.
+ *
+ * Scheduling is thread safe and non-blocking. Timer tasks are executed on the
+ * single timer thread and therefore must be short and must not block.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class TimerWheel implements Launchable, Runnable {
+
+    /**
+     * Schedule a task to execute at or shortly after the specified time.
+     *
+     * @param deadline The time in milliseconds since the epoch to execute at.
+     * @param task The task to execute.
+     * @return The <code>Timeout</code> which may be used to cancel the task.
+     */
+    public Timeout schedule(final long deadline, final Runnable task) {
+        final Timeout timeout = new Timeout(deadline, task);
+        _pending.add(timeout);
+        // NOTE: The timer thread publishes its wake-up time before checking
+        // for pending timers and this reads it after publishing the timer; so
+        // either the timer thread observes the timer or this observes the wake-up.
+        if (deadline < _wakeUpAt) {
+            final Thread thread = _thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Notify the timer thread that the external clock advanced. Has no
+     * effect for a wheel driven by the system clock or when no timer is due.
+     */
+    public void tick() {
+        if (!_isSystemClock && _clock.getAsLong() >= _wakeUpAt) {
+            final Thread thread = _thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the current time of the clock driving the wheel.
+     *
+     * @return The current time in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return _clock.getAsLong();
+    }
+
+    @Override
+    public synchronized void launch() {
+        if (_thread != null) {
+            return;
+        }
+        _isRunning = true;
+        _thread = new Thread(this, _name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        final Thread thread = _thread;
+        if (thread == null) {
+            return;
+        }
+        _isRunning = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn()
+                    .setMessage("Interrupted waiting for timer wheel to stop")
+                    .addData("timerWheel", this)
+                    .setThrowable(e)
+                    .log();
+        }
+        _thread = null;
+    }
+
+    @Override
+    public void run() {
+        while (_isRunning) {
+            final long wakeUpAt = advance(_clock.getAsLong());
+            _wakeUpAt = wakeUpAt;
+            if (!_pending.isEmpty()) {
+                _wakeUpAt = Long.MIN_VALUE;
+                continue;
+            }
+            // NOTE: An external clock does not advance with the system clock
+            if (wakeUpAt == Long.MAX_VALUE || !_isSystemClock) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkUntil(this, wakeUpAt);
+            }
+            _wakeUpAt = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("name", _name)
+                .put("now", _now)
+                .put("wakeUpAt", _wakeUpAt)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /**
+     * Add any pending timers and execute all timers with a deadline at or
+     * before the specified time. Must only be invoked by one thread at a time.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @return The time in milliseconds since the epoch of the next event, which
+     * may be a cascade preceding the next deadline, or <code>Long.MAX_VALUE</code>
+     * if there are no timers.
+     */
+    /* package private */ long advance(final long now) {
+        // Add newly scheduled timers
+        Timeout timeout = _pending.poll();
+        while (timeout != null) {
+            add(timeout);
+            timeout = _pending.poll();
+        }
+
+        // Process each event up to and including now
+        long next = getNextEvent();
+        while (next <= now) {
+            final boolean isOverflowEvent = next == getOverflowEvent();
+            _now = next;
+            if (isOverflowEvent) {
+                final List<Timeout> overflow = _overflow;
+                _overflow = Lists.newArrayList();
+                overflow.forEach(this::add);
+            } else {
+                cascade(next);
+            }
+            fireExpired();
+            next = getNextEvent();
+        }
+        if (now > _now) {
+            _now = now;
+        }
+        fireExpired();
+        return next;
+    }
+
+    private void add(final Timeout timeout) {
+        if (timeout._isCancelled) {
+            return;
+        }
+        if (timeout._deadline <= _now) {
+            _expired.add(timeout);
+            return;
+        }
+        for (int level = 0; level < LEVELS; ++level) {
+            final int shift = BITS_PER_LEVEL * (level + 1);
+            if (timeout._deadline >>> shift == _now >>> shift) {
+                final int slot = (int) (timeout._deadline >>> (BITS_PER_LEVEL * level)) & SLOT_MASK;
+                List<Timeout> timeouts = _slots[level][slot];
+                if (timeouts == null) {
+                    timeouts = new ArrayList<>();
+                    _slots[level][slot] = timeouts;
+                }
+                timeouts.add(timeout);
+                _occupied[level] |= 1L << slot;
+                return;
+            }
+        }
+        _overflow.add(timeout);
+    }
+
+    private void cascade(final long event) {
+        // The event corresponds to the first occupied slot of the lowest occupied level
+        for (int level = 0; level < LEVELS; ++level) {
+            if (_occupied[level] != 0) {
+                final int slot = (int) (event >>> (BITS_PER_LEVEL * level)) & SLOT_MASK;
+                final List<Timeout> timeouts = _slots[level][slot];
+                _slots[level][slot] = null;
+                _occupied[level] &= ~(1L << slot);
+                timeouts.forEach(this::add);
+                return;
+            }
+        }
+    }
+
+    private void fireExpired() {
+        if (_expired.isEmpty()) {
+            return;
+        }
+        final List<Timeout> expired = _expired;
+        _expired = Lists.newArrayList();
+        for (final Timeout timeout : expired) {
+            if (timeout._isCancelled) {
+                continue;
+            }
+            try {
+                timeout._task.run();
+                // CHECKSTYLE.OFF: IllegalCatch - Prevent a task from killing the timer thread
+            } catch (final RuntimeException e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Timer task failed")
+                        .addData("timerWheel", this)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+    }
+
+    private long getNextEvent() {
+        // Every timer at a level is after every timer at all lower levels
+        for (int level = 0; level < LEVELS; ++level) {
+            if (_occupied[level] != 0) {
+                final int shift = BITS_PER_LEVEL * level;
+                final long span = _now >>> (shift + BITS_PER_LEVEL) << (shift + BITS_PER_LEVEL);
+                return span | ((long) Long.numberOfTrailingZeros(_occupied[level]) << shift);
+            }
+        }
+        return _overflow.isEmpty() ? Long.MAX_VALUE : getOverflowEvent();
+    }
+
+    private long getOverflowEvent() {
+        final int shift = BITS_PER_LEVEL * LEVELS;
+        return ((_now >>> shift) + 1) << shift;
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param name The name of the timer thread.
+     */
+    public TimerWheel(final String name) {
+        this(name, System.currentTimeMillis());
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param name The name of the timer thread.
+     * @param clock The external clock in milliseconds since the epoch; it must never decrease.
+     */
+    public TimerWheel(final String name, final LongSupplier clock) {
+        this(name, clock, false, clock.getAsLong());
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param name The name of the timer thread.
+     * @param now The current time in milliseconds since the epoch.
+     */
+    /* package private */ TimerWheel(final String name, final long now) {
+        this(name, System::currentTimeMillis, true, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TimerWheel(final String name, final LongSupplier clock, final boolean isSystemClock, final long now) {
+        _name = name;
+        _clock = clock;
+        _isSystemClock = isSystemClock;
+        _now = now;
+        _slots = (List<Timeout>[][]) new List<?>[LEVELS][SLOTS_PER_LEVEL];
+    }
+
+    private final String _name;
+    private final LongSupplier _clock;
+    private final boolean _isSystemClock;
+    private final Queue<Timeout> _pending = new ConcurrentLinkedQueue<>();
+    private volatile long _wakeUpAt = Long.MIN_VALUE;
+    private volatile boolean _isRunning = false;
+    private volatile Thread _thread = null;
+    // NOTE: The following are only accessed from the timer thread
+    private final List<Timeout>[][] _slots;
+    private final long[] _occupied = new long[LEVELS];
+    private List<Timeout> _overflow = Lists.newArrayList();
+    private List<Timeout> _expired = Lists.newArrayList();
+    private volatile long _now;
+
+    private static final int BITS_PER_LEVEL = 6;
+    private static final int SLOTS_PER_LEVEL = 1 << BITS_PER_LEVEL;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    // NOTE: Six levels span 2^36 milliseconds (about two years); further deadlines overflow
+    private static final int LEVELS = 6;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+    /**
+     * A task scheduled on a <code>TimerWheel</code>.
+     */
+    public static final class Timeout {
+
+        /**
+         * Cancel the task. The task will not execute unless it is already
+         * executing. Cancelled tasks are released when their slot expires.
+         */
+        public void cancel() {
+            _isCancelled = true;
+        }
+
+        public long getDeadline() {
+            return _deadline;
+        }
+
+        private Timeout(final long deadline, final Runnable task) {
+            _deadline = deadline;
+            _task = task;
+        }
+
+        private final long _deadline;
+        private final Runnable _task;
+        private volatile boolean _isCancelled = false;
+    }
+}
@@ -98,10 +98,13 @@ public final class CollectdHttpSourceV1Test extends BaseActorSourceTest {
         Mockito.when(_parser.parse(Mockito.any())).thenReturn(builders);
         final HttpResponse response = dispatchRequest();
         Assert.assertEquals(200, response.status().intValue());
-        final ArgumentCaptor<Record> builderCaptor = ArgumentCaptor.forClass(Record.class);
-        Mockito.verify(_observer, Mockito.times(3)).notify(Mockito.any(), builderCaptor.capture());
+        final ArgumentCaptor<Object> builderCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(_observer).notify(Mockito.any(), builderCaptor.capture());
 
-        final List<Record> constructed = builderCaptor.getAllValues();
+        // The records of a request are raised together as a batch
+        @SuppressWarnings("unchecked")
+        final List<Record> constructed = (List<Record>) builderCaptor.getValue();
+        Assert.assertEquals(3, constructed.size());
         Assert.assertEquals(record1, constructed.get(0));
         Assert.assertEquals(record2, constructed.get(1));
         Assert.assertEquals(record3, constructed.get(2));
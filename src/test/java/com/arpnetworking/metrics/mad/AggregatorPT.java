@@ -0,0 +1,205 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.commons.observer.Observable;
+import com.arpnetworking.commons.observer.Observer;
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.metrics.mad.performance.ListeningSink;
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Perf tests accumulation through the <code>Aggregator</code> with dedicated
+ * period workers and with aggregation shards for 1, 4 and 16 producer
+ * threads. Each bucket is written by the single thread of its worker or
+ * shard regardless of the number of producers.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@BenchmarkOptions(callgc = true, benchmarkRounds = 5, warmupRounds = 2)
+public class AggregatorPT {
+
+    @BeforeClass
+    public static void setUp() {
+        JSON_BENCHMARK_CONSUMER.prepareClass();
+    }
+
+    @Test
+    public void testDedicated1Producer() throws InterruptedException {
+        benchmark(1, null);
+    }
+
+    @Test
+    public void testDedicated4Producers() throws InterruptedException {
+        benchmark(4, null);
+    }
+
+    @Test
+    public void testDedicated16Producers() throws InterruptedException {
+        benchmark(16, null);
+    }
+
+    @Test
+    public void testSharded1Producer() throws InterruptedException {
+        benchmark(1, SHARD_COUNT);
+    }
+
+    @Test
+    public void testSharded4Producers() throws InterruptedException {
+        benchmark(4, SHARD_COUNT);
+    }
+
+    @Test
+    public void testSharded16Producers() throws InterruptedException {
+        benchmark(16, SHARD_COUNT);
+    }
+
+    private void benchmark(final int producers, @Nullable final Integer shardCount) throws InterruptedException {
+        final LongAdder aggregated = new LongAdder();
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setSink(new ListeningSink(periodicData -> {
+                    for (final AggregatedData datum : periodicData.getData().get("MyCounter")) {
+                        if (datum.getStatistic().equals(COUNT_STATISTIC)) {
+                            aggregated.add((long) datum.getValue().getValue());
+                        }
+                    }
+                    return null;
+                }))
+                .setCounterStatistics(ImmutableSet.of(SUM_STATISTIC))
+                .setGaugeStatistics(ImmutableSet.of(MAX_STATISTIC))
+                .setTimerStatistics(ImmutableSet.of(TP99_STATISTIC, MAX_STATISTIC))
+                .setPeriods(ImmutableSet.of(Period.seconds(1)))
+                .setShardCount(shardCount)
+                .build();
+        aggregator.launch();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        final int recordsPerProducer = TOTAL_RECORDS / producers;
+        for (int i = 0; i < producers; ++i) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < recordsPerProducer; ++j) {
+                        aggregator.notify(OBSERVABLE, RECORDS.get(j % RECORDS.size()));
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+
+        // Wait for every record to be aggregated into a closed bucket
+        final long expected = (long) recordsPerProducer * producers;
+        while (aggregated.sum() < expected) {
+            Thread.sleep(10);
+        }
+        aggregator.shutdown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(JSON_BENCHMARK_CONSUMER);
+
+    private static final int TOTAL_RECORDS = 1600000;
+    private static final int SHARD_COUNT = 4;
+    private static final int HOSTS = 64;
+    private static final DateTime START = DateTime.parse("2015-02-05T00:00:00Z");
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic TP99_STATISTIC = STATISTIC_FACTORY.getStatistic("tp99");
+    private static final List<Record> RECORDS = createRecords();
+    private static final Observable OBSERVABLE = new Observable() {
+        @Override
+        public void attach(final Observer observer) { }
+
+        @Override
+        public void detach(final Observer observer) { }
+    };
+    private static final JsonBenchmarkConsumer JSON_BENCHMARK_CONSUMER = new JsonBenchmarkConsumer(
+            Paths.get("target/site/perf/benchmark-aggregator.json"));
+
+    private static List<Record> createRecords() {
+        final ImmutableList.Builder<Record> records = ImmutableList.builder();
+        for (int i = 0; i < HOSTS; ++i) {
+            records.add(new DefaultRecord.Builder()
+                    .setTime(START.plusSeconds(10))
+                    .setDimensions(ImmutableMap.of(
+                            Key.HOST_DIMENSION_KEY, "MyHost" + i,
+                            Key.SERVICE_DIMENSION_KEY, "MyService",
+                            Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                    .setId(UUID.randomUUID().toString())
+                    .setMetrics(ImmutableMap.of(
+                            "MyCounter",
+                            new DefaultMetric.Builder()
+                                    .setType(MetricType.COUNTER)
+                                    .setValues(ImmutableList.of(new Quantity.Builder().setValue(1.0).build()))
+                                    .build(),
+                            "MyGauge",
+                            new DefaultMetric.Builder()
+                                    .setType(MetricType.GAUGE)
+                                    .setValues(ImmutableList.of(new Quantity.Builder().setValue(42.0).build()))
+                                    .build(),
+                            "MyTimer",
+                            new DefaultMetric.Builder()
+                                    .setType(MetricType.TIMER)
+                                    .setValues(ImmutableList.of(
+                                            new Quantity.Builder().setValue(12.0).build(),
+                                            new Quantity.Builder().setValue(120.0).build(),
+                                            new Quantity.Builder().setValue(1200.0).build()))
+                                    .build()))
+                    .build());
+        }
+        return records.build();
+    }
+}
@@ -19,6 +19,7 @@ import com.arpnetworking.commons.observer.Observable;
 import com.arpnetworking.commons.observer.Observer;
 import com.arpnetworking.metrics.mad.model.DefaultMetric;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.test.TestBeanFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.DefaultKey;
@@ -51,6 +52,10 @@ import org.mockito.MockitoAnnotations;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * Tests for the <code>Aggregator</code> class.
@@ -370,6 +375,296 @@ public class AggregatorTest {
                                 .build()));
     }
 
+    @Test
+    public void testShardedMultipleHosts() throws InterruptedException {
+        _aggregator.shutdown();
+        _aggregator = new Aggregator.Builder()
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Period.seconds(1)))
+                .setShardCount(2)
+                .build();
+        _aggregator.launch();
+
+        final DateTime start = DateTime.parse("2015-02-05T00:00:00Z");
+
+        _aggregator.notify(
+                OBSERVABLE,
+                TestBeanFactory.createRecordBuilder()
+                        .setTime(start)
+                        .setDimensions(
+                                ImmutableMap.of(
+                                        Key.HOST_DIMENSION_KEY, "MyHostA",
+                                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                                        Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                        .setMetrics(ImmutableMap.of(
+                                "MyCounter",
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.COUNTER)
+                                        .setValues(ImmutableList.of(ONE))
+                                        .build()))
+                        .build());
+
+        _aggregator.notify(
+                OBSERVABLE,
+                TestBeanFactory.createRecordBuilder()
+                        .setTime(start)
+                        .setDimensions(
+                                ImmutableMap.of(
+                                        Key.HOST_DIMENSION_KEY, "MyHostB",
+                                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                                        Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                        .setMetrics(ImmutableMap.of(
+                                "MyCounter",
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.COUNTER)
+                                        .setValues(ImmutableList.of(TWO))
+                                        .build()))
+                        .build());
+
+        // Wait for the period to close
+        Thread.sleep(3000);
+
+        // Verify the aggregation was emitted
+        Mockito.verify(_sink, Mockito.times(2)).recordAggregateData(_periodicDataCaptor.capture());
+        Mockito.verifyNoMoreInteractions(_sink);
+
+        final List<AggregatedData> unifiedData = getCapturedData(
+                "MyCounter",
+                new DefaultKey(ImmutableMap.of(
+                        Key.HOST_DIMENSION_KEY, "MyHostA",
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        Key.CLUSTER_DIMENSION_KEY, "MyCluster")),
+                new DefaultKey(ImmutableMap.of(
+                        Key.HOST_DIMENSION_KEY, "MyHostB",
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        Key.CLUSTER_DIMENSION_KEY, "MyCluster")));
+
+        final AggregatedData.Builder builder = new AggregatedData.Builder()
+                .setIsSpecified(false)
+                .setPopulationSize(1L)
+                .setValue(new Quantity.Builder().setValue(1d).build());
+        Assert.assertThat(
+                unifiedData,
+                Matchers.containsInAnyOrder(
+                        builder
+                                .setStatistic(COUNT_STATISTIC)
+                                .build(),
+                        builder
+                                .setStatistic(COUNT_STATISTIC)
+                                .build(),
+                        builder
+                                .setStatistic(MAX_STATISTIC)
+                                .setValue(ONE)
+                                .setIsSpecified(true)
+                                .build(),
+                        builder
+                                .setStatistic(MAX_STATISTIC)
+                                .setValue(TWO)
+                                .setIsSpecified(true)
+                                .build()));
+    }
+
+    @Test
+    public void testEvictIdleKey() throws InterruptedException {
+        assertIdleKeyEvicted(null);
+    }
+
+    @Test
+    public void testShardedEvictIdleKey() throws InterruptedException {
+        assertIdleKeyEvicted(2);
+    }
+
+    @Test
+    public void testKeyWithOpenBucketNotEvicted() throws InterruptedException {
+        assertKeyWithOpenBucketNotEvicted(null);
+    }
+
+    @Test
+    public void testShardedKeyWithOpenBucketNotEvicted() throws InterruptedException {
+        assertKeyWithOpenBucketNotEvicted(2);
+    }
+
+    @Test
+    public void testRecordConcurrentlyWithEviction() throws Exception {
+        assertRecordConcurrentlyWithEviction(null);
+    }
+
+    @Test
+    public void testShardedRecordConcurrentlyWithEviction() throws Exception {
+        assertRecordConcurrentlyWithEviction(2);
+    }
+
+    @Test
+    public void testEvictIdleKeyAfterDropOldest() throws InterruptedException {
+        _aggregator.shutdown();
+        _aggregator = createEvictingAggregatorBuilder(null, Period.seconds(1))
+                .setQueueCapacity(2)
+                .setOverflowPolicy(RecordQueue.OverflowPolicy.DROP_OLDEST)
+                .build();
+        _aggregator.launch();
+        final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC).minus(Duration.standardSeconds(10));
+
+        // The batch is queued under one lock so all but the last records are evicted
+        final List<Record> records = Lists.newArrayList();
+        for (int i = 0; i < 100; ++i) {
+            records.add(createCounterRecord("MyHost", dataTimeInThePast));
+        }
+        _aggregator.notify(OBSERVABLE, records);
+
+        // Records evicted from the queue do not prevent the key from being evicted
+        Thread.sleep(5000);
+        Mockito.verify(_sink).recordAggregateData(Mockito.any());
+        Assert.assertEquals(1, _aggregator.getEvictedKeys());
+    }
+
+    @Test
+    public void testEventTimeClosesLastPeriodAtEndOfInput() {
+        assertEventTimeClosesLastPeriodAtEndOfInput(null);
+    }
+
+    @Test
+    public void testShardedEventTimeClosesLastPeriodAtEndOfInput() {
+        assertEventTimeClosesLastPeriodAtEndOfInput(2);
+    }
+
+    private void assertEventTimeClosesLastPeriodAtEndOfInput(@Nullable final Integer shardCount) {
+        _aggregator.shutdown();
+        _aggregator = new Aggregator.Builder()
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(COUNT_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Period.seconds(1)))
+                .setShardCount(shardCount)
+                .setEventTime(true)
+                .build();
+        _aggregator.launch();
+
+        // Replay a finite stream whose periods are all within the allowed lateness of its end
+        final DateTime start = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 3; ++i) {
+            _aggregator.notify(OBSERVABLE, createCounterRecord("MyHost", start.plusSeconds(i)));
+        }
+        _aggregator.shutdown();
+
+        Mockito.verify(_sink, Mockito.times(3)).recordAggregateData(_periodicDataCaptor.capture());
+        final List<Long> starts = Lists.newArrayList();
+        for (final PeriodicData periodicData : _periodicDataCaptor.getAllValues()) {
+            starts.add(periodicData.getStart().getMillis());
+        }
+        Assert.assertThat(
+                starts,
+                Matchers.containsInAnyOrder(
+                        start.getMillis(),
+                        start.plusSeconds(1).getMillis(),
+                        start.plusSeconds(2).getMillis()));
+    }
+
+    private void assertIdleKeyEvicted(@Nullable final Integer shardCount) throws InterruptedException {
+        replaceWithEvictingAggregator(shardCount, Period.seconds(1));
+        final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC).minus(Duration.standardSeconds(10));
+
+        // Wait for the period to close and the key to be evicted once idle
+        _aggregator.notify(OBSERVABLE, createCounterRecord("MyHost", dataTimeInThePast));
+        Thread.sleep(5000);
+        Mockito.verify(_sink).recordAggregateData(Mockito.any());
+        Assert.assertEquals(1, _aggregator.getEvictedKeys());
+
+        // A record for an evicted key creates new period workers
+        _aggregator.notify(OBSERVABLE, createCounterRecord("MyHost", dataTimeInThePast));
+        Thread.sleep(3000);
+        Mockito.verify(_sink, Mockito.times(2)).recordAggregateData(Mockito.any());
+    }
+
+    private void assertKeyWithOpenBucketNotEvicted(@Nullable final Integer shardCount) throws InterruptedException {
+        replaceWithEvictingAggregator(shardCount, Period.hours(1));
+
+        // The bucket remains open for longer than the idle key timeout
+        _aggregator.notify(OBSERVABLE, createCounterRecord("MyHost", new DateTime(DateTimeZone.UTC)));
+        Thread.sleep(3000);
+        Assert.assertEquals(0, _aggregator.getEvictedKeys());
+        Mockito.verifyZeroInteractions(_sink);
+    }
+
+    private void assertRecordConcurrentlyWithEviction(@Nullable final Integer shardCount) throws Exception {
+        replaceWithEvictingAggregator(shardCount, Period.seconds(1));
+        final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC).minus(Duration.standardSeconds(10));
+
+        // Send records in bursts separated by pauses long enough for the keys to be evicted
+        final int threadCount = 4;
+        final int recordsPerThread = 200;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final List<Future<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < threadCount; ++i) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < recordsPerThread; ++j) {
+                    _aggregator.notify(OBSERVABLE, createCounterRecord("MyHost" + (j % threadCount), dataTimeInThePast));
+                    if (j % 50 == 49) {
+                        Thread.sleep(3000);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Wait for the periods to close
+        Thread.sleep(3000);
+        Assert.assertTrue(_aggregator.getEvictedKeys() > 0);
+
+        // Every record is aggregated into a closed bucket
+        Mockito.verify(_sink, Mockito.atLeastOnce()).recordAggregateData(_periodicDataCaptor.capture());
+        double count = 0;
+        for (final PeriodicData periodicData : _periodicDataCaptor.getAllValues()) {
+            for (final AggregatedData datum : periodicData.getData().get("MyCounter")) {
+                if (datum.getStatistic().equals(COUNT_STATISTIC)) {
+                    count += datum.getValue().getValue();
+                }
+            }
+        }
+        Assert.assertEquals(threadCount * recordsPerThread, count, 0.001);
+    }
+
+    private void replaceWithEvictingAggregator(@Nullable final Integer shardCount, final Period period) {
+        _aggregator.shutdown();
+        _aggregator = createEvictingAggregatorBuilder(shardCount, period).build();
+        _aggregator.launch();
+    }
+
+    private Aggregator.Builder createEvictingAggregatorBuilder(@Nullable final Integer shardCount, final Period period) {
+        return new Aggregator.Builder()
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(period))
+                .setShardCount(shardCount)
+                .setIdleKeyTimeout(Period.seconds(1));
+    }
+
+    private static Record createCounterRecord(final String host, final DateTime time) {
+        return TestBeanFactory.createRecordBuilder()
+                .setTime(time)
+                .setDimensions(
+                        ImmutableMap.of(
+                                Key.HOST_DIMENSION_KEY, host,
+                                Key.SERVICE_DIMENSION_KEY, "MyService",
+                                Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                .setMetrics(ImmutableMap.of(
+                        "MyCounter",
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.COUNTER)
+                                .setValues(ImmutableList.of(ONE))
+                                .build()))
+                .build();
+    }
+
     private List<AggregatedData> getCapturedData(
             final String metricName,
             final Key dimensionSetA,
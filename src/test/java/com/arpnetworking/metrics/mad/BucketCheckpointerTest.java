@@ -0,0 +1,167 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Tests for the <code>BucketCheckpointer</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class BucketCheckpointerTest {
+
+    @Before
+    public void setUp() throws IOException {
+        final Path directory = Files.createDirectories(Paths.get("./target/tmp/filter/BucketCheckpointerTest"));
+        _file = Files.createTempFile(directory, "", "");
+        Files.deleteIfExists(_file);
+    }
+
+    @Test
+    public void testRestoreOpenBuckets() throws IOException {
+        final Bucket bucketA = createBucket(START);
+        final Bucket bucketB = createBucket(START.plusMinutes(1));
+        addData(bucketA, 1.0);
+        addData(bucketB, 2.0);
+
+        final BucketCheckpointer checkpointer = new BucketCheckpointer(_file);
+        checkpointer.checkpoint(ImmutableList.of(bucketA, bucketB));
+        addData(bucketB, 3.0);
+        checkpointer.checkpoint(ImmutableList.of(bucketA, bucketB));
+        bucketA.close();
+        checkpointer.checkpoint(ImmutableList.of(bucketB));
+        checkpointer.close();
+
+        // Only the last state of the bucket which remained open is restored
+        final List<Bucket.Rollup> rollups = restore();
+        Assert.assertEquals(1, rollups.size());
+        Assert.assertEquals(START.plusMinutes(1), rollups.get(0).getStart());
+        final Bucket restoredBucket = createBucket(START.plusMinutes(1));
+        restoredBucket.merge(rollups.get(0));
+        restoredBucket.close();
+        Mockito.verify(_sink).recordAggregateData(Mockito.argThat(
+                periodicData -> periodicData.getData().get("MyCounter").stream().anyMatch(
+                        datum -> datum.getStatistic().equals(COUNT_STATISTIC)
+                                && datum.getValue().getValue() == 2.0)));
+    }
+
+    @Test
+    public void testRestoreTruncatedCheckpoint() throws IOException {
+        final Bucket bucket = createBucket(START);
+        addData(bucket, 1.0);
+        final BucketCheckpointer checkpointer = new BucketCheckpointer(_file);
+        checkpointer.checkpoint(ImmutableList.of(bucket));
+        checkpointer.close();
+
+        // Simulate a failure while appending an entry
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(_file, StandardOpenOption.APPEND))) {
+            out.writeInt(100);
+            out.writeByte(1);
+        }
+
+        Assert.assertEquals(1, restore().size());
+    }
+
+    @Test
+    public void testRestoreMissingCheckpoint() throws IOException {
+        Assert.assertTrue(restore().isEmpty());
+    }
+
+    private List<Bucket.Rollup> restore() throws IOException {
+        final List<Bucket.Rollup> rollups = Lists.newArrayList();
+        new BucketCheckpointer(_file).restore((key, period, rollup) -> {
+            Assert.assertEquals(KEY, key);
+            Assert.assertEquals(PERIOD, period);
+            rollups.add(rollup);
+        });
+        return rollups;
+    }
+
+    private Bucket createBucket(final DateTime start) {
+        return new Bucket.Builder()
+                .setKey(KEY)
+                .setSink(_sink)
+                .setStart(start)
+                .setPeriod(PERIOD)
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(COUNT_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(COUNT_STATISTIC), ImmutableSet.of()))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(COUNT_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
+                .build();
+    }
+
+    private static void addData(final Bucket bucket, final double value) {
+        bucket.add(
+                new DefaultRecord.Builder()
+                        .setTime(bucket.getStart())
+                        .setDimensions(KEY.getParameters())
+                        .setId(UUID.randomUUID().toString())
+                        .setMetrics(ImmutableMap.of(
+                                "MyCounter",
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.COUNTER)
+                                        .setValues(ImmutableList.of(new Quantity.Builder().setValue(value).build()))
+                                        .build()))
+                        .build());
+    }
+
+    private Path _file;
+    private final Sink _sink = Mockito.mock(Sink.class);
+    private final LoadingCache<String, Optional<CalculatorPlan>> _plans = CacheBuilder.newBuilder()
+            .build(new CacheLoader<String, Optional<CalculatorPlan>>() {
+                @Override
+                public Optional<CalculatorPlan> load(final String key) {
+                    return Optional.empty();
+                }
+            });
+
+    private static final Key KEY = new DefaultKey(ImmutableMap.of(Key.HOST_DIMENSION_KEY, "MyHost"));
+    private static final Period PERIOD = Period.minutes(1);
+    private static final DateTime START = DateTime.parse("2018-01-01T00:00:00Z");
+    private static final Statistic COUNT_STATISTIC = new StatisticFactory().getStatistic("count");
+}
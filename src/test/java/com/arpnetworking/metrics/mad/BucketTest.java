@@ -18,6 +18,7 @@ package com.arpnetworking.metrics.mad;
 import com.arpnetworking.metrics.mad.model.DefaultMetric;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
 import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.DefaultKey;
 import com.arpnetworking.tsdcore.model.Key;
 import com.arpnetworking.tsdcore.model.MetricType;
@@ -34,6 +35,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.hamcrest.Matchers;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -46,6 +48,13 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import javax.annotation.Nullable;
@@ -69,14 +78,10 @@ public class BucketTest {
                 .setSink(_sink)
                 .setStart(START)
                 .setPeriod(Period.minutes(1))
-                .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
-                .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
-                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
-                .setDependentCounterStatistics(ImmutableSet.of())
-                .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
-                .setDependentTimerStatistics(ImmutableSet.of())
-                .setSpecifiedStatistics(_specifiedStatsCache)
-                .setDependentStatistics(_dependentStatsCache)
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(MIN_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC)))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
                 .build();
     }
 
@@ -206,6 +211,239 @@ public class BucketTest {
                                 .build()));
     }
 
+    @Test
+    public void testRollup() {
+        final List<Bucket.Rollup> rollups = Lists.newArrayList();
+        final Bucket fineBucket = new Bucket.Builder()
+                .setKey(new DefaultKey(ImmutableMap.of(Key.HOST_DIMENSION_KEY, "MyHost")))
+                .setSink(Mockito.mock(Sink.class))
+                .setStart(START)
+                .setPeriod(Period.seconds(1))
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(MIN_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC)))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
+                .setRollup(rollups::add)
+                .build();
+        final Bucket coarseBucket = _bucket;
+        _bucket = fineBucket;
+        addData("MyGauge", MetricType.GAUGE, TWO, 0);
+        addData("MyGauge", MetricType.GAUGE, ONE, 0);
+        fineBucket.close();
+        _bucket = coarseBucket;
+
+        Assert.assertEquals(1, rollups.size());
+        Assert.assertEquals(START, rollups.get(0).getStart());
+        _bucket.merge(rollups.get(0));
+        addData("MyGauge", MetricType.GAUGE, THREE, 30);
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(3L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(SIX)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+    }
+
+    @Test
+    public void testStatistics() {
+        addStatistics("MyGauge", ImmutableMap.of(COUNT_STATISTIC, TWO, SUM_STATISTIC, FOUR));
+        addData("MyGauge", MetricType.GAUGE, TWO, 30);
+        // NOTE: Statistics missing an accumulator of the plan are discarded
+        addStatistics("MyOtherGauge", ImmutableMap.of(COUNT_STATISTIC, TWO));
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertEquals(3, data.size());
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(3L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(SIX)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        addData("MyGauge", MetricType.GAUGE, TWO, 0);
+        addData("MyGauge", MetricType.GAUGE, ONE, 0);
+        final Bucket.Rollup checkpoint = _bucket.checkpoint(false);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertNull(_bucket.checkpoint(false));
+        Assert.assertNotNull(_bucket.checkpoint(true));
+
+        // Restore the checkpoint into a new bucket for the same period
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        checkpoint.writeTo(new DataOutputStream(bytes));
+        final Bucket.Rollup restored = Bucket.Rollup.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                START);
+        setUp();
+        _bucket.merge(restored);
+        addData("MyGauge", MetricType.GAUGE, THREE, 30);
+        _bucket.close();
+        Assert.assertNull(_bucket.checkpoint(true));
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(3L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(SIX)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+    }
+
+    @Test
+    public void testConcurrentAccumulation() throws InterruptedException {
+        _bucket = new Bucket.Builder()
+                .setKey(new DefaultKey(ImmutableMap.of(Key.HOST_DIMENSION_KEY, "MyHost")))
+                .setSink(_sink)
+                .setStart(START)
+                .setPeriod(Period.minutes(1))
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(MIN_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of()))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
+                .build();
+
+        final List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < 4; ++i) {
+            final Quantity value = i == 2 ? ONE : TWO;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 1000; ++j) {
+                    addData("MyCounter", MetricType.COUNTER, value, 10);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertThat(
+                data.get("MyCounter"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(4000L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(new Quantity.Builder().setValue(4000.0).build())
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(4000L)
+                                .setStatistic(MIN_STATISTIC)
+                                .setValue(ONE)
+                                .build()));
+    }
+
+    @Test
+    public void testPartialStatistics() {
+        _bucket = new Bucket.Builder()
+                .setKey(new DefaultKey(ImmutableMap.of(Key.HOST_DIMENSION_KEY, "MyHost")))
+                .setSink(_sink)
+                .setStart(START)
+                .setPeriod(Period.minutes(1))
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(MIN_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC)))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
+                .build();
+
+        addStatistics("MyGauge", ImmutableMap.of(COUNT_STATISTIC, TWO, SUM_STATISTIC, FOUR));
+        // NOTE: Discarded statistics must not leave an empty accumulator behind
+        addStatistics("MyOtherGauge", ImmutableMap.of(COUNT_STATISTIC, TWO));
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertEquals(3, data.size());
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(2L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(2L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(FOUR)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(2L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(TWO)
+                                .build()));
+    }
+
     @Test
     public void testToString() {
         final String asString = new Bucket.Builder()
@@ -217,14 +455,10 @@ public class BucketTest {
                 .setSink(Mockito.mock(Sink.class))
                 .setStart(new DateTime())
                 .setPeriod(Period.minutes(1))
-                .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
-                .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
-                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
-                .setDependentCounterStatistics(ImmutableSet.of())
-                .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
-                .setDependentTimerStatistics(ImmutableSet.of())
-                .setSpecifiedStatistics(_specifiedStatsCache)
-                .setDependentStatistics(_dependentStatsCache)
+                .setCounterPlan(CalculatorPlan.of(ImmutableSet.of(MIN_STATISTIC), ImmutableSet.of()))
+                .setGaugePlan(CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC)))
+                .setTimerPlan(CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of()))
+                .setPlans(_plans)
                 .build()
                 .toString();
         Assert.assertNotNull(asString);
@@ -250,13 +484,34 @@ public class BucketTest {
                         .build());
     }
 
-    private Bucket _bucket;
+    private void addStatistics(final String name, final ImmutableMap<Statistic, Quantity> values) {
+        final ImmutableMap.Builder<Statistic, CalculatedValue<?>> statistics = ImmutableMap.builder();
+        for (final Map.Entry<Statistic, Quantity> entry : values.entrySet()) {
+            statistics.put(entry.getKey(), new CalculatedValue.Builder<Void>().setValue(entry.getValue()).build());
+        }
+        _bucket.add(
+                new DefaultRecord.Builder()
+                        .setTime(START)
+                        .setDimensions(
+                                ImmutableMap.of(
+                                        Key.HOST_DIMENSION_KEY, "MyHost",
+                                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                                        Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                        .setId(UUID.randomUUID().toString())
+                        .setMetrics(ImmutableMap.of(
+                                name,
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.GAUGE)
+                                        .setValues(ImmutableList.of())
+                                        .setStatistics(statistics.build())
+                                        .build()))
+                        .build());
+    }
 
-    private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _specifiedStatsCache = CacheBuilder.newBuilder()
-            .build(new AbsentStatisticCacheLoader());
+    private Bucket _bucket;
 
-    private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _dependentStatsCache = CacheBuilder.newBuilder()
-            .build(new AbsentStatisticCacheLoader());
+    private LoadingCache<String, Optional<CalculatorPlan>> _plans = CacheBuilder.newBuilder()
+            .build(new AbsentPlanCacheLoader());
 
     @Mock
     private Sink _sink;
@@ -266,6 +521,7 @@ public class BucketTest {
     private static final Quantity ONE = new Quantity.Builder().setValue(1.0).build();
     private static final Quantity TWO = new Quantity.Builder().setValue(2.0).build();
     private static final Quantity THREE = new Quantity.Builder().setValue(3.0).build();
+    private static final Quantity FOUR = new Quantity.Builder().setValue(4.0).build();
     private static final Quantity SIX = new Quantity.Builder().setValue(6.0).build();
 
     private static final Quantity ONE_SECOND = new Quantity.Builder().setValue(1.0).setUnit(Unit.SECOND).build();
@@ -279,9 +535,9 @@ public class BucketTest {
     private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
     private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
 
-    private static final class AbsentStatisticCacheLoader extends CacheLoader<String, Optional<ImmutableSet<Statistic>>> {
+    private static final class AbsentPlanCacheLoader extends CacheLoader<String, Optional<CalculatorPlan>> {
         @Override
-        public Optional<ImmutableSet<Statistic>> load(@Nullable final String key) throws Exception {
+        public Optional<CalculatorPlan> load(@Nullable final String key) throws Exception {
             return Optional.empty();
         }
     }
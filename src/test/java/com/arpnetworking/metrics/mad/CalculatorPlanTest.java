@@ -0,0 +1,103 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for the <code>CalculatorPlan</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class CalculatorPlanTest {
+
+    @Test
+    public void testDependenciesPrecedeDependents() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(MEAN_STATISTIC, TP99_STATISTIC),
+                ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC, HISTOGRAM_STATISTIC));
+        final ImmutableList<Statistic> statistics = plan.getStatistics();
+        Assert.assertEquals(5, plan.size());
+        Assert.assertTrue(statistics.indexOf(SUM_STATISTIC) < statistics.indexOf(MEAN_STATISTIC));
+        Assert.assertTrue(statistics.indexOf(COUNT_STATISTIC) < statistics.indexOf(MEAN_STATISTIC));
+        Assert.assertTrue(statistics.indexOf(HISTOGRAM_STATISTIC) < statistics.indexOf(TP99_STATISTIC));
+        Assert.assertArrayEquals(new double[] {99.0}, plan.getPercentiles(), 0.0);
+    }
+
+    @Test
+    public void testSpecified() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(MEAN_STATISTIC),
+                ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC));
+        final ImmutableList<Statistic> statistics = plan.getStatistics();
+        Assert.assertTrue(plan.isSpecified(statistics.indexOf(MEAN_STATISTIC)));
+        Assert.assertFalse(plan.isSpecified(statistics.indexOf(SUM_STATISTIC)));
+        Assert.assertFalse(plan.isSpecified(statistics.indexOf(COUNT_STATISTIC)));
+    }
+
+    @Test
+    public void testCountAlwaysIncluded() {
+        final CalculatorPlan plan = CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of());
+        Assert.assertEquals(2, plan.size());
+        Assert.assertEquals(COUNT_STATISTIC, plan.getStatistics().get(plan.getCountIndex()));
+        Assert.assertFalse(plan.isSpecified(plan.getCountIndex()));
+        Assert.assertEquals(2, plan.getAccumulatorIndices().length);
+    }
+
+    @Test
+    public void testAccumulatorStatistics() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(MEAN_STATISTIC),
+                ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC));
+        final int[] accumulatorIndices = plan.getAccumulatorIndices();
+        Assert.assertEquals(accumulatorIndices.length, plan.getAccumulatorStatistics().size());
+        for (int i = 0; i < accumulatorIndices.length; ++i) {
+            Assert.assertEquals(plan.getStatistics().get(accumulatorIndices[i]), plan.getAccumulatorStatistics().get(i));
+        }
+        Assert.assertFalse(plan.getAccumulatorStatistics().contains(MEAN_STATISTIC));
+    }
+
+    @Test
+    public void testDependencies() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(MEAN_STATISTIC),
+                ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC));
+        final Calculator<?>[] calculators = plan.createCalculators();
+        final Map<Statistic, Calculator<?>> dependencies = plan.asDependencies(calculators);
+        Assert.assertEquals(3, dependencies.size());
+        for (final Calculator<?> calculator : calculators) {
+            Assert.assertSame(calculator, dependencies.get(calculator.getStatistic()));
+        }
+        Assert.assertNull(dependencies.get(MAX_STATISTIC));
+        Assert.assertEquals(3, dependencies.entrySet().size());
+    }
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic HISTOGRAM_STATISTIC = STATISTIC_FACTORY.getStatistic("histogram");
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic MEAN_STATISTIC = STATISTIC_FACTORY.getStatistic("mean");
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic TP99_STATISTIC = STATISTIC_FACTORY.getStatistic("tp99");
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Metric;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Tests for the <code>CardinalityLimiter</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class CardinalityLimiterTest {
+
+    @Test
+    public void testRejectSeries() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(10)
+                .build();
+        int admitted = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (limit(limiter, createRecord("MyService", "request-" + i, "MyMetric")).isPresent()) {
+                ++admitted;
+            }
+        }
+        Assert.assertEquals(10, admitted);
+
+        // Series seen before reaching the limit are still admitted
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-0", "MyMetric")).isPresent());
+        // Other services are not limited
+        Assert.assertTrue(limit(limiter, createRecord("OtherService", "request-1000", "MyMetric")).isPresent());
+
+        final ImmutableMap<String, Long> status = limiter.getStatus().get("MyService");
+        Assert.assertEquals(10L, (long) status.get("series"));
+        Assert.assertEquals(1000L - admitted, (long) status.get("rejectedSeries"));
+    }
+
+    @Test
+    public void testRejectSeriesAtLimit() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(5000)
+                .build();
+        for (int i = 0; i < 5000; ++i) {
+            Assert.assertTrue(limit(limiter, createRecord("MyService", "request-" + i, "MyMetric")).isPresent());
+        }
+
+        // Every new series is rejected once the limit is reached
+        int rejected = 0;
+        for (int i = 5000; i < 105000; ++i) {
+            if (!limit(limiter, createRecord("MyService", "request-" + i, "MyMetric")).isPresent()) {
+                ++rejected;
+            }
+        }
+        Assert.assertEquals(1.0, rejected / 100000.0, 0.0);
+
+        // Every series admitted before reaching the limit is still admitted
+        for (int i = 0; i < 5000; ++i) {
+            Assert.assertTrue(limit(limiter, createRecord("MyService", "request-" + i, "MyMetric")).isPresent());
+        }
+
+        final ImmutableMap<String, Long> status = limiter.getStatus().get("MyService");
+        Assert.assertEquals(5000L, (long) status.get("series"));
+        Assert.assertEquals(100000L, (long) status.get("rejectedSeries"));
+    }
+
+    @Test
+    public void testRejectSeriesWithCollidingStringHash() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(1)
+                .build();
+        // NOTE: "Aa" and "BB" have the same String hash code
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "Aa", "MyMetric")).isPresent());
+        Assert.assertFalse(limit(limiter, createRecord("MyService", "BB", "MyMetric")).isPresent());
+    }
+
+    @Test
+    public void testSeenSeriesRemainAdmittedAcrossWindows() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(2)
+                .build();
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-0", "MyMetric")).isPresent());
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-1", "MyMetric")).isPresent());
+
+        // Both series were seen so a new series cannot displace them in the next window
+        limiter.resetWindow(Long.MAX_VALUE / 4);
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-0", "MyMetric")).isPresent());
+        Assert.assertFalse(limit(limiter, createRecord("MyService", "request-2", "MyMetric")).isPresent());
+        Assert.assertEquals(2L, (long) limiter.getStatus().get("MyService").get("series"));
+
+        // The series not seen in the last window is released
+        limiter.resetWindow(Long.MAX_VALUE / 2);
+        Assert.assertEquals(1L, (long) limiter.getStatus().get("MyService").get("series"));
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-2", "MyMetric")).isPresent());
+        Assert.assertFalse(limit(limiter, createRecord("MyService", "request-1", "MyMetric")).isPresent());
+    }
+
+    @Test
+    public void testCollapseSeries() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(1)
+                .setOverflowPolicy(CardinalityLimiter.OverflowPolicy.COLLAPSE)
+                .build();
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-0", "MyMetric")).isPresent());
+        final Optional<Record> collapsed = limit(limiter, createRecord("MyService", "request-1", "MyMetric"));
+        Assert.assertTrue(collapsed.isPresent());
+        Assert.assertEquals(
+                ImmutableMap.of(
+                        Key.HOST_DIMENSION_KEY, "MyHost",
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        "cardinality_overflow", "true"),
+                collapsed.get().getDimensions());
+        Assert.assertTrue(collapsed.get().getMetrics().containsKey("MyMetric"));
+    }
+
+    @Test
+    public void testLimitMetrics() {
+        final CardinalityLimiter rejectingLimiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxMetrics(1)
+                .build();
+        final CardinalityLimiter collapsingLimiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxMetrics(1)
+                .setOverflowPolicy(CardinalityLimiter.OverflowPolicy.COLLAPSE)
+                .build();
+        final Record record = createRecord("MyService", "request-0", "MyMetricA", "MyMetricB");
+
+        final Optional<Record> rejected = limit(rejectingLimiter, record);
+        Assert.assertTrue(rejected.isPresent());
+        Assert.assertEquals(ImmutableList.of("MyMetricA"), rejected.get().getMetrics().keySet().asList());
+        Assert.assertFalse(limit(rejectingLimiter, createRecord("MyService", "request-0", "MyMetricC")).isPresent());
+
+        final Optional<Record> collapsed = limit(collapsingLimiter, record);
+        Assert.assertTrue(collapsed.isPresent());
+        Assert.assertEquals(
+                ImmutableList.of("MyMetricA", "cardinality_overflow"),
+                collapsed.get().getMetrics().keySet().asList());
+        Assert.assertEquals(
+                MetricType.COUNTER,
+                collapsed.get().getMetrics().get("cardinality_overflow").getType());
+        Assert.assertEquals(
+                1.0,
+                collapsed.get().getMetrics().get("cardinality_overflow").getValues().get(0).getValue(),
+                0.001);
+    }
+
+    @Test
+    public void testRejectedSeriesDoNotLimitMetrics() {
+        final CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+                .setName("cardinality_limiter_test")
+                .setMaxSeries(1)
+                .setMaxMetrics(2)
+                .build();
+        Assert.assertTrue(limit(limiter, createRecord("MyService", "request-0", "MyMetricA")).isPresent());
+
+        // Records of rejected series do not admit their metric names
+        for (int i = 1; i <= 100; ++i) {
+            Assert.assertFalse(limit(limiter, createRecord("MyService", "request-" + i, "Garbage-" + i)).isPresent());
+        }
+
+        // So the admitted series may still add a new metric name
+        final Optional<Record> admitted = limit(
+                limiter,
+                createRecord("MyService", "request-0", "MyMetricA", "MyMetricB", "MyMetricC"));
+        Assert.assertTrue(admitted.isPresent());
+        Assert.assertEquals(ImmutableList.of("MyMetricA", "MyMetricB"), admitted.get().getMetrics().keySet().asList());
+
+        final ImmutableMap<String, Long> status = limiter.getStatus().get("MyService");
+        Assert.assertEquals(1L, (long) status.get("series"));
+        Assert.assertEquals(2L, (long) status.get("metrics"));
+        Assert.assertEquals(100L, (long) status.get("rejectedSeries"));
+        Assert.assertEquals(1L, (long) status.get("rejectedMetrics"));
+    }
+
+    private static Optional<Record> limit(final CardinalityLimiter limiter, final Record record) {
+        return limiter.limit(new DefaultKey(record.getDimensions()), record);
+    }
+
+    private static Record createRecord(final String service, final String requestId, final String... metrics) {
+        final ImmutableMap.Builder<String, Metric> metricsBuilder = ImmutableMap.builder();
+        for (final String metric : metrics) {
+            metricsBuilder.put(
+                    metric,
+                    new DefaultMetric.Builder()
+                            .setType(MetricType.TIMER)
+                            .setValues(ImmutableList.of(new Quantity.Builder().setValue(1.0).build()))
+                            .build());
+        }
+        return new DefaultRecord.Builder()
+                .setId(UUID.randomUUID().toString())
+                .setTime(DateTime.now())
+                .setDimensions(ImmutableMap.of(
+                        Key.HOST_DIMENSION_KEY, "MyHost",
+                        Key.SERVICE_DIMENSION_KEY, service,
+                        "request", requestId))
+                .setMetrics(metricsBuilder.build())
+                .build();
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.metrics.mad;
 
+import com.arpnetworking.test.TestBeanFactory;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
@@ -115,6 +116,21 @@ public class PeriodWorkerTest {
         Assert.assertEquals(new Duration(600000), PeriodWorker.getPeriodTimeout(Period.hours(1)));
     }
 
+    @Test
+    public void testIsIdle() {
+        final PeriodWorker periodWorker = new PeriodWorker.Builder()
+                .setPeriod(Period.minutes(1))
+                .setBucketBuilder(new Bucket.Builder())
+                .build();
+        final long now = System.currentTimeMillis();
+        Assert.assertTrue(periodWorker.isIdle(now + 1000, Duration.standardSeconds(1)));
+        Assert.assertFalse(periodWorker.isIdle(now + 1000, Duration.standardHours(1)));
+
+        // A pending record prevents the worker from being idle
+        periodWorker.record(TestBeanFactory.createRecord());
+        Assert.assertFalse(periodWorker.isIdle(now + 1000, Duration.standardSeconds(1)));
+    }
+
     private static DateTime createDateTime(final int hour, final int minute, final int second, final int millisecond) {
         return new DateTime(2014, 1, 1, hour, minute, second, millisecond, DateTimeZone.UTC);
     }
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests for the <code>PipelineReconfigurator</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class PipelineReconfiguratorTest {
+
+    @Test
+    public void testRetainUnchanged() throws IOException {
+        final List<String> instances = PipelineReconfigurator.retain(
+                OBJECT_MAPPER.readTree("[{\"name\":\"a\"},{\"name\":\"b\"},{\"name\":\"c\"}]"),
+                OBJECT_MAPPER.readTree("[{\"name\":\"c\"},{\"name\":\"b\",\"port\":1},{\"name\":\"a\"},{\"name\":\"d\"}]"),
+                ImmutableList.of("currentA", "currentB", "currentC"),
+                ImmutableList.of("newC", "newB", "newA", "newD"));
+        Assert.assertEquals(ImmutableList.of("currentC", "newB", "currentA", "newD"), instances);
+    }
+
+    @Test
+    public void testRetainDuplicateOnce() throws IOException {
+        final List<String> instances = PipelineReconfigurator.retain(
+                OBJECT_MAPPER.readTree("[{\"name\":\"a\"}]"),
+                OBJECT_MAPPER.readTree("[{\"name\":\"a\"},{\"name\":\"a\"}]"),
+                ImmutableList.of("currentA"),
+                ImmutableList.of("newA1", "newA2"));
+        Assert.assertEquals(ImmutableList.of("currentA", "newA2"), instances);
+    }
+
+    @Test
+    public void testRetainNone() throws IOException {
+        final JsonNode missing = OBJECT_MAPPER.readTree("{}").path("sinks");
+        final List<String> instances = PipelineReconfigurator.retain(
+                missing,
+                OBJECT_MAPPER.readTree("[{\"name\":\"a\"}]"),
+                ImmutableList.of(),
+                ImmutableList.of("newA"));
+        Assert.assertEquals(ImmutableList.of("newA"), instances);
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for the <code>RecordQueue</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class RecordQueueTest {
+
+    @Test
+    public void testSignalAfterQueuedElements() throws InterruptedException {
+        final RecordQueue<Integer> queue = createQueue(10, RecordQueue.OverflowPolicy.BLOCK);
+        queue.offer(1, true);
+        queue.offer(2, true);
+        queue.signal();
+        queue.signal();
+        queue.offer(3, true);
+
+        Assert.assertEquals((Integer) 1, queue.take());
+        Assert.assertEquals((Integer) 2, queue.take());
+        Assert.assertNull(queue.take());
+        Assert.assertEquals((Integer) 3, queue.take());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final RecordQueue<Integer> queue = new RecordQueue<>(2, RecordQueue.OverflowPolicy.DROP_NEWEST, statistics);
+        Assert.assertTrue(queue.offer(1, true));
+        Assert.assertTrue(queue.offer(2, true));
+        Assert.assertFalse(queue.offer(3, true));
+        Assert.assertEquals(2, statistics.getDepth());
+        Assert.assertEquals(1, statistics.getAndResetDropped());
+        Assert.assertEquals(0, statistics.getAndResetDropped());
+        Assert.assertEquals((Integer) 1, queue.take());
+        Assert.assertEquals((Integer) 2, queue.take());
+        Assert.assertEquals(0, statistics.getDepth());
+    }
+
+    @Test
+    public void testOfferAll() throws InterruptedException {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final RecordQueue<Integer> queue = new RecordQueue<>(2, RecordQueue.OverflowPolicy.DROP_NEWEST, statistics);
+        Assert.assertEquals(2, queue.offerAll(Arrays.asList(1, 2, 3), true));
+        Assert.assertEquals(1, statistics.getAndResetDropped());
+        Assert.assertEquals((Integer) 1, queue.take());
+        Assert.assertEquals((Integer) 2, queue.take());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testTakeAll() throws InterruptedException {
+        final RecordQueue<Integer> queue = createQueue(10, RecordQueue.OverflowPolicy.BLOCK);
+        queue.offerAll(Arrays.asList(1, 2, 3), true);
+        queue.signal();
+        queue.offer(4, true);
+
+        final List<Integer> taken = new ArrayList<>();
+        Assert.assertEquals(2, queue.takeAll(taken, 2));
+        Assert.assertEquals(1, queue.takeAll(taken, 2));
+        Assert.assertEquals(Arrays.asList(1, 2, 3), taken);
+        Assert.assertEquals(0, queue.takeAll(taken, 2));
+        Assert.assertEquals(1, queue.takeAll(taken, 2));
+        Assert.assertEquals((Integer) 4, taken.get(3));
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final List<Integer> evicted = new ArrayList<>();
+        final RecordQueue<Integer> queue = new RecordQueue<>(2, RecordQueue.OverflowPolicy.DROP_OLDEST, statistics, evicted::add);
+        queue.offer(1, true);
+        queue.signal();
+        queue.offer(2, true);
+        Assert.assertTrue(queue.offer(3, true));
+        Assert.assertEquals(1, statistics.getAndResetDropped());
+        Assert.assertEquals(Arrays.asList(1), evicted);
+
+        // The signal queued after the dropped element is still delivered in order
+        Assert.assertNull(queue.take());
+        Assert.assertEquals((Integer) 2, queue.take());
+        Assert.assertEquals((Integer) 3, queue.take());
+    }
+
+    @Test
+    public void testDropOldestNeverEvictsUnsheddable() throws InterruptedException {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final List<Integer> evicted = new ArrayList<>();
+        final RecordQueue<Integer> queue = new RecordQueue<>(2, RecordQueue.OverflowPolicy.DROP_OLDEST, statistics, evicted::add);
+        queue.offer(1, false);
+        queue.offer(2, true);
+
+        // The offered element is dropped instead of the unsheddable oldest element
+        Assert.assertFalse(queue.offer(3, true));
+        Assert.assertEquals(1, statistics.getAndResetDropped());
+        Assert.assertTrue(evicted.isEmpty());
+
+        // Once it is taken the oldest element may be evicted again
+        Assert.assertEquals((Integer) 1, queue.take());
+        Assert.assertTrue(queue.offer(4, true));
+        Assert.assertTrue(queue.offer(5, true));
+        Assert.assertEquals(Arrays.asList(2), evicted);
+        Assert.assertEquals((Integer) 4, queue.take());
+        Assert.assertEquals((Integer) 5, queue.take());
+    }
+
+    @Test
+    public void testSample() {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final RecordQueue<Integer> queue = new RecordQueue<>(100, RecordQueue.OverflowPolicy.SAMPLE, statistics);
+        for (int i = 0; i < 50; ++i) {
+            Assert.assertTrue(queue.offer(i, true));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            queue.offer(i, true);
+        }
+        Assert.assertEquals(100, queue.size());
+        Assert.assertEquals(950, statistics.getAndResetDropped());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final RecordQueue.Statistics statistics = new RecordQueue.Statistics();
+        final RecordQueue<Integer> queue = new RecordQueue<>(1, RecordQueue.OverflowPolicy.DROP_NEWEST, statistics);
+        queue.offer(1, true);
+
+        // Elements which may not be shed block the producer instead
+        final CountDownLatch offered = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean();
+        final Thread producer = new Thread(() -> {
+            result.set(queue.offer(2, false));
+            offered.countDown();
+        });
+        producer.start();
+        Assert.assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+
+        // Signals are never blocked
+        queue.signal();
+
+        Assert.assertEquals((Integer) 1, queue.take());
+        Assert.assertTrue(offered.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(result.get());
+        Assert.assertNull(queue.take());
+        Assert.assertEquals((Integer) 2, queue.take());
+        Assert.assertEquals(0, statistics.getAndResetDropped());
+        Assert.assertTrue(statistics.getAndResetWaitNanos() > 0);
+        producer.join();
+    }
+
+    private static RecordQueue<Integer> createQueue(final int capacity, final RecordQueue.OverflowPolicy overflowPolicy) {
+        return new RecordQueue<>(capacity, overflowPolicy, new RecordQueue.Statistics());
+    }
+}
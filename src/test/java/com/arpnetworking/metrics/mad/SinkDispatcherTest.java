@@ -0,0 +1,158 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the <code>SinkDispatcher</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class SinkDispatcherTest {
+
+    @Test
+    public void testCloseDispatchesQueuedData() {
+        final Sink mockSinkA = Mockito.mock(Sink.class, "mockSinkA");
+        final Sink mockSinkB = Mockito.mock(Sink.class, "mockSinkB");
+        final Sink sinkDispatcher = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test")
+                .setSinks(Lists.newArrayList(mockSinkA, mockSinkB))
+                .setQueueCapacity(1)
+                .build();
+        final PeriodicData periodicDataA = TestBeanFactory.createPeriodicData();
+        final PeriodicData periodicDataB = TestBeanFactory.createPeriodicData();
+        sinkDispatcher.recordAggregateData(periodicDataA);
+        sinkDispatcher.recordAggregateData(periodicDataB);
+        sinkDispatcher.close();
+
+        for (final Sink mockSink : Lists.newArrayList(mockSinkA, mockSinkB)) {
+            final InOrder inOrder = Mockito.inOrder(mockSink);
+            inOrder.verify(mockSink).recordAggregateData(periodicDataA);
+            inOrder.verify(mockSink).recordAggregateData(periodicDataB);
+            inOrder.verify(mockSink).close();
+        }
+    }
+
+    @Test
+    public void testDrainDoesNotCloseSinks() {
+        final Sink mockSink = Mockito.mock(Sink.class);
+        final SinkDispatcher sinkDispatcher = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test")
+                .setSinks(Lists.newArrayList(mockSink))
+                .build();
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicData();
+        sinkDispatcher.recordAggregateData(periodicData);
+        sinkDispatcher.drain(null);
+
+        Mockito.verify(mockSink).recordAggregateData(periodicData);
+        Mockito.verify(mockSink, Mockito.never()).close();
+    }
+
+    @Test
+    public void testRecordAfterDrainForwardedToSuccessor() {
+        final Sink mockSink = Mockito.mock(Sink.class, "mockSink");
+        final Sink mockSuccessor = Mockito.mock(Sink.class, "mockSuccessor");
+        final SinkDispatcher sinkDispatcher = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test")
+                .setSinks(Lists.newArrayList(mockSink))
+                .setQueueCapacity(1)
+                .build();
+        sinkDispatcher.drain(mockSuccessor);
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicData();
+        sinkDispatcher.recordAggregateData(periodicData);
+
+        Mockito.verify(mockSuccessor).recordAggregateData(periodicData);
+        Mockito.verifyZeroInteractions(mockSink);
+    }
+
+    @Test
+    public void testRecordConcurrentlyWithHandOver() throws Exception {
+        // Mirrors a pipeline reconfiguration swapping the dispatcher while periods are closing
+        final Sink mockSinkA = Mockito.mock(Sink.class, "mockSinkA");
+        final Sink mockSinkB = Mockito.mock(Sink.class, "mockSinkB");
+        final SinkDispatcher sinkDispatcherA = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test_a")
+                .setSinks(Lists.newArrayList(mockSinkA))
+                .setQueueCapacity(1)
+                .build();
+        final SinkDispatcher sinkDispatcherB = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test_b")
+                .setSinks(Lists.newArrayList(mockSinkB))
+                .setQueueCapacity(1)
+                .build();
+        final AtomicReference<Sink> delegate = new AtomicReference<>(sinkDispatcherA);
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicData();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 500; ++j) {
+                        delegate.get().recordAggregateData(periodicData);
+                    }
+                }));
+            }
+            Thread.sleep(5);
+            delegate.set(sinkDispatcherB);
+            sinkDispatcherA.drain(sinkDispatcherB);
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        sinkDispatcherB.close();
+
+        final int published = Mockito.mockingDetails(mockSinkA).getInvocations().size()
+                + Mockito.mockingDetails(mockSinkB).getInvocations().size();
+        // The close of sink B is also an invocation
+        Assert.assertEquals(2001, published);
+        Mockito.verify(mockSinkA, Mockito.never()).close();
+    }
+
+    @Test
+    public void testSinkFailureDoesNotStopDispatch() {
+        final Sink mockSink = Mockito.mock(Sink.class);
+        final PeriodicData periodicDataA = TestBeanFactory.createPeriodicData();
+        final PeriodicData periodicDataB = TestBeanFactory.createPeriodicData();
+        Mockito.doThrow(new IllegalStateException("Test")).when(mockSink).recordAggregateData(periodicDataA);
+        final Sink sinkDispatcher = new SinkDispatcher.Builder()
+                .setName("sink_dispatcher_test")
+                .setSinks(Lists.newArrayList(mockSink))
+                .build();
+        sinkDispatcher.recordAggregateData(periodicDataA);
+        sinkDispatcher.recordAggregateData(periodicDataB);
+        sinkDispatcher.close();
+
+        Mockito.verify(mockSink).recordAggregateData(periodicDataB);
+        Mockito.verify(mockSink).close();
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the <code>Watermark</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class WatermarkTest {
+
+    @Test
+    public void testObserve() {
+        final Watermark watermark = new Watermark(Duration.standardSeconds(10));
+        Assert.assertEquals(0, watermark.get());
+
+        Assert.assertTrue(watermark.observe(START));
+        Assert.assertEquals(START - 10000, watermark.get());
+
+        // The watermark never decreases
+        Assert.assertFalse(watermark.observe(START - 1));
+        Assert.assertFalse(watermark.observe(START));
+        Assert.assertEquals(START - 10000, watermark.get());
+
+        Assert.assertTrue(watermark.observe(START + 1));
+        Assert.assertEquals(START - 9999, watermark.get());
+    }
+
+    @Test
+    public void testAdvance() {
+        final Watermark watermark = new Watermark(Duration.standardSeconds(10));
+        watermark.advance(START);
+        Assert.assertEquals(START - 10000, watermark.get());
+        watermark.advance(START - 1);
+        Assert.assertEquals(START - 10000, watermark.get());
+        watermark.advanceToEnd();
+        Assert.assertEquals(Long.MAX_VALUE, watermark.get());
+    }
+
+    @Test
+    public void testLateRecords() {
+        final Watermark watermark = new Watermark(Duration.ZERO);
+        watermark.recordLate();
+        watermark.recordLate();
+        Assert.assertEquals(2, watermark.getAndResetLateRecords());
+        Assert.assertEquals(0, watermark.getAndResetLateRecords());
+    }
+
+    private static final long START = 1514764800000L;
+}
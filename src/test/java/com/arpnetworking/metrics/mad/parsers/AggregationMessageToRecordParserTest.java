@@ -0,0 +1,273 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad.parsers;
+
+import com.arpnetworking.metrics.aggregation.protocol.Messages;
+import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.mad.model.Metric;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.MetricType;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.SketchStatistic;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the <code>AggregationMessageToRecordParser</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class AggregationMessageToRecordParserTest {
+
+    @Test
+    public void testParseHistogram() throws ParsingException {
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("tp99")
+                .setValue(3.0)
+                .setUnit("SECOND")
+                .setUserSpecified(true);
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("histogram")
+                .setValue(1.0)
+                .setUnit("")
+                .setUserSpecified(false)
+                .setSupportingData(createHistogram());
+
+        final List<Record> records = PARSER.parse(AggregationMessage.create(statisticSet.build()));
+        Assert.assertEquals(1, records.size());
+
+        final Record record = records.get(0);
+        Assert.assertEquals(DateTime.parse("2018-01-01T00:00:00.000Z"), record.getTime());
+        Assert.assertEquals(
+                ImmutableMap.of(
+                        Key.HOST_DIMENSION_KEY, "MyHost",
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        Key.CLUSTER_DIMENSION_KEY, "MyCluster"),
+                record.getDimensions());
+
+        final Metric metric = record.getMetrics().get("MyMetric");
+        Assert.assertNotNull(metric);
+        Assert.assertEquals(MetricType.TIMER, metric.getType());
+        Assert.assertTrue(metric.getValues().isEmpty());
+
+        final Map<Statistic, CalculatedValue<?>> statistics = metric.getStatistics();
+        Assert.assertEquals(5, statistics.size());
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(3.0).build(),
+                statistics.get(STATISTIC_FACTORY.getStatistic("count")).getValue());
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(5.0).setUnit(Unit.SECOND).build(),
+                statistics.get(STATISTIC_FACTORY.getStatistic("sum")).getValue());
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(1.0).setUnit(Unit.SECOND).build(),
+                statistics.get(STATISTIC_FACTORY.getStatistic("min")).getValue());
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(2.0).setUnit(Unit.SECOND).build(),
+                statistics.get(STATISTIC_FACTORY.getStatistic("max")).getValue());
+
+        final HistogramStatistic.HistogramSupportingData supportingData =
+                (HistogramStatistic.HistogramSupportingData) statistics.get(STATISTIC_FACTORY.getStatistic("histogram")).getData();
+        Assert.assertEquals(3, supportingData.getHistogramSnapshot().getEntriesCount());
+        Assert.assertEquals(2, supportingData.getHistogramSnapshot().getBucketCount());
+        Assert.assertEquals(Unit.SECOND, supportingData.getUnit().orElse(null));
+    }
+
+    @Test
+    public void testParseHistogramPrecision() throws ParsingException {
+        final Messages.SparseHistogramSupportingData.Builder histogram = Messages.SparseHistogramSupportingData.newBuilder()
+                .setUnit("");
+        // NOTE: 1.0625 uses the fourth mantissa bit so the sender kept at least four bits
+        histogram.addEntriesBuilder()
+                .setBucket(1.0625)
+                .setCount(1);
+        histogram.addEntriesBuilder()
+                .setBucket(3.0)
+                .setCount(1);
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("histogram")
+                .setValue(2.0)
+                .setUnit("")
+                .setUserSpecified(false)
+                .setSupportingData(ByteString.copyFrom(AggregationMessage.create(histogram.build()).serialize().getBytes()));
+
+        final CalculatedValue<?> value = PARSER.parse(AggregationMessage.create(statisticSet.build()))
+                .get(0)
+                .getMetrics()
+                .get("MyMetric")
+                .getStatistics()
+                .get(STATISTIC_FACTORY.getStatistic("histogram"));
+        Assert.assertEquals(new Quantity.Builder().setValue(2.0).build(), value.getValue());
+        final HistogramStatistic.HistogramSnapshot snapshot =
+                ((HistogramStatistic.HistogramSupportingData) value.getData()).getHistogramSnapshot();
+        Assert.assertEquals(4, snapshot.getPrecision());
+        Assert.assertEquals(1.0625, snapshot.getBucket(0), 0.0);
+        Assert.assertEquals(3.0, snapshot.getBucket(1), 0.0);
+    }
+
+    @Test
+    public void testParseSketch() throws ParsingException {
+        final Messages.SparseHistogramSupportingData.Builder sketch = Messages.SparseHistogramSupportingData.newBuilder()
+                .setUnit("");
+        sketch.addEntriesBuilder()
+                .setBucket(0.02)
+                .setCount(-256);
+        sketch.addEntriesBuilder()
+                .setBucket(10.0)
+                .setCount(3);
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("sketch")
+                .setValue(1.0)
+                .setUnit("")
+                .setUserSpecified(false)
+                .setSupportingData(ByteString.copyFrom(AggregationMessage.create(sketch.build()).serialize().getBytes()));
+
+        final SketchStatistic.Sketch parsed = ((SketchStatistic.SketchSupportingData) PARSER.parse(
+                AggregationMessage.create(statisticSet.build()))
+                .get(0)
+                .getMetrics()
+                .get("MyMetric")
+                .getStatistics()
+                .get(STATISTIC_FACTORY.getStatistic("sketch"))
+                .getData())
+                .getSketch();
+        Assert.assertEquals(0.02, parsed.getRelativeAccuracy(), 0.0);
+        Assert.assertEquals(256, parsed.getMaximumBuckets());
+        Assert.assertEquals(3, parsed.getCount());
+        Assert.assertEquals(10.0, parsed.getValueAtPercentile(50), 0.4);
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testParseSketchWithoutParameters() throws ParsingException {
+        final Messages.SparseHistogramSupportingData.Builder sketch = Messages.SparseHistogramSupportingData.newBuilder()
+                .setUnit("");
+        sketch.addEntriesBuilder()
+                .setBucket(10.0)
+                .setCount(3);
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("sketch")
+                .setValue(1.0)
+                .setUnit("")
+                .setUserSpecified(false)
+                .setSupportingData(ByteString.copyFrom(AggregationMessage.create(sketch.build()).serialize().getBytes()));
+
+        PARSER.parse(AggregationMessage.create(statisticSet.build()));
+    }
+
+    @Test
+    public void testParseSumFromMean() throws ParsingException {
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("mean")
+                .setValue(2.0)
+                .setUnit("")
+                .setUserSpecified(true);
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("count")
+                .setValue(4.0)
+                .setUnit("")
+                .setUserSpecified(true);
+
+        final List<Record> records = PARSER.parse(AggregationMessage.create(statisticSet.build()));
+        Assert.assertEquals(1, records.size());
+
+        final Metric metric = records.get(0).getMetrics().get("MyMetric");
+        Assert.assertEquals(MetricType.COUNTER, metric.getType());
+        Assert.assertEquals(2, metric.getStatistics().size());
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(8.0).build(),
+                metric.getStatistics().get(STATISTIC_FACTORY.getStatistic("sum")).getValue());
+    }
+
+    @Test
+    public void testParseOtherPeriod() throws ParsingException {
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1S");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("count")
+                .setValue(4.0)
+                .setUnit("")
+                .setUserSpecified(true);
+
+        Assert.assertTrue(PARSER.parse(AggregationMessage.create(statisticSet.build())).isEmpty());
+    }
+
+    @Test
+    public void testParseHeartbeat() throws ParsingException {
+        Assert.assertTrue(PARSER.parse(AggregationMessage.create(
+                Messages.HeartbeatRecord.newBuilder()
+                        .setTimestamp("2018-01-01T00:00:00.000Z")
+                        .build()))
+                .isEmpty());
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testParseInvalidSupportingData() throws ParsingException {
+        final Messages.StatisticSetRecord.Builder statisticSet = createStatisticSet("PT1M");
+        statisticSet.addStatisticsBuilder()
+                .setStatistic("histogram")
+                .setValue(1.0)
+                .setUnit("")
+                .setUserSpecified(false)
+                .setSupportingData(ByteString.copyFrom(new byte[] {0, 0, 0, 5, 0x02}));
+
+        PARSER.parse(AggregationMessage.create(statisticSet.build()));
+    }
+
+    private static Messages.StatisticSetRecord.Builder createStatisticSet(final String period) {
+        return Messages.StatisticSetRecord.newBuilder()
+                .setMetric("MyMetric")
+                .setPeriod(period)
+                .setPeriodStart("2018-01-01T00:00:00.000Z")
+                .addDimensions(Messages.DimensionEntry.newBuilder()
+                        .setKey(Key.HOST_DIMENSION_KEY)
+                        .setValue("MyHost")
+                        .build())
+                .setCluster("MyCluster")
+                .setService("MyService");
+    }
+
+    private static ByteString createHistogram() {
+        final Messages.SparseHistogramSupportingData.Builder builder = Messages.SparseHistogramSupportingData.newBuilder()
+                .setUnit("SECOND");
+        builder.addEntriesBuilder()
+                .setBucket(1.0)
+                .setCount(1);
+        builder.addEntriesBuilder()
+                .setBucket(2.0)
+                .setCount(2);
+        return ByteString.copyFrom(AggregationMessage.create(builder.build()).serialize().getBytes());
+    }
+
+    private static final AggregationMessageToRecordParser PARSER = new AggregationMessageToRecordParser(Period.minutes(1));
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+}
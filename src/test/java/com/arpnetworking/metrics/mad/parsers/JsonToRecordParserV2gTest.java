@@ -413,6 +413,20 @@ public class JsonToRecordParserV2gTest {
         Assert.assertTrue(c1.getValues().isEmpty());
     }
 
+    @Test
+    public void testSampleCount() throws ParsingException, IOException {
+        final Record record = parseRecord("QueryLogParserV2gTest/testSampleCount.json");
+        Assert.assertNotNull(record);
+
+        final Metric t1 = record.getMetrics().get("t1");
+        Assert.assertNotNull(t1);
+        Assert.assertEquals(2, t1.getValues().size());
+        assertValue(t1.getValues().get(0), 5d);
+        Assert.assertEquals(20.0, t1.getValues().get(0).getWeight(), 0.0);
+        assertValue(t1.getValues().get(1), 6d);
+        Assert.assertEquals(1.0, t1.getValues().get(1).getWeight(), 0.0);
+    }
+
     private static void assertValue(final Quantity quantity, final double value) {
         assertValue(quantity, value, Optional.empty());
     }
@@ -29,18 +29,13 @@ import com.google.common.collect.Iterables;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Test;
-import org.mockito.Mock;
-import org.mockito.Mockito;
-import org.mockito.MockitoAnnotations;
 
 import java.nio.ByteBuffer;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.List;
-import java.util.Random;
 import java.util.UUID;
 
 /**
@@ -50,11 +45,6 @@ import java.util.UUID;
  */
 public final class StatsdToRecordParserTest {
 
-    @Before
-    public void setUp() {
-        MockitoAnnotations.initMocks(this);
-    }
-
     @Test
     public void testExampleCounter() throws ParsingException {
         assertRecordEquality(
@@ -102,8 +92,7 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleSamplingAccept() throws ParsingException {
-        Mockito.doReturn(0.49).when(_random).nextDouble();
+    public void testExampleSampling() throws ParsingException {
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -117,6 +106,7 @@ public final class StatsdToRecordParserTest {
                                         .setValues(ImmutableList.of(
                                                 new Quantity.Builder()
                                                         .setValue(240.0)
+                                                        .setWeight(2.0)
                                                         .build()))
                                         .build()
                         ))
@@ -126,14 +116,19 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleSamplingReject() throws ParsingException {
-        Mockito.doReturn(0.51).when(_random).nextDouble();
-        Assert.assertTrue(_parser.parse(ByteBuffer.wrap("song.length:240|h|@0.5".getBytes(Charsets.UTF_8))).isEmpty());
+    public void testSamplingFractionalWeight() throws ParsingException {
+        final Quantity quantity = Iterables.getOnlyElement(
+                Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap("song.length:240|h|@0.75".getBytes(Charsets.UTF_8))))
+                        .getMetrics()
+                        .get("song.length")
+                        .getValues());
+        Assert.assertEquals(240.0, quantity.getValue(), 0.0);
+        Assert.assertEquals(1.0 / 0.75, quantity.getWeight(), 0.0);
     }
 
     @Test
-    public void testSamplingAlwaysAccept() throws ParsingException {
-        Mockito.doReturn(0.0).when(_random).nextDouble();
+    public void testSamplingAlways() throws ParsingException {
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -156,11 +151,18 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testSamplingAlwaysReject() throws ParsingException {
-        Mockito.doReturn(0.0).when(_random).nextDouble();
+    public void testSamplingNever() throws ParsingException {
         Assert.assertTrue(_parser.parse(ByteBuffer.wrap("song.length:240|h|@0".getBytes(Charsets.UTF_8))).isEmpty());
     }
 
+    @Test
+    public void testSamplingNeverSkipsLine() throws ParsingException {
+        final List<Record> records = _parser.parse(
+                ByteBuffer.wrap("song.length:240|h|@0\nfuel.level:0.5|g".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(1, records.size());
+        Assert.assertTrue(records.get(0).getMetrics().containsKey("fuel.level"));
+    }
+
     @Test(expected = ParsingException.class)
     public void testExampleSetsNotSupported() throws ParsingException {
         _parser.parse(ByteBuffer.wrap("users.uniques:1234|s".getBytes(Charsets.UTF_8)));
@@ -191,8 +193,7 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleTagsSampledAccept() throws ParsingException {
-        Mockito.doReturn(0.49).when(_random).nextDouble();
+    public void testExampleTagsSampled() throws ParsingException {
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -207,6 +208,7 @@ public final class StatsdToRecordParserTest {
                                         .setValues(ImmutableList.of(
                                                 new Quantity.Builder()
                                                         .setValue(1.0)
+                                                        .setWeight(2.0)
                                                         .build()))
                                         .build()
                         ))
@@ -215,12 +217,6 @@ public final class StatsdToRecordParserTest {
                         _parser.parse(ByteBuffer.wrap("users.online:1|c|@0.5|#country:china".getBytes(Charsets.UTF_8)))));
     }
 
-    @Test
-    public void testExampleTagsSampledReject() throws ParsingException {
-        Mockito.doReturn(0.51).when(_random).nextDouble();
-        Assert.assertTrue(_parser.parse(ByteBuffer.wrap("users.online:1|c|@0.5|#country:china".getBytes(Charsets.UTF_8))).isEmpty());
-    }
-
     private void assertRecordEquality(final Record expected, final Record actual) {
         Assert.assertEquals(expected.getTime(), actual.getTime());
         Assert.assertEquals(expected.getAnnotations(), actual.getAnnotations());
@@ -228,14 +224,10 @@ public final class StatsdToRecordParserTest {
         Assert.assertEquals(expected.getMetrics(), actual.getMetrics());
     }
 
-    @Mock
-    private Random _random;
-
     private final DateTime _now = DateTime.now(DateTimeZone.UTC);
     private final Parser<List<Record>, ByteBuffer> _parser =
             new StatsdToRecordParser(
                     Clock.fixed(
                             Instant.ofEpochMilli(_now.getMillis()),
-                            ZoneId.of("UTC")),
-                    () -> _random);
+                            ZoneId.of("UTC")));
 }
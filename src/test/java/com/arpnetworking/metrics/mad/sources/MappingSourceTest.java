@@ -128,6 +128,33 @@ public class MappingSourceTest {
                 UnorderedRecordEquality.equals(nonMatchingRecord, actualRecord));
     }
 
+    @Test
+    public void testMergeBatch() {
+        final Record firstRecord = TestBeanFactory.createRecordBuilder()
+                .setMetrics(ImmutableMap.of(
+                        "does_not_match",
+                        TestBeanFactory.createMetric()))
+                .build();
+        final Record secondRecord = TestBeanFactory.createRecordBuilder()
+                .setMetrics(ImmutableMap.of(
+                        "also_does_not_match",
+                        TestBeanFactory.createMetric()))
+                .build();
+
+        final Source mergingSource = _mappingSourceBuilder.build();
+        mergingSource.attach(_mockObserver);
+        notify(_mockSource, ImmutableList.of(firstRecord, "Not a Record", secondRecord));
+
+        final ArgumentCaptor<Object> argument = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(_mockObserver).notify(Mockito.same(mergingSource), argument.capture());
+        @SuppressWarnings("unchecked")
+        final List<Record> actualRecords = (List<Record>) argument.getValue();
+
+        Assert.assertEquals(2, actualRecords.size());
+        Assert.assertTrue(UnorderedRecordEquality.equals(firstRecord, actualRecords.get(0)));
+        Assert.assertTrue(UnorderedRecordEquality.equals(secondRecord, actualRecords.get(1)));
+    }
+
     @Test
     public void testMergeTwoGauges() {
         final Record matchingRecord = TestBeanFactory.createRecordBuilder()
@@ -18,12 +18,16 @@ package com.arpnetworking.tsdcore.model;
 import akka.util.ByteString;
 import com.arpnetworking.metrics.aggregation.protocol.Messages;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.UnknownFieldSet;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.vertx.java.core.buffer.Buffer;
 
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
 /**
  * Tests for the AggregationMessage class.
  *
@@ -57,6 +61,53 @@ public class AggregationMessageTest {
         }
     }
 
+    @Test
+    public void testDeserialize() throws InvalidProtocolBufferException {
+        final Messages.StatisticSetRecord statisticSet = Messages.StatisticSetRecord.newBuilder()
+                .setMetric("MyMetric")
+                .setPeriod("PT1M")
+                .setPeriodStart("2018-01-01T00:00:00.000Z")
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .build();
+        final Messages.HeartbeatRecord heartbeat = Messages.HeartbeatRecord.newBuilder()
+                .setTimestamp("2018-01-01T00:00:00.000Z")
+                .build();
+        final Buffer vertxBuffer = AggregationMessage.create(statisticSet).serialize();
+        vertxBuffer.appendBuffer(AggregationMessage.create(heartbeat).serialize());
+        final ByteBuffer buffer = ByteBuffer.wrap(vertxBuffer.getBytes());
+
+        final Optional<AggregationMessage> first = AggregationMessage.deserialize(buffer);
+        Assert.assertTrue(first.isPresent());
+        Assert.assertEquals(statisticSet, first.get().getMessage());
+
+        final Optional<AggregationMessage> second = AggregationMessage.deserialize(buffer);
+        Assert.assertTrue(second.isPresent());
+        Assert.assertEquals(heartbeat, second.get().getMessage());
+
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertFalse(AggregationMessage.deserialize(buffer).isPresent());
+    }
+
+    @Test
+    public void testDeserializePartialMessage() throws InvalidProtocolBufferException {
+        final byte[] messageBuffer = AggregationMessage.create(
+                Messages.HeartbeatRecord.newBuilder()
+                        .setTimestamp("2018-01-01T00:00:00.000Z")
+                        .build())
+                .serialize()
+                .getBytes();
+        final ByteBuffer buffer = ByteBuffer.wrap(messageBuffer, 0, messageBuffer.length - 1);
+
+        Assert.assertFalse(AggregationMessage.deserialize(buffer).isPresent());
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testDeserializeUnsupportedMessage() throws InvalidProtocolBufferException {
+        AggregationMessage.deserialize(ByteBuffer.wrap(new byte[] {0, 0, 0, 5, 0x02}));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSerializedUnsupportedMessage() {
         final GeneratedMessage mockMessage = Mockito.mock(GeneratedMessage.class);
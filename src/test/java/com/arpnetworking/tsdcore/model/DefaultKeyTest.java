@@ -0,0 +1,64 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.model;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+/**
+ * Tests for the DefaultKey class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class DefaultKeyTest {
+
+    @Test
+    public void testEquality() {
+        final DefaultKey key = new DefaultKey(ImmutableMap.of("host", "h", "service", "s"));
+        final DefaultKey reordered = new DefaultKey(ImmutableMap.of("service", "s", "host", "h"));
+        final DefaultKey other = new DefaultKey(ImmutableMap.of("host", "s", "service", "h"));
+        Assert.assertEquals(key, reordered);
+        Assert.assertEquals(key.hashCode(), reordered.hashCode());
+        Assert.assertEquals(key.getHash(), reordered.getHash());
+        Assert.assertNotEquals(key, other);
+        Assert.assertNotEquals(key.getHash(), other.getHash());
+    }
+
+    @Test
+    public void testBatchFactory() {
+        final Function<ImmutableMap<String, String>, DefaultKey> keyFactory = DefaultKey.newBatchFactory();
+        final DefaultKey key = keyFactory.apply(ImmutableMap.of("host", "h", "service", "s"));
+        Assert.assertSame(key, keyFactory.apply(ImmutableMap.of("host", "h", "service", "s")));
+        Assert.assertNotSame(key, keyFactory.apply(ImmutableMap.of("host", "h2", "service", "s")));
+        Assert.assertNotSame(key, DefaultKey.newBatchFactory().apply(ImmutableMap.of("host", "h", "service", "s")));
+    }
+
+    @Test
+    public void testHashStringCollision() {
+        // NOTE: "Aa" and "BB" have the same String hash code but not the same murmur3 hash
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        final DefaultKey key = new DefaultKey(ImmutableMap.of("Aa", "Aa"));
+        final DefaultKey other = new DefaultKey(ImmutableMap.of("BB", "Aa"));
+        Assert.assertNotEquals(key.getHash(), other.getHash());
+        Assert.assertNotEquals(key, other);
+        Assert.assertNotEquals(
+                new DefaultKey(ImmutableMap.of("ab", "c")).getHash(),
+                new DefaultKey(ImmutableMap.of("a", "bc")).getHash());
+    }
+}
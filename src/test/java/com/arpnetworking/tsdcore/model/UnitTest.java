@@ -31,6 +31,32 @@ public class UnitTest {
         Assert.assertEquals(8, Unit.BIT.convert(1.0, Unit.BYTE), 0.001);
     }
 
+    @Test
+    public void testConvertValues() {
+        final double[] values = new double[] {1.0, 2.5, 1000.0};
+        Unit.MILLISECOND.convert(values, Unit.SECOND);
+        Assert.assertArrayEquals(new double[] {1000.0, 2500.0, 1000000.0}, values, 0.001);
+        Unit.MILLISECOND.convert(values, Unit.MILLISECOND);
+        Assert.assertArrayEquals(new double[] {1000.0, 2500.0, 1000000.0}, values, 0.001);
+        for (final double value : values) {
+            final double[] converted = new double[] {value};
+            Unit.MINUTE.convert(converted, Unit.MILLISECOND);
+            Assert.assertEquals(Unit.MINUTE.convert(value, Unit.MILLISECOND), converted[0], 0.0);
+        }
+    }
+
+    @Test
+    public void testConvertValuesTemperature() {
+        final double[] values = new double[] {32.0, 68.0};
+        Unit.CELCIUS.convert(values, Unit.FAHRENHEIT);
+        Assert.assertArrayEquals(new double[] {0.0, 20.0}, values, 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertValuesDifferentDomain() {
+        Unit.SECOND.convert(new double[] {1.0}, Unit.BIT);
+    }
+
     @Test
     public void testGetSmallerUnit() {
         Assert.assertEquals(Unit.BIT, Unit.BYTE.getSmallerUnit(Unit.BIT));
@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.tsdcore.sinks;
 
+import com.arpnetworking.metrics.aggregation.protocol.Messages;
 import com.arpnetworking.test.TestBeanFactory;
 import com.arpnetworking.tsdcore.model.PeriodicData;
 import org.joda.time.DateTime;
@@ -117,6 +118,20 @@ public class AggregationServerSinkTest {
         }
     }
 
+    @Test
+    public void testAddEntriesSplitsLargeCounts() {
+        final Messages.SparseHistogramSupportingData.Builder builder = Messages.SparseHistogramSupportingData.newBuilder();
+        AggregationServerSink.addEntries(builder, 1.5, 2L * Integer.MAX_VALUE + 3);
+        AggregationServerSink.addEntries(builder, 2.5, 0);
+        Assert.assertEquals(3, builder.getEntriesCount());
+        long count = 0;
+        for (int i = 0; i < builder.getEntriesCount(); ++i) {
+            Assert.assertEquals(1.5, builder.getEntries(i).getBucket(), 0.0);
+            count += builder.getEntries(i).getCount();
+        }
+        Assert.assertEquals(2L * Integer.MAX_VALUE + 3, count);
+    }
+
     private SocketChannel listenForConnection(final ServerSocketChannel serverChannel,
                                               final Duration timeout) throws IOException, InterruptedException {
         SocketChannel connectedSocket = null;
@@ -66,6 +66,15 @@ public class CountStatisticTest {
         Assert.assertEquals(calculated.getValue(), new Quantity.Builder().setValue(3.0).build());
     }
 
+    @Test
+    public void testAccumulatorWeight() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) COUNT_STATISTIC.createCalculator();
+        accumulator.accumulate(new Quantity.Builder().setValue(12d).setWeight(10.0).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(18d).build());
+        final CalculatedValue<?> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new Quantity.Builder().setValue(11.0).build());
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final CountStatistic COUNT_STATISTIC = (CountStatistic) STATISTIC_FACTORY.getStatistic("count");
 }
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Perf tests recording, merging and evaluating percentiles of tree and
+ * paged histograms.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@BenchmarkOptions(callgc = true, benchmarkRounds = 10, warmupRounds = 5)
+public class HistogramStatisticPT {
+
+    @BeforeClass
+    public static void setUp() {
+        JSON_BENCHMARK_CONSUMER.prepareClass();
+    }
+
+    @Test
+    public void testTreeRecord() {
+        record(HistogramStatistic.HistogramType.TREE);
+    }
+
+    @Test
+    public void testPagedRecord() {
+        record(HistogramStatistic.HistogramType.PAGED);
+    }
+
+    @Test
+    public void testTreeMerge() {
+        merge(HistogramStatistic.HistogramType.TREE);
+    }
+
+    @Test
+    public void testPagedMerge() {
+        merge(HistogramStatistic.HistogramType.PAGED);
+    }
+
+    @Test
+    public void testTreePercentiles() {
+        percentiles(HistogramStatistic.HistogramType.TREE);
+    }
+
+    @Test
+    public void testPagedPercentiles() {
+        percentiles(HistogramStatistic.HistogramType.PAGED);
+    }
+
+    private void record(final HistogramStatistic.HistogramType histogramType) {
+        final HistogramStatistic.Histogram histogram = histogramType.createHistogram();
+        for (final double value : VALUES) {
+            histogram.recordValue(value);
+        }
+        Assert.assertEquals(VALUES.length, histogram.getEntriesCount());
+    }
+
+    private void merge(final HistogramStatistic.HistogramType histogramType) {
+        final HistogramStatistic.Histogram partial = histogramType.createHistogram();
+        for (final double value : VALUES) {
+            partial.recordValue(value);
+        }
+        final HistogramStatistic.HistogramSnapshot snapshot = partial.getSnapshot();
+        final HistogramStatistic.Histogram histogram = histogramType.createHistogram();
+        for (int i = 0; i < MERGES; ++i) {
+            histogram.add(snapshot);
+        }
+        Assert.assertEquals(VALUES.length * MERGES, histogram.getEntriesCount());
+    }
+
+    private void percentiles(final HistogramStatistic.HistogramType histogramType) {
+        final HistogramStatistic.Histogram histogram = histogramType.createHistogram();
+        for (final double value : VALUES) {
+            histogram.recordValue(value);
+        }
+        for (int i = 0; i < MERGES; ++i) {
+            histogram.recordValue(VALUES[i]);
+            final HistogramStatistic.HistogramSnapshot snapshot = histogram.getSnapshot();
+            Assert.assertEquals(PERCENTILES.length, snapshot.getValuesAtPercentiles(PERCENTILES).length);
+        }
+    }
+
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(JSON_BENCHMARK_CONSUMER);
+
+    private static final int MERGES = 1000;
+    private static final double[] PERCENTILES = new double[] {50, 90, 99, 99.9};
+    private static final double[] VALUES = new double[1000000];
+    private static final JsonBenchmarkConsumer JSON_BENCHMARK_CONSUMER = new JsonBenchmarkConsumer(
+            Paths.get("target/site/perf/benchmark-histogram.json"));
+
+    static {
+        // Latencies are roughly log-normal between one and ten thousand milliseconds
+        final Random random = new Random(42);
+        for (int i = 0; i < VALUES.length; ++i) {
+            VALUES[i] = Math.exp(random.nextGaussian() * 1.5 + 4.0);
+        }
+    }
+}
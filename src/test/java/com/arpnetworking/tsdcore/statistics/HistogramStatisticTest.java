@@ -18,11 +18,13 @@ package com.arpnetworking.tsdcore.statistics;
 import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.utility.SlabAllocator;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Tests the HistogramStatistic class.
@@ -45,6 +47,19 @@ public class HistogramStatisticTest {
         }
     }
 
+    @Test
+    public void histogramAccumulateWeight() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        accumulator.accumulate(new Quantity.Builder().setValue(1.0).setWeight(99.0).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(100.0).build());
+
+        final HistogramStatistic.HistogramSnapshot histogram =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertEquals(100, histogram.getEntriesCount());
+        Assert.assertEquals(1.0, histogram.getValueAtPercentile(99), 0.01);
+        Assert.assertEquals(100.0, histogram.getValueAtPercentile(100), 1.0);
+    }
+
     @Test
     public void histogramAccumulateHistogram() {
         final Accumulator<HistogramStatistic.HistogramSupportingData> merged = HISTOGRAM_STATISTIC.createCalculator();
@@ -131,6 +146,238 @@ public class HistogramStatisticTest {
         Assert.assertEquals(50d, histogram.getValueAtPercentile(100), 1d);
     }
 
+    @Test
+    public void histogramMultiplePercentiles() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        for (int x = 1; x <= 1000; ++x) {
+            accumulator.accumulate(new Quantity.Builder().setValue((double) x).build());
+        }
+
+        final CalculatedValue<HistogramStatistic.HistogramSupportingData> value = accumulator.calculate(Collections.emptyMap());
+        final HistogramStatistic.HistogramSnapshot histogram = value.getData().getHistogramSnapshot();
+        final double[] percentiles = new double[] {0, 50, 90, 99, 99.9, 100};
+        final double[] values = histogram.getValuesAtPercentiles(percentiles);
+        Assert.assertEquals(percentiles.length, values.length);
+        for (int i = 0; i < percentiles.length; ++i) {
+            Assert.assertEquals(histogram.getValueAtPercentile(percentiles[i]), values[i], 0.0001d);
+        }
+        Assert.assertEquals(500d, values[1], 1d);
+        // NOTE: Values between 512 and 1024 fall in buckets four wide at the default precision
+        Assert.assertEquals(999d, values[4], 4d);
+
+    }
+
+    @Test
+    public void histogramPercentilesEvaluatedTogether() {
+        final double[] percentiles = new double[] {50, 90, 99};
+        final HistogramStatistic.HistogramAccumulator accumulator =
+                (HistogramStatistic.HistogramAccumulator) HISTOGRAM_STATISTIC.createCalculator(
+                        HistogramStatistic.HistogramType.TREE::createHistogram,
+                        HistogramStatistic.DEFAULT_PRECISION,
+                        percentiles);
+        for (int x = 1; x <= 1000; ++x) {
+            accumulator.accumulate(new Quantity.Builder().setValue((double) x).build());
+        }
+
+        final HistogramStatistic.HistogramSnapshot histogram =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        for (final double percentile : percentiles) {
+            Assert.assertEquals(histogram.getValueAtPercentile(percentile), accumulator.calculate(percentile).getValue(), 0.0001d);
+        }
+        // Percentiles not evaluated together are looked up individually
+        Assert.assertEquals(histogram.getValueAtPercentile(75), accumulator.calculate(75).getValue(), 0.0001d);
+
+        // Accumulating a sample invalidates the evaluated percentiles
+        for (int x = 1; x <= 1000; ++x) {
+            accumulator.accumulate(new Quantity.Builder().setValue(5000.0).build());
+        }
+        Assert.assertEquals(5000d, accumulator.calculate(99).getValue(), 50d);
+    }
+
+    @Test
+    public void histogramSnapshotShared() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        accumulator.accumulate(new Quantity.Builder().setValue(1d).build());
+
+        final HistogramStatistic.HistogramSnapshot first =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertSame(first, accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot());
+
+        accumulator.accumulate(new Quantity.Builder().setValue(2d).build());
+        final HistogramStatistic.HistogramSnapshot second =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, first.getEntriesCount());
+        Assert.assertEquals(2, second.getEntriesCount());
+    }
+
+    @Test
+    public void histogramToUnit() {
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.TreeHistogram(HistogramStatistic.DEFAULT_PRECISION);
+        histogram.recordValue(1.0, 2);
+        histogram.recordValue(1.5);
+        histogram.recordValue(1000.0);
+        final HistogramStatistic.HistogramSupportingData data = new HistogramStatistic.HistogramSupportingData.Builder()
+                .setHistogramSnapshot(histogram.getSnapshot())
+                .setUnit(Unit.SECOND)
+                .build();
+        Assert.assertSame(data, data.toUnit(Unit.SECOND));
+
+        final HistogramStatistic.HistogramSupportingData converted = data.toUnit(Unit.MILLISECOND);
+        final HistogramStatistic.HistogramSnapshot snapshot = data.getHistogramSnapshot();
+        final HistogramStatistic.HistogramSnapshot convertedSnapshot = converted.getHistogramSnapshot();
+        Assert.assertEquals(Unit.MILLISECOND, converted.getUnit().get());
+        Assert.assertEquals(snapshot.getBucketCount(), convertedSnapshot.getBucketCount());
+        Assert.assertEquals(snapshot.getEntriesCount(), convertedSnapshot.getEntriesCount());
+        for (int i = 0; i < snapshot.getBucketCount(); ++i) {
+            Assert.assertEquals(snapshot.getBucket(i) * 1000, convertedSnapshot.getBucket(i), 0.001);
+            Assert.assertEquals(snapshot.getCount(i), convertedSnapshot.getCount(i));
+        }
+        Assert.assertEquals(snapshot.getValueAtPercentile(50) * 1000, convertedSnapshot.getValueAtPercentile(50), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramPercentilesOutOfOrder() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        accumulator.accumulate(new Quantity.Builder().setValue(1d).build());
+        accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot().getValuesAtPercentiles(90, 50);
+    }
+
+    @Test
+    public void histogramPagedMatchesTree() {
+        final HistogramStatistic.Histogram tree = HistogramStatistic.HistogramType.TREE.createHistogram();
+        final HistogramStatistic.Histogram paged = HistogramStatistic.HistogramType.PAGED.createHistogram();
+        final Random random = new Random(42);
+        final double[] special = new double[] {0.0, -0.0, 1.0, -1.0, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (final double value : special) {
+            tree.recordValue(value);
+            paged.recordValue(value);
+        }
+        for (int x = 0; x < 10000; ++x) {
+            final double value = random.nextGaussian() * Math.pow(10, random.nextInt(12) - 4);
+            tree.recordValue(value);
+            paged.recordValue(value);
+        }
+
+        final HistogramStatistic.HistogramSnapshot treeSnapshot = tree.getSnapshot();
+        final HistogramStatistic.HistogramSnapshot pagedSnapshot = paged.getSnapshot();
+        Assert.assertEquals(treeSnapshot.getEntriesCount(), pagedSnapshot.getEntriesCount());
+        Assert.assertEquals(treeSnapshot.getBucketCount(), pagedSnapshot.getBucketCount());
+        for (int i = 0; i < treeSnapshot.getBucketCount(); ++i) {
+            Assert.assertEquals(0, Double.compare(treeSnapshot.getBucket(i), pagedSnapshot.getBucket(i)));
+            Assert.assertEquals(treeSnapshot.getCount(i), pagedSnapshot.getCount(i));
+        }
+    }
+
+    @Test
+    public void histogramOffHeapMatchesPaged() {
+        final SlabAllocator allocator = new SlabAllocator(1 << 16);
+        try (SlabAllocator.Arena arena = allocator.createArena()) {
+            final HistogramStatistic.Histogram offHeap =
+                    new HistogramStatistic.OffHeapHistogram(HistogramStatistic.DEFAULT_PRECISION, arena);
+            final HistogramStatistic.Histogram paged = HistogramStatistic.HistogramType.PAGED.createHistogram();
+            final Random random = new Random(42);
+            for (int x = 0; x < 10000; ++x) {
+                final double value = random.nextGaussian() * Math.pow(10, random.nextInt(12) - 4);
+                offHeap.recordValue(value);
+                paged.recordValue(value);
+            }
+            offHeap.recordValue(-0.0, 3);
+            paged.recordValue(-0.0, 3);
+
+            final HistogramStatistic.HistogramSnapshot pagedSnapshot = paged.getSnapshot();
+            final HistogramStatistic.HistogramSnapshot offHeapSnapshot = offHeap.getSnapshot();
+            Assert.assertEquals(pagedSnapshot.getEntriesCount(), offHeapSnapshot.getEntriesCount());
+            Assert.assertEquals(pagedSnapshot.getBucketCount(), offHeapSnapshot.getBucketCount());
+            for (int i = 0; i < pagedSnapshot.getBucketCount(); ++i) {
+                Assert.assertEquals(0, Double.compare(pagedSnapshot.getBucket(i), offHeapSnapshot.getBucket(i)));
+                Assert.assertEquals(pagedSnapshot.getCount(i), offHeapSnapshot.getCount(i));
+            }
+            Assert.assertTrue(allocator.getUsedBytes() > 0);
+        }
+        Assert.assertEquals(0, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void histogramPagedAccumulateHistogram() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> merged =
+                HISTOGRAM_STATISTIC.createCalculator(HistogramStatistic.HistogramType.PAGED);
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        for (int x = 1; x <= 100; ++x) {
+            accumulator.accumulate(new Quantity.Builder().setValue((double) x).build());
+            merged.accumulate(new Quantity.Builder().setValue((double) x).build());
+        }
+
+        merged.accumulate(accumulator.calculate(Collections.emptyMap()));
+
+        final HistogramStatistic.HistogramSnapshot histogram =
+                merged.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertEquals(200, histogram.getEntriesCount());
+        for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
+            Assert.assertEquals(entry.getValue(), (Integer) 2);
+        }
+        Assert.assertEquals(50d, histogram.getValueAtPercentile(50), 1d);
+    }
+
+    @Test
+    public void histogramPrecision() {
+        for (final HistogramStatistic.HistogramType histogramType : HistogramStatistic.HistogramType.values()) {
+            final HistogramStatistic.Histogram coarse = histogramType.createHistogram(4);
+            final HistogramStatistic.Histogram fine = histogramType.createHistogram(10);
+            for (int x = 1000; x < 2000; ++x) {
+                coarse.recordValue(x);
+                fine.recordValue(x);
+            }
+            // Values between 1024 and 2048 share an exponent; n bits of mantissa yield 2^n buckets
+            Assert.assertEquals(4, coarse.getSnapshot().getPrecision());
+            Assert.assertEquals(17, coarse.getSnapshot().getBucketCount());
+            Assert.assertEquals(10, fine.getSnapshot().getPrecision());
+            Assert.assertEquals(1000, fine.getSnapshot().getBucketCount());
+            Assert.assertEquals(1856d, coarse.getSnapshot().getValueAtPercentile(90), 0.0001d);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramPrecisionInvalid() {
+        HistogramStatistic.HistogramType.PAGED.createHistogram(HistogramStatistic.MAXIMUM_PRECISION + 1);
+    }
+
+    @Test
+    public void histogramMergeDownsamples() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> coarse =
+                HISTOGRAM_STATISTIC.createCalculator(HistogramStatistic.HistogramType.PAGED, 4);
+        final Accumulator<HistogramStatistic.HistogramSupportingData> fine =
+                HISTOGRAM_STATISTIC.createCalculator(HistogramStatistic.HistogramType.TREE, 10);
+        for (int x = 1024; x < 2048; ++x) {
+            coarse.accumulate(new Quantity.Builder().setValue((double) x).build());
+            fine.accumulate(new Quantity.Builder().setValue((double) x).build());
+        }
+
+        // Finer into coarser truncates the merged buckets
+        final Accumulator<HistogramStatistic.HistogramSupportingData> merged =
+                HISTOGRAM_STATISTIC.createCalculator(HistogramStatistic.HistogramType.PAGED, 4);
+        merged.accumulate(coarse.calculate(Collections.emptyMap()));
+        merged.accumulate(fine.calculate(Collections.emptyMap()));
+        HistogramStatistic.HistogramSnapshot histogram = merged.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertEquals(4, histogram.getPrecision());
+        Assert.assertEquals(2048, histogram.getEntriesCount());
+        Assert.assertEquals(16, histogram.getBucketCount());
+        for (int i = 0; i < histogram.getBucketCount(); ++i) {
+            Assert.assertEquals(128, histogram.getCount(i));
+        }
+
+        // Coarser into finer downsamples the existing buckets
+        fine.accumulate(coarse.calculate(Collections.emptyMap()));
+        histogram = fine.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertEquals(4, histogram.getPrecision());
+        Assert.assertEquals(2048, histogram.getEntriesCount());
+        Assert.assertEquals(16, histogram.getBucketCount());
+        for (int i = 0; i < histogram.getBucketCount(); ++i) {
+            Assert.assertEquals(1024d + 64 * i, histogram.getBucket(i), 0.0001d);
+            Assert.assertEquals(128, histogram.getCount(i));
+        }
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final HistogramStatistic HISTOGRAM_STATISTIC = (HistogramStatistic) STATISTIC_FACTORY.getStatistic("histogram");
 }
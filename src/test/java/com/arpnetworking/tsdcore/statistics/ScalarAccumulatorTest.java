@@ -0,0 +1,128 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import net.sf.oval.exception.ConstraintsViolatedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests the <code>ScalarAccumulator</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class ScalarAccumulatorTest {
+
+    @Test
+    public void testIsSupported() {
+        Assert.assertTrue(ScalarAccumulator.isSupported(COUNT_STATISTIC));
+        Assert.assertTrue(ScalarAccumulator.isSupported(SUM_STATISTIC));
+        Assert.assertTrue(ScalarAccumulator.isSupported(MIN_STATISTIC));
+        Assert.assertTrue(ScalarAccumulator.isSupported(MAX_STATISTIC));
+        Assert.assertFalse(ScalarAccumulator.isSupported(STATISTIC_FACTORY.getStatistic("mean")));
+        Assert.assertFalse(ScalarAccumulator.isSupported(STATISTIC_FACTORY.getStatistic("histogram")));
+    }
+
+    @Test
+    public void testAccumulate() {
+        final ScalarAccumulator accumulator = new ScalarAccumulator();
+        final Accumulator<Void> count = accumulator.createCalculator(COUNT_STATISTIC);
+        final Accumulator<Void> sum = accumulator.createCalculator(SUM_STATISTIC);
+        final Accumulator<Void> min = accumulator.createCalculator(MIN_STATISTIC);
+        final Accumulator<Void> max = accumulator.createCalculator(MAX_STATISTIC);
+
+        accumulator.accumulate(new Quantity.Builder().setValue(12d).setUnit(Unit.SECOND).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(18d).setUnit(Unit.SECOND).setWeight(2.0).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(5d).setUnit(Unit.SECOND).build());
+
+        Assert.assertEquals(new Quantity.Builder().setValue(4d).build(), calculate(count));
+        Assert.assertEquals(new Quantity.Builder().setValue(53d).setUnit(Unit.SECOND).build(), calculate(sum));
+        Assert.assertEquals(new Quantity.Builder().setValue(5d).setUnit(Unit.SECOND).build(), calculate(min));
+        Assert.assertEquals(new Quantity.Builder().setValue(18d).setUnit(Unit.SECOND).build(), calculate(max));
+    }
+
+    @Test
+    public void testAccumulateFractionalWeight() {
+        final ScalarAccumulator accumulator = new ScalarAccumulator();
+        final Accumulator<Void> count = accumulator.createCalculator(COUNT_STATISTIC);
+        final Accumulator<Void> sum = accumulator.createCalculator(SUM_STATISTIC);
+
+        accumulator.accumulate(new Quantity.Builder().setValue(6d).setWeight(1.5).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(6d).setWeight(1.5).build());
+
+        Assert.assertEquals(new Quantity.Builder().setValue(3d).build(), calculate(count));
+        Assert.assertEquals(new Quantity.Builder().setValue(18d).build(), calculate(sum));
+    }
+
+    @Test
+    public void testMerge() {
+        final ScalarAccumulator partial = new ScalarAccumulator();
+        partial.accumulate(new Quantity.Builder().setValue(3d).build());
+        partial.accumulate(new Quantity.Builder().setValue(7d).build());
+
+        final ScalarAccumulator accumulator = new ScalarAccumulator();
+        accumulator.accumulate(new Quantity.Builder().setValue(5d).build());
+        for (final Statistic statistic : new Statistic[] {COUNT_STATISTIC, SUM_STATISTIC, MIN_STATISTIC, MAX_STATISTIC}) {
+            accumulator.createCalculator(statistic).accumulate(
+                    partial.createCalculator(statistic).calculate(Collections.emptyMap()));
+        }
+
+        Assert.assertEquals(new Quantity.Builder().setValue(3d).build(), calculate(accumulator.createCalculator(COUNT_STATISTIC)));
+        Assert.assertEquals(new Quantity.Builder().setValue(15d).build(), calculate(accumulator.createCalculator(SUM_STATISTIC)));
+        Assert.assertEquals(new Quantity.Builder().setValue(3d).build(), calculate(accumulator.createCalculator(MIN_STATISTIC)));
+        Assert.assertEquals(new Quantity.Builder().setValue(7d).build(), calculate(accumulator.createCalculator(MAX_STATISTIC)));
+    }
+
+    @Test
+    public void testEmptyCount() {
+        final ScalarAccumulator accumulator = new ScalarAccumulator();
+        Assert.assertEquals(new Quantity.Builder().setValue(0d).build(), calculate(accumulator.createCalculator(COUNT_STATISTIC)));
+    }
+
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testEmptyMin() {
+        // NOTE: Like the individual accumulators there is no minimum without a value
+        calculate(new ScalarAccumulator().createCalculator(MIN_STATISTIC));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMismatchedUnits() {
+        final ScalarAccumulator accumulator = new ScalarAccumulator();
+        accumulator.accumulate(new Quantity.Builder().setValue(1d).setUnit(Unit.SECOND).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(1d).setUnit(Unit.BYTE).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedStatistic() {
+        new ScalarAccumulator().createCalculator(STATISTIC_FACTORY.getStatistic("mean"));
+    }
+
+    private static Quantity calculate(final Accumulator<Void> accumulator) {
+        final CalculatedValue<Void> calculated = accumulator.calculate(Collections.emptyMap());
+        return calculated.getValue();
+    }
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic MIN_STATISTIC = STATISTIC_FACTORY.getStatistic("min");
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests the <code>SketchStatistic</code> and <code>SketchTPStatistic</code> classes.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class SketchStatisticTest {
+
+    @Test
+    public void testName() {
+        Assert.assertEquals("sketch", SKETCH_STATISTIC.getName());
+        Assert.assertEquals("sketch_median", STATISTIC_FACTORY.getStatistic("sketch_p50").getName());
+        Assert.assertEquals("sketch_tp99", SKETCH_TP99_STATISTIC.getName());
+        Assert.assertEquals("sketch_tp99.9", STATISTIC_FACTORY.getStatistic("sketch_p99p9").getName());
+    }
+
+    @Test
+    public void testRelativeAccuracy() {
+        final SketchStatistic.Sketch sketch = new SketchStatistic.Sketch(0.01, 2048);
+        for (int x = 1; x <= 10000; ++x) {
+            sketch.recordValue(x * 0.001);
+            sketch.recordValue(x * 1000.0);
+        }
+        Assert.assertEquals(20000, sketch.getCount());
+        for (final double percentile : new double[] {10, 25, 50, 75, 90, 99, 99.9}) {
+            final double expected = expectedValueAtPercentile(percentile);
+            Assert.assertEquals(expected, sketch.getValueAtPercentile(percentile), expected * 0.01);
+        }
+    }
+
+    @Test
+    public void testNegativeAndZeroValues() {
+        final SketchStatistic.Sketch sketch = new SketchStatistic.Sketch(0.01, 2048);
+        sketch.recordValue(-100.0, 2);
+        sketch.recordValue(0.0);
+        sketch.recordValue(100.0);
+        Assert.assertEquals(4, sketch.getCount());
+        Assert.assertEquals(1, sketch.getZeroCount());
+        Assert.assertEquals(-100.0, sketch.getValueAtPercentile(25), 1.0);
+        Assert.assertEquals(-100.0, sketch.getValueAtPercentile(50), 1.0);
+        Assert.assertEquals(0.0, sketch.getValueAtPercentile(75), 0.0);
+        Assert.assertEquals(100.0, sketch.getValueAtPercentile(100), 1.0);
+    }
+
+    @Test
+    public void testMaximumBuckets() {
+        final SketchStatistic.Sketch sketch = new SketchStatistic.Sketch(0.01, 64);
+        for (int x = 1; x <= 10000; ++x) {
+            sketch.recordValue(x);
+        }
+        Assert.assertEquals(64, sketch.getBucketCount());
+        Assert.assertEquals(10000, sketch.getCount());
+        // The lowest buckets are collapsed so the upper percentiles are unaffected
+        Assert.assertEquals(9900.0, sketch.getValueAtPercentile(99), 99.0);
+        Assert.assertEquals(10000.0, sketch.getValueAtPercentile(100), 100.0);
+    }
+
+    @Test
+    public void testMerge() {
+        final SketchStatistic.Sketch merged = new SketchStatistic.Sketch(0.01, 2048);
+        final SketchStatistic.Sketch whole = new SketchStatistic.Sketch(0.01, 2048);
+        final SketchStatistic.Sketch coarse = new SketchStatistic.Sketch(0.05, 2048);
+        for (int x = 1; x <= 1000; ++x) {
+            merged.recordValue(x);
+            whole.recordValue(x);
+            coarse.recordValue(x + 1000);
+            whole.recordValue(x + 1000);
+        }
+        final SketchStatistic.Sketch aligned = merged.copy();
+        aligned.add(merged);
+        Assert.assertEquals(2000, aligned.getCount());
+        Assert.assertEquals(merged.getValueAtPercentile(50), aligned.getValueAtPercentile(50), 0.0);
+
+        merged.add(coarse);
+        Assert.assertEquals(2000, merged.getCount());
+        Assert.assertEquals(whole.getValueAtPercentile(99), merged.getValueAtPercentile(99), 1980 * 0.07);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRelativeAccuracy() {
+        new SketchStatistic.Sketch(0.9, 2048);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximumBuckets() {
+        new SketchStatistic.Sketch(0.01, 8);
+    }
+
+    @Test
+    public void testPercentileCalculator() {
+        final Accumulator<?> accumulator = (Accumulator<?>) SKETCH_STATISTIC.createCalculator();
+        for (int x = 1; x <= 10000; ++x) {
+            accumulator.accumulate(new Quantity.Builder().setValue((double) x).setUnit(Unit.MILLISECOND).build());
+        }
+        final CalculatedValue<Void> calculated = SKETCH_TP99_STATISTIC.createCalculator().calculate(
+                Collections.singletonMap(SKETCH_STATISTIC, accumulator));
+        // NOTE: Quantities are normalized to the default unit of their type
+        Assert.assertEquals(9.9, calculated.getValue().getValue(), 0.099);
+        Assert.assertEquals(Unit.SECOND, calculated.getValue().getUnit().get());
+    }
+
+    @Test
+    public void testAccumulateCalculatedValue() {
+        final SketchStatistic.SketchAccumulator first =
+                (SketchStatistic.SketchAccumulator) SKETCH_STATISTIC.createCalculator();
+        final SketchStatistic.SketchAccumulator second =
+                (SketchStatistic.SketchAccumulator) SKETCH_STATISTIC.createCalculator();
+        first.accumulate(new Quantity.Builder().setValue(10d).setWeight(3.0).build());
+        second.accumulate(new Quantity.Builder().setValue(1000d).build());
+        first.accumulate(second.calculate(Collections.emptyMap()));
+
+        final SketchStatistic.Sketch sketch = first.calculate(Collections.emptyMap()).getData().getSketch();
+        Assert.assertEquals(4, sketch.getCount());
+        Assert.assertEquals(10.0, first.calculate(75).getValue(), 0.11);
+        Assert.assertEquals(1000.0, first.calculate(100).getValue(), 11.0);
+    }
+
+    private static double expectedValueAtPercentile(final double percentile) {
+        final int rank = (int) Math.ceil(20000 * percentile / 100.0);
+        return rank <= 10000 ? rank * 0.001 : (rank - 10000) * 1000.0;
+    }
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic SKETCH_STATISTIC = STATISTIC_FACTORY.getStatistic("sketch");
+    private static final SketchTP99Statistic SKETCH_TP99_STATISTIC =
+            (SketchTP99Statistic) STATISTIC_FACTORY.getStatistic("sketch_tp99");
+}
@@ -52,7 +52,10 @@ public class StatisticFactoryTest {
                 a(l("p95", "tp95"), TP95Statistic.class),
                 a(l("p99", "tp99"), TP99Statistic.class),
                 a(l("p99.9", "tp99.9", "p99p9", "tp99p9"), TP99p9Statistic.class),
-                a(l("p100", "tp100", "max"), MaxStatistic.class)
+                a(l("p100", "tp100", "max"), MaxStatistic.class),
+                a(l("sketch_p50", "sketch_tp50", "sketch_median"), SketchMedianStatistic.class),
+                a(l("sketch_p99", "sketch_tp99"), SketchTP99Statistic.class),
+                a(l("sketch_p99.9", "sketch_tp99.9", "sketch_p99p9", "sketch_tp99p9"), SketchTP99p9Statistic.class)
         );
     }
 
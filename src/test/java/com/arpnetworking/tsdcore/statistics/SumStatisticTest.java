@@ -58,6 +58,15 @@ public class SumStatisticTest {
         Assert.assertEquals(calculated.getValue(), new Quantity.Builder().setValue(35.0).build());
     }
 
+    @Test
+    public void testAccumulatorWeight() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) SUM_STATISTIC.createCalculator();
+        accumulator.accumulate(new Quantity.Builder().setValue(12d).setWeight(10.0).build());
+        accumulator.accumulate(new Quantity.Builder().setValue(18d).build());
+        final CalculatedValue<?> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new Quantity.Builder().setValue(138.0).build());
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final SumStatistic SUM_STATISTIC = (SumStatistic) STATISTIC_FACTORY.getStatistic("sum");
 }
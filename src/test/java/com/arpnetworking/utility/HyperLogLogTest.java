@@ -0,0 +1,73 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the <code>HyperLogLog</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HyperLogLogTest {
+
+    @Test
+    public void testEstimate() {
+        for (final int cardinality : new int[] {10, 1000, 100000}) {
+            final HyperLogLog sketch = new HyperLogLog(12);
+            for (int i = 0; i < cardinality; ++i) {
+                sketch.add(hash(i));
+                // Duplicates do not change the estimate
+                sketch.add(hash(i));
+            }
+            Assert.assertEquals(cardinality, sketch.estimate(), cardinality * 0.05);
+        }
+    }
+
+    @Test
+    public void testAddDuplicate() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 1000; ++i) {
+            sketch.add(hash(i));
+            Assert.assertFalse(sketch.add(hash(i)));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 1000; ++i) {
+            sketch.add(hash(i));
+        }
+        sketch.clear();
+        Assert.assertEquals(0, sketch.estimate());
+        Assert.assertTrue(sketch.add(hash(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        new HyperLogLog(4);
+    }
+
+    private static long hash(final int value) {
+        return HASH_FUNCTION.hashInt(value).asLong();
+    }
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+}
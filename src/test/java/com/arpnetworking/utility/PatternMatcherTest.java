@@ -0,0 +1,65 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for the <code>PatternMatcher</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class PatternMatcherTest {
+
+    @Test
+    public void testFirstMatch() {
+        final PatternMatcher<Integer> matcher = new PatternMatcher<>(ImmutableMap.of(
+                Pattern.compile("slo/latency"), 1,
+                Pattern.compile(".*latency"), 2,
+                Pattern.compile("slo/.*"), 3,
+                Pattern.compile("(?i)SLO/errors"), 4));
+        Assert.assertEquals(Optional.of(1), matcher.match("slo/latency"));
+        Assert.assertEquals(Optional.of(2), matcher.match("http/latency"));
+        Assert.assertEquals(Optional.of(3), matcher.match("slo/availability"));
+        Assert.assertEquals(Optional.of(3), matcher.match("slo/errors"));
+        Assert.assertEquals(Optional.of(4), matcher.match("Slo/Errors"));
+        Assert.assertEquals(Optional.empty(), matcher.match("slo"));
+        Assert.assertEquals(Optional.empty(), matcher.match(""));
+    }
+
+    @Test
+    public void testNoPatterns() {
+        Assert.assertEquals(Optional.empty(), new PatternMatcher<Integer>(ImmutableMap.of()).match("metric"));
+    }
+
+    @Test
+    public void testGetLiteralPrefix() {
+        Assert.assertEquals("slo/", PatternMatcher.getLiteralPrefix("slo/.*"));
+        Assert.assertEquals("slo/", PatternMatcher.getLiteralPrefix("^slo/.*"));
+        Assert.assertEquals("ab", PatternMatcher.getLiteralPrefix("abc?d"));
+        Assert.assertEquals("ab", PatternMatcher.getLiteralPrefix("abc{2}"));
+        Assert.assertEquals("a", PatternMatcher.getLiteralPrefix("a[bc]"));
+        Assert.assertEquals("", PatternMatcher.getLiteralPrefix("\\d+"));
+        Assert.assertEquals("", PatternMatcher.getLiteralPrefix("a|b"));
+        Assert.assertEquals("", PatternMatcher.getLiteralPrefix(""));
+        Assert.assertEquals("metric", PatternMatcher.getLiteralPrefix("metric"));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the ServiceManifestDatabase class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class ServiceManifestDatabaseTest {
+
+    @Test
+    public void testFindClassesWithInterface() {
+        final InterfaceDatabase db = ServiceManifestDatabase.newInstance();
+        final Set<Class<? extends TestInterface>> classes = db.findClassesWithInterface(TestInterface.class);
+        Assert.assertNotNull(classes);
+        Assert.assertEquals(2, classes.size());
+        Assert.assertTrue(classes.contains(TestClassImplementsInterface.class));
+        Assert.assertTrue(classes.contains(TestSubClassClass.class));
+    }
+
+    @Test
+    public void testFindClassesWithInterfaceNoMatches() {
+        final InterfaceDatabase db = ServiceManifestDatabase.newInstance();
+        final Set<Class<? extends TestUnusedInterface>> classes = db.findClassesWithInterface(TestUnusedInterface.class);
+        Assert.assertNotNull(classes);
+        Assert.assertTrue(classes.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindClassesWithInterfaceNonInterface() {
+        final InterfaceDatabase db = ServiceManifestDatabase.newInstance();
+        db.findClassesWithInterface(TestClassImplementsInterface.class);
+    }
+
+    @Test
+    public void testFindClassesWithInterfaceSkipsInvalidEntries() {
+        // NOTE: The manifest also lists a class not implementing the interface and a class that does not exist
+        final InterfaceDatabase db = ServiceManifestDatabase.newInstance();
+        final Set<Class<? extends TestInvalidInterface>> classes = db.findClassesWithInterface(TestInvalidInterface.class);
+        Assert.assertNotNull(classes);
+        Assert.assertEquals(1, classes.size());
+        Assert.assertTrue(classes.contains(TestClassImplementsInvalidInterface.class));
+    }
+
+    @Test
+    public void testStatisticManifest() {
+        // NOTE: Each statistic must be listed in the manifest to be available without classpath scanning
+        final Set<Class<? extends Statistic>> scanned = ReflectionsDatabase.newInstance()
+                .findClassesWithInterface(Statistic.class)
+                .stream()
+                .filter(clazz -> !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()))
+                .filter(clazz -> clazz.getName().startsWith("com.arpnetworking.tsdcore.statistics."))
+                .collect(Collectors.toSet());
+        final Set<Class<? extends Statistic>> listed = ServiceManifestDatabase.newInstance()
+                .findClassesWithInterface(Statistic.class);
+        Assert.assertEquals(scanned, listed);
+    }
+
+    private interface TestInterface {}
+
+    private interface TestUnusedInterface {}
+
+    private interface TestInvalidInterface {}
+
+    private static class TestClassImplementsInterface implements TestInterface {}
+
+    private static class TestSubClassClass extends TestClassImplementsInterface {}
+
+    private static class TestClassImplementsInvalidInterface implements TestInvalidInterface {}
+}
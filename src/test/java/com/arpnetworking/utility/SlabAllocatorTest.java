@@ -0,0 +1,91 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the <code>SlabAllocator</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class SlabAllocatorTest {
+
+    @Test
+    public void testAllocateAndAccess() {
+        final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE_BYTES);
+        final SlabAllocator.Arena arena = allocator.createArena();
+        final long first = arena.allocate(128);
+        final long second = arena.allocate(100);
+        Assert.assertNotEquals(0, first);
+        Assert.assertNotEquals(first, second);
+
+        for (int i = 0; i < 128; ++i) {
+            Assert.assertEquals(0, allocator.get(first, i));
+            Assert.assertEquals(i + 1, allocator.add(first, i, i + 1));
+        }
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals(0, allocator.get(second, i));
+            allocator.add(second, i, -1);
+        }
+        for (int i = 0; i < 128; ++i) {
+            Assert.assertEquals(i + 1, allocator.get(first, i));
+        }
+        Assert.assertEquals(256 * Integer.BYTES, allocator.getUsedBytes());
+        Assert.assertEquals(SLAB_SIZE_BYTES, allocator.getAllocatedBytes());
+    }
+
+    @Test
+    public void testCloseReleasesRegions() {
+        final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE_BYTES);
+        final SlabAllocator.Arena arena = allocator.createArena();
+        final long handle = arena.allocate(64);
+        allocator.add(handle, 7, 42);
+        arena.close();
+        Assert.assertEquals(0, allocator.getUsedBytes());
+
+        // The region is reused and zeroed for the next arena
+        final SlabAllocator.Arena next = allocator.createArena();
+        Assert.assertEquals(handle, next.allocate(64));
+        Assert.assertEquals(0, allocator.get(handle, 7));
+        Assert.assertEquals(SLAB_SIZE_BYTES, allocator.getAllocatedBytes());
+    }
+
+    @Test
+    public void testNewSlab() {
+        final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE_BYTES);
+        final SlabAllocator.Arena arena = allocator.createArena();
+        final int regions = SLAB_SIZE_BYTES / Integer.BYTES / 128;
+        for (int i = 0; i < regions + 1; ++i) {
+            allocator.add(arena.allocate(128), 127, 1);
+        }
+        Assert.assertEquals(2 * SLAB_SIZE_BYTES, allocator.getAllocatedBytes());
+        Assert.assertEquals((regions + 1) * 128 * Integer.BYTES, allocator.getUsedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionTooLarge() {
+        new SlabAllocator(SLAB_SIZE_BYTES).createArena().allocate(SLAB_SIZE_BYTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSlabSize() {
+        new SlabAllocator(SLAB_SIZE_BYTES + 1);
+    }
+
+    private static final int SLAB_SIZE_BYTES = 1 << 12;
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2018 Inscope Metrics, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the <code>TimerWheel</code> class.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void testFiresInDeadlineOrder() {
+        final TimerWheel timerWheel = new TimerWheel("test", START);
+        final List<Long> fired = Lists.newArrayList();
+        final List<Long> deadlines = Arrays.asList(
+                START + 1,
+                START + 63,
+                START + 64,
+                START + 4000,
+                START + 70000,
+                START + (1L << 37),
+                START + 5);
+        for (final long deadline : deadlines) {
+            timerWheel.schedule(deadline, () -> fired.add(deadline));
+        }
+
+        long next = timerWheel.advance(START);
+        Assert.assertTrue(fired.isEmpty());
+        while (next != Long.MAX_VALUE) {
+            // Each event is at or before the next deadline
+            Assert.assertTrue(fired.size() < deadlines.size());
+            next = timerWheel.advance(next);
+        }
+
+        final List<Long> expected = Lists.newArrayList(deadlines);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, fired);
+    }
+
+    @Test
+    public void testAdvancePastDeadlines() {
+        final TimerWheel timerWheel = new TimerWheel("test", START);
+        final List<Long> fired = Lists.newArrayList();
+        timerWheel.schedule(START - 1, () -> fired.add(START - 1));
+        timerWheel.schedule(START + 100, () -> fired.add(START + 100));
+        timerWheel.schedule(START + 200000, () -> fired.add(START + 200000));
+
+        final long next = timerWheel.advance(START);
+        Assert.assertTrue(next > START);
+        Assert.assertTrue(next <= START + 100);
+        Assert.assertEquals(Collections.singletonList(START - 1), fired);
+
+        timerWheel.advance(START + 300000);
+        Assert.assertEquals(Arrays.asList(START - 1, START + 100, START + 200000), fired);
+    }
+
+    @Test
+    public void testCancel() {
+        final TimerWheel timerWheel = new TimerWheel("test", START);
+        final List<Long> fired = Lists.newArrayList();
+        final TimerWheel.Timeout timeout = timerWheel.schedule(START + 10, () -> fired.add(START + 10));
+        timerWheel.schedule(START + 20, () -> fired.add(START + 20));
+        timeout.cancel();
+
+        timerWheel.advance(START + 30);
+        Assert.assertEquals(Collections.singletonList(START + 20), fired);
+    }
+
+    @Test
+    public void testLaunched() throws InterruptedException {
+        final TimerWheel timerWheel = new TimerWheel("test");
+        timerWheel.launch();
+        try {
+            final CountDownLatch latch = new CountDownLatch(2);
+            final long now = System.currentTimeMillis();
+            timerWheel.schedule(now + 50, latch::countDown);
+            timerWheel.schedule(now + 10, latch::countDown);
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            timerWheel.shutdown();
+        }
+    }
+
+    @Test
+    public void testLaunchedWithExternalClock() throws InterruptedException {
+        final AtomicLong clock = new AtomicLong(START);
+        final TimerWheel timerWheel = new TimerWheel("test", clock::get);
+        timerWheel.launch();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            timerWheel.schedule(START + 100, latch::countDown);
+            Assert.assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+
+            // Advancing the clock without a tick may not fire the timer
+            clock.set(START + 100);
+            timerWheel.tick();
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(START + 100, timerWheel.getTime());
+        } finally {
+            timerWheel.shutdown();
+        }
+    }
+
+    private static final long START = 1514764800000L;
+}